@@ -89,7 +89,12 @@ public final class ReadRecordsRequestUsingFilters<T extends Record> extends Read
         return mPageSize;
     }
 
-    /** Returns page token to read the current page of the result. -1 if none available */
+    /**
+     * Returns page token to read the current page of the result. -1 if none available
+     *
+     * <p>Page tokens are values returned by {@link ReadRecordsResponse#getNextPageToken()}, and
+     * can be any long value other than -1, including negative values.
+     */
     public long getPageToken() {
         return mPageToken;
     }
@@ -179,6 +184,9 @@ public final class ReadRecordsRequestUsingFilters<T extends Record> extends Read
         /**
          * Sets page token to read the requested page of the result.
          *
+         * <p>Page tokens should only be taken from {@link ReadRecordsResponse#getNextPageToken()}.
+         * They can be any long value other than -1, including negative values.
+         *
          * @param pageToken to read the requested page of the result. -1 if none available
          */
         @NonNull
@@ -49,6 +49,9 @@ public class ReadRecordsResponse<T extends Record> {
     /**
      * Returns a page token to read the next page of the result. -1 if there are no more pages
      * available.
+     *
+     * <p>Other values, which can be negative, are only meant to be passed to {@link
+     * ReadRecordsRequestUsingFilters.Builder#setPageToken(long)}.
      */
     public long getNextPageToken() {
         return mNextPageToken;
@@ -43,10 +43,11 @@ public final class AccessLogsResponseParcel implements Parcelable {
 
     private final List<AccessLog> mAccessLogsList;
 
-    private AccessLogsResponseParcel(@NonNull Parcel in) {
-        in = ParcelUtils.getParcelForSharedMemoryIfRequired(in);
+    private AccessLogsResponseParcel(@NonNull Parcel parcel) {
+        Parcel in = ParcelUtils.getParcelForSharedMemoryIfRequired(parcel);
         mAccessLogsList = new ArrayList<>();
         in.readParcelableList(mAccessLogsList, AccessLog.class.getClassLoader(), AccessLog.class);
+        ParcelUtils.recycleIfCopied(parcel, in);
     }
 
     public AccessLogsResponseParcel(@NonNull List<AccessLog> accessLogs) {
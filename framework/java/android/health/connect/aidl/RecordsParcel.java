@@ -25,7 +25,6 @@ import android.health.connect.internal.datatypes.utils.ParcelRecordConverter;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -58,8 +57,8 @@ public class RecordsParcel implements Parcelable {
         mRecordInternals = recordInternals;
     }
 
-    private RecordsParcel(@NonNull Parcel in) {
-        in = ParcelUtils.getParcelForSharedMemoryIfRequired(in);
+    private RecordsParcel(@NonNull Parcel parcel) {
+        Parcel in = ParcelUtils.getParcelForSharedMemoryIfRequired(parcel);
         int size = in.readInt();
         mRecordInternals = new ArrayList<>(size);
         mRecordsSize = new ArrayList<>(size);
@@ -67,18 +66,12 @@ public class RecordsParcel implements Parcelable {
         mRecordsChunkSize = remainingParcelSize;
         for (int i = 0; i < size; i++) {
             int identifier = in.readInt();
-            try {
-                mRecordInternals.add(ParcelRecordConverter.getInstance().getRecord(in, identifier));
-                // Calculating record size based on before and after values of parcel size.
-                mRecordsSize.add(remainingParcelSize - in.dataAvail());
-                remainingParcelSize = in.dataAvail();
-            } catch (InstantiationException
-                     | IllegalAccessException
-                     | NoSuchMethodException
-                     | InvocationTargetException e) {
-                throw new IllegalArgumentException();
-            }
+            mRecordInternals.add(ParcelRecordConverter.getInstance().getRecord(in, identifier));
+            // Calculating record size based on before and after values of parcel size.
+            mRecordsSize.add(remainingParcelSize - in.dataAvail());
+            remainingParcelSize = in.dataAvail();
         }
+        ParcelUtils.recycleIfCopied(parcel, in);
     }
 
     @Override
@@ -18,13 +18,12 @@ package android.health.connect.datatypes;
 import android.annotation.NonNull;
 import android.health.connect.datatypes.validation.ValidationUtils;
 import android.health.connect.internal.datatypes.CyclingPedalingCadenceRecordInternal;
+import android.health.connect.internal.datatypes.SeriesSamples;
 
 import java.time.Instant;
 import java.time.ZoneOffset;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 
 /** Captures the user's cycling pedaling cadence. */
 @Identifier(recordIdentifier = RecordTypeIdentifier.RECORD_TYPE_CYCLING_PEDALING_CADENCE)
@@ -292,17 +291,13 @@ public final class CyclingPedalingCadenceRecord extends IntervalRecord {
                                 .setModel(getMetadata().getDevice().getModel())
                                 .setDeviceType(getMetadata().getDevice().getType())
                                 .setRecordingMethod(getMetadata().getRecordingMethod());
-        Set<CyclingPedalingCadenceRecordInternal.CyclingPedalingCadenceRecordSample> samples =
-                new HashSet<>(getSamples().size());
-
-        for (CyclingPedalingCadenceRecord.CyclingPedalingCadenceRecordSample
-                cyclingPedalingCadenceRecordSample : getSamples()) {
-            samples.add(
-                    new CyclingPedalingCadenceRecordInternal.CyclingPedalingCadenceRecordSample(
-                            cyclingPedalingCadenceRecordSample.getRevolutionsPerMinute(),
-                            cyclingPedalingCadenceRecordSample.getTime().toEpochMilli()));
+        SeriesSamples.Builder samples = new SeriesSamples.Builder(getSamples().size());
+        for (CyclingPedalingCadenceRecordSample cyclingPedalingCadenceRecordSample : getSamples()) {
+            samples.addSample(
+                    cyclingPedalingCadenceRecordSample.getTime().toEpochMilli(),
+                    cyclingPedalingCadenceRecordSample.getRevolutionsPerMinute());
         }
-        recordInternal.setSamples(samples);
+        recordInternal.setSamples(samples.build());
         recordInternal.setStartTime(getStartTime().toEpochMilli());
         recordInternal.setEndTime(getEndTime().toEpochMilli());
         recordInternal.setStartZoneOffset(getStartZoneOffset().getTotalSeconds());
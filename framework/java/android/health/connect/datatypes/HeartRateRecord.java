@@ -22,13 +22,12 @@ import android.annotation.NonNull;
 import android.health.connect.HealthConnectManager;
 import android.health.connect.datatypes.validation.ValidationUtils;
 import android.health.connect.internal.datatypes.HeartRateRecordInternal;
+import android.health.connect.internal.datatypes.SeriesSamples;
 
 import java.time.Instant;
 import java.time.ZoneOffset;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 
 /** Captures the user's heart rate. Each record represents a series of measurements. */
 @Identifier(recordIdentifier = RecordTypeIdentifier.RECORD_TYPE_HEART_RATE)
@@ -339,15 +338,12 @@ public final class HeartRateRecord extends IntervalRecord {
                                 .setModel(getMetadata().getDevice().getModel())
                                 .setDeviceType(getMetadata().getDevice().getType())
                                 .setRecordingMethod(getMetadata().getRecordingMethod());
-        Set<HeartRateRecordInternal.HeartRateSample> samples = new HashSet<>(getSamples().size());
-
-        for (HeartRateRecord.HeartRateSample heartRateSample : getSamples()) {
-            samples.add(
-                    new HeartRateRecordInternal.HeartRateSample(
-                            (int) heartRateSample.getBeatsPerMinute(),
-                            heartRateSample.getTime().toEpochMilli()));
+        SeriesSamples.Builder samples = new SeriesSamples.Builder(getSamples().size());
+        for (HeartRateSample heartRateSample : getSamples()) {
+            samples.addSample(
+                    heartRateSample.getTime().toEpochMilli(), heartRateSample.getBeatsPerMinute());
         }
-        recordInternal.setSamples(samples);
+        recordInternal.setSamples(samples.build());
         recordInternal.setStartTime(getStartTime().toEpochMilli());
         recordInternal.setEndTime(getEndTime().toEpochMilli());
         recordInternal.setStartZoneOffset(getStartZoneOffset().getTotalSeconds());
@@ -22,13 +22,12 @@ import android.health.connect.HealthConnectManager;
 import android.health.connect.datatypes.units.Power;
 import android.health.connect.datatypes.validation.ValidationUtils;
 import android.health.connect.internal.datatypes.PowerRecordInternal;
+import android.health.connect.internal.datatypes.SeriesSamples;
 
 import java.time.Instant;
 import java.time.ZoneOffset;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 
 /** Captures the power generated by the user, e.g. during cycling or rowing with a power meter. */
 @Identifier(recordIdentifier = RECORD_TYPE_POWER)
@@ -320,15 +319,13 @@ public final class PowerRecord extends IntervalRecord {
                                 .setModel(getMetadata().getDevice().getModel())
                                 .setDeviceType(getMetadata().getDevice().getType())
                                 .setRecordingMethod(getMetadata().getRecordingMethod());
-        Set<PowerRecordInternal.PowerRecordSample> samples = new HashSet<>(getSamples().size());
-
-        for (PowerRecord.PowerRecordSample powerRecordSample : getSamples()) {
-            samples.add(
-                    new PowerRecordInternal.PowerRecordSample(
-                            powerRecordSample.getPower().getInWatts(),
-                            powerRecordSample.getTime().toEpochMilli()));
+        SeriesSamples.Builder samples = new SeriesSamples.Builder(getSamples().size());
+        for (PowerRecordSample powerRecordSample : getSamples()) {
+            samples.addSample(
+                    powerRecordSample.getTime().toEpochMilli(),
+                    powerRecordSample.getPower().getInWatts());
         }
-        recordInternal.setSamples(samples);
+        recordInternal.setSamples(samples.build());
         recordInternal.setStartTime(getStartTime().toEpochMilli());
         recordInternal.setEndTime(getEndTime().toEpochMilli());
         recordInternal.setStartZoneOffset(getStartZoneOffset().getTotalSeconds());
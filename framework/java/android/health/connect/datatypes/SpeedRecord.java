@@ -18,14 +18,13 @@ package android.health.connect.datatypes;
 import android.annotation.NonNull;
 import android.health.connect.datatypes.units.Velocity;
 import android.health.connect.datatypes.validation.ValidationUtils;
+import android.health.connect.internal.datatypes.SeriesSamples;
 import android.health.connect.internal.datatypes.SpeedRecordInternal;
 
 import java.time.Instant;
 import java.time.ZoneOffset;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 
 /** Captures the user's speed, e.g. during running or cycling. */
 @Identifier(recordIdentifier = RecordTypeIdentifier.RECORD_TYPE_SPEED)
@@ -288,15 +287,13 @@ public final class SpeedRecord extends IntervalRecord {
                                 .setModel(getMetadata().getDevice().getModel())
                                 .setDeviceType(getMetadata().getDevice().getType())
                                 .setRecordingMethod(getMetadata().getRecordingMethod());
-        Set<SpeedRecordInternal.SpeedRecordSample> samples = new HashSet<>(getSamples().size());
-
-        for (SpeedRecord.SpeedRecordSample speedRecordSample : getSamples()) {
-            samples.add(
-                    new SpeedRecordInternal.SpeedRecordSample(
-                            speedRecordSample.getSpeed().getInMetersPerSecond(),
-                            speedRecordSample.getTime().toEpochMilli()));
+        SeriesSamples.Builder samples = new SeriesSamples.Builder(getSamples().size());
+        for (SpeedRecordSample speedRecordSample : getSamples()) {
+            samples.addSample(
+                    speedRecordSample.getTime().toEpochMilli(),
+                    speedRecordSample.getSpeed().getInMetersPerSecond());
         }
-        recordInternal.setSamples(samples);
+        recordInternal.setSamples(samples.build());
         recordInternal.setStartTime(getStartTime().toEpochMilli());
         recordInternal.setEndTime(getEndTime().toEpochMilli());
         recordInternal.setStartZoneOffset(getStartZoneOffset().getTotalSeconds());
@@ -17,14 +17,13 @@ package android.health.connect.datatypes;
 
 import android.annotation.NonNull;
 import android.health.connect.datatypes.validation.ValidationUtils;
+import android.health.connect.internal.datatypes.SeriesSamples;
 import android.health.connect.internal.datatypes.StepsCadenceRecordInternal;
 
 import java.time.Instant;
 import java.time.ZoneOffset;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 
 /** Captures the user's steps cadence. */
 @Identifier(recordIdentifier = RecordTypeIdentifier.RECORD_TYPE_STEPS_CADENCE)
@@ -282,16 +281,13 @@ public final class StepsCadenceRecord extends IntervalRecord {
                                 .setModel(getMetadata().getDevice().getModel())
                                 .setDeviceType(getMetadata().getDevice().getType())
                                 .setRecordingMethod(getMetadata().getRecordingMethod());
-        Set<StepsCadenceRecordInternal.StepsCadenceRecordSample> samples =
-                new HashSet<>(getSamples().size());
-
-        for (StepsCadenceRecord.StepsCadenceRecordSample stepsCadenceRecordSample : getSamples()) {
-            samples.add(
-                    new StepsCadenceRecordInternal.StepsCadenceRecordSample(
-                            stepsCadenceRecordSample.getRate(),
-                            stepsCadenceRecordSample.getTime().toEpochMilli()));
+        SeriesSamples.Builder samples = new SeriesSamples.Builder(getSamples().size());
+        for (StepsCadenceRecordSample stepsCadenceRecordSample : getSamples()) {
+            samples.addSample(
+                    stepsCadenceRecordSample.getTime().toEpochMilli(),
+                    stepsCadenceRecordSample.getRate());
         }
-        recordInternal.setSamples(samples);
+        recordInternal.setSamples(samples.build());
         recordInternal.setStartTime(getStartTime().toEpochMilli());
         recordInternal.setEndTime(getEndTime().toEpochMilli());
         recordInternal.setStartZoneOffset(getStartZoneOffset().getTotalSeconds());
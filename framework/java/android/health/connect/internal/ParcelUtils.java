@@ -45,9 +45,14 @@ public final class ParcelUtils {
             try (SharedMemory memory = SharedMemory.CREATOR.createFromParcel(in)) {
                 Parcel dataParcel = Parcel.obtain();
                 ByteBuffer buffer = memory.mapReadOnly();
-                byte[] payload = new byte[buffer.limit()];
-                buffer.get(payload);
-                dataParcel.unmarshall(payload, 0, payload.length);
+                try {
+                    byte[] payload = new byte[buffer.limit()];
+                    buffer.get(payload);
+                    dataParcel.unmarshall(payload, 0, payload.length);
+                } finally {
+                    // Don't keep the mapping alive until the buffer is garbage collected.
+                    SharedMemory.unmap(buffer);
+                }
                 dataParcel.setDataPosition(0);
                 return dataParcel;
             } catch (ErrnoException e) {
@@ -62,17 +67,34 @@ public final class ParcelUtils {
             SharedMemory sharedMemory =
                     SharedMemory.create("RecordsParcelSharedMemory", dataParcelSize);
             ByteBuffer buffer = sharedMemory.mapReadWrite();
-            byte[] data = dataParcel.marshall();
-            buffer.put(data, 0, dataParcelSize);
+            try {
+                byte[] data = dataParcel.marshall();
+                buffer.put(data, 0, dataParcelSize);
+            } finally {
+                SharedMemory.unmap(buffer);
+            }
             return sharedMemory;
         } catch (ErrnoException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Recycles {@code dataParcel} if it was created by {@link #getParcelForSharedMemoryIfRequired}
+     * to hold the contents of a shared memory, i.e. if it isn't the {@code in} parcel itself.
+     */
+    public static void recycleIfCopied(@NonNull Parcel in, @NonNull Parcel dataParcel) {
+        if (dataParcel != in) {
+            dataParcel.recycle();
+        }
+    }
+
     /**
      * Determines which memory to use and puts the {@code parcel} in it, and details of it in {@code
      * dest}
+     *
+     * <p>The payload is serialized only once: small payloads are appended to {@code dest} as raw
+     * bytes, large ones are copied into shared memory.
      */
     public static void putToRequiredMemory(
             Parcel dest, int flags, IPutToParcelRunnable parcelRunnable) {
@@ -87,7 +109,7 @@ public final class ParcelUtils {
                 sharedMemory.writeToParcel(dest, flags);
             } else {
                 dest.writeInt(USING_PARCEL);
-                parcelRunnable.writeToParcel(dest);
+                dest.appendFrom(dataParcel, 0, dataParcelSize);
             }
         } finally {
             dataParcel.recycle();
@@ -17,18 +17,13 @@
 package android.health.connect.internal.datatypes;
 
 import android.annotation.NonNull;
-import android.annotation.Nullable;
 import android.health.connect.datatypes.HeartRateRecord;
 import android.health.connect.datatypes.Identifier;
 import android.health.connect.datatypes.RecordTypeIdentifier;
-import android.os.Parcel;
 
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
-import java.util.Set;
 
 /**
  * @see HeartRateRecord
@@ -37,51 +32,9 @@ import java.util.Set;
 @Identifier(recordIdentifier = RecordTypeIdentifier.RECORD_TYPE_HEART_RATE)
 public class HeartRateRecordInternal
         extends SeriesRecordInternal<HeartRateRecord, HeartRateRecord.HeartRateSample> {
-    public static final class HeartRateSample implements Sample {
-        private final int mBeatsPerMinute;
-        private final long mEpochMillis;
-
-        public HeartRateSample(int beatsPerMinute, long epochMillis) {
-            mBeatsPerMinute = beatsPerMinute;
-            mEpochMillis = epochMillis;
-        }
-
-        public int getBeatsPerMinute() {
-            return mBeatsPerMinute;
-        }
-
-        public long getEpochMillis() {
-            return mEpochMillis;
-        }
-
-        @Override
-        public boolean equals(@NonNull Object object) {
-            if (super.equals(object) && object instanceof HeartRateRecordInternal.HeartRateSample) {
-                HeartRateRecordInternal.HeartRateSample other =
-                        (HeartRateRecordInternal.HeartRateSample) object;
-                return getEpochMillis() == other.getEpochMillis();
-            }
-            return false;
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(getEpochMillis());
-        }
-    }
-
-    private Set<HeartRateSample> mHeartRateHeartRateSamples;
-
     @Override
-    @Nullable
-    public Set<HeartRateSample> getSamples() {
-        return mHeartRateHeartRateSamples;
-    }
-
-    @Override
-    public HeartRateRecordInternal setSamples(Set<? extends Sample> samples) {
-        this.mHeartRateHeartRateSamples = (Set<HeartRateSample>) samples;
-        return this;
+    boolean hasIntegerSampleValues() {
+        return true;
     }
 
     @Override
@@ -94,37 +47,16 @@ public class HeartRateRecordInternal
                 .buildWithoutValidation();
     }
 
-    @Override
-    void populateIntervalRecordFrom(@NonNull Parcel parcel) {
-        int size = parcel.readInt();
-        mHeartRateHeartRateSamples = new HashSet<>(size);
-        for (int i = 0; i < size; i++) {
-            mHeartRateHeartRateSamples.add(
-                    new HeartRateSample(parcel.readInt(), parcel.readLong()));
-        }
-    }
-
-    @Override
-    void populateIntervalRecordTo(@NonNull Parcel parcel) {
-        parcel.writeInt(mHeartRateHeartRateSamples.size());
-        for (HeartRateSample heartRateSample : mHeartRateHeartRateSamples) {
-            parcel.writeInt(heartRateSample.getBeatsPerMinute());
-            parcel.writeLong(heartRateSample.getEpochMillis());
-        }
-    }
-
     private List<HeartRateRecord.HeartRateSample> getExternalSamples() {
-        List<HeartRateRecord.HeartRateSample> heartRateRecords =
-                new ArrayList<>(mHeartRateHeartRateSamples.size());
-
-        for (HeartRateSample heartRateSample : mHeartRateHeartRateSamples) {
-            heartRateRecords.add(
+        SeriesSamples samples = getSamples();
+        List<HeartRateRecord.HeartRateSample> externalSamples = new ArrayList<>(samples.size());
+        for (int i = 0; i < samples.size(); i++) {
+            externalSamples.add(
                     new HeartRateRecord.HeartRateSample(
-                            heartRateSample.getBeatsPerMinute(),
-                            Instant.ofEpochMilli(heartRateSample.getEpochMillis()),
+                            (long) samples.getValue(i),
+                            Instant.ofEpochMilli(samples.getEpochMillis(i)),
                             true));
         }
-
-        return heartRateRecords;
+        return externalSamples;
     }
 }
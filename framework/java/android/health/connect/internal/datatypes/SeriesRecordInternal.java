@@ -18,8 +18,9 @@ package android.health.connect.internal.datatypes;
 
 import android.annotation.NonNull;
 import android.health.connect.datatypes.IntervalRecord;
+import android.os.Parcel;
 
-import java.util.Set;
+import java.util.Objects;
 
 /**
  * Parent class for all the Series type records.
@@ -30,12 +31,32 @@ import java.util.Set;
  */
 public abstract class SeriesRecordInternal<T extends IntervalRecord, U>
         extends IntervalRecordInternal<T> {
+    private SeriesSamples mSamples = SeriesSamples.EMPTY;
+
     @NonNull
-    public abstract Set<? extends Sample> getSamples();
+    public SeriesSamples getSamples() {
+        return mSamples;
+    }
 
     @NonNull
-    public abstract SeriesRecordInternal setSamples(Set<? extends Sample> samples);
+    public SeriesRecordInternal<T, U> setSamples(@NonNull SeriesSamples samples) {
+        Objects.requireNonNull(samples);
+        mSamples = samples;
+        return this;
+    }
+
+    /** Returns whether sample values are whole numbers, which are written to parcels as ints. */
+    boolean hasIntegerSampleValues() {
+        return false;
+    }
+
+    @Override
+    final void populateIntervalRecordFrom(@NonNull Parcel parcel) {
+        mSamples = SeriesSamples.readFromParcel(parcel, hasIntegerSampleValues());
+    }
 
-    /** Base class for the series data stored in {@link SeriesRecordInternal} types */
-    public interface Sample {}
+    @Override
+    final void populateIntervalRecordTo(@NonNull Parcel parcel) {
+        mSamples.writeToParcel(parcel, hasIntegerSampleValues());
+    }
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.health.connect.internal.datatypes;
+
+import android.annotation.NonNull;
+import android.os.Parcel;
+
+import java.util.Arrays;
+
+/**
+ * Samples of a {@link SeriesRecordInternal}, stored column by column: the epoch millis of all
+ * samples in one array and their values in another, ordered by time. Samples with the same time
+ * are all kept, in the order they were added.
+ *
+ * <p>Series records can hold tens of thousands of samples, so they are kept as primitives rather
+ * than one object per sample. Whole number values (e.g. heart rate) are stored as doubles, which
+ * represent them exactly.
+ *
+ * @hide
+ */
+public final class SeriesSamples {
+    public static final SeriesSamples EMPTY = new SeriesSamples(new long[0], new double[0]);
+
+    private final long[] mEpochMillis;
+    private final double[] mValues;
+
+    private SeriesSamples(@NonNull long[] epochMillis, @NonNull double[] values) {
+        mEpochMillis = epochMillis;
+        mValues = values;
+    }
+
+    /** Returns the number of samples. */
+    public int size() {
+        return mEpochMillis.length;
+    }
+
+    /** Returns the time of the sample at {@code index}. */
+    public long getEpochMillis(int index) {
+        return mEpochMillis[index];
+    }
+
+    /** Returns the value of the sample at {@code index}. */
+    public double getValue(int index) {
+        return mValues[index];
+    }
+
+    /**
+     * Writes the samples to {@code parcel} as their count followed by (value, time) pairs. Values
+     * are written as ints if {@code intValues} is set, as doubles otherwise.
+     */
+    public void writeToParcel(@NonNull Parcel parcel, boolean intValues) {
+        parcel.writeInt(mEpochMillis.length);
+        for (int i = 0; i < mEpochMillis.length; i++) {
+            if (intValues) {
+                parcel.writeInt((int) mValues[i]);
+            } else {
+                parcel.writeDouble(mValues[i]);
+            }
+            parcel.writeLong(mEpochMillis[i]);
+        }
+    }
+
+    /** Reads samples written by {@link #writeToParcel}. */
+    @NonNull
+    public static SeriesSamples readFromParcel(@NonNull Parcel parcel, boolean intValues) {
+        int size = parcel.readInt();
+        Builder builder = new Builder(size);
+        for (int i = 0; i < size; i++) {
+            double value = intValues ? parcel.readInt() : parcel.readDouble();
+            builder.addSample(parcel.readLong(), value);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof SeriesSamples)) {
+            return false;
+        }
+        SeriesSamples other = (SeriesSamples) object;
+        return Arrays.equals(mEpochMillis, other.mEpochMillis)
+                && Arrays.equals(mValues, other.mValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(mEpochMillis) + Arrays.hashCode(mValues);
+    }
+
+    /**
+     * Builder for {@link SeriesSamples}. Samples may be added in any order, and samples with the
+     * same time are all kept.
+     */
+    public static final class Builder {
+        private long[] mEpochMillis;
+        private double[] mValues;
+        private int mSize;
+        private boolean mIsSorted = true;
+
+        public Builder() {
+            this(/* expectedSize= */ 16);
+        }
+
+        public Builder(int expectedSize) {
+            mEpochMillis = new long[Math.max(expectedSize, 1)];
+            mValues = new double[mEpochMillis.length];
+        }
+
+        /** Adds a sample. */
+        @NonNull
+        public Builder addSample(long epochMillis, double value) {
+            if (mSize == mEpochMillis.length) {
+                mEpochMillis = Arrays.copyOf(mEpochMillis, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            if (mSize > 0 && mEpochMillis[mSize - 1] > epochMillis) {
+                mIsSorted = false;
+            }
+            mEpochMillis[mSize] = epochMillis;
+            mValues[mSize] = value;
+            mSize++;
+            return this;
+        }
+
+        /**
+         * Returns the samples, ordered by time. Samples with the same time keep the order they were
+         * added in.
+         */
+        @NonNull
+        public SeriesSamples build() {
+            if (mSize == 0) {
+                return EMPTY;
+            }
+            if (mIsSorted) {
+                return new SeriesSamples(
+                        Arrays.copyOf(mEpochMillis, mSize), Arrays.copyOf(mValues, mSize));
+            }
+
+            int[] order = new int[mSize];
+            for (int i = 0; i < mSize; i++) {
+                order[i] = i;
+            }
+            sortStable(order, new int[mSize], 0, mSize);
+
+            long[] epochMillis = new long[mSize];
+            double[] values = new double[mSize];
+            for (int i = 0; i < mSize; i++) {
+                epochMillis[i] = mEpochMillis[order[i]];
+                values[i] = mValues[order[i]];
+            }
+            return new SeriesSamples(epochMillis, values);
+        }
+
+        /** Merge sorts {@code order[from, to)} by time, keeping insertion order for equal times. */
+        private void sortStable(int[] order, int[] buffer, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            sortStable(order, buffer, from, middle);
+            sortStable(order, buffer, middle, to);
+            if (mEpochMillis[order[middle - 1]] <= mEpochMillis[order[middle]]) {
+                return;
+            }
+
+            System.arraycopy(order, from, buffer, from, to - from);
+            int left = from;
+            int right = middle;
+            for (int i = from; i < to; i++) {
+                if (right >= to
+                        || (left < middle
+                                && mEpochMillis[buffer[left]] <= mEpochMillis[buffer[right]])) {
+                    order[i] = buffer[left++];
+                } else {
+                    order[i] = buffer[right++];
+                }
+            }
+        }
+    }
+}
@@ -20,14 +20,10 @@ import android.annotation.NonNull;
 import android.health.connect.datatypes.Identifier;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.datatypes.StepsCadenceRecord;
-import android.os.Parcel;
 
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
-import java.util.Set;
 
 /**
  * @see StepsCadenceRecord
@@ -37,22 +33,6 @@ import java.util.Set;
 public class StepsCadenceRecordInternal
         extends SeriesRecordInternal<
                 StepsCadenceRecord, StepsCadenceRecord.StepsCadenceRecordSample> {
-    private Set<StepsCadenceRecordSample> mStepsCadenceRecordSamples;
-
-    @Override
-    @NonNull
-    public Set<StepsCadenceRecordSample> getSamples() {
-        return mStepsCadenceRecordSamples;
-    }
-
-    @NonNull
-    @Override
-    public StepsCadenceRecordInternal setSamples(Set<? extends Sample> samples) {
-        Objects.requireNonNull(samples);
-        this.mStepsCadenceRecordSamples = (Set<StepsCadenceRecordSample>) samples;
-        return this;
-    }
-
     @Override
     @NonNull
     public StepsCadenceRecord toExternalRecord() {
@@ -63,72 +43,17 @@ public class StepsCadenceRecordInternal
                 .buildWithoutValidation();
     }
 
-    @Override
-    void populateIntervalRecordFrom(@NonNull Parcel parcel) {
-        int size = parcel.readInt();
-        mStepsCadenceRecordSamples = new HashSet<>(size);
-        for (int i = 0; i < size; i++) {
-            mStepsCadenceRecordSamples.add(
-                    new StepsCadenceRecordSample(parcel.readDouble(), parcel.readLong()));
-        }
-    }
-
     private List<StepsCadenceRecord.StepsCadenceRecordSample> getExternalSamples() {
-        List<StepsCadenceRecord.StepsCadenceRecordSample> stepsCadenceRecords =
-                new ArrayList<>(mStepsCadenceRecordSamples.size());
-        for (StepsCadenceRecordSample stepsCadenceRecordSample : mStepsCadenceRecordSamples) {
-            stepsCadenceRecords.add(
+        SeriesSamples samples = getSamples();
+        List<StepsCadenceRecord.StepsCadenceRecordSample> externalSamples =
+                new ArrayList<>(samples.size());
+        for (int i = 0; i < samples.size(); i++) {
+            externalSamples.add(
                     new StepsCadenceRecord.StepsCadenceRecordSample(
-                            stepsCadenceRecordSample.getRate(),
-                            Instant.ofEpochMilli(stepsCadenceRecordSample.getEpochMillis()),
+                            samples.getValue(i),
+                            Instant.ofEpochMilli(samples.getEpochMillis(i)),
                             true));
         }
-        return stepsCadenceRecords;
-    }
-
-    @Override
-    void populateIntervalRecordTo(@NonNull Parcel parcel) {
-        parcel.writeInt(mStepsCadenceRecordSamples.size());
-        for (StepsCadenceRecordSample stepsCadenceRecordSample : mStepsCadenceRecordSamples) {
-            parcel.writeDouble(stepsCadenceRecordSample.getRate());
-            parcel.writeLong(stepsCadenceRecordSample.getEpochMillis());
-        }
-    }
-
-    /**
-     * @see StepsCadenceRecord.StepsCadenceRecordSample
-     */
-    public static final class StepsCadenceRecordSample implements Sample {
-        private final double mRate;
-        private final long mEpochMillis;
-
-        public StepsCadenceRecordSample(double rate, long epochMillis) {
-            mRate = rate;
-            mEpochMillis = epochMillis;
-        }
-
-        public double getRate() {
-            return mRate;
-        }
-
-        public long getEpochMillis() {
-            return mEpochMillis;
-        }
-
-        @Override
-        public boolean equals(@NonNull Object object) {
-            if (super.equals(object)
-                    && object instanceof StepsCadenceRecordInternal.StepsCadenceRecordSample) {
-                StepsCadenceRecordInternal.StepsCadenceRecordSample other =
-                        (StepsCadenceRecordInternal.StepsCadenceRecordSample) object;
-                return getEpochMillis() == other.getEpochMillis();
-            }
-            return false;
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(getEpochMillis());
-        }
+        return externalSamples;
     }
 }
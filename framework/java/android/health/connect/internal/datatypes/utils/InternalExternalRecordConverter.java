@@ -23,11 +23,11 @@ import android.health.connect.datatypes.Record;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.RecordInternal;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * A helper class used to convert internal and external data types.
@@ -37,14 +37,14 @@ import java.util.Objects;
 public final class InternalExternalRecordConverter {
     private static volatile InternalExternalRecordConverter sInternalExternalRecordConverter;
 
-    private final Map<Integer, Class<? extends RecordInternal<?>>>
-            mRecordIdToInternalRecordClassMap;
+    private final Map<Integer, Supplier<? extends RecordInternal<?>>>
+            mRecordIdToInternalRecordSupplierMap;
     private final Map<Integer, Class<? extends Record>> mRecordIdToExternalRecordClassMap;
 
     private InternalExternalRecordConverter() {
         // Add any new data type here to facilitate its conversion.
-        mRecordIdToInternalRecordClassMap =
-                RecordMapper.getInstance().getRecordIdToInternalRecordClassMap();
+        mRecordIdToInternalRecordSupplierMap =
+                RecordMapper.getInstance().getRecordIdToInternalRecordSupplierMap();
         mRecordIdToExternalRecordClassMap =
                 RecordMapper.getInstance().getRecordIdToExternalRecordClassMap();
     }
@@ -61,18 +61,10 @@ public final class InternalExternalRecordConverter {
     /** Returns a new instance of {@link RecordInternal} for the provided {@code type }. */
     @NonNull
     public RecordInternal<?> newInternalRecord(@RecordTypeIdentifier.RecordType int type) {
-        Class<? extends RecordInternal<?>> recordClass =
-                mRecordIdToInternalRecordClassMap.get(type);
-        Objects.requireNonNull(recordClass);
-        RecordInternal<?> recordInternal;
-        try {
-            recordInternal = recordClass.getConstructor().newInstance();
-        } catch (InstantiationException
-                | IllegalAccessException
-                | InvocationTargetException
-                | NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        }
+        Supplier<? extends RecordInternal<?>> recordSupplier =
+                mRecordIdToInternalRecordSupplierMap.get(type);
+        Objects.requireNonNull(recordSupplier);
+        RecordInternal<?> recordInternal = recordSupplier.get();
 
         return recordInternal;
     }
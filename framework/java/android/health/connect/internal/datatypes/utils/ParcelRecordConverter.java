@@ -21,9 +21,9 @@ import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.RecordInternal;
 import android.os.Parcel;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * A helper class used to create {@link RecordInternal} objects using its bundle.
@@ -33,11 +33,11 @@ import java.util.Objects;
 public final class ParcelRecordConverter {
     private static volatile ParcelRecordConverter sParcelRecordConverter = null;
 
-    private final Map<Integer, Class<? extends RecordInternal<?>>> mDataTypeClassMap;
+    private final Map<Integer, Supplier<? extends RecordInternal<?>>> mDataTypeSupplierMap;
 
     private ParcelRecordConverter() {
         // Add any new data type here to facilitate its conversion.
-        mDataTypeClassMap = RecordMapper.getInstance().getRecordIdToInternalRecordClassMap();
+        mDataTypeSupplierMap = RecordMapper.getInstance().getRecordIdToInternalRecordSupplierMap();
     }
 
     @NonNull
@@ -52,12 +52,10 @@ public final class ParcelRecordConverter {
     /** Returns a record for {@code bundle}, assuming it is of type represented by {@code type} */
     @NonNull
     public RecordInternal<?> getRecord(
-            @NonNull Parcel parcel, @RecordTypeIdentifier.RecordType int type)
-            throws InstantiationException, IllegalAccessException, NoSuchMethodException,
-                    InvocationTargetException {
-        Class<? extends RecordInternal<?>> recordClass = mDataTypeClassMap.get(type);
-        Objects.requireNonNull(recordClass);
-        RecordInternal<?> recordInternal = recordClass.getConstructor().newInstance();
+            @NonNull Parcel parcel, @RecordTypeIdentifier.RecordType int type) {
+        Supplier<? extends RecordInternal<?>> recordSupplier = mDataTypeSupplierMap.get(type);
+        Objects.requireNonNull(recordSupplier);
+        RecordInternal<?> recordInternal = recordSupplier.get();
         recordInternal.populateUsing(parcel);
         return recordInternal;
     }
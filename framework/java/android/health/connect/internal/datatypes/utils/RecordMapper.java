@@ -99,6 +99,7 @@ import android.health.connect.internal.datatypes.WheelchairPushesRecordInternal;
 import android.util.ArrayMap;
 
 import java.util.Map;
+import java.util.function.Supplier;
 
 /** @hide */
 public final class RecordMapper {
@@ -106,6 +107,8 @@ public final class RecordMapper {
     private static volatile RecordMapper sRecordMapper;
     private final Map<Integer, Class<? extends RecordInternal<?>>>
             mRecordIdToInternalRecordClassMap;
+    private final Map<Integer, Supplier<? extends RecordInternal<?>>>
+            mRecordIdToInternalRecordSupplierMap;
     private final Map<Integer, Class<? extends Record>> mRecordIdToExternalRecordClassMap;
     private final Map<Class<? extends Record>, Integer> mExternalRecordClassToRecordIdMap;
 
@@ -210,6 +213,103 @@ public final class RecordMapper {
         mRecordIdToInternalRecordClassMap.put(
                 RecordTypeIdentifier.RECORD_TYPE_SLEEP_SESSION, SleepSessionRecordInternal.class);
 
+        // Constructors referenced directly, so that creating a record for every row or parcel
+        // entry doesn't go through reflection.
+        mRecordIdToInternalRecordSupplierMap = new ArrayMap<>(NUM_ENTRIES);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_STEPS, StepsRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_HEART_RATE, HeartRateRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_FLOORS_CLIMBED, FloorsClimbedRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_HYDRATION, HydrationRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_ACTIVE_CALORIES_BURNED,
+                ActiveCaloriesBurnedRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_ELEVATION_GAINED,
+                ElevationGainedRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_WHEELCHAIR_PUSHES,
+                WheelchairPushesRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_TOTAL_CALORIES_BURNED,
+                TotalCaloriesBurnedRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_DISTANCE, DistanceRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_BASAL_METABOLIC_RATE,
+                BasalMetabolicRateRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_CYCLING_PEDALING_CADENCE,
+                CyclingPedalingCadenceRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_POWER, PowerRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_NUTRITION, NutritionRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_SPEED, SpeedRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_STEPS_CADENCE, StepsCadenceRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_BODY_WATER_MASS, BodyWaterMassRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_HEART_RATE_VARIABILITY_RMSSD,
+                HeartRateVariabilityRmssdRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_MENSTRUATION_PERIOD,
+                MenstruationPeriodRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_INTERMENSTRUAL_BLEEDING,
+                IntermenstrualBleedingRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_VO2_MAX, Vo2MaxRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_SEXUAL_ACTIVITY,
+                SexualActivityRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_RESTING_HEART_RATE,
+                RestingHeartRateRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_WEIGHT, WeightRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_OXYGEN_SATURATION,
+                OxygenSaturationRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_RESPIRATORY_RATE,
+                RespiratoryRateRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_BODY_TEMPERATURE,
+                BodyTemperatureRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_BONE_MASS, BoneMassRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_BLOOD_PRESSURE, BloodPressureRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_BODY_FAT, BodyFatRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_BLOOD_GLUCOSE, BloodGlucoseRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_BASAL_BODY_TEMPERATURE,
+                BasalBodyTemperatureRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_OVULATION_TEST, OvulationTestRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_MENSTRUATION_FLOW,
+                MenstruationFlowRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_CERVICAL_MUCUS, CervicalMucusRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_HEIGHT, HeightRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_LEAN_BODY_MASS, LeanBodyMassRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_EXERCISE_SESSION,
+                ExerciseSessionRecordInternal::new);
+        mRecordIdToInternalRecordSupplierMap.put(
+                RecordTypeIdentifier.RECORD_TYPE_SLEEP_SESSION, SleepSessionRecordInternal::new);
+
         mRecordIdToExternalRecordClassMap = new ArrayMap<>(NUM_ENTRIES);
         mRecordIdToExternalRecordClassMap.put(
                 RecordTypeIdentifier.RECORD_TYPE_STEPS, StepsRecord.class);
@@ -320,6 +420,16 @@ public final class RecordMapper {
         return mRecordIdToInternalRecordClassMap;
     }
 
+    /**
+     * Returns a table of factories, keyed by {@link RecordTypeIdentifier.RecordType}, creating new
+     * instances of the corresponding {@link RecordInternal}.
+     */
+    @NonNull
+    public Map<Integer, Supplier<? extends RecordInternal<?>>>
+            getRecordIdToInternalRecordSupplierMap() {
+        return mRecordIdToInternalRecordSupplierMap;
+    }
+
     @NonNull
     public Map<Integer, Class<? extends Record>> getRecordIdToExternalRecordClassMap() {
         return mRecordIdToExternalRecordClassMap;
@@ -43,13 +43,14 @@ public final class MigrationEntityParcel implements Parcelable {
 
     private final List<MigrationEntity> mMigrationEntityList;
 
-    private MigrationEntityParcel(@NonNull Parcel in) {
-        in = ParcelUtils.getParcelForSharedMemoryIfRequired(in);
+    private MigrationEntityParcel(@NonNull Parcel parcel) {
+        Parcel in = ParcelUtils.getParcelForSharedMemoryIfRequired(parcel);
         mMigrationEntityList = new ArrayList<>();
         in.readParcelableList(
                 mMigrationEntityList,
                 MigrationEntity.class.getClassLoader(),
                 MigrationEntity.class);
+        ParcelUtils.recycleIfCopied(parcel, in);
     }
 
     public MigrationEntityParcel(@NonNull List<MigrationEntity> migrationEntities) {
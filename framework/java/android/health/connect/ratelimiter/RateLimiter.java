@@ -18,25 +18,26 @@ package android.health.connect.ratelimiter;
 
 import android.annotation.IntDef;
 import android.health.connect.HealthConnectException;
-
-import com.android.internal.annotations.GuardedBy;
+import android.os.SystemClock;
+import android.util.SparseArray;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Basic rate limiter that assigns a fixed request rate quota. If no quota has previously been noted
  * (e.g. first request scenario), the full quota for each window will be immediately granted.
  *
+ * <p>Each (uid, quota bucket) pair is a token bucket kept as a single theoretical arrival time, the
+ * time at which the bucket will be full again. Spending quota moves it forward by the time it takes
+ * to earn the spent quota back, and is allowed while it stays within one window from now. This
+ * keeps the state of a bucket in one atomic long, so acquiring quota takes no locks and allocates
+ * nothing once a uid has been seen.
+ *
  * @hide
  */
 public final class RateLimiter {
@@ -45,27 +46,47 @@ public final class RateLimiter {
     // The maximum size in bytes of a single record a client can insert in one go.
     public static final String RECORD_SIZE_LIMIT_IN_BYTES = "record_size_limit_in_bytes";
     private static final int DEFAULT_API_CALL_COST = 1;
-    private static final Map<Integer, Map<Integer, Quota>> sUserIdToQuotasMap = new HashMap<>();
+    private static final int QUOTA_BUCKET_COUNT =
+            QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND + 1;
+    private static final long WINDOW_15M_NANOS = Duration.ofMinutes(15).toNanos();
+    private static final long WINDOW_24H_NANOS = Duration.ofHours(24).toNanos();
+
+    private static final int[] READ_FOREGROUND_QUOTA_BUCKETS = {
+        QuotaBucket.QUOTA_BUCKET_READS_PER_15M_FOREGROUND,
+        QuotaBucket.QUOTA_BUCKET_READS_PER_24H_FOREGROUND
+    };
+    private static final int[] READ_BACKGROUND_QUOTA_BUCKETS = {
+        QuotaBucket.QUOTA_BUCKET_READS_PER_15M_BACKGROUND,
+        QuotaBucket.QUOTA_BUCKET_READS_PER_24H_BACKGROUND
+    };
+    private static final int[] WRITE_FOREGROUND_QUOTA_BUCKETS = {
+        QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_FOREGROUND,
+        QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_FOREGROUND
+    };
+    private static final int[] WRITE_BACKGROUND_QUOTA_BUCKETS = {
+        QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_BACKGROUND,
+        QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND
+    };
+
+    private static final Object sLock = new Object();
+
+    // Theoretical arrival times in elapsed realtime nanos per uid, indexed by quota bucket. Only
+    // replaced by a modified copy while holding sLock, so it can be read without the lock.
+    private static volatile SparseArray<AtomicLongArray> sUidToArrivalTimes = new SparseArray<>();
+
+    // Max API call quota per window, indexed by quota bucket, zero if not configured. Only
+    // replaced by a modified copy while holding sLock.
+    private static volatile int[] sMaxApiCallQuotas = new int[QUOTA_BUCKET_COUNT];
 
-    private static final ConcurrentMap<Integer, Integer> sLocks = new ConcurrentHashMap<>();
-    private static final Map<Integer, Float> QUOTA_BUCKET_TO_MAX_API_CALL_QUOTA_MAP =
-            new HashMap<>();
     private static final Map<String, Integer> QUOTA_BUCKET_TO_MAX_MEMORY_QUOTA_MAP =
             new HashMap<>();
-    private static final ReentrantReadWriteLock sLock = new ReentrantReadWriteLock();
 
-    @GuardedBy("sLock")
-    private static boolean sRateLimiterEnabled;
+    private static volatile boolean sRateLimiterEnabled;
 
     public static void tryAcquireApiCallQuota(
             int uid, @QuotaCategory.Type int quotaCategory, boolean isInForeground) {
-        sLock.readLock().lock();
-        try {
-            if (!sRateLimiterEnabled) {
-                return;
-            }
-        } finally {
-            sLock.readLock().unlock();
+        if (!sRateLimiterEnabled) {
+            return;
         }
         if (quotaCategory == QuotaCategory.QUOTA_CATEGORY_UNDEFINED) {
             throw new IllegalArgumentException("Quota category not defined.");
@@ -75,22 +96,15 @@ public final class RateLimiter {
         if (quotaCategory == QuotaCategory.QUOTA_CATEGORY_UNMETERED) {
             return;
         }
-        synchronized (getLockObject(uid)) {
-            spendResourcesIfAvailable(
-                    uid,
-                    getAffectedQuotaBuckets(quotaCategory, isInForeground),
-                    DEFAULT_API_CALL_COST);
-        }
+        spendResourcesIfAvailable(
+                uid,
+                getAffectedQuotaBuckets(quotaCategory, isInForeground),
+                DEFAULT_API_CALL_COST);
     }
 
     public static void checkMaxChunkMemoryUsage(long memoryCost) {
-        sLock.readLock().lock();
-        try {
-            if (!sRateLimiterEnabled) {
-                return;
-            }
-        } finally {
-            sLock.readLock().unlock();
+        if (!sRateLimiterEnabled) {
+            return;
         }
         long memoryLimit = getConfiguredMaxApiMemoryQuota(CHUNK_SIZE_LIMIT_IN_BYTES);
         if (memoryCost > memoryLimit) {
@@ -104,13 +118,8 @@ public final class RateLimiter {
     }
 
     public static void checkMaxRecordMemoryUsage(long memoryCost) {
-        sLock.readLock().lock();
-        try {
-            if (!sRateLimiterEnabled) {
-                return;
-            }
-        } finally {
-            sLock.readLock().unlock();
+        if (!sRateLimiterEnabled) {
+            return;
         }
         long memoryLimit = getConfiguredMaxApiMemoryQuota(RECORD_SIZE_LIMIT_IN_BYTES);
         if (memoryCost > memoryLimit) {
@@ -124,15 +133,19 @@ public final class RateLimiter {
     }
 
     public static void clearCache() {
-        sUserIdToQuotasMap.clear();
+        synchronized (sLock) {
+            sUidToArrivalTimes = new SparseArray<>();
+        }
     }
 
     public static void updateApiCallQuotaMap(
             Map<Integer, Integer> quotaBucketToMaxApiCallQuotaMap) {
-
-        for (Integer key : quotaBucketToMaxApiCallQuotaMap.keySet()) {
-            QUOTA_BUCKET_TO_MAX_API_CALL_QUOTA_MAP.put(
-                    key, (float) quotaBucketToMaxApiCallQuotaMap.get(key));
+        synchronized (sLock) {
+            int[] maxApiCallQuotas = sMaxApiCallQuotas.clone();
+            for (Map.Entry<Integer, Integer> entry : quotaBucketToMaxApiCallQuotaMap.entrySet()) {
+                maxApiCallQuotas[entry.getKey()] = entry.getValue();
+            }
+            sMaxApiCallQuotas = maxApiCallQuotas;
         }
     }
 
@@ -143,110 +156,103 @@ public final class RateLimiter {
     }
 
     public static void updateEnableRateLimiterFlag(boolean enableRateLimiter) {
-        sLock.writeLock().lock();
-        try {
-            sRateLimiterEnabled = enableRateLimiter;
-        } finally {
-            sLock.writeLock().unlock();
-        }
-    }
-
-    private static Object getLockObject(int uid) {
-        sLocks.putIfAbsent(uid, uid);
-        return sLocks.get(uid);
+        sRateLimiterEnabled = enableRateLimiter;
     }
 
-    private static void spendResourcesIfAvailable(int uid, List<Integer> quotaBuckets, int cost) {
-        Map<Integer, Float> quotaBucketToAvailableQuotaMap =
-                quotaBuckets.stream()
-                        .collect(
-                                Collectors.toMap(
-                                        quotaBucket -> quotaBucket,
-                                        quotaBucket ->
-                                                getAvailableQuota(
-                                                        quotaBucket, getQuota(uid, quotaBucket))));
-        for (@QuotaBucket.Type int quotaBucket : quotaBuckets) {
-            hasSufficientQuota(quotaBucketToAvailableQuotaMap.get(quotaBucket), cost, quotaBucket);
-        }
-        for (@QuotaBucket.Type int quotaBucket : quotaBuckets) {
-            spendResources(uid, quotaBucket, quotaBucketToAvailableQuotaMap.get(quotaBucket), cost);
+    private static void spendResourcesIfAvailable(int uid, int[] quotaBuckets, int cost) {
+        AtomicLongArray arrivalTimes = getArrivalTimes(uid);
+        long now = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < quotaBuckets.length; i++) {
+            if (!trySpendResources(arrivalTimes, quotaBuckets[i], now, cost)) {
+                // Give back what was spent in the other buckets, the call is not allowed.
+                for (int j = 0; j < i; j++) {
+                    arrivalTimes.addAndGet(
+                            quotaBuckets[j], -getEmissionIntervalNanos(quotaBuckets[j]) * cost);
+                }
+                throwQuotaExceeded(arrivalTimes, quotaBuckets[i], now, cost);
+            }
         }
     }
 
-    private static void spendResources(
-            int uid, @QuotaBucket.Type int quotaBucket, float availableQuota, int cost) {
-        sUserIdToQuotasMap
-                .get(uid)
-                .put(quotaBucket, new Quota(Instant.now(), availableQuota - cost));
-    }
-
-    private static void hasSufficientQuota(
-            float availableQuota, int cost, @QuotaBucket.Type int quotaBucket) {
-        if (availableQuota < cost) {
-            throw new RateLimiterException(
-                    "API call quota exceeded, availableQuota: "
-                            + availableQuota
-                            + " requested: "
-                            + cost,
-                    quotaBucket,
-                    getConfiguredApiCallMaxQuota(quotaBucket));
+    private static boolean trySpendResources(
+            AtomicLongArray arrivalTimes, @QuotaBucket.Type int quotaBucket, long now, int cost) {
+        long increment = getEmissionIntervalNanos(quotaBucket) * cost;
+        long window = getWindowNanos(quotaBucket);
+        while (true) {
+            long arrivalTime = arrivalTimes.get(quotaBucket);
+            long newArrivalTime = Math.max(arrivalTime, now) + increment;
+            if (newArrivalTime - now > window) {
+                return false;
+            }
+            if (arrivalTimes.compareAndSet(quotaBucket, arrivalTime, newArrivalTime)) {
+                return true;
+            }
         }
     }
 
-    private static float getAvailableQuota(@QuotaBucket.Type int quotaBucket, Quota quota) {
-        Instant lastUpdatedTime = quota.getLastUpdatedTime();
-        Instant currentTime = Instant.now();
-        Duration timeSinceLastQuotaSpend = Duration.between(lastUpdatedTime, currentTime);
-        Duration window = getWindowDuration(quotaBucket);
-        float accumulated =
-                timeSinceLastQuotaSpend.toMillis()
-                        * (getConfiguredApiCallMaxQuota(quotaBucket) / (float) window.toMillis());
-        // Cannot accumulate more than the configured max quota.
-        return Math.min(
-                quota.getRemainingQuota() + accumulated, getConfiguredApiCallMaxQuota(quotaBucket));
+    private static void throwQuotaExceeded(
+            AtomicLongArray arrivalTimes, @QuotaBucket.Type int quotaBucket, long now, int cost) {
+        long timeToFullNanos = Math.max(0, arrivalTimes.get(quotaBucket) - now);
+        float availableQuota =
+                (getWindowNanos(quotaBucket) - timeToFullNanos)
+                        / (float) getEmissionIntervalNanos(quotaBucket);
+        throw new RateLimiterException(
+                "API call quota exceeded, availableQuota: "
+                        + availableQuota
+                        + " requested: "
+                        + cost,
+                quotaBucket,
+                getConfiguredApiCallMaxQuota(quotaBucket));
     }
 
-    private static Quota getQuota(int uid, @QuotaBucket.Type int quotaBucket) {
-        // Handles first request scenario.
-        if (!sUserIdToQuotasMap.containsKey(uid)) {
-            sUserIdToQuotasMap.put(uid, new HashMap<>());
+    private static AtomicLongArray getArrivalTimes(int uid) {
+        AtomicLongArray arrivalTimes = sUidToArrivalTimes.get(uid);
+        if (arrivalTimes != null) {
+            return arrivalTimes;
         }
-        Map<Integer, Quota> packageQuotas = sUserIdToQuotasMap.get(uid);
-        Quota quota = packageQuotas.get(quotaBucket);
-        if (quota == null) {
-            quota = getInitialQuota(quotaBucket);
+        synchronized (sLock) {
+            // Handles first request scenario. A zero arrival time means a full bucket.
+            arrivalTimes = sUidToArrivalTimes.get(uid);
+            if (arrivalTimes == null) {
+                SparseArray<AtomicLongArray> uidToArrivalTimes = sUidToArrivalTimes.clone();
+                arrivalTimes = new AtomicLongArray(QUOTA_BUCKET_COUNT);
+                uidToArrivalTimes.put(uid, arrivalTimes);
+                sUidToArrivalTimes = uidToArrivalTimes;
+            }
+            return arrivalTimes;
         }
-        return quota;
     }
 
-    private static Quota getInitialQuota(@QuotaBucket.Type int bucket) {
-        return new Quota(Instant.now(), getConfiguredApiCallMaxQuota(bucket));
+    // Time it takes to earn back one unit of quota.
+    private static long getEmissionIntervalNanos(@QuotaBucket.Type int quotaBucket) {
+        return getWindowNanos(quotaBucket) / getConfiguredApiCallMaxQuota(quotaBucket);
     }
 
-    private static Duration getWindowDuration(@QuotaBucket.Type int quotaBucket) {
+    private static long getWindowNanos(@QuotaBucket.Type int quotaBucket) {
         switch (quotaBucket) {
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND:
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_FOREGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_24H_BACKGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_24H_FOREGROUND:
-                return Duration.ofHours(24);
+                return WINDOW_24H_NANOS;
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_BACKGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_15M_FOREGROUND:
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_FOREGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_15M_BACKGROUND:
-                return Duration.ofMinutes(15);
+                return WINDOW_15M_NANOS;
             case QuotaBucket.QUOTA_BUCKET_UNDEFINED:
                 throw new IllegalArgumentException("Invalid quota bucket.");
         }
         throw new IllegalArgumentException("Invalid quota bucket.");
     }
 
-    private static float getConfiguredApiCallMaxQuota(@QuotaBucket.Type int quotaBucket) {
-        if (!QUOTA_BUCKET_TO_MAX_API_CALL_QUOTA_MAP.containsKey(quotaBucket)) {
+    private static int getConfiguredApiCallMaxQuota(@QuotaBucket.Type int quotaBucket) {
+        int maxQuota = sMaxApiCallQuotas[quotaBucket];
+        if (maxQuota <= 0) {
             throw new IllegalArgumentException(
                     "Max quota not found for quotaBucket: " + quotaBucket);
         }
-        return QUOTA_BUCKET_TO_MAX_API_CALL_QUOTA_MAP.get(quotaBucket);
+        return maxQuota;
     }
 
     private static int getConfiguredMaxApiMemoryQuota(String quotaBucket) {
@@ -257,29 +263,17 @@ public final class RateLimiter {
         return QUOTA_BUCKET_TO_MAX_MEMORY_QUOTA_MAP.get(quotaBucket);
     }
 
-    private static List<Integer> getAffectedQuotaBuckets(
+    private static int[] getAffectedQuotaBuckets(
             @QuotaCategory.Type int quotaCategory, boolean isInForeground) {
         switch (quotaCategory) {
             case QuotaCategory.QUOTA_CATEGORY_READ:
-                if (isInForeground) {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_15M_FOREGROUND,
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_24H_FOREGROUND);
-                } else {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_15M_BACKGROUND,
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_24H_BACKGROUND);
-                }
+                return isInForeground
+                        ? READ_FOREGROUND_QUOTA_BUCKETS
+                        : READ_BACKGROUND_QUOTA_BUCKETS;
             case QuotaCategory.QUOTA_CATEGORY_WRITE:
-                if (isInForeground) {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_FOREGROUND,
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_FOREGROUND);
-                } else {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_BACKGROUND,
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND);
-                }
+                return isInForeground
+                        ? WRITE_FOREGROUND_QUOTA_BUCKETS
+                        : WRITE_BACKGROUND_QUOTA_BUCKETS;
             case QuotaCategory.QUOTA_CATEGORY_UNDEFINED:
             case QuotaCategory.QUOTA_CATEGORY_UNMETERED:
                 throw new IllegalArgumentException("Invalid quota category.");
@@ -25,6 +25,7 @@ import android.util.ArraySet;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.healthconnect.storage.TransactionManager;
 
 import java.time.Duration;
 import java.util.HashMap;
@@ -109,6 +110,52 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
     public static final String ENABLE_MIGRATION_NOTIFICATIONS_FLAG =
             "enable_migration_notifications";
 
+    @VisibleForTesting
+    public static final String AUTO_DELETE_CHUNK_SIZE_FLAG = "auto_delete_chunk_size";
+
+    @VisibleForTesting
+    public static final String INTERNAL_BACKGROUND_THREAD_POOL_SIZE_FLAG =
+            "internal_background_thread_pool_size";
+
+    @VisibleForTesting
+    public static final String CONTROLLER_THREAD_POOL_SIZE_FLAG = "controller_thread_pool_size";
+
+    @VisibleForTesting
+    public static final String FOREGROUND_READ_THREAD_POOL_SIZE_FLAG =
+            "foreground_read_thread_pool_size";
+
+    @VisibleForTesting
+    public static final String BACKGROUND_READ_THREAD_POOL_SIZE_FLAG =
+            "background_read_thread_pool_size";
+
+    @VisibleForTesting
+    public static final String MAX_CLIENT_TASK_QUEUE_SIZE_FLAG = "max_client_task_queue_size";
+
+    @VisibleForTesting
+    public static final String ENABLE_DATABASE_WAL_FLAG = "enable_database_wal";
+
+    @VisibleForTesting
+    public static final String DATABASE_READ_CONNECTION_POOL_SIZE_FLAG =
+            "database_read_connection_pool_size";
+
+    @VisibleForTesting
+    public static final String DATABASE_WAL_AUTO_CHECKPOINT_PAGES_FLAG =
+            "database_wal_auto_checkpoint_pages";
+
+    private static final Set<String> THREAD_POOL_FLAGS =
+            Set.of(
+                    INTERNAL_BACKGROUND_THREAD_POOL_SIZE_FLAG,
+                    CONTROLLER_THREAD_POOL_SIZE_FLAG,
+                    FOREGROUND_READ_THREAD_POOL_SIZE_FLAG,
+                    BACKGROUND_READ_THREAD_POOL_SIZE_FLAG,
+                    MAX_CLIENT_TASK_QUEUE_SIZE_FLAG);
+
+    private static final Set<String> DATABASE_FLAGS =
+            Set.of(
+                    ENABLE_DATABASE_WAL_FLAG,
+                    DATABASE_READ_CONNECTION_POOL_SIZE_FLAG,
+                    DATABASE_WAL_AUTO_CHECKPOINT_PAGES_FLAG);
+
     private static final boolean SESSION_DATATYPE_DEFAULT_FLAG_VALUE = true;
     private static final boolean EXERCISE_ROUTE_DEFAULT_FLAG_VALUE = true;
     public static final boolean ENABLE_RATE_LIMITER_DEFAULT_FLAG_VALUE = true;
@@ -148,6 +195,10 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
     @VisibleForTesting
     public static final boolean ENABLE_MIGRATION_NOTIFICATIONS_DEFAULT_FLAG_VALUE = true;
 
+    @VisibleForTesting public static final int AUTO_DELETE_CHUNK_SIZE_DEFAULT_FLAG_VALUE = 1000;
+
+    @VisibleForTesting public static final boolean ENABLE_DATABASE_WAL_DEFAULT_FLAG_VALUE = false;
+
     private static HealthConnectDeviceConfigManager sDeviceConfigManager;
     private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
     private static final String HEALTH_FITNESS_NAMESPACE = DeviceConfig.NAMESPACE_HEALTH_FITNESS;
@@ -250,6 +301,13 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
                     ENABLE_MIGRATION_NOTIFICATIONS_FLAG,
                     ENABLE_MIGRATION_NOTIFICATIONS_DEFAULT_FLAG_VALUE);
 
+    @GuardedBy("mLock")
+    private int mAutoDeleteChunkSize =
+            DeviceConfig.getInt(
+                    HEALTH_FITNESS_NAMESPACE,
+                    AUTO_DELETE_CHUNK_SIZE_FLAG,
+                    AUTO_DELETE_CHUNK_SIZE_DEFAULT_FLAG_VALUE);
+
     @NonNull
     @VisibleForTesting(visibility = VisibleForTesting.Visibility.PACKAGE)
     public static void initializeInstance(Context context) {
@@ -286,6 +344,9 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
         sFlagsToTrack.add(ENABLE_PAUSE_STATE_CHANGE_JOBS_FLAG);
         sFlagsToTrack.add(ENABLE_COMPLETE_STATE_CHANGE_JOBS_FLAG);
         sFlagsToTrack.add(ENABLE_MIGRATION_NOTIFICATIONS_FLAG);
+        sFlagsToTrack.add(AUTO_DELETE_CHUNK_SIZE_FLAG);
+        sFlagsToTrack.addAll(THREAD_POOL_FLAGS);
+        sFlagsToTrack.addAll(DATABASE_FLAGS);
     }
 
     /** Returns if operations with exercise route are enabled. */
@@ -447,6 +508,16 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
         }
     }
 
+    /** Returns the maximum number of rows auto delete removes from a table per transaction. */
+    public int getAutoDeleteChunkSize() {
+        mLock.readLock().lock();
+        try {
+            return mAutoDeleteChunkSize;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
     /** Updates rate limiting quota values. */
     public void updateRateLimiterValues() {
         Map<Integer, Integer> quotaBucketToMaxApiCallQuotaMap = new HashMap<>();
@@ -521,6 +592,52 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
         }
     }
 
+    /** Updates the sizes of the thread pools and client task queues of the scheduler. */
+    public void updateThreadPoolValues() {
+        HealthConnectThreadScheduler.updateThreadPoolValues(
+                DeviceConfig.getInt(
+                        HEALTH_FITNESS_NAMESPACE,
+                        INTERNAL_BACKGROUND_THREAD_POOL_SIZE_FLAG,
+                        HealthConnectThreadScheduler.DEFAULT_INTERNAL_BACKGROUND_POOL_SIZE),
+                DeviceConfig.getInt(
+                        HEALTH_FITNESS_NAMESPACE,
+                        CONTROLLER_THREAD_POOL_SIZE_FLAG,
+                        HealthConnectThreadScheduler.DEFAULT_CONTROLLER_POOL_SIZE),
+                DeviceConfig.getInt(
+                        HEALTH_FITNESS_NAMESPACE,
+                        FOREGROUND_READ_THREAD_POOL_SIZE_FLAG,
+                        HealthConnectThreadScheduler.DEFAULT_READ_POOL_SIZE),
+                DeviceConfig.getInt(
+                        HEALTH_FITNESS_NAMESPACE,
+                        BACKGROUND_READ_THREAD_POOL_SIZE_FLAG,
+                        HealthConnectThreadScheduler.DEFAULT_READ_POOL_SIZE),
+                DeviceConfig.getInt(
+                        HEALTH_FITNESS_NAMESPACE,
+                        MAX_CLIENT_TASK_QUEUE_SIZE_FLAG,
+                        HealthConnectThreadScheduler.DEFAULT_MAX_CLIENT_QUEUE_SIZE));
+    }
+
+    /**
+     * Updates whether the database uses write-ahead logging, how often its log is checkpointed and
+     * how many reads can run at once.
+     */
+    public void updateDatabaseValues() {
+        TransactionManager.getInitialisedInstance()
+                .updateDatabaseValues(
+                        DeviceConfig.getBoolean(
+                                HEALTH_FITNESS_NAMESPACE,
+                                ENABLE_DATABASE_WAL_FLAG,
+                                ENABLE_DATABASE_WAL_DEFAULT_FLAG_VALUE),
+                        DeviceConfig.getInt(
+                                HEALTH_FITNESS_NAMESPACE,
+                                DATABASE_READ_CONNECTION_POOL_SIZE_FLAG,
+                                TransactionManager.DEFAULT_READ_CONNECTION_POOL_SIZE),
+                        DeviceConfig.getInt(
+                                HEALTH_FITNESS_NAMESPACE,
+                                DATABASE_WAL_AUTO_CHECKPOINT_PAGES_FLAG,
+                                TransactionManager.DEFAULT_WAL_AUTO_CHECKPOINT_PAGES));
+    }
+
     @Override
     public void onPropertiesChanged(DeviceConfig.Properties properties) {
         if (!properties.getNamespace().equals(HEALTH_FITNESS_NAMESPACE)) {
@@ -530,6 +647,14 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
         Set<String> changedFlags = new ArraySet<>(properties.getKeyset());
         changedFlags.retainAll(sFlagsToTrack);
 
+        if (changedFlags.removeAll(THREAD_POOL_FLAGS)) {
+            updateThreadPoolValues();
+        }
+
+        if (changedFlags.removeAll(DATABASE_FLAGS)) {
+            updateDatabaseValues();
+        }
+
         for (String name : changedFlags) {
             if (name.equals(EXERCISE_ROUTE_FEATURE_FLAG)) {
                 mLock.writeLock().lock();
@@ -681,6 +806,16 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
                 } finally {
                     mLock.writeLock().unlock();
                 }
+            } else if (name.equals(AUTO_DELETE_CHUNK_SIZE_FLAG)) {
+                mLock.writeLock().lock();
+                try {
+                    mAutoDeleteChunkSize =
+                            properties.getInt(
+                                    AUTO_DELETE_CHUNK_SIZE_FLAG,
+                                    AUTO_DELETE_CHUNK_SIZE_DEFAULT_FLAG_VALUE);
+                } finally {
+                    mLock.writeLock().unlock();
+                }
             }
         }
     }
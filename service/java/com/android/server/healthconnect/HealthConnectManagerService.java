@@ -125,8 +125,11 @@ public class HealthConnectManagerService extends SystemService {
         mPermissionPackageChangesOrchestrator.registerBroadcastReceiver(mContext);
         new MigratorPackageChangesReceiver(MigrationStateManager.getInitialisedInstance())
                 .registerBroadcastReceiver(mContext);
+        HealthConnectThreadScheduler.startTrackingUidImportance(mContext);
         publishBinderService(Context.HEALTHCONNECT_SERVICE, mHealthConnectService);
         HealthConnectDeviceConfigManager.getInitialisedInstance().updateRateLimiterValues();
+        HealthConnectDeviceConfigManager.getInitialisedInstance().updateThreadPoolValues();
+        HealthConnectDeviceConfigManager.getInitialisedInstance().updateDatabaseValues();
     }
 
     /**
@@ -243,4 +246,5 @@ public class HealthConnectManagerService extends SystemService {
             return context.createContextAsUser(user, 0);
         }
     }
+    }
 }
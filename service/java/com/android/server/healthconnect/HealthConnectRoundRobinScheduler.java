@@ -17,81 +17,125 @@
 package com.android.server.healthconnect;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.PrintWriter;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * A scheduler class to run the tasks in a Round Robin fashion based on client package names.
+ * A scheduler class to run the tasks fairly across client uids, using deficit round robin.
+ *
+ * <p>Each uid with pending tasks gets {@link #QUANTUM} cost units per round, so a uid sending
+ * expensive tasks gets fewer of them run per round than a uid sending cheap ones. Tasks are added
+ * to lock-free per-uid queues; only picking the next task is serialized.
  *
  * @hide
  */
 public final class HealthConnectRoundRobinScheduler {
+    /** Cost units each uid with pending tasks can spend per round. */
+    @VisibleForTesting static final long QUANTUM = 10;
+
     private static final String TAG = "HealthConnectScheduler";
-    private final ConcurrentSkipListMap<Integer, Queue<Runnable>> mTasks =
-            new ConcurrentSkipListMap<>();
+    private final Map<Integer, UidTasks> mTasks = new ConcurrentHashMap<>();
+    // Uids with pending tasks, in the order they take their turns.
+    private final Queue<UidTasks> mActiveUids = new ConcurrentLinkedQueue<>();
+    private final Map<Integer, LatencyHistogram> mLatencies = new ConcurrentHashMap<>();
+    private final AtomicInteger mPendingTaskCount = new AtomicInteger();
     private final Object mLock = new Object();
 
-    @GuardedBy("mLock")
-    private boolean mPauseScheduler;
+    private volatile boolean mPauseScheduler;
+    private volatile int mMaxPendingTasks = Integer.MAX_VALUE;
 
+    // Whether the uid at the head of mActiveUids already got its quantum for the current turn.
     @GuardedBy("mLock")
-    private Integer mLastKeyUsed;
+    private boolean mTurnStarted;
 
     void resume() {
-        synchronized (mLock) {
-            mPauseScheduler = false;
-        }
+        mPauseScheduler = false;
     }
 
-    void addTask(int uid, Runnable task) {
-        synchronized (mLock) {
-            // If the scheduler is currently paused (this can happen if the platform is doing a user
-            // switch), ignore this request. This most likely means that we won't be able to deliver
-            // the result back anyway.
-            if (mPauseScheduler) {
-                Log.e(TAG, "Unable to schedule task for uid: " + uid);
-                return;
-            }
+    /** Sets the number of tasks that can be pending before new tasks are rejected. */
+    void setMaxPendingTasks(int maxPendingTasks) {
+        mMaxPendingTasks = maxPendingTasks;
+    }
+
+    /**
+     * Adds {@code task} with an estimated {@code cost} to the tasks of {@code uid}. Costs are
+     * estimated by {@link TaskCostEstimator}.
+     *
+     * @throws RejectedExecutionException if the maximum number of tasks is already pending
+     */
+    void addTask(int uid, @NonNull Runnable task, long cost) {
+        // If the scheduler is currently paused (this can happen if the platform is doing a user
+        // switch), ignore this request. This most likely means that we won't be able to deliver
+        // the result back anyway.
+        if (mPauseScheduler) {
+            Log.e(TAG, "Unable to schedule task for uid: " + uid);
+            return;
+        }
 
-            mTasks.putIfAbsent(uid, new LinkedBlockingQueue<>());
-            mTasks.get(uid).add(task);
+        if (mPendingTaskCount.incrementAndGet() > mMaxPendingTasks) {
+            mPendingTaskCount.decrementAndGet();
+            throw new RejectedExecutionException(
+                    "Too many background tasks pending, rejecting task for uid: " + uid);
         }
+
+        UidTasks uidTasks = mTasks.computeIfAbsent(uid, UidTasks::new);
+        uidTasks.mQueue.offer(new Task(task, Math.max(1, cost), SystemClock.uptimeMillis()));
+        uidTasks.activateIfPending(mActiveUids);
     }
 
-    @NonNull
+    /**
+     * Returns the next task to run, or null if no task is pending. Every added task is returned
+     * exactly once.
+     */
+    @Nullable
     Runnable getNextTask() {
         synchronized (mLock) {
-            if (mLastKeyUsed == null) {
-                mLastKeyUsed = mTasks.firstKey();
-            }
-
-            Map.Entry<Integer, Queue<Runnable>> entry = mTasks.higherEntry(mLastKeyUsed);
-            while (entry != null && entry.getValue().isEmpty()) {
-                mTasks.remove(entry.getKey());
-                entry = mTasks.higherEntry(entry.getKey());
-            }
+            UidTasks uidTasks;
+            while ((uidTasks = mActiveUids.peek()) != null) {
+                if (!mTurnStarted) {
+                    uidTasks.mDeficit += QUANTUM;
+                    mTurnStarted = true;
+                }
 
-            if (entry == null) {
-                // Reached the end, no tasks found. Reset to first entry and try again.
-                entry = mTasks.firstEntry();
-                while (entry != null && entry.getValue().isEmpty()) {
-                    mTasks.remove(entry.getKey());
-                    entry = mTasks.higherEntry(entry.getKey());
+                Task task = uidTasks.mQueue.peek();
+                if (task != null && task.mCost <= uidTasks.mDeficit) {
+                    uidTasks.mQueue.poll();
+                    uidTasks.mDeficit -= task.mCost;
+                    mPendingTaskCount.decrementAndGet();
+                    mLatencies
+                            .computeIfAbsent(uidTasks.mUid, uid -> new LatencyHistogram())
+                            .record(SystemClock.uptimeMillis() - task.mAddedTimeMillis);
+                    if (uidTasks.mQueue.isEmpty()) {
+                        endTurn(uidTasks);
+                    }
+                    return task.mRunnable;
                 }
-            }
 
-            if (entry != null) {
-                mLastKeyUsed = entry.getKey();
-                return entry.getValue().poll();
+                if (task == null) {
+                    endTurn(uidTasks);
+                } else {
+                    // Not enough deficit left for the next task, keep it for the next round.
+                    mActiveUids.poll();
+                    mActiveUids.offer(uidTasks);
+                    mTurnStarted = false;
+                }
             }
-
-            throw new InternalError("Task scheduled but none found");
+            return null;
         }
     }
 
@@ -99,6 +143,104 @@ public final class HealthConnectRoundRobinScheduler {
         synchronized (mLock) {
             mPauseScheduler = true;
             mTasks.clear();
+            mActiveUids.clear();
+            mPendingTaskCount.set(0);
+            mTurnStarted = false;
+        }
+    }
+
+    /** Writes per-uid histograms of how long tasks waited before they were picked. */
+    void dump(@NonNull PrintWriter writer) {
+        writer.println("  pending=" + mPendingTaskCount.get());
+        Map<Integer, LatencyHistogram> latencies = new TreeMap<>(mLatencies);
+        for (Map.Entry<Integer, LatencyHistogram> entry : latencies.entrySet()) {
+            writer.println("  uid " + entry.getKey() + " wait ms: " + entry.getValue());
+        }
+    }
+
+    @VisibleForTesting
+    @Nullable
+    LatencyHistogram getLatencyHistogram(int uid) {
+        return mLatencies.get(uid);
+    }
+
+    // Takes uidTasks out of the rotation once its queue is empty. A task added concurrently puts
+    // it back through activateIfPending.
+    @GuardedBy("mLock")
+    private void endTurn(UidTasks uidTasks) {
+        mActiveUids.poll();
+        mTurnStarted = false;
+        uidTasks.mDeficit = 0;
+        uidTasks.mIsActive.set(false);
+        uidTasks.activateIfPending(mActiveUids);
+    }
+
+    private static final class Task {
+        private final Runnable mRunnable;
+        private final long mCost;
+        private final long mAddedTimeMillis;
+
+        private Task(Runnable runnable, long cost, long addedTimeMillis) {
+            mRunnable = runnable;
+            mCost = cost;
+            mAddedTimeMillis = addedTimeMillis;
+        }
+    }
+
+    private static final class UidTasks {
+        private final int mUid;
+        private final Queue<Task> mQueue = new ConcurrentLinkedQueue<>();
+        // Whether this uid is in the rotation of active uids.
+        private final AtomicBoolean mIsActive = new AtomicBoolean();
+        // Only accessed while picking the next task.
+        private long mDeficit;
+
+        private UidTasks(int uid) {
+            mUid = uid;
+        }
+
+        private void activateIfPending(Queue<UidTasks> activeUids) {
+            if (!mQueue.isEmpty() && mIsActive.compareAndSet(false, true)) {
+                activeUids.offer(this);
+            }
+        }
+    }
+
+    /** Counts waiting times in buckets of powers of two milliseconds. */
+    @VisibleForTesting
+    static final class LatencyHistogram {
+        // Bucket i counts times below 2^i ms, the last bucket everything longer.
+        private static final int BUCKET_COUNT = 18;
+        private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+
+        void record(long latencyMillis) {
+            int bucket = 0;
+            while (bucket < BUCKET_COUNT - 1 && latencyMillis >= (1L << bucket)) {
+                bucket++;
+            }
+            mCounts.incrementAndGet(bucket);
+        }
+
+        long getCount(int bucket) {
+            return mCounts.get(bucket);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long count = mCounts.get(i);
+                if (count == 0) {
+                    continue;
+                }
+                if (builder.length() > 0) {
+                    builder.append(", ");
+                }
+                builder.append(i == BUCKET_COUNT - 1 ? ">=" + (1L << (i - 1)) : "<" + (1L << i))
+                        .append(": ")
+                        .append(count);
+            }
+            return builder.toString();
         }
     }
 }
@@ -21,6 +21,7 @@ import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 import static android.health.connect.Constants.DEFAULT_LONG;
 import static android.health.connect.Constants.READ;
 import static android.health.connect.HealthConnectException.ERROR_INTERNAL;
+import static android.health.connect.HealthConnectException.ERROR_RATE_LIMIT_EXCEEDED;
 import static android.health.connect.HealthConnectException.ERROR_SECURITY;
 import static android.health.connect.HealthPermissions.MANAGE_HEALTH_DATA_PERMISSION;
 
@@ -134,6 +135,7 @@ import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ActivityDateHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.AppRecordTypeHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsRequestHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.DeviceInfoHelper;
@@ -146,7 +148,9 @@ import com.android.server.healthconnect.storage.request.ReadTransactionRequest;
 import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
@@ -179,7 +183,6 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
     private static final String TAG_READ = "HealthConnectRead";
     private static final String TAG_GRANT_PERMISSION = "HealthConnectGrantReadPermissions";
     private static final String TAG_READ_PERMISSION = "HealthConnectReadPermission";
-    private static final String TAG_INSERT_SUBTASKS = "HealthConnectInsertSubtasks";
 
     private static final String TAG_DELETE_SUBTASKS = "HealthConnectDeleteSubtasks";
     private static final String TAG_READ_SUBTASKS = "HealthConnectReadSubtasks";
@@ -187,7 +190,6 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
     private static final int TRACE_TAG_READ = TAG_READ.hashCode();
     private static final int TRACE_TAG_GRANT_PERMISSION = TAG_GRANT_PERMISSION.hashCode();
     private static final int TRACE_TAG_READ_PERMISSION = TAG_READ_PERMISSION.hashCode();
-    private static final int TRACE_TAG_INSERT_SUBTASKS = TAG_INSERT_SUBTASKS.hashCode();
     private static final int TRACE_TAG_DELETE_SUBTASKS = TAG_DELETE_SUBTASKS.hashCode();
     private static final int TRACE_TAG_READ_SUBTASKS = TAG_READ_SUBTASKS.hashCode();
 
@@ -342,9 +344,6 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                         List<String> uuids = mTransactionManager.insertAll(insertRequest);
                         tryAndReturnResult(callback, uuids, builder);
 
-                        HealthConnectThreadScheduler.scheduleInternalTask(
-                                () -> postInsertTasks(attributionSource, recordsParcel));
-
                         finishDataDeliveryWriteRecords(recordInternals, attributionSource);
                         logRecordTypeSpecificUpsertMetrics(
                                 recordInternals, attributionSource.getPackageName());
@@ -376,25 +375,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                false);
-    }
-
-    private void postInsertTasks(
-            @NonNull AttributionSource attributionSource, @NonNull RecordsParcel recordsParcel) {
-        Trace.traceBegin(TRACE_TAG_INSERT_SUBTASKS, TAG_INSERT.concat("PostInsertTasks"));
-
-        ActivityDateHelper.getInstance().insertRecordDate(recordsParcel.getRecords());
-        Set<Integer> recordsTypesInsertedSet =
-                recordsParcel.getRecords().stream()
-                        .map(RecordInternal::getRecordType)
-                        .collect(Collectors.toSet());
-        // Update AppInfo table with the record types of records inserted in the request for the
-        // current package.
-        AppInfoHelper.getInstance()
-                .updateAppInfoRecordTypesUsedOnInsert(
-                        recordsTypesInsertedSet, attributionSource.getPackageName());
-
-        Trace.traceEnd(TRACE_TAG_INSERT_SUBTASKS);
+                false,
+                /* isReadTask= */ false,
+                TaskCostEstimator.forRecords(recordsParcel),
+                e -> tryAndThrowException(callback, e, ERROR_RATE_LIMIT_EXCEEDED));
     }
 
     /**
@@ -480,7 +464,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                holdsDataManagementPermission);
+                holdsDataManagementPermission,
+                /* isReadTask= */ true,
+                TaskCostEstimator.forAggregation(request),
+                e -> tryAndThrowException(callback, e, ERROR_RATE_LIMIT_EXCEEDED));
     }
 
     /**
@@ -576,14 +563,6 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                                     request.getRecordIdFiltersParcel() == null
                                             ? readRecordsResponse.second
                                             : DEFAULT_LONG;
-                            if (pageToken != DEFAULT_LONG) {
-                                // pagetoken is used here to store sorting order of the result.
-                                // An even pagetoken indicate ascending and Odd page token indicate
-                                // descending sort order. This detail from page token will be used
-                                // in next read request to have same sort order.
-                                pageToken =
-                                        request.isAscending() ? pageToken * 2 : pageToken * 2 + 1;
-                            }
 
                             if (Constants.DEBUG) {
                                 Slog.d(TAG, "pageToken: " + pageToken);
@@ -668,7 +647,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                holdsDataManagementPermission);
+                holdsDataManagementPermission,
+                /* isReadTask= */ true,
+                TaskCostEstimator.forRead(request),
+                e -> tryAndThrowException(callback, e, ERROR_RATE_LIMIT_EXCEEDED));
     }
 
     /**
@@ -727,14 +709,6 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                         logRecordTypeSpecificUpsertMetrics(
                                 recordInternals, attributionSource.getPackageName());
                         builder.setDataTypesFromRecordInternals(recordInternals);
-                        // Update activity dates table
-                        HealthConnectThreadScheduler.scheduleInternalTask(
-                                () ->
-                                        ActivityDateHelper.getInstance()
-                                                .reSyncByRecordTypeIds(
-                                                        recordInternals.stream()
-                                                                .map(RecordInternal::getRecordType)
-                                                                .toList()));
                     } catch (SecurityException securityException) {
                         builder.setHealthDataServiceApiStatusError(ERROR_SECURITY);
                         tryAndThrowException(callback, securityException, ERROR_SECURITY);
@@ -770,7 +744,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                false);
+                false,
+                /* isReadTask= */ false,
+                TaskCostEstimator.forRecords(recordsParcel),
+                e -> tryAndThrowException(callback, e, ERROR_RATE_LIMIT_EXCEEDED));
     }
 
     /**
@@ -845,7 +822,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                false);
+                false,
+                /* isReadTask= */ false,
+                TaskCostEstimator.DEFAULT_COST,
+                e -> tryAndThrowException(callback, e, ERROR_RATE_LIMIT_EXCEEDED));
     }
 
     /**
@@ -968,7 +948,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                false);
+                false,
+                /* isReadTask= */ true,
+                TaskCostEstimator.DEFAULT_COST,
+                e -> tryAndThrowException(callback, e, ERROR_RATE_LIMIT_EXCEEDED));
     }
 
     /**
@@ -1062,7 +1045,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                holdsDataManagementPermission);
+                holdsDataManagementPermission,
+                /* isReadTask= */ false,
+                TaskCostEstimator.DEFAULT_COST,
+                e -> tryAndThrowException(callback, e, ERROR_RATE_LIMIT_EXCEEDED));
     }
 
     /**
@@ -1142,7 +1128,10 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                holdsDataManagementPermission);
+                holdsDataManagementPermission,
+                /* isReadTask= */ false,
+                TaskCostEstimator.DEFAULT_COST,
+                e -> tryAndThrowException(callback, e, ERROR_RATE_LIMIT_EXCEEDED));
     }
 
     private void deleteUsingFiltersInternal(
@@ -1699,6 +1688,7 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
         mMigrationStateManager.clearCaches(mContext);
         AppInfoHelper.getInstance().clearData(mTransactionManager);
         ActivityDateHelper.getInstance().clearData(mTransactionManager);
+        AppRecordTypeHelper.getInstance().clearData(mTransactionManager);
         MigrationEntityHelper.getInstance().clearData(mTransactionManager);
         HealthDataCategoryPriorityHelper.getInstance().clearData(mTransactionManager);
         PriorityMigrationHelper.getInstance().clearData(mTransactionManager);
@@ -1841,6 +1831,21 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                 });
     }
 
+    /** Dumps the state of the thread pools serving API calls and of the database connections. */
+    @Override
+    protected void dump(
+            @NonNull FileDescriptor fd, @NonNull PrintWriter writer, @Nullable String[] args) {
+        if (mContext.checkCallingOrSelfPermission(Manifest.permission.DUMP)
+                != PERMISSION_GRANTED) {
+            writer.println("Permission Denial: can't dump HealthConnectService");
+            return;
+        }
+        writer.println("Thread pools:");
+        HealthConnectThreadScheduler.dump(writer);
+        writer.println("Database:");
+        mTransactionManager.dump(writer);
+    }
+
     // Cancel BR timeouts - this might be needed when a user is going into background.
     void cancelBackupRestoreTimeouts() {
         mBackupRestore.cancelAllJobs();
@@ -1903,8 +1908,7 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                 MigrationEntityHelper.getInstance(),
                 RecordHelperProvider.getInstance(),
                 HealthDataCategoryPriorityHelper.getInstance(),
-                PriorityMigrationHelper.getInstance(),
-                ActivityDateHelper.getInstance());
+                PriorityMigrationHelper.getInstance());
     }
 
     private void enforceCallingPackageBelongsToUid(String packageName, int callingUid) {
@@ -2152,7 +2156,6 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
         if (recordTypeIdsToDelete != null && !recordTypeIdsToDelete.isEmpty()) {
             AppInfoHelper.getInstance()
                     .syncAppInfoRecordTypesUsed(new HashSet<>(recordTypeIdsToDelete));
-            ActivityDateHelper.getInstance().reSyncByRecordTypeIds(recordTypeIdsToDelete);
         }
         Trace.traceEnd(TRACE_TAG_DELETE_SUBTASKS);
     }
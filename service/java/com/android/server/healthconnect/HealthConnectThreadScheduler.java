@@ -17,120 +17,173 @@
 package com.android.server.healthconnect;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.util.Slog;
 
 import com.android.internal.annotations.VisibleForTesting;
 
-import java.util.List;
+import java.io.PrintWriter;
 import java.util.Objects;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 /**
  * A scheduler class to schedule task on the most relevant thread-pool.
  *
+ * <p>Client tasks run on separate read and write lanes, so that reads don't wait behind slow
+ * writes. Read lanes may use several threads, write lanes use a single thread to keep writes
+ * serialized.
+ *
  * @hide
  */
 public final class HealthConnectThreadScheduler {
-    private static final int NUM_EXECUTOR_THREADS_INTERNAL_BACKGROUND = 1;
     private static final long KEEP_ALIVE_TIME_INTERNAL_BACKGROUND = 60L;
-    private static final int NUM_EXECUTOR_THREADS_BACKGROUND = 1;
     private static final long KEEP_ALIVE_TIME_BACKGROUND = 60L;
-    private static final int NUM_EXECUTOR_THREADS_FOREGROUND = 1;
     private static final long KEEP_ALIVE_TIME_SHARED = 60L;
-    private static final int NUM_EXECUTOR_THREADS_CONTROLLER = 1;
     private static final long KEEP_ALIVE_TIME_CONTROLLER = 60L;
+    private static final int NUM_EXECUTOR_THREADS_WRITE = 1;
+
+    @VisibleForTesting static final int DEFAULT_INTERNAL_BACKGROUND_POOL_SIZE = 1;
+    @VisibleForTesting static final int DEFAULT_CONTROLLER_POOL_SIZE = 1;
+    @VisibleForTesting static final int DEFAULT_READ_POOL_SIZE = 2;
+    @VisibleForTesting static final int DEFAULT_MAX_CLIENT_QUEUE_SIZE = 1000;
 
-    // Scheduler to run the tasks in a RR fashion based on client package names.
+    // Schedulers to share the background lanes fairly between client uids.
     private static final HealthConnectRoundRobinScheduler
             HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER =
                     new HealthConnectRoundRobinScheduler();
+    private static final HealthConnectRoundRobinScheduler
+            HEALTH_CONNECT_BACKGROUND_READ_ROUND_ROBIN_SCHEDULER =
+                    new HealthConnectRoundRobinScheduler();
     private static final String TAG = "HealthConnectScheduler";
 
-    // Executor to run HC background tasks
+    static {
+        HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.setMaxPendingTasks(
+                DEFAULT_MAX_CLIENT_QUEUE_SIZE);
+        HEALTH_CONNECT_BACKGROUND_READ_ROUND_ROBIN_SCHEDULER.setMaxPendingTasks(
+                DEFAULT_MAX_CLIENT_QUEUE_SIZE);
+    }
+
+    private static volatile int sInternalBackgroundPoolSize = DEFAULT_INTERNAL_BACKGROUND_POOL_SIZE;
+    private static volatile int sControllerPoolSize = DEFAULT_CONTROLLER_POOL_SIZE;
+    private static volatile int sForegroundReadPoolSize = DEFAULT_READ_POOL_SIZE;
+    private static volatile int sBackgroundReadPoolSize = DEFAULT_READ_POOL_SIZE;
+    private static volatile int sMaxClientQueueSize = DEFAULT_MAX_CLIENT_QUEUE_SIZE;
+
+    // Executor to run HC background write tasks
+    @VisibleForTesting
+    static volatile MeteredThreadPoolExecutor sBackgroundThreadExecutor =
+            createBackgroundExecutor();
+    // Executor to run HC background read tasks
     @VisibleForTesting
-    static volatile ThreadPoolExecutor sBackgroundThreadExecutor =
-            new ThreadPoolExecutor(
-                    NUM_EXECUTOR_THREADS_BACKGROUND,
-                    NUM_EXECUTOR_THREADS_BACKGROUND,
-                    KEEP_ALIVE_TIME_BACKGROUND,
-                    TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<>());
+    static volatile MeteredThreadPoolExecutor sBackgroundReadExecutor =
+            createBackgroundReadExecutor();
     // Executor to run HC background tasks
     @VisibleForTesting
-    static volatile ThreadPoolExecutor sInternalBackgroundExecutor =
-            new ThreadPoolExecutor(
-                    NUM_EXECUTOR_THREADS_INTERNAL_BACKGROUND,
-                    NUM_EXECUTOR_THREADS_INTERNAL_BACKGROUND,
-                    KEEP_ALIVE_TIME_INTERNAL_BACKGROUND,
-                    TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<>());
-    // Executor to run HC tasks for clients
+    static volatile MeteredThreadPoolExecutor sInternalBackgroundExecutor =
+            createInternalBackgroundExecutor();
+    // Executor to run HC write tasks for clients
+    @VisibleForTesting
+    static volatile MeteredThreadPoolExecutor sForegroundExecutor = createForegroundExecutor();
+    // Executor to run HC read tasks for clients
     @VisibleForTesting
-    static volatile ThreadPoolExecutor sForegroundExecutor =
-            new ThreadPoolExecutor(
-                    NUM_EXECUTOR_THREADS_FOREGROUND,
-                    NUM_EXECUTOR_THREADS_FOREGROUND,
-                    KEEP_ALIVE_TIME_SHARED,
-                    TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<>());
+    static volatile MeteredThreadPoolExecutor sForegroundReadExecutor =
+            createForegroundReadExecutor();
     // Executor to run HC controller tasks
     @VisibleForTesting
-    static volatile ThreadPoolExecutor sControllerExecutor =
-            new ThreadPoolExecutor(
-                    NUM_EXECUTOR_THREADS_CONTROLLER,
-                    NUM_EXECUTOR_THREADS_CONTROLLER,
-                    KEEP_ALIVE_TIME_CONTROLLER,
-                    TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<>());
+    static volatile MeteredThreadPoolExecutor sControllerExecutor = createControllerExecutor();
+
+    // Foreground state of client uids, null until tracking is started.
+    @Nullable private static volatile UidImportanceCache sUidImportanceCache;
+
+    /**
+     * Starts tracking the importance of uids, so that scheduling a task looks up the foreground
+     * state of its uid instead of scanning the running app processes.
+     */
+    static void startTrackingUidImportance(@NonNull Context context) {
+        if (sUidImportanceCache != null) {
+            return;
+        }
+        ActivityManager activityManager = context.getSystemService(ActivityManager.class);
+        Objects.requireNonNull(activityManager);
+        UidImportanceCache uidImportanceCache = new UidImportanceCache(activityManager);
+        uidImportanceCache.register();
+        sUidImportanceCache = uidImportanceCache;
+    }
+
+    /**
+     * Updates the number of threads of the resizable pools and the number of tasks each client
+     * lane can hold before tasks are rejected. Values below one are ignored.
+     */
+    static void updateThreadPoolValues(
+            int internalBackgroundPoolSize,
+            int controllerPoolSize,
+            int foregroundReadPoolSize,
+            int backgroundReadPoolSize,
+            int maxClientQueueSize) {
+        if (internalBackgroundPoolSize > 0) {
+            sInternalBackgroundPoolSize = internalBackgroundPoolSize;
+            sInternalBackgroundExecutor.setPoolSize(internalBackgroundPoolSize);
+        }
+        if (controllerPoolSize > 0) {
+            sControllerPoolSize = controllerPoolSize;
+            sControllerExecutor.setPoolSize(controllerPoolSize);
+        }
+        if (foregroundReadPoolSize > 0) {
+            sForegroundReadPoolSize = foregroundReadPoolSize;
+            sForegroundReadExecutor.setPoolSize(foregroundReadPoolSize);
+        }
+        if (backgroundReadPoolSize > 0) {
+            sBackgroundReadPoolSize = backgroundReadPoolSize;
+            sBackgroundReadExecutor.setPoolSize(backgroundReadPoolSize);
+        }
+        if (maxClientQueueSize > 0) {
+            sMaxClientQueueSize = maxClientQueueSize;
+            sForegroundExecutor.setMaxQueueSize(maxClientQueueSize);
+            sForegroundReadExecutor.setMaxQueueSize(maxClientQueueSize);
+            HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.setMaxPendingTasks(maxClientQueueSize);
+            HEALTH_CONNECT_BACKGROUND_READ_ROUND_ROBIN_SCHEDULER.setMaxPendingTasks(
+                    maxClientQueueSize);
+        }
+    }
 
     public static void resetThreadPools() {
-        sInternalBackgroundExecutor =
-                new ThreadPoolExecutor(
-                        NUM_EXECUTOR_THREADS_INTERNAL_BACKGROUND,
-                        NUM_EXECUTOR_THREADS_INTERNAL_BACKGROUND,
-                        KEEP_ALIVE_TIME_INTERNAL_BACKGROUND,
-                        TimeUnit.SECONDS,
-                        new LinkedBlockingQueue<>());
-
-        sBackgroundThreadExecutor =
-                new ThreadPoolExecutor(
-                        NUM_EXECUTOR_THREADS_BACKGROUND,
-                        NUM_EXECUTOR_THREADS_BACKGROUND,
-                        KEEP_ALIVE_TIME_BACKGROUND,
-                        TimeUnit.SECONDS,
-                        new LinkedBlockingQueue<>());
-
-        sForegroundExecutor =
-                new ThreadPoolExecutor(
-                        NUM_EXECUTOR_THREADS_FOREGROUND,
-                        NUM_EXECUTOR_THREADS_FOREGROUND,
-                        KEEP_ALIVE_TIME_SHARED,
-                        TimeUnit.SECONDS,
-                        new LinkedBlockingQueue<>());
-
-        sControllerExecutor =
-                new ThreadPoolExecutor(
-                        NUM_EXECUTOR_THREADS_CONTROLLER,
-                        NUM_EXECUTOR_THREADS_CONTROLLER,
-                        KEEP_ALIVE_TIME_CONTROLLER,
-                        TimeUnit.SECONDS,
-                        new LinkedBlockingQueue<>());
+        sInternalBackgroundExecutor = createInternalBackgroundExecutor();
+        sBackgroundThreadExecutor = createBackgroundExecutor();
+        sBackgroundReadExecutor = createBackgroundReadExecutor();
+        sForegroundExecutor = createForegroundExecutor();
+        sForegroundReadExecutor = createForegroundReadExecutor();
+        sControllerExecutor = createControllerExecutor();
         HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.resume();
+        HEALTH_CONNECT_BACKGROUND_READ_ROUND_ROBIN_SCHEDULER.resume();
     }
 
     static void shutdownThreadPools() {
         HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.killTasksAndPauseScheduler();
+        HEALTH_CONNECT_BACKGROUND_READ_ROUND_ROBIN_SCHEDULER.killTasksAndPauseScheduler();
 
         sInternalBackgroundExecutor.shutdownNow();
         sBackgroundThreadExecutor.shutdownNow();
+        sBackgroundReadExecutor.shutdownNow();
         sForegroundExecutor.shutdownNow();
+        sForegroundReadExecutor.shutdownNow();
         sControllerExecutor.shutdownNow();
     }
 
+    /** Writes the queue depth, wait and run times of each pool to {@code writer}. */
+    static void dump(@NonNull PrintWriter writer) {
+        sForegroundReadExecutor.dump(writer);
+        sForegroundExecutor.dump(writer);
+        sBackgroundReadExecutor.dump(writer);
+        HEALTH_CONNECT_BACKGROUND_READ_ROUND_ROBIN_SCHEDULER.dump(writer);
+        sBackgroundThreadExecutor.dump(writer);
+        HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.dump(writer);
+        sControllerExecutor.dump(writer);
+        sInternalBackgroundExecutor.dump(writer);
+    }
+
     /** Schedules the task on the executor dedicated for performing internal tasks */
     public static void scheduleInternalTask(Runnable task) {
         sInternalBackgroundExecutor.execute(getSafeRunnable(task));
@@ -141,15 +194,44 @@ public final class HealthConnectThreadScheduler {
         sControllerExecutor.execute(getSafeRunnable(task));
     }
 
-    /** Schedules the task on the best possible executor based on the parameters */
-    static void schedule(Context context, @NonNull Runnable task, int uid, boolean isController) {
+    /**
+     * Schedules the task on the best possible executor based on the parameters. {@code cost} is
+     * the estimate of {@link TaskCostEstimator} used to share the background lanes fairly between
+     * uids. If the lane the task belongs to already holds the maximum number of tasks, the task
+     * is dropped and {@code onRejected} is called instead.
+     */
+    static void schedule(
+            Context context,
+            @NonNull Runnable task,
+            int uid,
+            boolean isController,
+            boolean isReadTask,
+            long cost,
+            @NonNull Consumer<RejectedExecutionException> onRejected) {
+        try {
+            schedule(context, task, uid, isController, isReadTask, cost);
+        } catch (RejectedExecutionException e) {
+            Slog.w(TAG, "Rejected task for uid: " + uid, e);
+            onRejected.accept(e);
+        }
+    }
+
+    private static void schedule(
+            Context context,
+            @NonNull Runnable task,
+            int uid,
+            boolean isController,
+            boolean isReadTask,
+            long cost) {
         if (isController) {
             sControllerExecutor.execute(getSafeRunnable(task));
             return;
         }
 
         if (isUidInForeground(context, uid)) {
-            sForegroundExecutor.execute(
+            MeteredThreadPoolExecutor foregroundExecutor =
+                    isReadTask ? sForegroundReadExecutor : sForegroundExecutor;
+            foregroundExecutor.execute(
                     getSafeRunnable(
                             () -> {
                                 if (!isUidInForeground(context, uid)) {
@@ -158,45 +240,98 @@ public final class HealthConnectThreadScheduler {
                                     // only be used by the foreground app and since the request of
                                     // this task is no longer in foreground we don't want it to
                                     // consume foreground resource anymore.
-                                    HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.addTask(
-                                            uid, task);
-                                    sBackgroundThreadExecutor.execute(
-                                            () ->
-                                                    HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER
-                                                            .getNextTask()
-                                                            .run());
-                                    return;
+                                    try {
+                                        scheduleInBackground(task, uid, isReadTask, cost);
+                                        return;
+                                    } catch (RejectedExecutionException e) {
+                                        // The task was already accepted, so rather than dropping
+                                        // it run it here when the background lane is full.
+                                        Slog.w(TAG, "Background lane full, running task", e);
+                                    }
                                 }
 
                                 task.run();
                             }));
         } else {
-            HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.addTask(uid, task);
-            sBackgroundThreadExecutor.execute(
-                    getSafeRunnable(
-                            () ->
-                                    HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER
-                                            .getNextTask()
-                                            .run()));
+            scheduleInBackground(task, uid, isReadTask, cost);
         }
     }
 
+    private static void scheduleInBackground(
+            @NonNull Runnable task, int uid, boolean isReadTask, long cost) {
+        HealthConnectRoundRobinScheduler roundRobinScheduler =
+                isReadTask
+                        ? HEALTH_CONNECT_BACKGROUND_READ_ROUND_ROBIN_SCHEDULER
+                        : HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER;
+        MeteredThreadPoolExecutor backgroundExecutor =
+                isReadTask ? sBackgroundReadExecutor : sBackgroundThreadExecutor;
+        roundRobinScheduler.addTask(uid, task, cost);
+        backgroundExecutor.execute(
+                getSafeRunnable(
+                        () -> {
+                            Runnable nextTask = roundRobinScheduler.getNextTask();
+                            if (nextTask != null) {
+                                nextTask.run();
+                            }
+                        }));
+    }
+
     private static boolean isUidInForeground(Context context, int uid) {
+        UidImportanceCache uidImportanceCache = sUidImportanceCache;
+        if (uidImportanceCache != null) {
+            return uidImportanceCache.isUidInForeground(uid);
+        }
+
         ActivityManager activityManager = context.getSystemService(ActivityManager.class);
         Objects.requireNonNull(activityManager);
-        List<ActivityManager.RunningAppProcessInfo> runningAppProcesses =
-                activityManager.getRunningAppProcesses();
-        if (runningAppProcesses == null) {
-            return false;
-        }
-        for (ActivityManager.RunningAppProcessInfo info : runningAppProcesses) {
-            if (info.uid == uid
-                    && info.importance
-                            == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND) {
-                return true;
-            }
-        }
-        return false;
+        return UidImportanceCache.isUidInForeground(activityManager, uid);
+    }
+
+    private static MeteredThreadPoolExecutor createInternalBackgroundExecutor() {
+        return new MeteredThreadPoolExecutor(
+                "internal_background",
+                sInternalBackgroundPoolSize,
+                KEEP_ALIVE_TIME_INTERNAL_BACKGROUND,
+                Integer.MAX_VALUE);
+    }
+
+    private static MeteredThreadPoolExecutor createControllerExecutor() {
+        return new MeteredThreadPoolExecutor(
+                "controller", sControllerPoolSize, KEEP_ALIVE_TIME_CONTROLLER, Integer.MAX_VALUE);
+    }
+
+    private static MeteredThreadPoolExecutor createForegroundExecutor() {
+        return new MeteredThreadPoolExecutor(
+                "foreground_write",
+                NUM_EXECUTOR_THREADS_WRITE,
+                KEEP_ALIVE_TIME_SHARED,
+                sMaxClientQueueSize);
+    }
+
+    private static MeteredThreadPoolExecutor createForegroundReadExecutor() {
+        return new MeteredThreadPoolExecutor(
+                "foreground_read",
+                sForegroundReadPoolSize,
+                KEEP_ALIVE_TIME_SHARED,
+                sMaxClientQueueSize);
+    }
+
+    // The background lanes are bounded by their round robin schedulers, each queued task pulls
+    // exactly one task from them.
+    private static MeteredThreadPoolExecutor createBackgroundExecutor() {
+        return new MeteredThreadPoolExecutor(
+                "background_write",
+                NUM_EXECUTOR_THREADS_WRITE,
+                KEEP_ALIVE_TIME_BACKGROUND,
+                Integer.MAX_VALUE);
+    }
+
+    private static MeteredThreadPoolExecutor createBackgroundReadExecutor() {
+        return new MeteredThreadPoolExecutor(
+                "background_read",
+                sBackgroundReadPoolSize,
+                KEEP_ALIVE_TIME_BACKGROUND,
+                Integer.MAX_VALUE);
     }
 
     // Makes sure that any exceptions don't end up in system_server.
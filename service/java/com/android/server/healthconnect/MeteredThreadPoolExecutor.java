@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import android.annotation.NonNull;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ThreadPoolExecutor} that can be resized at runtime, rejects tasks once its queue holds
+ * a maximum number of tasks, and keeps track of how long tasks wait in the queue and run.
+ *
+ * @hide
+ */
+final class MeteredThreadPoolExecutor extends ThreadPoolExecutor {
+    private final String mName;
+    private volatile int mMaxQueueSize;
+    private final AtomicLong mRejectedTaskCount = new AtomicLong();
+    private final AtomicLong mTotalWaitTimeMillis = new AtomicLong();
+    private final AtomicLong mMaxWaitTimeMillis = new AtomicLong();
+    private final AtomicLong mTotalRunTimeMillis = new AtomicLong();
+    private final AtomicLong mMaxRunTimeMillis = new AtomicLong();
+
+    MeteredThreadPoolExecutor(
+            @NonNull String name, int poolSize, long keepAliveTimeSeconds, int maxQueueSize) {
+        super(
+                poolSize,
+                poolSize,
+                keepAliveTimeSeconds,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        mName = name;
+        mMaxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Executes {@code command} on one of the pool threads.
+     *
+     * @throws RejectedExecutionException if the queue is full or the executor is shut down
+     */
+    @Override
+    public void execute(@NonNull Runnable command) {
+        // The limit is checked without a lock, so concurrent callers may overshoot it slightly.
+        if (getQueue().size() >= mMaxQueueSize) {
+            mRejectedTaskCount.incrementAndGet();
+            throw new RejectedExecutionException(
+                    mName + " queue is full, " + getQueue().size() + " tasks pending");
+        }
+        long enqueueTimeMillis = SystemClock.uptimeMillis();
+        super.execute(
+                () -> {
+                    long startTimeMillis = SystemClock.uptimeMillis();
+                    record(
+                            mTotalWaitTimeMillis,
+                            mMaxWaitTimeMillis,
+                            startTimeMillis - enqueueTimeMillis);
+                    try {
+                        command.run();
+                    } finally {
+                        record(
+                                mTotalRunTimeMillis,
+                                mMaxRunTimeMillis,
+                                SystemClock.uptimeMillis() - startTimeMillis);
+                    }
+                });
+    }
+
+    /** Sets the number of threads of the pool. */
+    void setPoolSize(int poolSize) {
+        if (poolSize > getMaximumPoolSize()) {
+            setMaximumPoolSize(poolSize);
+            setCorePoolSize(poolSize);
+        } else {
+            setCorePoolSize(poolSize);
+            setMaximumPoolSize(poolSize);
+        }
+    }
+
+    /** Sets the number of tasks the queue can hold before tasks are rejected. */
+    void setMaxQueueSize(int maxQueueSize) {
+        mMaxQueueSize = maxQueueSize;
+    }
+
+    /** Writes the queue depth, wait and run times of the pool to {@code writer}. */
+    void dump(@NonNull PrintWriter writer) {
+        long completedTaskCount = getCompletedTaskCount();
+        writer.println(
+                mName
+                        + ": threads="
+                        + getPoolSize()
+                        + "/"
+                        + getMaximumPoolSize()
+                        + " active="
+                        + getActiveCount()
+                        + " queued="
+                        + getQueue().size()
+                        + " completed="
+                        + completedTaskCount
+                        + " rejected="
+                        + mRejectedTaskCount.get());
+        writer.println(
+                "  wait ms: avg="
+                        + average(mTotalWaitTimeMillis.get(), completedTaskCount)
+                        + " max="
+                        + mMaxWaitTimeMillis.get()
+                        + ", run ms: avg="
+                        + average(mTotalRunTimeMillis.get(), completedTaskCount)
+                        + " max="
+                        + mMaxRunTimeMillis.get());
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long durationMillis) {
+        total.addAndGet(durationMillis);
+        max.accumulateAndGet(durationMillis, Math::max);
+    }
+
+    private static long average(long total, long count) {
+        return count == 0 ? 0 : total / count;
+    }
+}
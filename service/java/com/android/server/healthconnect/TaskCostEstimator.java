@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import android.annotation.NonNull;
+import android.health.connect.aidl.AggregateDataRequestParcel;
+import android.health.connect.aidl.ReadRecordsRequestParcel;
+import android.health.connect.aidl.RecordsParcel;
+
+import java.time.Duration;
+import java.time.Period;
+
+/**
+ * Estimates the cost of API calls for {@link HealthConnectRoundRobinScheduler}, in units where
+ * {@link #DEFAULT_COST} is a call touching a handful of rows.
+ *
+ * @hide
+ */
+final class TaskCostEstimator {
+    static final long DEFAULT_COST = 1;
+    // Caps the cost so that a single call never waits more than a bounded number of rounds.
+    static final long MAX_COST = 1000;
+
+    private static final long RECORDS_PER_COST_UNIT = 100;
+    private static final long BYTES_PER_COST_UNIT = 64 * 1024;
+    private static final long AGGREGATION_DAYS_PER_COST_UNIT = 7;
+    private static final long AGGREGATION_BUCKETS_PER_COST_UNIT = 24;
+    private static final long MILLIS_PER_DAY = Duration.ofDays(1).toMillis();
+
+    private TaskCostEstimator() {}
+
+    /** Returns the cost of writing the records of {@code recordsParcel}. */
+    static long forRecords(@NonNull RecordsParcel recordsParcel) {
+        return cap(
+                DEFAULT_COST
+                        + recordsParcel.getRecords().size() / RECORDS_PER_COST_UNIT
+                        + recordsParcel.getRecordsChunkSize() / BYTES_PER_COST_UNIT);
+    }
+
+    /** Returns the cost of reading a page of records for {@code request}. */
+    static long forRead(@NonNull ReadRecordsRequestParcel request) {
+        long recordCount =
+                request.getRecordIdFiltersParcel() != null
+                        ? request.getRecordIdFiltersParcel().getRecordIdFilters().size()
+                        : request.getPageSize();
+        return cap(DEFAULT_COST + Math.max(0, recordCount) / RECORDS_PER_COST_UNIT);
+    }
+
+    /**
+     * Returns the cost of {@code request}, which grows with the time span it scans and the number
+     * of buckets it groups the results in, for each aggregation.
+     */
+    static long forAggregation(@NonNull AggregateDataRequestParcel request) {
+        long spanMillis = 0;
+        if (request.getEndTime() > request.getStartTime()) {
+            spanMillis = request.getEndTime() - request.getStartTime();
+            if (spanMillis < 0) {
+                // The span overflowed, it covers any data there can be.
+                spanMillis = Long.MAX_VALUE;
+            }
+        }
+        long spanDays = spanMillis / MILLIS_PER_DAY;
+        long bucketCount = 1;
+        Duration duration = request.getDuration();
+        Period period = request.getPeriod();
+        if (duration != null && duration.toMillis() > 0) {
+            bucketCount = spanMillis / duration.toMillis();
+        } else if (period != null) {
+            long periodDays = Math.max(1, period.toTotalMonths() * 30 + period.getDays());
+            bucketCount = spanDays / periodDays;
+        }
+        long costPerAggregation =
+                spanDays / AGGREGATION_DAYS_PER_COST_UNIT
+                        + bucketCount / AGGREGATION_BUCKETS_PER_COST_UNIT;
+        return cap(
+                DEFAULT_COST
+                        + request.getAggregateIds().length
+                                * Math.min(MAX_COST, costPerAggregation));
+    }
+
+    private static long cap(long cost) {
+        return Math.max(DEFAULT_COST, Math.min(MAX_COST, cost));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+
+import android.annotation.NonNull;
+import android.app.ActivityManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches whether uids are in foreground, so that scheduling a task doesn't have to scan the
+ * running app processes.
+ *
+ * <p>Entries are kept up to date by a uid importance listener registered with {@link
+ * ActivityManager}. A uid that hasn't been looked up or reported yet is resolved once by scanning
+ * the running app processes.
+ *
+ * @hide
+ */
+final class UidImportanceCache implements ActivityManager.OnUidImportanceListener {
+    private final ActivityManager mActivityManager;
+    private final Map<Integer, Boolean> mUidInForeground = new ConcurrentHashMap<>();
+
+    UidImportanceCache(@NonNull ActivityManager activityManager) {
+        mActivityManager = activityManager;
+    }
+
+    /** Starts listening for importance changes that move uids in or out of foreground. */
+    void register() {
+        mActivityManager.addOnUidImportanceListener(this, IMPORTANCE_FOREGROUND);
+    }
+
+    /** Returns whether {@code uid} is in foreground. */
+    boolean isUidInForeground(int uid) {
+        Boolean isInForeground = mUidInForeground.get(uid);
+        if (isInForeground != null) {
+            return isInForeground;
+        }
+
+        isInForeground = isUidInForeground(mActivityManager, uid);
+        // Don't overwrite a change reported by the listener while the processes were scanned.
+        Boolean reported = mUidInForeground.putIfAbsent(uid, isInForeground);
+        return reported != null ? reported : isInForeground;
+    }
+
+    @Override
+    public void onUidImportance(int uid, int importance) {
+        mUidInForeground.put(uid, importance <= IMPORTANCE_FOREGROUND);
+    }
+
+    /** Returns whether {@code uid} is in foreground by scanning the running app processes. */
+    static boolean isUidInForeground(@NonNull ActivityManager activityManager, int uid) {
+        List<ActivityManager.RunningAppProcessInfo> runningAppProcesses =
+                activityManager.getRunningAppProcesses();
+        if (runningAppProcesses == null) {
+            return false;
+        }
+        for (ActivityManager.RunningAppProcessInfo info : runningAppProcesses) {
+            if (info.uid == uid && info.importance == IMPORTANCE_FOREGROUND) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -47,6 +47,7 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.health.connect.HealthConnectDataState;
 import android.health.connect.HealthConnectException;
 import android.health.connect.HealthConnectManager.DataDownloadState;
@@ -85,6 +86,7 @@ import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTransactionRequest;
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 import com.android.server.healthconnect.utils.FilesUtil;
@@ -101,7 +103,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -156,6 +160,15 @@ public final class BackupRestore {
     private static final String DATA_MERGING_RETRY_CANCELLED_KEY =
             "data_merging_retry_cancelled_key";
 
+    // Prefix of the keys storing the page token to resume merging each record type from.
+    private static final String DATA_MERGING_PAGE_TOKEN_KEY_PREFIX = "data_merging_page_token_";
+
+    // Number of pages read from the staged db that can wait to be written, which bounds the
+    // number of records held in memory while merging.
+    private static final int MAX_QUEUED_MERGE_PAGES = 4;
+    // Number of records after which queued pages stop being added to the same transaction.
+    private static final int MERGE_BATCH_SIZE = 10000;
+
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({
             INTERNAL_RESTORE_STATE_UNKNOWN,
@@ -384,6 +397,10 @@ public final class BackupRestore {
             mStagedDbContext.deleteDatabase(HealthConnectDatabase.getName());
             mStagedDatabase = null;
             FilesUtil.deleteDir(getStagedRemoteDataDirectoryForUser(userHandle.getIdentifier()));
+            for (int recordType :
+                    RecordMapper.getInstance().getRecordIdToExternalRecordClassMap().keySet()) {
+                PreferenceHelper.getInstance().removeKey(getMergePageTokenKey(recordType));
+            }
         }
         setDataDownloadState(DATA_DOWNLOAD_STATE_UNKNOWN, true /* force */);
         setInternalRestoreState(INTERNAL_RESTORE_STATE_UNKNOWN, true /* force */);
@@ -967,11 +984,35 @@ public final class BackupRestore {
             // We are sure to migrate the db now, so prepare
             prepInternalDataPerStagedDb();
 
-            // Go through each record type and migrate all records of that type.
-            var recordTypeMap = RecordMapper.getInstance().getRecordIdToExternalRecordClassMap();
-            for (var recordTypeMapEntry : recordTypeMap.entrySet()) {
-                mergeRecordsOfType(recordTypeMapEntry.getKey(), recordTypeMapEntry.getValue());
+            // Records are read from the staged db on this thread and written to the healthconnect
+            // db on the writer thread of the pipeline, so that both happen at the same time.
+            SQLiteDatabase stagedDb = getStagedDatabase().getWritableDatabase();
+            // Only used by the writer thread until the pipeline is closed.
+            Map<Integer, Integer> recordCounts = new ArrayMap<>();
+            MergePipeline<MergePage> pipeline =
+                    new MergePipeline<>(
+                            MAX_QUEUED_MERGE_PAGES,
+                            MERGE_BATCH_SIZE,
+                            page -> page.mRecords.size(),
+                            pages -> writeMergePages(pages, recordCounts));
+            try (pipeline) {
+                // Go through each record type and migrate all records of that type.
+                var recordTypeMap =
+                        RecordMapper.getInstance().getRecordIdToExternalRecordClassMap();
+                for (var recordTypeMapEntry : recordTypeMap.entrySet()) {
+                    mergeRecordsOfType(
+                            pipeline,
+                            stagedDb,
+                            recordTypeMapEntry.getKey(),
+                            recordTypeMapEntry.getValue());
+                }
             }
+            Slog.i(
+                    TAG,
+                    "Merged staged db: "
+                            + pipeline.getMetrics()
+                            + ", records by type: "
+                            + recordCounts);
 
             // Delete the staged db as we are done merging.
             Slog.i(TAG, "Deleting staged db after merging.");
@@ -980,18 +1021,54 @@ public final class BackupRestore {
         }
     }
 
-    private <T extends Record> void mergeRecordsOfType(int recordType, Class<T> recordTypeClass) {
+    private <T extends Record> void mergeRecordsOfType(
+            MergePipeline<MergePage> pipeline,
+            SQLiteDatabase stagedDb,
+            int recordType,
+            Class<T> recordTypeClass) {
         RecordHelper<?> recordHelper =
                 RecordHelperProvider.getInstance().getRecordHelper(recordType);
-        // Read all the records of the given type from the staged db and insert them into the
-        // existing healthconnect db.
-        long token = DEFAULT_LONG;
+        // Read all the records of the given type from the staged db and queue them to be inserted
+        // into the existing healthconnect db. If an earlier merge was interrupted, carry on from
+        // the last page it wrote.
+        String savedToken =
+                PreferenceHelper.getInstance().getPreference(getMergePageTokenKey(recordType));
+        long token = savedToken == null ? DEFAULT_LONG : Long.parseLong(savedToken);
         do {
             var recordsToMergeAndToken = getRecordsToMerge(recordTypeClass, token, recordHelper);
             if (recordsToMergeAndToken.first.isEmpty()) {
                 break;
             }
-            Slog.d(TAG, "Found record to merge: " + recordsToMergeAndToken.first.getClass());
+            token = recordsToMergeAndToken.second;
+            pipeline.put(new MergePage(recordType, recordsToMergeAndToken.first, token));
+        } while (token != DEFAULT_LONG);
+
+        // Once all the records of this type have been merged we can delete the table. This runs on
+        // the writer thread, so it must not take mMergingLock, which is held by this thread.
+        pipeline.runAfterWrites(
+                () -> {
+                    // Passing -1 for startTime and endTime as we don't want to have time based
+                    // filtering in the final query.
+                    Slog.d(TAG, "Deleting table for: " + recordTypeClass);
+                    DeleteTableRequest deleteTableRequest =
+                            recordHelper.getDeleteTableRequest(
+                                    null /* packageFilters */,
+                                    DEFAULT_LONG /* startTime */,
+                                    DEFAULT_LONG /* endTime */,
+                                    false /* useLocalTimeFilter */);
+                    stagedDb.execSQL(deleteTableRequest.getDeleteCommand());
+                    PreferenceHelper.getInstance().removeKey(getMergePageTokenKey(recordType));
+                });
+    }
+
+    /**
+     * Inserts the records of {@code pages} in one transaction, then saves where to resume. The
+     * number of records is added to {@code recordCounts}, by record type.
+     */
+    private void writeMergePages(List<MergePage> pages, Map<Integer, Integer> recordCounts) {
+        List<UpsertTableRequest> upsertTableRequests = new ArrayList<>();
+        HashMap<String, String> pageTokens = new HashMap<>();
+        for (MergePage page : pages) {
             // Using null package name for making insertion for two reasons:
             // 1. we don't want to update the logs for this package.
             // 2. we don't want to update the package name in the records as they already have the
@@ -999,38 +1076,37 @@ public final class BackupRestore {
             UpsertTransactionRequest upsertTransactionRequest =
                     new UpsertTransactionRequest(
                             null /* packageName */,
-                            recordsToMergeAndToken.first,
+                            page.mRecords,
                             mContext,
                             true /* isInsertRequest */,
                             true /* skipPackageNameAndLogs */);
-            TransactionManager.getInitialisedInstance()
-                    .insertAll(upsertTransactionRequest.getUpsertRequests());
-
-            token = DEFAULT_LONG;
-            if (recordsToMergeAndToken.second != DEFAULT_LONG) {
-                token = recordsToMergeAndToken.second * 2;
+            upsertTableRequests.addAll(upsertTransactionRequest.getUpsertRequests());
+            // The last page has no next token, a resumed merge reads it again and the inserts of
+            // the records already merged are ignored.
+            if (page.mNextPageToken != DEFAULT_LONG) {
+                pageTokens.put(
+                        getMergePageTokenKey(page.mRecordType),
+                        String.valueOf(page.mNextPageToken));
             }
-        } while (token != DEFAULT_LONG);
+        }
+        TransactionManager.getInitialisedInstance().insertAll(upsertTableRequests);
+        if (!pageTokens.isEmpty()) {
+            PreferenceHelper.getInstance().insertOrReplacePreferencesTransaction(pageTokens);
+        }
+        for (MergePage page : pages) {
+            recordCounts.merge(page.mRecordType, page.mRecords.size(), Integer::sum);
+        }
+    }
 
-        // Once all the records of this type have been merged we can delete the table.
-
-        // Passing -1 for startTime and endTime as we don't want to have time based filtering in the
-        // final query.
-        Slog.d(TAG, "Deleting table for: " + recordTypeClass);
-        DeleteTableRequest deleteTableRequest =
-                recordHelper.getDeleteTableRequest(
-                        null /* packageFilters */,
-                        DEFAULT_LONG /* startTime */,
-                        DEFAULT_LONG /* endTime */,
-                        false /* useLocalTimeFilter */);
-        getStagedDatabase().getWritableDatabase().execSQL(deleteTableRequest.getDeleteCommand());
+    private static String getMergePageTokenKey(int recordType) {
+        return DATA_MERGING_PAGE_TOKEN_KEY_PREFIX + recordType;
     }
 
     private <T extends Record> Pair<List<RecordInternal<?>>, Long> getRecordsToMerge(
             Class<T> recordTypeClass, long requestToken, RecordHelper<?> recordHelper) {
         ReadRecordsRequestUsingFilters<T> readRecordsRequest =
+                // Records are read in ascending order, which is also kept by the page token.
                 new ReadRecordsRequestUsingFilters.Builder<>(recordTypeClass)
-                        .setAscending(true)
                         .setPageSize(2000)
                         .setPageToken(requestToken)
                         .build();
@@ -1058,14 +1134,12 @@ public final class BackupRestore {
             recordInternalList =
                     recordHelper.getInternalRecords(
                             cursor, readTableRequest.getPageSize(), mStagedPackageNamesByAppIds);
-            String startTimeColumnName = recordHelper.getStartTimeColumnName();
 
+            recordHelper.readChildTableData(recordInternalList, this::read);
             populateInternalRecordsWithExtraData(recordInternalList, readTableRequest);
 
             // Get the token for the next read request.
-            if (cursor.moveToNext()) {
-                token = getCursorLong(cursor, startTimeColumnName);
-            }
+            token = recordHelper.getNextPageToken(cursor, /* isAscending= */ true);
         }
         return Pair.create(recordInternalList, token);
     }
@@ -1214,4 +1288,17 @@ public final class BackupRestore {
                     .cancelAll();
         }
     }
+
+    /** Records of one type read from the staged db, with the token of the page after them. */
+    private static final class MergePage {
+        private final int mRecordType;
+        private final List<RecordInternal<?>> mRecords;
+        private final long mNextPageToken;
+
+        MergePage(int recordType, List<RecordInternal<?>> records, long nextPageToken) {
+            mRecordType = recordType;
+            mRecords = records;
+            mNextPageToken = nextPageToken;
+        }
+    }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.backuprestore;
+
+import android.annotation.NonNull;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Hands pages of records from the thread reading the staged database to a thread writing them to
+ * the live database, so that reading the next pages overlaps with writing the previous ones.
+ *
+ * <p>At most {@code maxQueuedPages} pages wait to be written, after which {@link #put} blocks
+ * until the writer catches up. The writer takes all the queued pages, up to {@code batchSize}
+ * records, and hands them to the {@link Writer} at once.
+ *
+ * <p>If the writer fails, the following pages are dropped and {@link #put} throws the failure.
+ * {@link #close} only throws it if {@link #put} didn't, so that a pipeline used in a
+ * try-with-resources statement doesn't throw the same failure from its body and from {@link
+ * #close}.
+ *
+ * @param <T> type of the pages
+ * @hide
+ */
+final class MergePipeline<T> implements AutoCloseable {
+    /** Writes pages to the live database. */
+    interface Writer<T> {
+        /** Writes {@code pages}, in the order they were put. */
+        void write(@NonNull List<T> pages);
+    }
+
+    private final BlockingQueue<Item<T>> mQueue;
+    private final int mBatchSize;
+    private final ToIntFunction<T> mPageSize;
+    private final Writer<T> mWriter;
+    private final Thread mWriterThread;
+    private final long mStartTimeMillis = SystemClock.uptimeMillis();
+    private final AtomicLong mRecordCount = new AtomicLong();
+    private final AtomicLong mBatchCount = new AtomicLong();
+    private final AtomicLong mWriteTimeMillis = new AtomicLong();
+    private final AtomicLong mPutWaitTimeMillis = new AtomicLong();
+    private volatile RuntimeException mFailure;
+    private boolean mFailureThrown;
+    private boolean mClosed;
+
+    /**
+     * Starts the writer thread.
+     *
+     * @param maxQueuedPages number of pages that can wait to be written before {@link #put} blocks
+     * @param batchSize number of records after which the writer stops adding pages to a batch
+     * @param pageSize returns the number of records of a page
+     * @param writer writes the batches, on the writer thread
+     */
+    MergePipeline(
+            int maxQueuedPages,
+            int batchSize,
+            @NonNull ToIntFunction<T> pageSize,
+            @NonNull Writer<T> writer) {
+        mQueue = new ArrayBlockingQueue<>(maxQueuedPages);
+        mBatchSize = batchSize;
+        mPageSize = Objects.requireNonNull(pageSize);
+        mWriter = Objects.requireNonNull(writer);
+        mWriterThread = new Thread(this::runWriter, "HealthConnectMergeWriter");
+        mWriterThread.start();
+    }
+
+    /** Queues {@code page} to be written, waiting while the queue is full. */
+    void put(@NonNull T page) {
+        enqueue(new Item<>(Objects.requireNonNull(page), /* task= */ null));
+    }
+
+    /** Runs {@code task} on the writer thread, once the pages put so far have been written. */
+    void runAfterWrites(@NonNull Runnable task) {
+        enqueue(new Item<>(/* page= */ null, Objects.requireNonNull(task)));
+    }
+
+    /** Returns the number of records written and the time spent writing and waiting. */
+    @NonNull
+    String getMetrics() {
+        long elapsedTimeMillis = SystemClock.uptimeMillis() - mStartTimeMillis;
+        return "records="
+                + mRecordCount.get()
+                + " batches="
+                + mBatchCount.get()
+                + " elapsed ms="
+                + elapsedTimeMillis
+                + " write ms="
+                + mWriteTimeMillis.get()
+                + " blocked on full queue ms="
+                + mPutWaitTimeMillis.get();
+    }
+
+    /**
+     * Waits for the queued pages and tasks to be written and run, then stops the writer thread.
+     *
+     * @throws RuntimeException the failure of the writer, unless it was already thrown by {@link
+     *     #put} or {@link #runAfterWrites}
+     */
+    @Override
+    public void close() {
+        if (!mClosed) {
+            mClosed = true;
+            enqueueUninterruptibly(new Item<>(/* page= */ null, /* task= */ null));
+            joinUninterruptibly(mWriterThread);
+        }
+        if (!mFailureThrown) {
+            throwIfFailed();
+        }
+    }
+
+    private void enqueue(Item<T> item) {
+        if (mClosed) {
+            throw new IllegalStateException("Merge pipeline is closed");
+        }
+        throwIfFailed();
+        long startTimeMillis = SystemClock.uptimeMillis();
+        try {
+            mQueue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for merge writes", e);
+        }
+        mPutWaitTimeMillis.addAndGet(SystemClock.uptimeMillis() - startTimeMillis);
+    }
+
+    private void runWriter() {
+        List<T> batch = new ArrayList<>();
+        while (true) {
+            Item<T> item = takeUninterruptibly();
+            int batchRecordCount = 0;
+            // Adds the pages already waiting to the batch, until a task or the end is reached.
+            while (item != null && item.mPage != null) {
+                batch.add(item.mPage);
+                batchRecordCount += mPageSize.applyAsInt(item.mPage);
+                item = batchRecordCount < mBatchSize ? mQueue.poll() : null;
+            }
+            if (!batch.isEmpty()) {
+                write(batch, batchRecordCount);
+                batch.clear();
+            }
+            if (item == null) {
+                continue;
+            }
+            if (item.mTask == null) {
+                return;
+            }
+            if (mFailure == null) {
+                try {
+                    item.mTask.run();
+                } catch (RuntimeException e) {
+                    mFailure = e;
+                }
+            }
+        }
+    }
+
+    private void write(List<T> batch, int batchRecordCount) {
+        if (mFailure != null) {
+            // Keep taking pages so that the reading thread doesn't block, but drop them.
+            return;
+        }
+        long startTimeMillis = SystemClock.uptimeMillis();
+        try {
+            mWriter.write(batch);
+        } catch (RuntimeException e) {
+            mFailure = e;
+            return;
+        }
+        mWriteTimeMillis.addAndGet(SystemClock.uptimeMillis() - startTimeMillis);
+        mRecordCount.addAndGet(batchRecordCount);
+        mBatchCount.incrementAndGet();
+    }
+
+    private void throwIfFailed() {
+        RuntimeException failure = mFailure;
+        if (failure != null) {
+            mFailureThrown = true;
+            throw failure;
+        }
+    }
+
+    private Item<T> takeUninterruptibly() {
+        while (true) {
+            try {
+                return mQueue.take();
+            } catch (InterruptedException e) {
+                // The writer thread is only stopped by the end item.
+            }
+        }
+    }
+
+    private void enqueueUninterruptibly(Item<T> item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mQueue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** A page to write, a task to run, or the end of the pipeline if both are null. */
+    private static final class Item<T> {
+        private final T mPage;
+        private final Runnable mTask;
+
+        Item(T page, Runnable task) {
+            mPage = page;
+            mTask = task;
+        }
+    }
+}
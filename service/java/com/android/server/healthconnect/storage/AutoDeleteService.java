@@ -16,18 +16,26 @@
 
 package com.android.server.healthconnect.storage;
 
+import static android.health.connect.Constants.DEFAULT_LONG;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
+
+import android.annotation.NonNull;
+import android.os.SystemClock;
 import android.util.Slog;
 
+import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
 import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ActivityDateHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.AppRecordTypeHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsRequestHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.PreferenceHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -38,6 +46,7 @@ import java.util.List;
 public class AutoDeleteService {
     private static final String AUTO_DELETE_DURATION_RECORDS_KEY =
             "auto_delete_duration_records_key";
+    private static final String AUTO_DELETE_LAST_ROW_ID_KEY_PREFIX = "auto_delete_last_row_id_";
     private static final String TAG = "HealthConnectAutoDelete";
 
     /** Gets auto delete period for automatically deleting record entries */
@@ -63,10 +72,14 @@ public class AutoDeleteService {
             deleteStaleRecordEntries();
             deleteStaleChangeLogEntries();
             deleteStaleAccessLogEntries();
+            // Record counts are kept up to date on every write, only drop the rows which no
+            // longer count any records.
+            ActivityDateHelper.getInstance().deleteDatesWithoutRecords();
+            AppRecordTypeHelper.getInstance().deleteAppsWithoutRecords();
             // Update the recordTypesUsed by packages if required after the deletion of records.
             AppInfoHelper.getInstance().syncAppInfoRecordTypesUsed();
-            // Re-sync activity dates table
-            ActivityDateHelper.getInstance().reSyncForAllRecords();
+            // Give back the space the deletes took in the write-ahead log.
+            TransactionManager.getInitialisedInstance().checkpointWriteAheadLog();
         } catch (Exception e) {
             Slog.e(TAG, "Auto delete run failed", e);
             // Don't rethrow as that will crash system_server
@@ -82,27 +95,69 @@ public class AutoDeleteService {
                         : Integer.parseInt(recordAutoDeletePeriodString);
         if (recordAutoDeletePeriod != 0) {
             // 0 represents that no period is set,to delete only if not 0 else don't do anything
-            List<DeleteTableRequest> deleteTableRequests = new ArrayList<>();
-            RecordHelperProvider.getInstance()
-                    .getRecordHelpers()
-                    .values()
-                    .forEach(
-                            (recordHelper) -> {
-                                DeleteTableRequest request =
-                                        recordHelper.getDeleteRequestForAutoDelete(
-                                                recordAutoDeletePeriod);
-                                deleteTableRequests.add(request);
-                            });
-            try {
-                TransactionManager.getInitialisedInstance()
-                        .deleteWithoutChangeLogs(deleteTableRequests);
-            } catch (Exception exception) {
-                Slog.e(TAG, "Auto delete for records failed", exception);
-                // Don't rethrow as that will crash system_server
+            int chunkSize =
+                    Math.max(
+                            1,
+                            HealthConnectDeviceConfigManager.getInitialisedInstance()
+                                    .getAutoDeleteChunkSize());
+            for (RecordHelper<?> recordHelper :
+                    RecordHelperProvider.getInstance().getRecordHelpers().values()) {
+                try {
+                    deleteInChunks(
+                            recordHelper.getDeleteRequestForAutoDelete(recordAutoDeletePeriod),
+                            chunkSize);
+                } catch (Exception exception) {
+                    Slog.e(TAG, "Auto delete for records failed", exception);
+                    // Don't rethrow as that will crash system_server
+                }
             }
         }
     }
 
+    /**
+     * Runs {@code request} in chunks of at most {@code chunkSize} rows in row id order, each in a
+     * transaction of its own so that other writes are not blocked for the whole delete. The last
+     * deleted row id is checkpointed after every chunk, so that a run which gets cancelled is
+     * resumed from there by the next one.
+     */
+    private static void deleteInChunks(@NonNull DeleteTableRequest request, int chunkSize) {
+        final PreferenceHelper preferenceHelper = PreferenceHelper.getInstance();
+        final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
+        final String checkpointKey = AUTO_DELETE_LAST_ROW_ID_KEY_PREFIX + request.getTableName();
+        final String checkpoint = preferenceHelper.getPreference(checkpointKey);
+        final long startTime = SystemClock.elapsedRealtime();
+        long lastRowId = checkpoint == null ? DEFAULT_LONG : Long.parseLong(checkpoint);
+        long numberOfRowsDeleted = 0;
+        int numberOfChunkRowsDeleted;
+        do {
+            request.setRowIdChunk(PRIMARY_COLUMN_NAME, lastRowId);
+            numberOfChunkRowsDeleted =
+                    transactionManager.deleteChunkWithoutChangeLogs(request, chunkSize);
+            if (numberOfChunkRowsDeleted > 0) {
+                lastRowId = request.getLastRowId();
+                numberOfRowsDeleted += numberOfChunkRowsDeleted;
+                preferenceHelper.insertOrReplacePreference(
+                        checkpointKey, String.valueOf(lastRowId));
+                // Let waiting writers in before taking the write lock again.
+                Thread.yield();
+            }
+        } while (numberOfChunkRowsDeleted >= chunkSize);
+
+        if (checkpoint == null && numberOfRowsDeleted == 0) {
+            return;
+        }
+        preferenceHelper.removeKey(checkpointKey);
+        Slog.i(
+                TAG,
+                "Auto deleted "
+                        + numberOfRowsDeleted
+                        + " rows from "
+                        + request.getTableName()
+                        + " in "
+                        + (SystemClock.elapsedRealtime() - startTime)
+                        + " ms");
+    }
+
     private static void deleteStaleChangeLogEntries() {
         try {
             TransactionManager.getInitialisedInstance()
@@ -26,6 +26,7 @@ import com.android.server.healthconnect.migration.PriorityMigrationHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ActivityDateHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.AppRecordTypeHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsRequestHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.DeviceInfoHelper;
@@ -52,11 +53,19 @@ public class HealthConnectDatabase extends SQLiteOpenHelper {
     public static final int DB_VERSION_UUID_BLOB = 9;
 
     public static final int DB_VERSION_GENERATED_LOCAL_TIME = 10;
+
+    public static final int DB_VERSION_RECORD_TABLE_INDEXES = 11;
+
+    public static final int DB_VERSION_RECORD_COUNTS = 12;
+
+    public static final int DB_VERSION_CHANGE_LOG_PAGE_TOKENS = 13;
     private static final String TAG = "HealthConnectDatabase";
-    private static final int DATABASE_VERSION = 10;
+    private static final int DATABASE_VERSION = 13;
     private static final String DATABASE_NAME = "healthconnect.db";
     @NonNull private final Collection<RecordHelper<?>> mRecordHelpers;
     private final Context mContext;
+    private volatile boolean mWriteAheadLoggingEnabled = false;
+    private volatile int mWalAutoCheckpointPages = 0;
 
     public HealthConnectDatabase(@NonNull Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -86,10 +95,15 @@ public class HealthConnectDatabase extends SQLiteOpenHelper {
         ChangeLogsRequestHelper.getInstance().onUpgrade(oldVersion, newVersion, db);
         HealthDataCategoryPriorityHelper.getInstance().onUpgrade(oldVersion, newVersion, db);
         ActivityDateHelper.getInstance().onUpgrade(oldVersion, newVersion, db);
+        AppRecordTypeHelper.getInstance().onUpgrade(oldVersion, newVersion, db);
         MigrationEntityHelper.getInstance().onUpgrade(oldVersion, newVersion, db);
         PriorityMigrationHelper.getInstance().onUpgrade(oldVersion, newVersion, db);
         PreferenceHelper.getInstance().onUpgrade(oldVersion, newVersion, db);
         AccessLogsHelper.getInstance().onUpgrade(oldVersion, newVersion, db);
+
+        if (oldVersion < DB_VERSION_RECORD_TABLE_INDEXES) {
+            createRecordTableIndexes(db);
+        }
     }
 
     @Override
@@ -97,6 +111,29 @@ public class HealthConnectDatabase extends SQLiteOpenHelper {
         // Enforce FK constraints for DB writes as we want to enforce FK constraints on DB write.
         // This is also required for when we delete entries, for cascade to work
         db.setForeignKeyConstraintsEnabled(true);
+        // Queries are built with bind arguments, so the same statements are seen over and over.
+        // Let each connection keep more of them compiled.
+        db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+        if (mWriteAheadLoggingEnabled) {
+            // Reads outside of transactions then run on their own connections, without waiting
+            // for writes to finish.
+            db.enableWriteAheadLogging();
+            if (mWalAutoCheckpointPages > 0) {
+                db.execPerConnectionSQL(
+                        "PRAGMA wal_autocheckpoint = " + mWalAutoCheckpointPages, null);
+            }
+        }
+    }
+
+    /**
+     * Sets whether the database uses write-ahead logging, and after how many pages the log is
+     * copied back to the database. A number of pages below one keeps the platform default.
+     *
+     * <p>Takes effect the next time the database is opened.
+     */
+    public void setWriteAheadLoggingConfig(boolean enabled, int autoCheckpointPages) {
+        mWriteAheadLoggingEnabled = enabled;
+        mWalAutoCheckpointPages = autoCheckpointPages;
     }
 
     @Override
@@ -124,6 +161,7 @@ public class HealthConnectDatabase extends SQLiteOpenHelper {
         addCreateRequestsFor(DeviceInfoHelper.getInstance().getCreateTableRequest(), requests);
         addCreateRequestsFor(AppInfoHelper.getInstance().getCreateTableRequest(), requests);
         addCreateRequestsFor(ActivityDateHelper.getInstance().getCreateTableRequest(), requests);
+        addCreateRequestsFor(AppRecordTypeHelper.getInstance().getCreateTableRequest(), requests);
         addCreateRequestsFor(ChangeLogsHelper.getInstance().getCreateTableRequest(), requests);
         addCreateRequestsFor(
                 ChangeLogsRequestHelper.getInstance().getCreateTableRequest(), requests);
@@ -148,6 +186,25 @@ public class HealthConnectDatabase extends SQLiteOpenHelper {
                                 addCreateRequestsFor(childTableRequest, tableRequests));
     }
 
+    /**
+     * Creates the indexes declared by the record helpers on already existing record tables.
+     *
+     * <p>Indexes are built one statement at a time, so each step only has to sort a single table.
+     * Statements use IF NOT EXISTS, hence indexes already present (e.g. on foreign keys) are
+     * skipped.
+     */
+    private void createRecordTableIndexes(@NonNull SQLiteDatabase db) {
+        List<CreateTableRequest> requests = new ArrayList<>();
+        mRecordHelpers.forEach(
+                (recordHelper) ->
+                        addCreateRequestsFor(recordHelper.getCreateTableRequest(), requests));
+        for (CreateTableRequest request : requests) {
+            for (String createIndexStatement : request.getCreateIndexStatements()) {
+                db.execSQL(createIndexStatement);
+            }
+        }
+    }
+
     /** Runs create table request on database. */
     public static void createTable(SQLiteDatabase db, CreateTableRequest createTableRequest) {
         db.execSQL(createTableRequest.getCreateCommand());
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import android.annotation.NonNull;
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseArray;
+
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compiles INSERT statements once per table, column layout and conflict algorithm, and reuses them
+ * for every row written with that layout.
+ *
+ * <p>{@link SQLiteDatabase#insertWithOnConflict} builds the SQL text, a bind argument array and a
+ * new statement for every call. Inserts of the same kind of record always use the same layout, so
+ * for a batch it is enough to do that once and only bind the values of each row.
+ *
+ * <p>Child rows without children of their own (e.g. series samples and exercise route locations)
+ * are written as multi-row inserts, bounded by {@link #MAX_BIND_ARGS_PER_STATEMENT}.
+ *
+ * <p>Statements are tied to {@code db}, so an instance should only live as long as the
+ * transaction it was created for, and must be closed at the end of it.
+ *
+ * @hide
+ */
+final class InsertStatementCache implements AutoCloseable {
+    /** SQLite's default SQLITE_MAX_VARIABLE_NUMBER on older releases. */
+    static final int MAX_BIND_ARGS_PER_STATEMENT = 999;
+
+    static final int MAX_ROWS_PER_STATEMENT = 100;
+
+    // Same as SQLiteDatabase#CONFLICT_VALUES, indexed by the CONFLICT_* constants.
+    private static final String[] CONFLICT_VALUES =
+            new String[] {"", " OR ROLLBACK", " OR ABORT", " OR FAIL", " OR IGNORE", " OR REPLACE"};
+
+    private final SQLiteDatabase mDb;
+    private final Map<String, List<InsertLayout>> mTableToLayouts = new HashMap<>();
+
+    InsertStatementCache(@NonNull SQLiteDatabase db) {
+        Objects.requireNonNull(db);
+
+        mDb = db;
+    }
+
+    /**
+     * Inserts {@code values} into {@code table} using {@code conflictAlgorithm}.
+     *
+     * @return the row ID of the inserted row, or -1 if the row was ignored due to a conflict.
+     */
+    long insert(
+            @NonNull String table, @NonNull ContentValues values, int conflictAlgorithm) {
+        if (values.isEmpty()) {
+            // Nothing to bind, let SQLiteDatabase deal with the default values.
+            return mDb.insertWithOnConflict(table, null, values, conflictAlgorithm);
+        }
+
+        InsertLayout layout = getLayout(table, values, conflictAlgorithm);
+        SQLiteStatement statement = layout.getStatement(/* numberOfRows= */ 1);
+        layout.bind(statement, values, /* offset= */ 0);
+        return statement.executeInsert();
+    }
+
+    /**
+     * Inserts all {@code childRequests} with {@code parentRowId} as their parent key.
+     *
+     * <p>Consecutive requests for the same table and layout are written with as few statements as
+     * possible. Requests with children of their own are inserted one by one, as their row IDs are
+     * needed.
+     */
+    void insertChildren(@NonNull List<UpsertTableRequest> childRequests, long parentRowId) {
+        int start = 0;
+        while (start < childRequests.size()) {
+            UpsertTableRequest first = childRequests.get(start).withParentKey(parentRowId);
+            ContentValues firstValues = first.getContentValues();
+            if (!first.getChildTableRequests().isEmpty() || firstValues.isEmpty()) {
+                long rowId = insert(first.getTable(), firstValues, SQLiteDatabase.CONFLICT_NONE);
+                insertChildren(first.getChildTableRequests(), rowId);
+                start++;
+                continue;
+            }
+
+            InsertLayout layout =
+                    getLayout(first.getTable(), firstValues, SQLiteDatabase.CONFLICT_NONE);
+            List<ContentValues> batch = new ArrayList<>();
+            batch.add(firstValues);
+            int end = start + 1;
+            while (end < childRequests.size() && batch.size() < layout.mMaxRowsPerStatement) {
+                UpsertTableRequest next = childRequests.get(end);
+                if (!next.getChildTableRequests().isEmpty()
+                        || !next.getTable().equals(first.getTable())) {
+                    break;
+                }
+                ContentValues nextValues = next.withParentKey(parentRowId).getContentValues();
+                if (!layout.matches(nextValues)) {
+                    break;
+                }
+                batch.add(nextValues);
+                end++;
+            }
+
+            SQLiteStatement statement = layout.getStatement(batch.size());
+            int offset = 0;
+            for (ContentValues values : batch) {
+                offset = layout.bind(statement, values, offset);
+            }
+            statement.executeInsert();
+            start = end;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (List<InsertLayout> layouts : mTableToLayouts.values()) {
+            for (InsertLayout layout : layouts) {
+                layout.close();
+            }
+        }
+        mTableToLayouts.clear();
+    }
+
+    @NonNull
+    private InsertLayout getLayout(
+            @NonNull String table, @NonNull ContentValues values, int conflictAlgorithm) {
+        List<InsertLayout> layouts = mTableToLayouts.computeIfAbsent(table, t -> new ArrayList<>());
+        for (InsertLayout layout : layouts) {
+            if (layout.mConflictAlgorithm == conflictAlgorithm && layout.matches(values)) {
+                return layout;
+            }
+        }
+
+        InsertLayout layout =
+                new InsertLayout(
+                        table, values.keySet().toArray(new String[0]), conflictAlgorithm);
+        layouts.add(layout);
+        return layout;
+    }
+
+    private final class InsertLayout {
+        private final String mTable;
+        private final String[] mColumns;
+        private final int mConflictAlgorithm;
+        private final int mMaxRowsPerStatement;
+        private final SparseArray<SQLiteStatement> mRowCountToStatement = new SparseArray<>();
+
+        InsertLayout(String table, String[] columns, int conflictAlgorithm) {
+            mTable = table;
+            mColumns = columns;
+            mConflictAlgorithm = conflictAlgorithm;
+            mMaxRowsPerStatement =
+                    Math.max(
+                            1,
+                            Math.min(
+                                    MAX_ROWS_PER_STATEMENT,
+                                    MAX_BIND_ARGS_PER_STATEMENT / columns.length));
+        }
+
+        boolean matches(ContentValues values) {
+            if (values.size() != mColumns.length) {
+                return false;
+            }
+            for (String column : mColumns) {
+                if (!values.containsKey(column)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Binds {@code values} starting after {@code offset}, and returns the next offset. */
+        int bind(SQLiteStatement statement, ContentValues values, int offset) {
+            for (String column : mColumns) {
+                // Bind indexes are 1-based.
+                DatabaseUtils.bindObjectToProgram(statement, ++offset, values.get(column));
+            }
+            return offset;
+        }
+
+        SQLiteStatement getStatement(int numberOfRows) {
+            SQLiteStatement statement = mRowCountToStatement.get(numberOfRows);
+            if (statement == null) {
+                statement = mDb.compileStatement(getInsertCommand(numberOfRows));
+                mRowCountToStatement.put(numberOfRows, statement);
+            }
+            return statement;
+        }
+
+        void close() {
+            for (int i = 0; i < mRowCountToStatement.size(); i++) {
+                mRowCountToStatement.valueAt(i).close();
+            }
+            mRowCountToStatement.clear();
+        }
+
+        private String getInsertCommand(int numberOfRows) {
+            StringBuilder builder = new StringBuilder("INSERT");
+            builder.append(CONFLICT_VALUES[mConflictAlgorithm])
+                    .append(" INTO ")
+                    .append(mTable)
+                    .append(" (")
+                    .append(String.join(",", mColumns))
+                    .append(") VALUES ");
+
+            String rowPlaceholders = "(" + "?,".repeat(mColumns.length - 1) + "?)";
+            for (int i = 0; i < numberOfRows; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(rowPlaceholders);
+            }
+
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import android.annotation.NonNull;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+
+/**
+ * Limits how many threads read the database at once, and keeps track of how long reads wait for
+ * their turn.
+ *
+ * <p>With write-ahead logging, {@link android.database.sqlite.SQLiteDatabase} runs reads outside
+ * of transactions on a pool of read-only connections, next to the connection used for writes. The
+ * size of that pool is set by the platform and can't be changed from here, so this class bounds
+ * the number of concurrent reads instead. Reads beyond the platform pool still wait inside {@link
+ * android.database.sqlite.SQLiteDatabase}, which these metrics don't see.
+ *
+ * <p>A thread holds at most one connection: nested {@link #acquire} calls on the same thread
+ * return right away, and the connection is given back by the outermost {@link #release}.
+ *
+ * @hide
+ */
+final class ReadConnectionPool {
+    private final Object mLock = new Object();
+    private final ThreadLocal<int[]> mDepth = ThreadLocal.withInitial(() -> new int[1]);
+
+    @GuardedBy("mLock")
+    private int mSize;
+
+    @GuardedBy("mLock")
+    private int mInUse;
+
+    @GuardedBy("mLock")
+    private int mWaiting;
+
+    @GuardedBy("mLock")
+    private long mAcquiredCount;
+
+    @GuardedBy("mLock")
+    private long mWaitedCount;
+
+    @GuardedBy("mLock")
+    private long mTotalWaitTimeMillis;
+
+    @GuardedBy("mLock")
+    private long mMaxWaitTimeMillis;
+
+    ReadConnectionPool(int size) {
+        mSize = size;
+    }
+
+    /** Blocks until a connection is free, unless the current thread already holds one. */
+    void acquire() {
+        int[] depth = mDepth.get();
+        if (depth[0]++ > 0) {
+            return;
+        }
+
+        synchronized (mLock) {
+            if (mInUse >= mSize) {
+                long startTimeMillis = SystemClock.uptimeMillis();
+                mWaiting++;
+                boolean interrupted = false;
+                while (mInUse >= mSize) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        // Reads can't be cancelled half way, keep waiting and restore the flag.
+                        interrupted = true;
+                    }
+                }
+                mWaiting--;
+                long waitTimeMillis = SystemClock.uptimeMillis() - startTimeMillis;
+                mWaitedCount++;
+                mTotalWaitTimeMillis += waitTimeMillis;
+                mMaxWaitTimeMillis = Math.max(mMaxWaitTimeMillis, waitTimeMillis);
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mInUse++;
+            mAcquiredCount++;
+        }
+    }
+
+    /** Gives back the connection taken by the matching {@link #acquire}. */
+    void release() {
+        int[] depth = mDepth.get();
+        if (depth[0] == 0) {
+            throw new IllegalStateException("No read connection held by this thread");
+        }
+        if (--depth[0] > 0) {
+            return;
+        }
+
+        synchronized (mLock) {
+            mInUse--;
+            mLock.notifyAll();
+        }
+    }
+
+    /** Sets the number of reads that can run at once. Values below one are ignored. */
+    void setSize(int size) {
+        if (size < 1) {
+            return;
+        }
+
+        synchronized (mLock) {
+            mSize = size;
+            mLock.notifyAll();
+        }
+    }
+
+    /** Writes the usage and wait times of the pool to {@code writer}. */
+    void dump(@NonNull PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println(
+                    "Read connections: in use="
+                            + mInUse
+                            + "/"
+                            + mSize
+                            + " waiting="
+                            + mWaiting
+                            + " acquired="
+                            + mAcquiredCount
+                            + " waited="
+                            + mWaitedCount);
+            writer.println(
+                    "  wait ms: avg="
+                            + (mWaitedCount == 0 ? 0 : mTotalWaitTimeMillis / mWaitedCount)
+                            + " max="
+                            + mMaxWaitTimeMillis);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.APP_INFO_ID_COLUMN_NAME;
+
+import android.annotation.NonNull;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Pair;
+
+import com.android.server.healthconnect.storage.datatypehelpers.ActivityDateHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.AppRecordTypeHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
+import com.android.server.healthconnect.storage.request.DeleteTableRequest;
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects how a write transaction changes the number of records per (record type, local date) and
+ * per (record type, app), so that {@link ActivityDateHelper} and {@link AppRecordTypeHelper} can be
+ * kept up to date without scanning the record tables.
+ *
+ * <p>Changes must be written with {@link #writeTo} before the transaction is marked successful.
+ * Requests to tables other than record tables are ignored.
+ *
+ * @hide
+ */
+final class RecordCountChanges {
+    private final Map<Pair<Integer, Long>, Long> mDateCountChanges = new HashMap<>();
+    private final Map<Pair<Integer, Long>, Long> mAppCountChanges = new HashMap<>();
+
+    /** Counts the record inserted by {@code request}. */
+    void onRecordInserted(@NonNull UpsertTableRequest request) {
+        RecordHelper<?> helper = request.getRecordHelper();
+        if (helper == null) {
+            return;
+        }
+        add(helper, request.getContentValues(), /* count= */ 1);
+    }
+
+    /**
+     * Moves the count of the record in the current row of {@code oldRecordCursor} to the record
+     * written by {@code request}, which replaces it.
+     */
+    void onRecordReplaced(@NonNull UpsertTableRequest request, @NonNull Cursor oldRecordCursor) {
+        RecordHelper<?> helper = request.getRecordHelper();
+        if (helper == null) {
+            return;
+        }
+        add(
+                helper.getRecordIdentifier(),
+                StorageUtils.getCursorLong(oldRecordCursor, helper.getPeriodGroupByColumnName()),
+                StorageUtils.getCursorLong(oldRecordCursor, APP_INFO_ID_COLUMN_NAME),
+                /* count= */ -1);
+        add(helper, request.getContentValues(), /* count= */ 1);
+    }
+
+    /**
+     * Uncounts records about to be deleted from the table of {@code helper}. {@code countCursor}
+     * holds the result of {@link DeleteTableRequest#getCountCommand} for the delete, grouped by
+     * {@link #getGroupByColumnNames}.
+     */
+    void onRecordsDeleted(@NonNull RecordHelper<?> helper, @NonNull Cursor countCursor) {
+        while (countCursor.moveToNext()) {
+            add(
+                    helper.getRecordIdentifier(),
+                    StorageUtils.getCursorLong(countCursor, helper.getPeriodGroupByColumnName()),
+                    StorageUtils.getCursorLong(countCursor, APP_INFO_ID_COLUMN_NAME),
+                    -StorageUtils.getCursorLong(countCursor, DeleteTableRequest.COUNT_COLUMN_NAME));
+        }
+    }
+
+    /** Writes the collected changes to the count tables and resets them. */
+    void writeTo(@NonNull SQLiteDatabase db) {
+        ActivityDateHelper.getInstance().updateRecordCounts(db, mDateCountChanges);
+        AppRecordTypeHelper.getInstance().updateRecordCounts(db, mAppCountChanges);
+        mDateCountChanges.clear();
+        mAppCountChanges.clear();
+    }
+
+    /** Returns the columns deleted records have to be counted by. */
+    @NonNull
+    static List<String> getGroupByColumnNames(@NonNull RecordHelper<?> helper) {
+        return List.of(helper.getPeriodGroupByColumnName(), APP_INFO_ID_COLUMN_NAME);
+    }
+
+    private void add(@NonNull RecordHelper<?> helper, @NonNull ContentValues values, long count) {
+        add(
+                helper.getRecordIdentifier(),
+                values.getAsLong(helper.getPeriodGroupByColumnName()),
+                values.getAsLong(APP_INFO_ID_COLUMN_NAME),
+                count);
+    }
+
+    private void add(int recordType, long epochDays, long appInfoId, long count) {
+        mDateCountChanges.merge(new Pair<>(recordType, epochDays), count, Long::sum);
+        mAppCountChanges.merge(new Pair<>(recordType, appInfoId), count, Long::sum);
+    }
+}
@@ -20,12 +20,13 @@ import static android.health.connect.Constants.DEFAULT_LONG;
 import static android.health.connect.Constants.DEFAULT_PAGE_SIZE;
 import static android.health.connect.Constants.PARENT_KEY;
 import static android.health.connect.HealthConnectException.ERROR_INTERNAL;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_UNKNOWN;
 
-import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.APP_INFO_ID_COLUMN_NAME;
 import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
@@ -35,12 +36,13 @@ import android.database.sqlite.SQLiteException;
 import android.health.connect.Constants;
 import android.health.connect.HealthConnectException;
 import android.health.connect.internal.datatypes.RecordInternal;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.util.Pair;
 import android.util.Slog;
 
 import com.android.server.healthconnect.HealthConnectUserContext;
-import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
 import com.android.server.healthconnect.storage.request.AggregateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
@@ -53,14 +55,13 @@ import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 
 import java.io.File;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * A class to handle all the DB transaction request from the clients. {@link TransactionManager}
@@ -70,15 +71,24 @@ import java.util.function.BiConsumer;
  * @hide
  */
 public final class TransactionManager {
+    public static final int DEFAULT_READ_CONNECTION_POOL_SIZE = 4;
+    public static final int DEFAULT_WAL_AUTO_CHECKPOINT_PAGES = 1000;
     private static final String TAG = "HealthConnectTransactionMan";
     private static final ConcurrentHashMap<UserHandle, HealthConnectDatabase>
             mUserHandleToDatabaseMap = new ConcurrentHashMap<>();
     private static volatile TransactionManager sTransactionManager;
     private volatile HealthConnectDatabase mHealthConnectDatabase;
+    private volatile UserHandle mUserHandle;
+    private final ReadConnectionPool mReadConnectionPool =
+            new ReadConnectionPool(DEFAULT_READ_CONNECTION_POOL_SIZE);
+    private volatile boolean mWriteAheadLoggingEnabled = false;
+    private volatile int mWalAutoCheckpointPages = DEFAULT_WAL_AUTO_CHECKPOINT_PAGES;
+    private volatile String mLastCheckpoint = "none";
 
     private TransactionManager(@NonNull HealthConnectUserContext context) {
-        mHealthConnectDatabase = new HealthConnectDatabase(context);
-        mUserHandleToDatabaseMap.put(context.getCurrentUserHandle(), mHealthConnectDatabase);
+        mHealthConnectDatabase = createDatabase(context);
+        mUserHandle = context.getCurrentUserHandle();
+        mUserHandleToDatabaseMap.put(mUserHandle, mHealthConnectDatabase);
     }
 
     public void onUserUnlocked(@NonNull HealthConnectUserContext healthConnectUserContext) {
@@ -86,16 +96,26 @@ public final class TransactionManager {
                 healthConnectUserContext.getCurrentUserHandle())) {
             mUserHandleToDatabaseMap.put(
                     healthConnectUserContext.getCurrentUserHandle(),
-                    new HealthConnectDatabase(healthConnectUserContext));
+                    createDatabase(healthConnectUserContext));
         }
 
         mHealthConnectDatabase =
                 mUserHandleToDatabaseMap.get(healthConnectUserContext.getCurrentUserHandle());
+        mUserHandle = healthConnectUserContext.getCurrentUserHandle();
+    }
+
+    /** Returns the user whose database is currently used. */
+    @NonNull
+    public UserHandle getCurrentUserHandle() {
+        return mUserHandle;
     }
 
     /**
      * Inserts all the {@link RecordInternal} in {@code request} into the HealthConnect database.
      *
+     * <p>The {@link TransactionHook}s of {@code request} write their changes in the same
+     * transaction, and are notified once it is committed.
+     *
      * @param request an insert request.
      * @return List of uids of the inserted {@link RecordInternal}, in the same order as they
      *     presented to {@code request}.
@@ -107,36 +127,44 @@ public final class TransactionManager {
         }
 
         final SQLiteDatabase db = getWritableDb();
+        final RecordCountChanges countChanges = new RecordCountChanges();
         db.beginTransaction();
-        try {
+        try (InsertStatementCache statements = new InsertStatementCache(db)) {
             for (UpsertTableRequest upsertRequest : request.getUpsertRequests()) {
-                insertOrReplaceRecord(db, upsertRequest);
+                insertOrReplaceRecord(db, statements, upsertRequest, countChanges);
             }
             for (UpsertTableRequest insertRequestsForChangeLog :
                     request.getInsertRequestsForChangeLogs()) {
-                insertRecord(db, insertRequestsForChangeLog);
+                insertRecord(statements, insertRequestsForChangeLog);
             }
 
             for (UpsertTableRequest insertRequestsForAccessLogs : request.getAccessLogs()) {
-                insertRecord(db, insertRequestsForAccessLogs);
+                insertRecord(statements, insertRequestsForAccessLogs);
             }
 
+            countChanges.writeTo(db);
+            for (TransactionHook hook : request.getTransactionHooks()) {
+                hook.onWrite(db);
+            }
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
 
+        request.getTransactionHooks().forEach(TransactionHook::onCommitted);
         return request.getUUIdsInOrder();
     }
 
     /** Ignores if a record is already present. */
     public void insertAll(@NonNull List<UpsertTableRequest> requests) throws SQLiteException {
         final SQLiteDatabase db = getWritableDb();
+        final RecordCountChanges countChanges = new RecordCountChanges();
         db.beginTransaction();
-        try {
+        try (InsertStatementCache statements = new InsertStatementCache(db)) {
             for (UpsertTableRequest request : requests) {
-                insertOrIgnore(db, request);
+                insertOrIgnore(statements, request, countChanges);
             }
+            countChanges.writeTo(db);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -161,10 +189,13 @@ public final class TransactionManager {
      */
     public void insertOrIgnoreOnConflict(@NonNull List<UpsertTableRequest> upsertTableRequests) {
         final SQLiteDatabase db = getWritableDb();
+        final RecordCountChanges countChanges = new RecordCountChanges();
         db.beginTransaction();
-        try {
+        try (InsertStatementCache statements = new InsertStatementCache(db)) {
             upsertTableRequests.forEach(
-                    (upsertTableRequest) -> insertOrIgnore(db, upsertTableRequest));
+                    (upsertTableRequest) ->
+                            insertOrIgnore(statements, upsertTableRequest, countChanges));
+            countChanges.writeTo(db);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -181,16 +212,22 @@ public final class TransactionManager {
      */
     public int deleteAll(@NonNull DeleteTransactionRequest request) throws SQLiteException {
         final SQLiteDatabase db = getWritableDb();
+        final RecordCountChanges countChanges = new RecordCountChanges();
         db.beginTransaction();
         int numberOfRecordsDeleted = 0;
-        try {
+        try (InsertStatementCache statements = new InsertStatementCache(db)) {
             for (DeleteTableRequest deleteTableRequest : request.getDeleteTableRequests()) {
                 if (deleteTableRequest.requiresRead()) {
                     /*
                     Delete request needs UUID before the entry can be
                     deleted, fetch and set it in {@code request}
                     */
-                    try (Cursor cursor = db.rawQuery(deleteTableRequest.getReadCommand(), null)) {
+                    List<Object> readBindArgs = new ArrayList<>();
+                    try (Cursor cursor =
+                            StorageUtils.rawQuery(
+                                    db,
+                                    deleteTableRequest.getReadCommand(readBindArgs),
+                                    readBindArgs)) {
                         int numberOfUuidsToDelete = 0;
                         while (cursor.moveToNext()) {
                             numberOfUuidsToDelete++;
@@ -212,12 +249,13 @@ public final class TransactionManager {
                     }
                 }
                 numberOfRecordsDeleted += deleteTableRequest.getTotalNumberOfRecordsDeleted();
-                db.execSQL(deleteTableRequest.getDeleteCommand());
+                execRecordsDelete(db, deleteTableRequest, countChanges);
             }
 
             request.getChangeLogUpsertRequests()
-                    .forEach((insertRequest) -> insertRecord(db, insertRequest));
+                    .forEach((insertRequest) -> insertRecord(statements, insertRequest));
 
+            countChanges.writeTo(db);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -232,16 +270,60 @@ public final class TransactionManager {
      */
     @NonNull
     public void populateWithAggregation(AggregateTableRequest aggregateTableRequest) {
-        final SQLiteDatabase db = getReadableDb();
         if (!aggregateTableRequest.getRecordHelper().isRecordOperationsEnabled()) {
             return;
         }
-        try (Cursor cursor = db.rawQuery(aggregateTableRequest.getAggregationCommand(), null);
-                Cursor metaDataCursor =
-                        db.rawQuery(
-                                aggregateTableRequest.getCommandToFetchAggregateMetadata(), null)) {
-            aggregateTableRequest.onResultsFetched(cursor, metaDataCursor);
+        // Takes a single read connection for both statements. Each statement sees the latest
+        // commit when it runs, see runAsRead.
+        runAsRead(
+                db -> {
+                    List<Object> bindArgs = new ArrayList<>();
+                    List<Object> metaDataBindArgs = new ArrayList<>();
+                    try (Cursor cursor =
+                                    StorageUtils.rawQuery(
+                                            db,
+                                            aggregateTableRequest.getAggregationCommand(bindArgs),
+                                            bindArgs);
+                            Cursor metaDataCursor =
+                                    StorageUtils.rawQuery(
+                                            db,
+                                            aggregateTableRequest
+                                                    .getCommandToFetchAggregateMetadata(
+                                                            metaDataBindArgs),
+                                            metaDataBindArgs)) {
+                        aggregateTableRequest.onResultsFetched(cursor, metaDataCursor);
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Handles the aggregation requests for {@code aggregateTableRequests} with a single query.
+     *
+     * @param aggregateTableRequests aggregate requests with the same {@link
+     *     AggregateTableRequest#getFusionKey()}, which can all be fused, see {@link
+     *     AggregateTableRequest#canBeFused()}.
+     */
+    public void populateWithAggregation(
+            @NonNull List<AggregateTableRequest> aggregateTableRequests) {
+        if (aggregateTableRequests.size() == 1) {
+            populateWithAggregation(aggregateTableRequests.get(0));
+            return;
+        }
+
+        if (!aggregateTableRequests.get(0).getRecordHelper().isRecordOperationsEnabled()) {
+            return;
         }
+        List<Object> bindArgs = new ArrayList<>();
+        String command =
+                AggregateTableRequest.getFusedAggregationCommand(aggregateTableRequests, bindArgs);
+        runAsRead(
+                db -> {
+                    try (Cursor cursor = StorageUtils.rawQuery(db, command, bindArgs)) {
+                        AggregateTableRequest.onFusedResultsFetched(aggregateTableRequests, cursor);
+                    }
+                    return null;
+                });
     }
 
     /**
@@ -253,30 +335,40 @@ public final class TransactionManager {
     public List<RecordInternal<?>> readRecords(@NonNull ReadTransactionRequest request)
             throws SQLiteException {
         List<RecordInternal<?>> recordInternals = new ArrayList<>();
-        request.getReadRequests()
-                .forEach(
-                        (readTableRequest -> {
-                            if (readTableRequest.getRecordHelper().isRecordOperationsEnabled()) {
-                                try (Cursor cursor = read(readTableRequest)) {
-                                    Objects.requireNonNull(readTableRequest.getRecordHelper());
-                                    List<RecordInternal<?>> internalRecords =
-                                            readTableRequest
-                                                    .getRecordHelper()
-                                                    .getInternalRecords(cursor, DEFAULT_PAGE_SIZE);
-
-                                    populateInternalRecordsWithExtraData(
-                                            internalRecords, readTableRequest);
-
-                                    recordInternals.addAll(internalRecords);
-                                }
-                            }
-                        }));
+        // Counts as a single read, including the child table and extra data reads. Each statement
+        // sees the latest commit when it runs, see runAsRead.
+        runAsRead(
+                db -> {
+                    for (ReadTableRequest readTableRequest : request.getReadRequests()) {
+                        if (readTableRequest.getRecordHelper().isRecordOperationsEnabled()) {
+                            readRecords(readTableRequest, recordInternals);
+                        }
+                    }
+                    return null;
+                });
         return recordInternals;
     }
 
+    private void readRecords(
+            @NonNull ReadTableRequest readTableRequest,
+            @NonNull List<RecordInternal<?>> recordInternals) {
+        try (Cursor cursor = read(readTableRequest)) {
+            Objects.requireNonNull(readTableRequest.getRecordHelper());
+            List<RecordInternal<?>> internalRecords =
+                    readTableRequest
+                            .getRecordHelper()
+                            .getInternalRecords(cursor, DEFAULT_PAGE_SIZE);
+
+            readTableRequest.getRecordHelper().readChildTableData(internalRecords, this::read);
+            populateInternalRecordsWithExtraData(internalRecords, readTableRequest);
+
+            recordInternals.addAll(internalRecords);
+        }
+    }
+
     /**
      * Reads the records {@link RecordInternal} stored in the HealthConnect database and returns the
-     * max row_id as next page token.
+     * token of the next page, see {@link RecordHelper#getNextPageToken}.
      *
      * @param request a read request.
      * @return Pair containing records list read {@link RecordInternal} from the table and a next
@@ -299,16 +391,18 @@ public final class TransactionManager {
             return Pair.create(recordInternalList, token);
         }
 
-        try (Cursor cursor = read(readTableRequest)) {
-            recordInternalList = helper.getInternalRecords(cursor, readTableRequest.getPageSize());
-            String startTimeColumnName = helper.getStartTimeColumnName();
+        return runAsRead(
+                db -> {
+                    try (Cursor cursor = read(readTableRequest)) {
+                        List<RecordInternal<?>> records =
+                                helper.getInternalRecords(cursor, readTableRequest.getPageSize());
 
-            populateInternalRecordsWithExtraData(recordInternalList, readTableRequest);
-            if (cursor.moveToNext()) {
-                token = getCursorLong(cursor, startTimeColumnName);
-            }
-        }
-        return Pair.create(recordInternalList, token);
+                        helper.readChildTableData(records, this::read);
+                        populateInternalRecordsWithExtraData(records, readTableRequest);
+                        return Pair.create(
+                                records, helper.getNextPageToken(cursor, request.isAscending()));
+                    }
+                });
     }
 
     /**
@@ -343,7 +437,9 @@ public final class TransactionManager {
      */
     public void update(@NonNull UpsertTableRequest request) {
         final SQLiteDatabase db = getWritableDb();
-        updateRecord(db, request);
+        try (InsertStatementCache statements = new InsertStatementCache(db)) {
+            updateRecord(db, statements, request, /* countChanges= */ null);
+        }
     }
 
     /**
@@ -366,13 +462,33 @@ public final class TransactionManager {
         return insertOrReplaceRecord(db, request);
     }
 
-    /** Note: It is the responsibility of the caller to close the returned cursor */
+    /**
+     * Note: It is the responsibility of the caller to close the returned cursor
+     *
+     * <p>With write-ahead logging, only the first window of the cursor is filled while the read
+     * connection is held. Rows past it are read once the cursor gets there, which runs the query
+     * again on any free connection and sees the latest commit. The connection isn't held until
+     * the cursor is closed, as cursors are not always closed, nor closed on the thread that read
+     * them.
+     */
     @NonNull
     public Cursor read(@NonNull ReadTableRequest request) {
         if (Constants.DEBUG) {
             Slog.d(TAG, "Read query: " + request.getReadCommand());
         }
-        return getReadableDb().rawQuery(request.getReadCommand(), null);
+        return runAsRead(
+                db -> {
+                    Cursor cursor = read(db, request);
+                    try {
+                        // Runs the query now, while the read connection is held. This only fills
+                        // the first window of the cursor.
+                        cursor.getCount();
+                    } catch (RuntimeException e) {
+                        cursor.close();
+                        throw e;
+                    }
+                    return cursor;
+                });
     }
 
     public long getLastRowIdFor(String tableName) {
@@ -407,7 +523,7 @@ public final class TransactionManager {
 
     public void delete(DeleteTableRequest request) {
         final SQLiteDatabase db = getWritableDb();
-        db.execSQL(request.getDeleteCommand());
+        execDelete(db, request);
     }
 
     /**
@@ -417,62 +533,26 @@ public final class TransactionManager {
      */
     public void updateAll(@NonNull UpsertTransactionRequest request) {
         final SQLiteDatabase db = getWritableDb();
+        final RecordCountChanges countChanges = new RecordCountChanges();
         db.beginTransaction();
-        try {
+        try (InsertStatementCache statements = new InsertStatementCache(db)) {
             for (UpsertTableRequest upsertRequest : request.getUpsertRequests()) {
-                updateRecord(db, upsertRequest);
+                updateRecord(db, statements, upsertRequest, countChanges);
             }
             for (UpsertTableRequest insertRequestsForChangeLog :
                     request.getInsertRequestsForChangeLogs()) {
-                insertRecord(db, insertRequestsForChangeLog);
+                insertRecord(statements, insertRequestsForChangeLog);
             }
             for (UpsertTableRequest insertRequestsForAccessLogs : request.getAccessLogs()) {
-                insertRecord(db, insertRequestsForAccessLogs);
+                insertRecord(statements, insertRequestsForAccessLogs);
             }
+            countChanges.writeTo(db);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
     }
 
-    /**
-     * @return list of distinct packageNames corresponding to the input table name after querying
-     *     the table.
-     */
-    public HashMap<Integer, HashSet<String>> getDistinctPackageNamesForRecordsTable(
-            Set<Integer> recordTypes) throws SQLiteException {
-        final SQLiteDatabase db = getReadableDb();
-        HashMap<Integer, HashSet<String>> packagesForRecordTypeMap = new HashMap<>();
-        for (Integer recordType : recordTypes) {
-            RecordHelper<?> recordHelper =
-                    RecordHelperProvider.getInstance().getRecordHelper(recordType);
-            HashSet<String> packageNamesForDatatype = new HashSet<>();
-            try (Cursor cursorForDistinctPackageNames =
-                    db.rawQuery(
-                            /* sql query */
-                            recordHelper
-                                    .getReadTableRequestWithDistinctAppInfoIds()
-                                    .getReadCommand(),
-                            /* selectionArgs */ null)) {
-                if (cursorForDistinctPackageNames.getCount() > 0) {
-                    AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
-                    while (cursorForDistinctPackageNames.moveToNext()) {
-                        String packageName =
-                                appInfoHelper.getPackageName(
-                                        cursorForDistinctPackageNames.getLong(
-                                                cursorForDistinctPackageNames.getColumnIndex(
-                                                        APP_INFO_ID_COLUMN_NAME)));
-                        if (!packageName.isEmpty()) {
-                            packageNamesForDatatype.add(packageName);
-                        }
-                    }
-                }
-            }
-            packagesForRecordTypeMap.put(recordType, packageNamesForDatatype);
-        }
-        return packagesForRecordTypeMap;
-    }
-
     /**
      * ONLY DO OPERATIONS IN A SINGLE TRANSACTION HERE
      *
@@ -482,21 +562,122 @@ public final class TransactionManager {
     public void deleteWithoutChangeLogs(@NonNull List<DeleteTableRequest> deleteTableRequests) {
         Objects.requireNonNull(deleteTableRequests);
         final SQLiteDatabase db = getWritableDb();
+        final RecordCountChanges countChanges = new RecordCountChanges();
         db.beginTransaction();
         try {
             for (DeleteTableRequest deleteTableRequest : deleteTableRequests) {
-                db.execSQL(deleteTableRequest.getDeleteCommand());
+                execRecordsDelete(db, deleteTableRequest, countChanges);
             }
+            countChanges.writeTo(db);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
     }
 
+    /**
+     * Deletes the next chunk of at most {@code chunkSize} rows of {@code request}, set with {@link
+     * DeleteTableRequest#setRowIdChunk}, in a transaction of its own and without change logs. The
+     * end of the deleted chunk is set on {@code request} with {@link
+     * DeleteTableRequest#setLastRowId}, and is left unset if there were no rows to delete.
+     *
+     * @return the number of deleted rows, not including cascaded deletes.
+     */
+    public int deleteChunkWithoutChangeLogs(@NonNull DeleteTableRequest request, int chunkSize) {
+        Objects.requireNonNull(request);
+        final SQLiteDatabase db = getWritableDb();
+        final RecordCountChanges countChanges = new RecordCountChanges();
+        db.beginTransaction();
+        try {
+            List<Object> bindArgs = new ArrayList<>();
+            String chunkEndCommand = request.getChunkEndCommand(chunkSize, bindArgs);
+            int numberOfRowsDeleted;
+            try (Cursor cursor = StorageUtils.rawQuery(db, chunkEndCommand, bindArgs)) {
+                cursor.moveToFirst();
+                numberOfRowsDeleted =
+                        StorageUtils.getCursorInt(cursor, DeleteTableRequest.COUNT_COLUMN_NAME);
+                if (numberOfRowsDeleted > 0) {
+                    request.setLastRowId(
+                            getCursorLong(cursor, DeleteTableRequest.LAST_ROW_ID_COLUMN_NAME));
+                }
+            }
+            if (numberOfRowsDeleted > 0) {
+                execRecordsDelete(db, request, countChanges);
+                countChanges.writeTo(db);
+            }
+            db.setTransactionSuccessful();
+            return numberOfRowsDeleted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     public void onUserSwitching() {
+        // The access logs buffered for the current user can only be written while its database
+        // is still open.
+        try {
+            AccessLogsHelper.getInstance().flushAccessLogs();
+        } catch (Exception e) {
+            Slog.e(TAG, "Failed to write pending access logs", e);
+        }
         mHealthConnectDatabase.close();
     }
 
+    /**
+     * Updates whether databases use write-ahead logging and after how many pages the log is
+     * checkpointed, which apply from the next time a database is opened, and the number of reads
+     * that can run at once, which applies right away. Pool sizes below one are ignored.
+     */
+    public void updateDatabaseValues(
+            boolean writeAheadLoggingEnabled,
+            int readConnectionPoolSize,
+            int walAutoCheckpointPages) {
+        mWriteAheadLoggingEnabled = writeAheadLoggingEnabled;
+        mWalAutoCheckpointPages = walAutoCheckpointPages;
+        for (HealthConnectDatabase database : mUserHandleToDatabaseMap.values()) {
+            database.setWriteAheadLoggingConfig(writeAheadLoggingEnabled, walAutoCheckpointPages);
+        }
+        mReadConnectionPool.setSize(readConnectionPoolSize);
+    }
+
+    /**
+     * Copies the write-ahead log back into the database and truncates it, if the database uses
+     * write-ahead logging. Automatic checkpoints never shrink the log, so this is run after large
+     * deletes.
+     */
+    public void checkpointWriteAheadLog() {
+        final SQLiteDatabase db = getWritableDb();
+        if (!db.isWriteAheadLoggingEnabled()) {
+            return;
+        }
+        long startTimeMillis = SystemClock.uptimeMillis();
+        try (Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null)) {
+            cursor.moveToFirst();
+            // The columns are: busy (1 if the checkpoint couldn't complete), pages in the log and
+            // pages checkpointed.
+            mLastCheckpoint =
+                    "busy="
+                            + cursor.getInt(0)
+                            + " log pages="
+                            + cursor.getInt(1)
+                            + " checkpointed pages="
+                            + cursor.getInt(2)
+                            + " ms="
+                            + (SystemClock.uptimeMillis() - startTimeMillis);
+        }
+    }
+
+    /** Writes the write-ahead logging settings and read connection usage to {@code writer}. */
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println(
+                "Write-ahead logging: enabled="
+                        + mWriteAheadLoggingEnabled
+                        + " auto checkpoint pages="
+                        + mWalAutoCheckpointPages);
+        writer.println("  last checkpoint: " + mLastCheckpoint);
+        mReadConnectionPool.dump(writer);
+    }
+
     private void insertAll(
             @NonNull List<UpsertTableRequest> upsertTableRequests,
             @NonNull BiConsumer<SQLiteDatabase, UpsertTableRequest> insert) {
@@ -524,34 +705,58 @@ public final class TransactionManager {
 
     /** Assumes that caller will be closing {@code db} and handling the transaction if required */
     public long insertRecord(@NonNull SQLiteDatabase db, @NonNull UpsertTableRequest request) {
-        long rowId = db.insertOrThrow(request.getTable(), null, request.getContentValues());
-        request.getChildTableRequests()
-                .forEach(childRequest -> insertRecord(db, childRequest.withParentKey(rowId)));
-
-        return rowId;
+        try (InsertStatementCache statements = new InsertStatementCache(db)) {
+            return insertRecord(statements, request);
+        }
     }
 
     /**
-     * Inserts the provided {@link UpsertTableRequest} into the database.
+     * Inserts the provided {@link UpsertTableRequest} into the database. Inserted records are
+     * counted in the activity dates and app record types right away.
      *
      * <p>Assumes that caller will be closing {@code db} and handling the transaction if required.
      *
      * @return the row ID of the newly inserted row or <code>-1</code> if an error occurred.
      */
     public long insertOrIgnore(@NonNull SQLiteDatabase db, @NonNull UpsertTableRequest request) {
-        long rowId =
-                db.insertWithOnConflict(
-                        request.getTable(),
-                        null,
-                        request.getContentValues(),
-                        SQLiteDatabase.CONFLICT_IGNORE);
+        final RecordCountChanges countChanges = new RecordCountChanges();
+        try (InsertStatementCache statements = new InsertStatementCache(db)) {
+            long rowId = insertOrIgnore(statements, request, countChanges);
+            countChanges.writeTo(db);
+            return rowId;
+        }
+    }
 
-        if (rowId != -1) {
-            request.getChildTableRequests()
-                    .forEach(childRequest -> insertRecord(db, childRequest.withParentKey(rowId)));
+    /**
+     * Runs {@code read} on the readable database. With write-ahead logging, reads outside of
+     * transactions run on read-only connections, of which {@link #mReadConnectionPool} limits how
+     * many are used at once. Without it, reads and writes share a single connection.
+     *
+     * <p>{@code read} takes a single slot of the pool however many statements it runs, but each
+     * statement sees the latest commit when it runs, so e.g. child table rows can be read from a
+     * later commit than their parent rows. Keeping them on one snapshot needs a read transaction,
+     * which the platform only offers on read-only connections from API level 35. A transaction on
+     * the primary connection would serialize these reads with writes again.
+     */
+    private <T> T runAsRead(@NonNull Function<SQLiteDatabase, T> read) {
+        final SQLiteDatabase db = getReadableDb();
+        // Reads in a transaction run on the connection of the transaction.
+        if (!db.isWriteAheadLoggingEnabled() || db.inTransaction()) {
+            return read.apply(db);
         }
+        mReadConnectionPool.acquire();
+        try {
+            return read.apply(db);
+        } finally {
+            mReadConnectionPool.release();
+        }
+    }
 
-        return rowId;
+    @NonNull
+    private HealthConnectDatabase createDatabase(@NonNull HealthConnectUserContext context) {
+        HealthConnectDatabase database = new HealthConnectDatabase(context);
+        database.setWriteAheadLoggingConfig(mWriteAheadLoggingEnabled, mWalAutoCheckpointPages);
+        return database;
     }
 
     /** Note: NEVER close this DB */
@@ -593,27 +798,39 @@ public final class TransactionManager {
         return getReadableDb().getVersion();
     }
 
-    private void updateRecord(SQLiteDatabase db, UpsertTableRequest request) {
-        // Perform an update operation where UUID and packageName (mapped by appInfoId) is same
-        // as that of the update request.
-        try {
-            long numberOfRowsUpdated =
-                    db.update(
-                            request.getTable(),
-                            request.getContentValues(),
-                            request.getUpdateWhereClauses().get(/* withWhereKeyword */ false),
-                            /* WHERE args */ null);
-
-            // throw an exception if the no row was updated, i.e. the uuid with corresponding
+    private void updateRecord(
+            SQLiteDatabase db,
+            InsertStatementCache statements,
+            UpsertTableRequest request,
+            @Nullable RecordCountChanges countChanges) {
+        // Read the row first, its local date is needed to move its count and its row id to
+        // replace its children.
+        final long rowId;
+        try (Cursor cursor = read(db, request.getReadRequestUsingUpdateClause())) {
+            // throw an exception if no row is found, i.e. the uuid with corresponding
             // app_id_info for this request is not found in the table.
-            if (numberOfRowsUpdated == 0) {
+            if (!cursor.moveToFirst()) {
                 throw new IllegalArgumentException(
                         "No record found for the following input : "
                                 + new StorageUtils.RecordIdentifierData(
                                         request.getContentValues()));
             }
+            rowId = StorageUtils.getCursorLong(cursor, request.getRowIdColName());
+            if (countChanges != null) {
+                countChanges.onRecordReplaced(request, cursor);
+            }
+        }
+
+        // Perform an update operation where UUID and packageName (mapped by appInfoId) is same
+        // as that of the update request.
+        try {
+            db.update(
+                    request.getTable(),
+                    request.getContentValues(),
+                    request.getUpdateWhereClauses().get(/* withWhereKeyword */ false),
+                    /* WHERE args */ null);
         } catch (SQLiteConstraintException e) {
-            try (Cursor cursor = db.rawQuery(request.getReadRequest().getReadCommand(), null)) {
+            try (Cursor cursor = read(db, request.getReadRequest())) {
                 cursor.moveToFirst();
                 throw new IllegalArgumentException(
                         StorageUtils.getConflictErrorMessageForRecord(
@@ -625,16 +842,8 @@ public final class TransactionManager {
             return;
         }
 
-        try (Cursor cursor =
-                db.rawQuery(request.getReadRequestUsingUpdateClause().getReadCommand(), null)) {
-            if (!cursor.moveToFirst()) {
-                throw new HealthConnectException(
-                        ERROR_INTERNAL, "Expected to read an entry for update, but none found");
-            }
-            final long rowId = StorageUtils.getCursorLong(cursor, request.getRowIdColName());
-            deleteChildTableRequest(request, rowId, db);
-            insertChildTableRequest(request, rowId, db);
-        }
+        deleteChildTableRequest(request, rowId, db);
+        statements.insertChildren(request.getChildTableRequests(), rowId);
     }
 
     /**
@@ -662,6 +871,16 @@ public final class TransactionManager {
      */
     private long insertOrReplaceRecord(
             @NonNull SQLiteDatabase db, @NonNull UpsertTableRequest request) {
+        try (InsertStatementCache statements = new InsertStatementCache(db)) {
+            return insertOrReplaceRecord(db, statements, request, /* countChanges= */ null);
+        }
+    }
+
+    private long insertOrReplaceRecord(
+            @NonNull SQLiteDatabase db,
+            @NonNull InsertStatementCache statements,
+            @NonNull UpsertTableRequest request,
+            @Nullable RecordCountChanges countChanges) {
         try {
             if (request.getUniqueColumnsCount() == 0) {
                 throw new RuntimeException(
@@ -669,30 +888,39 @@ public final class TransactionManager {
             }
 
             long rowId =
-                    db.insertWithOnConflict(
+                    statements.insert(
                             request.getTable(),
-                            null,
                             request.getContentValues(),
                             SQLiteDatabase.CONFLICT_FAIL);
-            insertChildTableRequest(request, rowId, db);
+            statements.insertChildren(request.getChildTableRequests(), rowId);
+            if (countChanges != null) {
+                countChanges.onRecordInserted(request);
+            }
             return rowId;
         } catch (SQLiteConstraintException e) {
-            try (Cursor cursor = db.rawQuery(request.getReadRequest().getReadCommand(), null)) {
+            try (Cursor cursor = read(db, request.getReadRequest())) {
                 if (!cursor.moveToFirst()) {
                     throw new HealthConnectException(
                             ERROR_INTERNAL, "Conflict found, but couldn't read the entry.");
                 }
 
-                return updateEntriesIfRequired(db, request, cursor);
+                return updateEntriesIfRequired(db, statements, request, cursor, countChanges);
             }
         }
     }
 
     private long updateEntriesIfRequired(
-            SQLiteDatabase db, UpsertTableRequest request, Cursor cursor) {
+            SQLiteDatabase db,
+            InsertStatementCache statements,
+            UpsertTableRequest request,
+            Cursor cursor,
+            @Nullable RecordCountChanges countChanges) {
         if (!request.requiresUpdate(cursor, request)) {
             return -1;
         }
+        if (countChanges != null) {
+            countChanges.onRecordReplaced(request, cursor);
+        }
 
         db.update(
                 request.getTable(),
@@ -708,7 +936,7 @@ public final class TransactionManager {
         }
         final long rowId = StorageUtils.getCursorLong(cursor, request.getRowIdColName());
         deleteChildTableRequest(request, rowId, db);
-        insertChildTableRequest(request, rowId, db);
+        statements.insertChildren(request.getChildTableRequests(), rowId);
 
         return rowId;
     }
@@ -718,18 +946,71 @@ public final class TransactionManager {
         for (String childTable : request.getAllChildTablesToDelete()) {
             DeleteTableRequest deleteTableRequest =
                     new DeleteTableRequest(childTable).setId(PARENT_KEY, String.valueOf(rowId));
-            db.execSQL(deleteTableRequest.getDeleteCommand());
+            execDelete(db, deleteTableRequest);
         }
     }
 
-    private void insertChildTableRequest(
-            UpsertTableRequest request, long rowId, SQLiteDatabase db) {
-        for (UpsertTableRequest childTableRequest : request.getChildTableRequests()) {
-            db.insertOrThrow(
-                    childTableRequest.withParentKey(rowId).getTable(),
-                    null,
-                    childTableRequest.getContentValues());
+    private long insertRecord(
+            @NonNull InsertStatementCache statements, @NonNull UpsertTableRequest request) {
+        long rowId =
+                statements.insert(
+                        request.getTable(),
+                        request.getContentValues(),
+                        SQLiteDatabase.CONFLICT_NONE);
+        statements.insertChildren(request.getChildTableRequests(), rowId);
+
+        return rowId;
+    }
+
+    private long insertOrIgnore(
+            @NonNull InsertStatementCache statements,
+            @NonNull UpsertTableRequest request,
+            @NonNull RecordCountChanges countChanges) {
+        long rowId =
+                statements.insert(
+                        request.getTable(),
+                        request.getContentValues(),
+                        SQLiteDatabase.CONFLICT_IGNORE);
+
+        if (rowId != -1) {
+            statements.insertChildren(request.getChildTableRequests(), rowId);
+            countChanges.onRecordInserted(request);
         }
+
+        return rowId;
+    }
+
+    @NonNull
+    private static Cursor read(@NonNull SQLiteDatabase db, @NonNull ReadTableRequest request) {
+        List<Object> bindArgs = new ArrayList<>();
+        String readCommand = request.getReadCommand(bindArgs);
+        return StorageUtils.rawQuery(db, readCommand, bindArgs);
+    }
+
+    private static void execDelete(
+            @NonNull SQLiteDatabase db, @NonNull DeleteTableRequest request) {
+        List<Object> bindArgs = new ArrayList<>();
+        String deleteCommand = request.getDeleteCommand(bindArgs);
+        db.execSQL(deleteCommand, bindArgs.toArray());
+    }
+
+    /** Same as {@link #execDelete}, but first uncounts the deleted records if any. */
+    private static void execRecordsDelete(
+            @NonNull SQLiteDatabase db,
+            @NonNull DeleteTableRequest request,
+            @NonNull RecordCountChanges countChanges) {
+        if (request.getRecordType() != RECORD_TYPE_UNKNOWN) {
+            RecordHelper<?> helper =
+                    RecordHelperProvider.getInstance().getRecordHelper(request.getRecordType());
+            List<Object> bindArgs = new ArrayList<>();
+            String countCommand =
+                    request.getCountCommand(
+                            RecordCountChanges.getGroupByColumnNames(helper), bindArgs);
+            try (Cursor cursor = StorageUtils.rawQuery(db, countCommand, bindArgs)) {
+                countChanges.onRecordsDeleted(helper, cursor);
+            }
+        }
+        execDelete(db, request);
     }
 
     public interface TransactionRunnable<E extends Throwable> {
@@ -752,4 +1033,21 @@ public final class TransactionManager {
 
         return sTransactionManager;
     }
+
+    /**
+     * Bookkeeping that has to be written together with the records of an {@link
+     * UpsertTransactionRequest}, registered with {@link
+     * UpsertTransactionRequest#addTransactionHook}.
+     */
+    public interface TransactionHook {
+        /**
+         * Writes the changes of this hook to {@code db}, inside the transaction inserting the
+         * records. Must not begin or end transactions, nor wait on locks held while writing to the
+         * database.
+         */
+        void onWrite(@NonNull SQLiteDatabase db);
+
+        /** Called after the transaction is committed, to update in-memory state. */
+        default void onCommitted() {}
+    }
 }
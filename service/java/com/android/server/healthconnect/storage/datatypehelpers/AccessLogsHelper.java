@@ -33,8 +33,11 @@ import android.database.sqlite.SQLiteDatabase;
 import android.health.connect.accesslog.AccessLog;
 import android.health.connect.accesslog.AccessLog.OperationType;
 import android.health.connect.datatypes.RecordTypeIdentifier;
+import android.os.UserHandle;
 import android.util.Pair;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.server.healthconnect.HealthConnectThreadScheduler;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
@@ -44,7 +47,10 @@ import com.android.server.healthconnect.storage.request.UpsertTableRequest;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 /**
@@ -60,8 +66,20 @@ public final class AccessLogsHelper {
     private static final String OPERATION_TYPE_COLUMN_NAME = "operation_type";
     private static final int NUM_COLS = 5;
     private static final int DEFAULT_ACCESS_LOG_TIME_PERIOD_IN_DAYS = 7;
+    // Number of distinct access logs kept in memory before they are written by the caller.
+    private static final int MAX_PENDING_ACCESS_LOGS = 100;
     private static volatile AccessLogsHelper sAccessLogsHelper;
 
+    private final Object mPendingAccessLogsLock = new Object();
+
+    // Access logs not written yet, mapped to their latest access time. Each belongs to the user
+    // whose database was used when it was added, and is only written to that database.
+    @GuardedBy("mPendingAccessLogsLock")
+    private Map<PendingAccessLog, Long> mPendingAccessLogs = new LinkedHashMap<>();
+
+    @GuardedBy("mPendingAccessLogsLock")
+    private boolean mIsFlushScheduled;
+
     private AccessLogsHelper() {}
 
     @NonNull
@@ -73,6 +91,7 @@ public final class AccessLogsHelper {
      * @return AccessLog list
      */
     public List<AccessLog> queryAccessLogs() {
+        flushAccessLogs();
         final ReadTableRequest readTableRequest = new ReadTableRequest(TABLE_NAME);
 
         List<AccessLog> accessLogsList = new ArrayList<>();
@@ -98,26 +117,96 @@ public final class AccessLogsHelper {
         return accessLogsList;
     }
 
-    /** Adds an entry in to the access logs table for every insert or read operation request */
+    /**
+     * Adds an entry in to the access logs table for every insert or read operation request.
+     *
+     * <p>The entry is kept in memory and written later on the internal thread, together with the
+     * other pending entries. Until then, an identical entry replaces it with its newer access
+     * time. Pending entries are written before access logs are queried, and by {@link
+     * #flushAccessLogs}.
+     *
+     * <p>The app of the entry is looked up right away, in the app info table of the current user.
+     */
     public void addAccessLog(
             String packageName,
             @RecordTypeIdentifier.RecordType List<Integer> recordTypeList,
             @OperationType.OperationTypes int operationType) {
-        UpsertTableRequest request =
-                getUpsertTableRequest(packageName, recordTypeList, operationType);
-        TransactionManager.getInitialisedInstance().insert(request);
+        PendingAccessLog accessLog =
+                new PendingAccessLog(
+                        TransactionManager.getInitialisedInstance().getCurrentUserHandle(),
+                        AppInfoHelper.getInstance().getAppInfoId(packageName),
+                        recordTypeList,
+                        operationType);
+        boolean scheduleFlush;
+        boolean flushNow;
+        synchronized (mPendingAccessLogsLock) {
+            mPendingAccessLogs.put(accessLog, Instant.now().toEpochMilli());
+            flushNow = mPendingAccessLogs.size() >= MAX_PENDING_ACCESS_LOGS;
+            scheduleFlush = !flushNow && !mIsFlushScheduled;
+            mIsFlushScheduled |= scheduleFlush;
+        }
+
+        if (flushNow) {
+            flushAccessLogs();
+        } else if (scheduleFlush) {
+            HealthConnectThreadScheduler.scheduleInternalTask(this::flushAccessLogs);
+        }
+    }
+
+    /**
+     * Writes the access logs added for the current user since the last flush, in a single
+     * transaction. Access logs left from other users are dropped, as their databases are closed.
+     */
+    public void flushAccessLogs() {
+        Map<PendingAccessLog, Long> pendingAccessLogs;
+        synchronized (mPendingAccessLogsLock) {
+            pendingAccessLogs = mPendingAccessLogs;
+            mPendingAccessLogs = new LinkedHashMap<>();
+            mIsFlushScheduled = false;
+        }
+        if (pendingAccessLogs.isEmpty()) {
+            return;
+        }
+
+        TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
+        UserHandle currentUser = transactionManager.getCurrentUserHandle();
+        List<UpsertTableRequest> requests = new ArrayList<>(pendingAccessLogs.size());
+        for (Map.Entry<PendingAccessLog, Long> entry : pendingAccessLogs.entrySet()) {
+            PendingAccessLog accessLog = entry.getKey();
+            if (!accessLog.mUserHandle.equals(currentUser)) {
+                continue;
+            }
+            requests.add(
+                    getUpsertTableRequest(
+                            accessLog.mAppInfoId,
+                            accessLog.mRecordTypes,
+                            accessLog.mOperationType,
+                            entry.getValue()));
+        }
+        if (!requests.isEmpty()) {
+            transactionManager.insertAll(requests);
+        }
     }
 
     @NonNull
     public UpsertTableRequest getUpsertTableRequest(
             String packageName, List<Integer> recordTypeList, int operationType) {
+        return getUpsertTableRequest(
+                AppInfoHelper.getInstance().getAppInfoId(packageName),
+                recordTypeList,
+                operationType,
+                Instant.now().toEpochMilli());
+    }
+
+    @NonNull
+    private static UpsertTableRequest getUpsertTableRequest(
+            long appInfoId, List<Integer> recordTypeList, int operationType, long accessTime) {
         ContentValues contentValues = new ContentValues();
         contentValues.put(
                 RECORD_TYPE_COLUMN_NAME,
                 recordTypeList.stream().map(String::valueOf).collect(Collectors.joining(",")));
-        contentValues.put(
-                APP_ID_COLUMN_NAME, AppInfoHelper.getInstance().getAppInfoId(packageName));
-        contentValues.put(ACCESS_TIME_COLUMN_NAME, Instant.now().toEpochMilli());
+        contentValues.put(APP_ID_COLUMN_NAME, appInfoId);
+        contentValues.put(ACCESS_TIME_COLUMN_NAME, accessTime);
         contentValues.put(OPERATION_TYPE_COLUMN_NAME, operationType);
 
         return new UpsertTableRequest(TABLE_NAME, contentValues);
@@ -151,6 +240,40 @@ public final class AccessLogsHelper {
 
     public void onUpgrade(int oldVersion, int newVersion, SQLiteDatabase db) {}
 
+    private static final class PendingAccessLog {
+        private final UserHandle mUserHandle;
+        private final long mAppInfoId;
+        private final List<Integer> mRecordTypes;
+        private final int mOperationType;
+
+        private PendingAccessLog(
+                UserHandle userHandle,
+                long appInfoId,
+                List<Integer> recordTypes,
+                int operationType) {
+            mUserHandle = userHandle;
+            mAppInfoId = appInfoId;
+            mRecordTypes = List.copyOf(recordTypes);
+            mOperationType = operationType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PendingAccessLog)) return false;
+            PendingAccessLog that = (PendingAccessLog) o;
+            return mAppInfoId == that.mAppInfoId
+                    && mOperationType == that.mOperationType
+                    && mUserHandle.equals(that.mUserHandle)
+                    && mRecordTypes.equals(that.mRecordTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mUserHandle, mAppInfoId, mRecordTypes, mOperationType);
+        }
+    }
+
     public static synchronized AccessLogsHelper getInstance() {
         if (sAccessLogsHelper == null) {
             sAccessLogsHelper = new AccessLogsHelper();
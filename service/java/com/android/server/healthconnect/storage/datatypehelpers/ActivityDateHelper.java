@@ -16,39 +16,41 @@
 
 package com.android.server.healthconnect.storage.datatypehelpers;
 
+import static com.android.server.healthconnect.storage.HealthConnectDatabase.DB_VERSION_RECORD_COUNTS;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER_NOT_NULL;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.PRIMARY_AUTOINCREMENT;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
 
 import android.annotation.NonNull;
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.health.connect.datatypes.Record;
-import android.health.connect.internal.datatypes.RecordInternal;
 import android.health.connect.internal.datatypes.utils.RecordMapper;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.HealthConnectDatabase;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
-import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.DropTableRequest;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
- * Helper for Activity Date Table. The table maps a record to a date on which there was a db write
- * for that record
+ * Helper for Activity Date Table. The table counts the records of each record type per local date.
+ *
+ * <p>Counts are updated by {@link TransactionManager} in the same transaction as the records they
+ * count. Rows whose count has dropped to zero are only removed by {@link
+ * #deleteDatesWithoutRecords()}, hence dates are read with a non zero count filter.
  *
  * @hide
  */
@@ -56,6 +58,7 @@ public final class ActivityDateHelper {
     private static final String TABLE_NAME = "activity_date_table";
     private static final String EPOCH_DAYS_COLUMN_NAME = "epoch_days";
     private static final String RECORD_TYPE_ID_COLUMN_NAME = "record_type_id";
+    private static final String RECORD_COUNT_COLUMN_NAME = "record_count";
     private static volatile ActivityDateHelper sActivityDateHelper;
 
     private ActivityDateHelper() {}
@@ -71,28 +74,67 @@ public final class ActivityDateHelper {
     }
 
     /** Called on DB update. */
-    public void onUpgrade(int oldVersion, int newVersion, @NonNull SQLiteDatabase db) {}
+    public void onUpgrade(int oldVersion, int newVersion, @NonNull SQLiteDatabase db) {
+        if (oldVersion < DB_VERSION_RECORD_COUNTS) {
+            // The table only held dates so far, rebuild it with the counts from the record tables.
+            db.execSQL(new DropTableRequest(TABLE_NAME).getCommand());
+            HealthConnectDatabase.createTable(db, getCreateTableRequest());
+            for (RecordHelper<?> recordHelper :
+                    RecordHelperProvider.getInstance().getRecordHelpers().values()) {
+                db.execSQL(
+                        "INSERT INTO "
+                                + TABLE_NAME
+                                + " ("
+                                + RECORD_TYPE_ID_COLUMN_NAME
+                                + ", "
+                                + EPOCH_DAYS_COLUMN_NAME
+                                + ", "
+                                + RECORD_COUNT_COLUMN_NAME
+                                + ") SELECT "
+                                + recordHelper.getRecordIdentifier()
+                                + ", "
+                                + recordHelper.getPeriodGroupByColumnName()
+                                + ", COUNT(*) FROM "
+                                + recordHelper.getMainTableName()
+                                + " GROUP BY "
+                                + recordHelper.getPeriodGroupByColumnName());
+            }
+        }
+    }
 
     /** Deletes all entries from the database and clears the cache. */
     public synchronized void clearData(TransactionManager transactionManager) {
         transactionManager.delete(new DeleteTableRequest(TABLE_NAME));
     }
 
-    /** Insert a new activity dates for the given records */
-    @NonNull
-    public void insertRecordDate(@NonNull List<RecordInternal<?>> recordInternals) {
-        Objects.requireNonNull(recordInternals);
-
-        final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
-
-        List<UpsertTableRequest> upsertTableRequests = new ArrayList<>();
-        recordInternals.forEach(
-                (recordInternal) -> upsertTableRequests.add(getUpsertTableRequest(recordInternal)));
+    /**
+     * Adds {@code countChanges}, keyed by record type and epoch day, to the record counts.
+     *
+     * <p>Assumes that caller is handling the transaction the records are written in.
+     */
+    public void updateRecordCounts(
+            @NonNull SQLiteDatabase db, @NonNull Map<Pair<Integer, Long>, Long> countChanges) {
+        StorageUtils.addToCounts(
+                db,
+                TABLE_NAME,
+                RECORD_TYPE_ID_COLUMN_NAME,
+                EPOCH_DAYS_COLUMN_NAME,
+                RECORD_COUNT_COLUMN_NAME,
+                countChanges);
+    }
 
-        transactionManager.insertOrIgnoreOnConflict(upsertTableRequests);
+    /** Deletes the dates on which no records are left. */
+    public void deleteDatesWithoutRecords() {
+        TransactionManager.getInitialisedInstance()
+                .delete(
+                        new DeleteTableRequest(TABLE_NAME)
+                                .setWhereClauses(
+                                        new WhereClauses()
+                                                .addWhereLessThanOrEqualClause(
+                                                        RECORD_COUNT_COLUMN_NAME, 0)));
     }
 
-    /** Returns a list of all dates with database writes for the given record types */
+    /** Returns a list of all dates with records for the given record types */
     @NonNull
     public List<LocalDate> getActivityDates(@NonNull List<Class<? extends Record>> recordTypes) {
         RecordMapper recordMapper = RecordMapper.getInstance();
@@ -104,89 +146,19 @@ public final class ActivityDateHelper {
                         .setWhereClause(
                                 new WhereClauses()
                                         .addWhereInIntsClause(
-                                                RECORD_TYPE_ID_COLUMN_NAME, recordTypeIds))
+                                                RECORD_TYPE_ID_COLUMN_NAME, recordTypeIds)
+                                        .addWhereGreaterThanClause(RECORD_COUNT_COLUMN_NAME, 0))
                         .setColumnNames(List.of(EPOCH_DAYS_COLUMN_NAME))
                         .setDistinctClause(true));
     }
 
-    public void reSyncForAllRecords() {
-        List<Integer> recordTypeIds =
-                RecordMapper.getInstance().getRecordIdToExternalRecordClassMap().keySet().stream()
-                        .toList();
-
-        reSyncByRecordTypeIds(recordTypeIds);
-    }
-
-    public void reSyncByRecordTypeIds(List<Integer> recordTypeIds) {
-        List<UpsertTableRequest> upsertTableRequests = new ArrayList<>();
-        final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
-
-        DeleteTableRequest deleteTableRequest =
-                new DeleteTableRequest(TABLE_NAME)
-                        .setIds(
-                                RECORD_TYPE_ID_COLUMN_NAME,
-                                recordTypeIds.stream().map(String::valueOf).toList());
-
-        // Fetch updated dates from respective record table and update the activity dates cache.
-        HashMap<Integer, List<Long>> recordTypeIdToEpochDays =
-                fetchUpdatedDates(recordTypeIds, transactionManager);
-
-        recordTypeIdToEpochDays.forEach(
-                (recordTypeId, epochDays) ->
-                        epochDays.forEach(
-                                (epochDay) ->
-                                        upsertTableRequests.add(
-                                                getUpsertTableRequest(recordTypeId, epochDay))));
-
-        transactionManager.runAsTransaction(
-                db -> {
-                    db.execSQL(deleteTableRequest.getDeleteCommand());
-                    upsertTableRequests.forEach(
-                            upsertTableRequest ->
-                                    transactionManager.insertOrIgnore(db, upsertTableRequest));
-                });
-    }
-
     @NonNull
     List<Pair<String, String>> getColumnInfo() {
         return Arrays.asList(
                 new Pair<>(RecordHelper.PRIMARY_COLUMN_NAME, PRIMARY_AUTOINCREMENT),
                 new Pair<>(EPOCH_DAYS_COLUMN_NAME, INTEGER_NOT_NULL),
-                new Pair<>(RECORD_TYPE_ID_COLUMN_NAME, INTEGER_NOT_NULL));
-    }
-
-    private HashMap<Integer, List<Long>> fetchUpdatedDates(
-            List<Integer> recordTypeIds, TransactionManager transactionManager) {
-
-        ReadTableRequest request;
-        RecordHelper<?> recordHelper;
-        HashMap<Integer, List<Long>> recordTypeIdToEpochDays = new HashMap<>();
-        for (int recordTypeId : recordTypeIds) {
-            recordHelper = RecordHelperProvider.getInstance().getRecordHelper(recordTypeId);
-            request =
-                    new ReadTableRequest(recordHelper.getMainTableName())
-                            .setColumnNames(List.of(recordHelper.getPeriodGroupByColumnName()))
-                            .setDistinctClause(true);
-            try (Cursor cursor = transactionManager.read(request)) {
-                List<Long> distinctDates = new ArrayList<>();
-                while (cursor.moveToNext()) {
-                    long epochDay =
-                            getCursorLong(cursor, recordHelper.getPeriodGroupByColumnName());
-                    distinctDates.add(epochDay);
-                }
-                recordTypeIdToEpochDays.put(recordTypeId, distinctDates);
-            }
-        }
-        return recordTypeIdToEpochDays;
-    }
-
-    @NonNull
-    private ContentValues getContentValues(int recordTypeId, long epochDays) {
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(EPOCH_DAYS_COLUMN_NAME, epochDays);
-        contentValues.put(RECORD_TYPE_ID_COLUMN_NAME, recordTypeId);
-
-        return contentValues;
+                new Pair<>(RECORD_TYPE_ID_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(RECORD_COUNT_COLUMN_NAME, INTEGER_NOT_NULL));
     }
 
     /**
@@ -215,16 +187,4 @@ public final class ActivityDateHelper {
 
         return sActivityDateHelper;
     }
-
-    /** Creates UpsertTableRequest to insert into activity_date_table table. */
-    public UpsertTableRequest getUpsertTableRequest(int recordTypeId, long epochDays) {
-        return new UpsertTableRequest(TABLE_NAME, getContentValues(recordTypeId, epochDays));
-    }
-
-    /** Creates UpsertTableRequest to insert into activity_date_table table from recordInternal. */
-    public UpsertTableRequest getUpsertTableRequest(RecordInternal<?> recordInternal) {
-        return getUpsertTableRequest(
-                recordInternal.getRecordType(),
-                ChronoUnit.DAYS.between(LocalDate.EPOCH, recordInternal.getLocalDate()));
-    }
 }
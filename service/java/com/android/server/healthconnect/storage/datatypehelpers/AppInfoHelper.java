@@ -349,7 +349,9 @@ public final class AppInfoHelper {
     }
 
     /**
-     * Updates recordTypesUsed for the {@code packageName} in app info table.
+     * Returns a hook adding {@code recordTypes} to recordTypesUsed for the {@code packageName} in
+     * app info table, within the transaction inserting the records. Returns null if all of them are
+     * already known to be used by the package.
      *
      * <p><b>NOTE:</b> This method should only be used for insert operation on recordType tables.
      * Should not be called elsewhere.
@@ -357,12 +359,13 @@ public final class AppInfoHelper {
      * <p>see {@link AppInfoHelper#syncAppInfoMapRecordTypesUsed(Map)}} for updating this table
      * during delete operations on recordTypes.
      *
-     * @param recordTypes The record types that needs to be inserted.
      * @param packageName The package for which the records need to be inserted.
+     * @param recordTypes The record types that needs to be inserted.
      */
     @SuppressLint("LongLogTag")
-    public synchronized void updateAppInfoRecordTypesUsedOnInsert(
-            Set<Integer> recordTypes, String packageName) {
+    @Nullable
+    public TransactionManager.TransactionHook getRecordTypesUsedOnInsertHook(
+            @NonNull String packageName, @NonNull Set<Integer> recordTypes) {
         AppInfoInternal appInfo = getAppInfoMap().get(packageName);
         if (appInfo == null) {
             Log.e(
@@ -372,19 +375,26 @@ public final class AppInfoHelper {
                             + " does not exist. "
                             + "Hence recordTypesUsed is not getting updated.");
 
-            return;
+            return null;
         }
 
-        if (recordTypes == null || recordTypes.isEmpty()) {
-            return;
-        }
-        Set<Integer> updatedRecordTypes = new HashSet<>(recordTypes);
-        if (appInfo.getRecordTypesUsed() != null) {
-            updatedRecordTypes.addAll(appInfo.getRecordTypesUsed());
-        }
-        if (!updatedRecordTypes.equals(appInfo.getRecordTypesUsed())) {
-            updateAppInfoRecordTypesUsedSync(packageName, appInfo, updatedRecordTypes);
+        Set<Integer> recordTypesUsed = appInfo.getRecordTypesUsed();
+        if (recordTypes.isEmpty()
+                || (recordTypesUsed != null && recordTypesUsed.containsAll(recordTypes))) {
+            return null;
         }
+        Set<Integer> insertedRecordTypes = Set.copyOf(recordTypes);
+        return new TransactionManager.TransactionHook() {
+            @Override
+            public void onWrite(@NonNull SQLiteDatabase db) {
+                addRecordTypesUsed(db, packageName, insertedRecordTypes);
+            }
+
+            @Override
+            public void onCommitted() {
+                addRecordTypesUsedToCache(packageName, insertedRecordTypes);
+            }
+        };
     }
 
     /**
@@ -396,7 +406,7 @@ public final class AppInfoHelper {
      * <p>Use this method to update the table for passed recordTypes, not passing any record will
      * update all recordTypes.
      *
-     * <p>see {@link AppInfoHelper#updateAppInfoRecordTypesUsedOnInsert(Set, String)} for updating
+     * <p>see {@link AppInfoHelper#getRecordTypesUsedOnInsertHook(String, Set)} for updating
      * this table during insert operations on recordTypes.
      */
     public synchronized void syncAppInfoRecordTypesUsed() {
@@ -412,7 +422,7 @@ public final class AppInfoHelper {
      * <p>Use this method to update the table for passed {@code recordTypesToBeSynced}, not passing
      * any record will update all recordTypes.
      *
-     * <p>see {@link AppInfoHelper#updateAppInfoRecordTypesUsedOnInsert(Set, String)} for updating
+     * <p>see {@link AppInfoHelper#getRecordTypesUsedOnInsertHook(String, Set)} for updating
      * this table during insert operations on recordTypes.
      */
     public synchronized void syncAppInfoRecordTypesUsed(
@@ -426,8 +436,7 @@ public final class AppInfoHelper {
                                         .keySet());
 
         HashMap<Integer, HashSet<String>> recordTypeToContributingPackagesMap =
-                TransactionManager.getInitialisedInstance()
-                        .getDistinctPackageNamesForRecordsTable(recordTypesToBeUpdated);
+                AppRecordTypeHelper.getInstance().getContributingPackages(recordTypesToBeUpdated);
 
         if (recordTypesToBeSynced == null) {
             syncAppInfoMapRecordTypesUsed(recordTypeToContributingPackagesMap);
@@ -543,6 +552,60 @@ public final class AppInfoHelper {
         updateAppInfoRecordTypesUsedSync(packageName, appInfo, updatedRecordTypesUsed);
     }
 
+    // Reads the stored value rather than the cache, so that concurrent inserts of the same package
+    // are merged in the order of their transactions. Doesn't lock this helper, as other threads
+    // may hold it while waiting for the transaction to end.
+    private void addRecordTypesUsed(
+            @NonNull SQLiteDatabase db,
+            @NonNull String packageName,
+            @NonNull Set<Integer> recordTypes) {
+        Set<Integer> updatedRecordTypes = new HashSet<>(recordTypes);
+        try (Cursor cursor =
+                db.query(
+                        TABLE_NAME,
+                        new String[] {RECORD_TYPES_USED_COLUMN_NAME},
+                        PACKAGE_COLUMN_NAME + " = ?",
+                        new String[] {packageName},
+                        /* groupBy= */ null,
+                        /* having= */ null,
+                        /* orderBy= */ null)) {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            Set<Integer> storedRecordTypes =
+                    getRecordTypesAsSet(getCursorString(cursor, RECORD_TYPES_USED_COLUMN_NAME));
+            if (storedRecordTypes != null) {
+                if (storedRecordTypes.containsAll(recordTypes)) {
+                    return;
+                }
+                updatedRecordTypes.addAll(storedRecordTypes);
+            }
+        }
+
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(
+                RECORD_TYPES_USED_COLUMN_NAME,
+                updatedRecordTypes.stream().map(String::valueOf).collect(Collectors.joining(",")));
+        db.update(
+                TABLE_NAME,
+                contentValues,
+                PACKAGE_COLUMN_NAME + " = ?",
+                new String[] {packageName});
+    }
+
+    private synchronized void addRecordTypesUsedToCache(
+            @NonNull String packageName, @NonNull Set<Integer> recordTypes) {
+        AppInfoInternal appInfo = getAppInfoMap().get(packageName);
+        if (appInfo == null) {
+            return;
+        }
+        Set<Integer> updatedRecordTypes = new HashSet<>(recordTypes);
+        if (appInfo.getRecordTypesUsed() != null) {
+            updatedRecordTypes.addAll(appInfo.getRecordTypesUsed());
+        }
+        appInfo.setRecordTypesUsed(updatedRecordTypes);
+    }
+
     @SuppressLint("LongLogTag")
     private synchronized void updateAppInfoRecordTypesUsedSync(
             @NonNull String packageName,
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static com.android.server.healthconnect.storage.HealthConnectDatabase.DB_VERSION_RECORD_COUNTS;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.APP_INFO_ID_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER_NOT_NULL;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.PRIMARY_AUTOINCREMENT;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorInt;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
+
+import android.annotation.NonNull;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Pair;
+
+import com.android.server.healthconnect.storage.HealthConnectDatabase;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.CreateTableRequest;
+import com.android.server.healthconnect.storage.request.DeleteTableRequest;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+import com.android.server.healthconnect.storage.utils.WhereClauses;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Helper for the App Record Type Table. The table counts the records of each record type per app,
+ * which is what {@link AppInfoHelper} derives the record types used by apps from.
+ *
+ * <p>Counts are updated by {@link TransactionManager} in the same transaction as the records they
+ * count. Rows whose count has dropped to zero are only removed by {@link
+ * #deleteAppsWithoutRecords()}.
+ *
+ * @hide
+ */
+public final class AppRecordTypeHelper {
+    private static final String TABLE_NAME = "app_record_type_table";
+    private static final String RECORD_TYPE_ID_COLUMN_NAME = "record_type_id";
+    private static final String RECORD_COUNT_COLUMN_NAME = "record_count";
+    private static volatile AppRecordTypeHelper sAppRecordTypeHelper;
+
+    private AppRecordTypeHelper() {}
+
+    /**
+     * Returns a requests representing the tables that should be created corresponding to this
+     * helper
+     */
+    @NonNull
+    public CreateTableRequest getCreateTableRequest() {
+        return new CreateTableRequest(TABLE_NAME, getColumnInfo())
+                .addUniqueConstraints(
+                        List.of(RECORD_TYPE_ID_COLUMN_NAME, APP_INFO_ID_COLUMN_NAME));
+    }
+
+    /** Called on DB update. */
+    public void onUpgrade(int oldVersion, int newVersion, @NonNull SQLiteDatabase db) {
+        if (oldVersion < DB_VERSION_RECORD_COUNTS) {
+            HealthConnectDatabase.createTable(db, getCreateTableRequest());
+            for (RecordHelper<?> recordHelper :
+                    RecordHelperProvider.getInstance().getRecordHelpers().values()) {
+                db.execSQL(
+                        "INSERT INTO "
+                                + TABLE_NAME
+                                + " ("
+                                + RECORD_TYPE_ID_COLUMN_NAME
+                                + ", "
+                                + APP_INFO_ID_COLUMN_NAME
+                                + ", "
+                                + RECORD_COUNT_COLUMN_NAME
+                                + ") SELECT "
+                                + recordHelper.getRecordIdentifier()
+                                + ", "
+                                + APP_INFO_ID_COLUMN_NAME
+                                + ", COUNT(*) FROM "
+                                + recordHelper.getMainTableName()
+                                + " GROUP BY "
+                                + APP_INFO_ID_COLUMN_NAME);
+            }
+        }
+    }
+
+    /** Deletes all entries from the database. */
+    public synchronized void clearData(TransactionManager transactionManager) {
+        transactionManager.delete(new DeleteTableRequest(TABLE_NAME));
+    }
+
+    /**
+     * Adds {@code countChanges}, keyed by record type and app info id, to the record counts.
+     *
+     * <p>Assumes that caller is handling the transaction the records are written in.
+     */
+    public void updateRecordCounts(
+            @NonNull SQLiteDatabase db, @NonNull Map<Pair<Integer, Long>, Long> countChanges) {
+        StorageUtils.addToCounts(
+                db,
+                TABLE_NAME,
+                RECORD_TYPE_ID_COLUMN_NAME,
+                APP_INFO_ID_COLUMN_NAME,
+                RECORD_COUNT_COLUMN_NAME,
+                countChanges);
+    }
+
+    /** Deletes the entries of apps which have no records of the entry's record type left. */
+    public void deleteAppsWithoutRecords() {
+        TransactionManager.getInitialisedInstance()
+                .delete(
+                        new DeleteTableRequest(TABLE_NAME)
+                                .setWhereClauses(
+                                        new WhereClauses()
+                                                .addWhereLessThanOrEqualClause(
+                                                        RECORD_COUNT_COLUMN_NAME, 0)));
+    }
+
+    /**
+     * Returns the packages which have records of each of {@code recordTypes}. Every record type is
+     * present in the result, with an empty set if no package has records of it.
+     */
+    @NonNull
+    public HashMap<Integer, HashSet<String>> getContributingPackages(
+            @NonNull Set<Integer> recordTypes) {
+        HashMap<Integer, HashSet<String>> recordTypeToPackages = new HashMap<>();
+        recordTypes.forEach(recordType -> recordTypeToPackages.put(recordType, new HashSet<>()));
+
+        ReadTableRequest request =
+                new ReadTableRequest(TABLE_NAME)
+                        .setColumnNames(
+                                List.of(RECORD_TYPE_ID_COLUMN_NAME, APP_INFO_ID_COLUMN_NAME))
+                        .setWhereClause(
+                                new WhereClauses()
+                                        .addWhereInIntsClause(
+                                                RECORD_TYPE_ID_COLUMN_NAME,
+                                                new ArrayList<>(recordTypes))
+                                        .addWhereGreaterThanClause(RECORD_COUNT_COLUMN_NAME, 0));
+        AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
+        try (Cursor cursor = TransactionManager.getInitialisedInstance().read(request)) {
+            while (cursor.moveToNext()) {
+                long appInfoId = getCursorLong(cursor, APP_INFO_ID_COLUMN_NAME);
+                String packageName = appInfoHelper.getPackageName(appInfoId);
+                if (!packageName.isEmpty()) {
+                    recordTypeToPackages
+                            .get(getCursorInt(cursor, RECORD_TYPE_ID_COLUMN_NAME))
+                            .add(packageName);
+                }
+            }
+        }
+        return recordTypeToPackages;
+    }
+
+    @NonNull
+    private List<Pair<String, String>> getColumnInfo() {
+        return Arrays.asList(
+                new Pair<>(RecordHelper.PRIMARY_COLUMN_NAME, PRIMARY_AUTOINCREMENT),
+                new Pair<>(RECORD_TYPE_ID_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(APP_INFO_ID_COLUMN_NAME, INTEGER_NOT_NULL),
+                new Pair<>(RECORD_COUNT_COLUMN_NAME, INTEGER_NOT_NULL));
+    }
+
+    /** Returns an instance of this class */
+    public static synchronized AppRecordTypeHelper getInstance() {
+        if (sAppRecordTypeHelper == null) {
+            sAppRecordTypeHelper = new AppRecordTypeHelper();
+        }
+
+        return sAppRecordTypeHelper;
+    }
+}
@@ -44,6 +44,7 @@ import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.OrderByClause;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
@@ -51,9 +52,12 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -98,33 +102,27 @@ public final class ChangeLogsHelper {
     public ChangeLogsResponse getChangeLogs(
             ChangeLogsRequestHelper.TokenRequest changeLogTokenRequest,
             ChangeLogsRequest changeLogsRequest) {
-        long token = changeLogTokenRequest.getRowIdChangeLogs();
         WhereClauses whereClause =
-                new WhereClauses()
-                        .addWhereGreaterThanClause(PRIMARY_COLUMN_NAME, String.valueOf(token));
-        if (!changeLogTokenRequest.getRecordTypes().isEmpty()) {
-            whereClause.addWhereInIntsClause(
-                    RECORD_TYPE_COLUMN_NAME, changeLogTokenRequest.getRecordTypes());
-        }
-
-        if (!changeLogTokenRequest.getPackageNamesToFilter().isEmpty()) {
-            whereClause.addWhereInLongsClause(
-                    APP_ID_COLUMN_NAME,
-                    AppInfoHelper.getInstance()
-                            .getAppInfoIds(changeLogTokenRequest.getPackageNamesToFilter()));
-        }
+                getWhereClause(changeLogTokenRequest, changeLogTokenRequest.getRowIdChangeLogs());
 
         // In setLimit(pagesize) method size will be set to pageSize + 1,so that if number of
         // records returned is more than pageSize we know there are more records available to return
         // for the next read.
         int pageSize = changeLogsRequest.getPageSize();
+        // Rows are read in row_id order, the next page token continues after the last one read.
+        OrderByClause orderByClause =
+                new OrderByClause().addOrderByClause(PRIMARY_COLUMN_NAME, /* isAscending= */ true);
         final ReadTableRequest readTableRequest =
-                new ReadTableRequest(TABLE_NAME).setWhereClause(whereClause).setLimit(pageSize);
+                new ReadTableRequest(TABLE_NAME)
+                        .setWhereClause(whereClause)
+                        .setOrderBy(orderByClause)
+                        .setLimit(pageSize);
 
         Map<Integer, ChangeLogs> operationToChangeLogMap = new ArrayMap<>();
         TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
         long nextChangesToken = DEFAULT_LONG;
         boolean hasMoreRecords = false;
+        int rowCount = 0;
         try (Cursor cursor = transactionManager.read(readTableRequest)) {
             int count = 0;
             while (cursor.moveToNext()) {
@@ -133,9 +131,15 @@ public final class ChangeLogsHelper {
                     break;
                 }
                 count += addChangeLogs(cursor, operationToChangeLogMap);
-                nextChangesToken = getCursorInt(cursor, PRIMARY_COLUMN_NAME);
+                nextChangesToken = getCursorLong(cursor, PRIMARY_COLUMN_NAME);
+                rowCount++;
             }
         }
+        if (!hasMoreRecords && rowCount > pageSize) {
+            // Every row read was used, but repeated UUIDs kept the page from filling up. There
+            // may be more rows past the limit of the read.
+            hasMoreRecords = hasChangeLogsAfter(changeLogTokenRequest, nextChangesToken);
+        }
 
         String nextToken =
                 nextChangesToken != DEFAULT_LONG
@@ -146,10 +150,47 @@ public final class ChangeLogsHelper {
         return new ChangeLogsResponse(operationToChangeLogMap, nextToken, hasMoreRecords);
     }
 
+    /** Returns whether there are change logs of {@code request} after {@code rowId}. */
+    private boolean hasChangeLogsAfter(ChangeLogsRequestHelper.TokenRequest request, long rowId) {
+        ReadTableRequest readTableRequest =
+                new ReadTableRequest(TABLE_NAME)
+                        .setColumnNames(List.of(PRIMARY_COLUMN_NAME))
+                        .setWhereClause(getWhereClause(request, rowId))
+                        .setLimit(1);
+        try (Cursor cursor = TransactionManager.getInitialisedInstance().read(readTableRequest)) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    /** Returns the clauses selecting the change logs of {@code request} after {@code rowId}. */
+    private static WhereClauses getWhereClause(
+            ChangeLogsRequestHelper.TokenRequest request, long rowId) {
+        WhereClauses whereClause =
+                new WhereClauses()
+                        .addWhereGreaterThanClause(PRIMARY_COLUMN_NAME, String.valueOf(rowId));
+        if (!request.getRecordTypes().isEmpty()) {
+            whereClause.addWhereInIntsClause(RECORD_TYPE_COLUMN_NAME, request.getRecordTypes());
+        }
+
+        if (!request.getPackageNamesToFilter().isEmpty()) {
+            whereClause.addWhereInLongsClause(
+                    APP_ID_COLUMN_NAME,
+                    AppInfoHelper.getInstance().getAppInfoIds(request.getPackageNamesToFilter()));
+        }
+        return whereClause;
+    }
+
     public long getLatestRowId() {
         return TransactionManager.getInitialisedInstance().getLastRowIdFor(TABLE_NAME);
     }
 
+    /**
+     * Adds the change log at the current row of {@code cursor} to {@code changeLogs}, and returns
+     * the number of UUIDs it added. UUIDs already in {@code changeLogs} for the same operation,
+     * like those of records upserted several times, are not added again. UUIDs in {@code
+     * changeLogs} for the other operation are superseded by this change log and removed, so that
+     * e.g. records deleted after being upserted are only returned as deleted.
+     */
     private int addChangeLogs(Cursor cursor, Map<Integer, ChangeLogs> changeLogs) {
         @RecordTypeIdentifier.RecordType
         int recordType = getCursorInt(cursor, RECORD_TYPE_COLUMN_NAME);
@@ -160,8 +201,14 @@ public final class ChangeLogsHelper {
         changeLogs.putIfAbsent(
                 operationType,
                 new ChangeLogs(operationType, getCursorLong(cursor, TIME_COLUMN_NAME)));
-        changeLogs.get(operationType).addUUIDs(recordType, appId, uuidList);
-        return uuidList.size();
+        ChangeLogs supersededChangeLogs = changeLogs.get(operationType == DELETE ? UPSERT : DELETE);
+        if (supersededChangeLogs != null) {
+            supersededChangeLogs.removeUUIDs(recordType, uuidList);
+        }
+        ChangeLogs operationChangeLogs = changeLogs.get(operationType);
+        int numberOfUUIdsBefore = operationChangeLogs.getNumberOfUUIds();
+        operationChangeLogs.addUUIDs(recordType, appId, uuidList);
+        return operationChangeLogs.getNumberOfUUIds() - numberOfUUIdsBefore;
     }
 
     @NonNull
@@ -215,7 +262,7 @@ public final class ChangeLogsHelper {
     }
 
     public static final class ChangeLogs {
-        private final Map<RecordTypeAndAppIdPair, List<UUID>> mRecordTypeAndAppIdToUUIDMap =
+        private final Map<RecordTypeAndAppIdPair, Set<UUID>> mRecordTypeAndAppIdToUUIDMap =
                 new ArrayMap<>();
         @OperationType.OperationTypes private final int mOperationType;
         private final String mPackageName;
@@ -271,6 +318,15 @@ public final class ChangeLogsHelper {
                     .collect(Collectors.toList());
         }
 
+        /** Returns the number of distinct UUIDs added per record type and app. */
+        public int getNumberOfUUIds() {
+            int numberOfUUIds = 0;
+            for (Set<UUID> uuids : mRecordTypeAndAppIdToUUIDMap.values()) {
+                numberOfUUIds += uuids.size();
+            }
+            return numberOfUUIds;
+        }
+
         public long getChangeLogTimeStamp() {
             return mChangeLogTimeStamp;
         }
@@ -284,7 +340,7 @@ public final class ChangeLogsHelper {
 
             RecordTypeAndAppIdPair recordTypeAndAppIdPair =
                     new RecordTypeAndAppIdPair(recordType, appId);
-            mRecordTypeAndAppIdToUUIDMap.putIfAbsent(recordTypeAndAppIdPair, new ArrayList<>());
+            mRecordTypeAndAppIdToUUIDMap.putIfAbsent(recordTypeAndAppIdPair, new LinkedHashSet<>());
             mRecordTypeAndAppIdToUUIDMap.get(recordTypeAndAppIdPair).add(uuid);
         }
 
@@ -306,19 +362,36 @@ public final class ChangeLogsHelper {
                         contentValues.put(OPERATION_TYPE_COLUMN_NAME, mOperationType);
                         contentValues.put(TIME_COLUMN_NAME, mChangeLogTimeStamp);
                         contentValues.put(
-                                UUIDS_COLUMN_NAME, StorageUtils.getSingleByteArray(uuids));
+                                UUIDS_COLUMN_NAME,
+                                StorageUtils.getSingleByteArray(new ArrayList<>(uuids)));
                         requests.add(new UpsertTableRequest(TABLE_NAME, contentValues));
                     });
             return requests;
         }
 
+        /** Removes {@code uuids} of {@code recordType} added before, whichever app they were of. */
+        public void removeUUIDs(
+                @RecordTypeIdentifier.RecordType int recordType, @NonNull List<UUID> uuids) {
+            Set<UUID> uuidsToRemove = null;
+            for (Map.Entry<RecordTypeAndAppIdPair, Set<UUID>> entry :
+                    mRecordTypeAndAppIdToUUIDMap.entrySet()) {
+                if (entry.getKey().getRecordType() != recordType) {
+                    continue;
+                }
+                if (uuidsToRemove == null) {
+                    uuidsToRemove = new HashSet<>(uuids);
+                }
+                entry.getValue().removeAll(uuidsToRemove);
+            }
+        }
+
         public ChangeLogs addUUIDs(
                 @RecordTypeIdentifier.RecordType int recordType,
                 @NonNull long appId,
                 @NonNull List<UUID> uuids) {
             RecordTypeAndAppIdPair recordTypeAndAppIdPair =
                     new RecordTypeAndAppIdPair(recordType, appId);
-            mRecordTypeAndAppIdToUUIDMap.putIfAbsent(recordTypeAndAppIdPair, new ArrayList<>());
+            mRecordTypeAndAppIdToUUIDMap.putIfAbsent(recordTypeAndAppIdPair, new LinkedHashSet<>());
             mRecordTypeAndAppIdToUUIDMap.get(recordTypeAndAppIdPair).addAll(uuids);
             return this;
         }
@@ -16,14 +16,17 @@
 
 package com.android.server.healthconnect.storage.datatypehelpers;
 
+import static android.health.connect.Constants.DEFAULT_LONG;
+
+import static com.android.server.healthconnect.storage.HealthConnectDatabase.DB_VERSION_CHANGE_LOG_PAGE_TOKENS;
 import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.DELIMITER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.PRIMARY;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_NOT_NULL;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_NULL;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorInt;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorIntegerList;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorString;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorStringList;
 
@@ -32,6 +35,7 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.health.connect.changelog.ChangeLogTokenRequest;
+import android.text.TextUtils;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.TransactionManager;
@@ -42,17 +46,32 @@ import com.android.server.healthconnect.storage.request.UpsertTableRequest;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
 /**
  * A class to interact with the DB table that stores the information about the change log requests
  * i.e. {@code TABLE_NAME}
  *
- * <p>This class returns the row_id of the change_log_request_table as a token, that can later be
- * used to recreate the request.
+ * <p>Tokens hold the row_id of the change_log_request_table the request is stored at and the
+ * row_id of the change logs table to read the change logs after, signed for the package the token
+ * was created for. Next page tokens are derived from the token of the first page. Using a token
+ * moves the time of its request forward, so that auto delete removes requests that have not been
+ * used for {@link #DEFAULT_CHANGE_LOG_TIME_PERIOD_IN_DAYS} days, rather than requests created that
+ * long ago. Tokens created before, which are just the row_id of the request, are still accepted.
  *
  * @hide
  */
@@ -64,12 +83,37 @@ public final class ChangeLogsRequestHelper {
     private static final String PACKAGE_NAME_COLUMN_NAME = "package_name";
     private static final String ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME = "row_id_change_logs_table";
     private static final String TIME_COLUMN_NAME = "time";
+    private static final String TOKEN_KEY_PREFERENCE_KEY = "change_log_token_key";
+    private static final String TOKEN_MAC_ALGORITHM = "HmacSHA256";
+    private static final int TOKEN_KEY_SIZE = 32;
+    private static final int TOKEN_MAC_SIZE = 8;
+    private static final byte TOKEN_VERSION = 1;
+    private static final int TOKEN_PAYLOAD_SIZE = 1 + 2 * Long.BYTES;
+    private static final int TOKEN_SIZE = TOKEN_PAYLOAD_SIZE + TOKEN_MAC_SIZE;
+    // The time of a request is moved forward at most once a day, so paging seldom writes.
+    private static final long REQUEST_TIME_REFRESH_INTERVAL_MILLIS = Duration.ofDays(1).toMillis();
     private static volatile ChangeLogsRequestHelper sChangeLogsRequestHelper;
 
     private ChangeLogsRequestHelper() {}
 
     // Called on DB update.
-    public void onUpgrade(int oldVersion, int newVersion, @NonNull SQLiteDatabase db) {}
+    public void onUpgrade(int oldVersion, int newVersion, @NonNull SQLiteDatabase db) {
+        if (oldVersion < DB_VERSION_CHANGE_LOG_PAGE_TOKENS) {
+            // Requests stored for next page tokens had no time set, so auto delete never removed
+            // them. Let them expire like the rest; the ones still in use are moved forward by
+            // getRequest.
+            db.execSQL(
+                    "UPDATE "
+                            + TABLE_NAME
+                            + " SET "
+                            + TIME_COLUMN_NAME
+                            + " = "
+                            + Instant.now().toEpochMilli()
+                            + " WHERE "
+                            + TIME_COLUMN_NAME
+                            + " IS NULL");
+        }
+    }
 
     @NonNull
     public CreateTableRequest getCreateTableRequest() {
@@ -92,14 +136,14 @@ public final class ChangeLogsRequestHelper {
                 RECORD_TYPES_COLUMN_NAME,
                 StorageUtils.flattenIntArray(request.getRecordTypesArray()));
         contentValues.put(PACKAGE_NAME_COLUMN_NAME, packageName);
-        contentValues.put(
-                ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME,
-                ChangeLogsHelper.getInstance().getLatestRowId());
+        long rowIdChangeLogs = ChangeLogsHelper.getInstance().getLatestRowId();
+        contentValues.put(ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME, rowIdChangeLogs);
         contentValues.put(TIME_COLUMN_NAME, Instant.now().toEpochMilli());
 
-        return String.valueOf(
+        long requestRowId =
                 TransactionManager.getInitialisedInstance()
-                        .insert(new UpsertTableRequest(TABLE_NAME, contentValues)));
+                        .insert(new UpsertTableRequest(TABLE_NAME, contentValues));
+        return createToken(packageName, requestRowId, rowIdChangeLogs);
     }
 
     public DeleteTableRequest getDeleteRequestForAutoDelete() {
@@ -134,13 +178,30 @@ public final class ChangeLogsRequestHelper {
         return sChangeLogsRequestHelper;
     }
 
+    /**
+     * Returns the request {@code token} was created for.
+     *
+     * @throws IllegalArgumentException if {@code token} is malformed or was not created for {@code
+     *     packageName}.
+     */
     @NonNull
     public static TokenRequest getRequest(@NonNull String packageName, @NonNull String token) {
+        long requestRowId;
+        long rowIdChangeLogs = DEFAULT_LONG;
+        if (!token.isEmpty() && TextUtils.isDigitsOnly(token)) {
+            requestRowId = Long.parseLong(token);
+        } else {
+            ByteBuffer payload = verifyToken(packageName, token);
+            requestRowId = payload.getLong();
+            rowIdChangeLogs = payload.getLong();
+        }
+
         ReadTableRequest readTableRequest =
                 new ReadTableRequest(TABLE_NAME)
                         .setWhereClause(
                                 new WhereClauses()
-                                        .addWhereEqualsClause(PRIMARY_COLUMN_NAME, token)
+                                        .addWhereEqualsClause(
+                                                PRIMARY_COLUMN_NAME, String.valueOf(requestRowId))
                                         .addWhereEqualsClause(
                                                 PACKAGE_NAME_COLUMN_NAME, packageName));
         TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
@@ -148,57 +209,143 @@ public final class ChangeLogsRequestHelper {
             if (!cursor.moveToFirst()) {
                 throw new IllegalArgumentException("Invalid token");
             }
+            refreshRequestTime(
+                    transactionManager, requestRowId, getCursorLong(cursor, TIME_COLUMN_NAME));
 
             return new TokenRequest(
+                    requestRowId,
                     getCursorStringList(cursor, PACKAGES_TO_FILTERS_COLUMN_NAME, DELIMITER),
                     getCursorIntegerList(cursor, RECORD_TYPES_COLUMN_NAME, DELIMITER),
                     getCursorString(cursor, PACKAGE_NAME_COLUMN_NAME),
-                    getCursorInt(cursor, ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME));
+                    rowIdChangeLogs != DEFAULT_LONG
+                            ? rowIdChangeLogs
+                            : getCursorLong(cursor, ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME));
         }
     }
 
+    /**
+     * Returns the token for reading the change logs of {@code changeLogTokenRequest} after the
+     * change log at {@code nextRowId}.
+     */
     @NonNull
     public static String getNextPageToken(TokenRequest changeLogTokenRequest, long nextRowId) {
+        return createToken(
+                changeLogTokenRequest.getRequestingPackageName(),
+                changeLogTokenRequest.getRequestRowId(),
+                nextRowId);
+    }
+
+    /**
+     * Sets the time of the request at {@code requestRowId} to now, unless it was already set
+     * recently, so that the request expires after it was last used.
+     */
+    private static void refreshRequestTime(
+            @NonNull TransactionManager transactionManager, long requestRowId, long time) {
+        long now = Instant.now().toEpochMilli();
+        if (now - time < REQUEST_TIME_REFRESH_INTERVAL_MILLIS) {
+            return;
+        }
+
         ContentValues contentValues = new ContentValues();
-        contentValues.put(
-                PACKAGES_TO_FILTERS_COLUMN_NAME,
-                String.join(DELIMITER, changeLogTokenRequest.getPackageNamesToFilter()));
-        contentValues.put(
-                RECORD_TYPES_COLUMN_NAME,
-                StorageUtils.flattenIntList(changeLogTokenRequest.getRecordTypes()));
-        contentValues.put(
-                PACKAGE_NAME_COLUMN_NAME, changeLogTokenRequest.getRequestingPackageName());
-        contentValues.put(ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME, nextRowId);
+        contentValues.put(TIME_COLUMN_NAME, now);
+        transactionManager.updateTable(
+                new UpsertTableRequest(TABLE_NAME, contentValues)
+                        .setUpdateWhereClauses(
+                                new WhereClauses()
+                                        .addWhereEqualsClause(
+                                                PRIMARY_COLUMN_NAME,
+                                                String.valueOf(requestRowId))));
+    }
 
-        return String.valueOf(
-                TransactionManager.getInitialisedInstance()
-                        .insert(new UpsertTableRequest(TABLE_NAME, contentValues)));
+    @NonNull
+    private static String createToken(
+            @NonNull String packageName, long requestRowId, long rowIdChangeLogs) {
+        ByteBuffer token =
+                ByteBuffer.allocate(TOKEN_SIZE)
+                        .put(TOKEN_VERSION)
+                        .putLong(requestRowId)
+                        .putLong(rowIdChangeLogs);
+        token.put(getTokenMac(packageName, token.array()));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+    }
+
+    /**
+     * Checks that {@code token} was created for {@code packageName}, and returns its payload
+     * positioned after the version.
+     */
+    @NonNull
+    private static ByteBuffer verifyToken(@NonNull String packageName, @NonNull String token) {
+        byte[] bytes = Base64.getUrlDecoder().decode(token);
+        if (bytes.length != TOKEN_SIZE
+                || bytes[0] != TOKEN_VERSION
+                || !MessageDigest.isEqual(
+                        getTokenMac(packageName, bytes),
+                        Arrays.copyOfRange(bytes, TOKEN_PAYLOAD_SIZE, TOKEN_SIZE))) {
+            throw new IllegalArgumentException("Invalid token");
+        }
+        return ByteBuffer.wrap(bytes, 1, TOKEN_PAYLOAD_SIZE - 1);
+    }
+
+    /** Returns the MAC of the payload at the start of {@code token} for {@code packageName}. */
+    @NonNull
+    private static byte[] getTokenMac(@NonNull String packageName, @NonNull byte[] token) {
+        try {
+            Mac mac = Mac.getInstance(TOKEN_MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(getTokenKey(), TOKEN_MAC_ALGORITHM));
+            mac.update(packageName.getBytes(StandardCharsets.UTF_8));
+            mac.update(token, 0, TOKEN_PAYLOAD_SIZE);
+            return Arrays.copyOf(mac.doFinal(), TOKEN_MAC_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to sign change log token", e);
+        }
+    }
+
+    /** Returns the key tokens are signed with, created on first use. */
+    @NonNull
+    private static synchronized byte[] getTokenKey() {
+        PreferenceHelper preferenceHelper = PreferenceHelper.getInstance();
+        String key = preferenceHelper.getPreference(TOKEN_KEY_PREFERENCE_KEY);
+        if (key == null) {
+            byte[] keyBytes = new byte[TOKEN_KEY_SIZE];
+            new SecureRandom().nextBytes(keyBytes);
+            key = Base64.getEncoder().encodeToString(keyBytes);
+            preferenceHelper.insertOrReplacePreference(TOKEN_KEY_PREFERENCE_KEY, key);
+        }
+        return Base64.getDecoder().decode(key);
     }
 
     /** A class to represent the request corresponding to a token */
     public static final class TokenRequest {
+        private final long mRequestRowId;
         private final List<String> mPackageNamesToFilter;
         private final List<Integer> mRecordTypes;
         private final String mRequestingPackageName;
         private final long mRowIdChangeLogs;
 
         /**
+         * @param requestRowId row id of the change log request table the request is stored at
          * @param requestingPackageName contributing package name
          * @param packageNamesToFilter package names to filter
          * @param recordTypes records to filter
          * @param rowIdChangeLogs row id of change log table after which the logs are to be fetched
          */
         public TokenRequest(
+                long requestRowId,
                 @NonNull List<String> packageNamesToFilter,
                 @NonNull List<Integer> recordTypes,
                 @NonNull String requestingPackageName,
                 long rowIdChangeLogs) {
+            mRequestRowId = requestRowId;
             mPackageNamesToFilter = packageNamesToFilter;
             mRecordTypes = recordTypes;
             mRequestingPackageName = requestingPackageName;
             mRowIdChangeLogs = rowIdChangeLogs;
         }
 
+        public long getRequestRowId() {
+            return mRequestRowId;
+        }
+
         public long getRowIdChangeLogs() {
             return mRowIdChangeLogs;
         }
@@ -18,12 +18,8 @@ package com.android.server.healthconnect.storage.datatypehelpers;
 
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.REAL;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorDouble;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorUUID;
 
 import android.content.ContentValues;
-import android.database.Cursor;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.CyclingPedalingCadenceRecordInternal;
 import android.util.Pair;
@@ -31,9 +27,7 @@ import android.util.Pair;
 import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * Helper class for CyclingPedalingCadenceRecord.
@@ -41,9 +35,7 @@ import java.util.UUID;
  * @hide
  */
 public class CyclingPedalingCadenceRecordHelper
-        extends SeriesRecordHelper<
-                CyclingPedalingCadenceRecordInternal,
-                CyclingPedalingCadenceRecordInternal.CyclingPedalingCadenceRecordSample> {
+        extends SeriesRecordHelper<CyclingPedalingCadenceRecordInternal> {
     public static final int NUM_LOCAL_COLUMNS = 1;
     private static final String TABLE_NAME = "CyclingPedalingCadenceRecordTable";
     private static final String SERIES_TABLE_NAME = "cycling_pedaling_cadence_record_table";
@@ -72,34 +64,20 @@ public class CyclingPedalingCadenceRecordHelper
         return SERIES_TABLE_NAME;
     }
 
-    /** Populates the {@code record} with values specific to datatype */
     @Override
-    void populateSpecificValues(
-            @NonNull Cursor seriesTableCursor, CyclingPedalingCadenceRecordInternal record) {
-        HashSet<CyclingPedalingCadenceRecordInternal.CyclingPedalingCadenceRecordSample>
-                cyclingPedalingCadenceRecordSampleSet = new HashSet<>();
-        UUID uuid = getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME);
-        do {
-            cyclingPedalingCadenceRecordSampleSet.add(
-                    new CyclingPedalingCadenceRecordInternal.CyclingPedalingCadenceRecordSample(
-                            getCursorDouble(seriesTableCursor, REVOLUTIONS_PER_MINUTE_COLUMN_NAME),
-                            getCursorLong(seriesTableCursor, EPOCH_MILLIS_COLUMN_NAME)));
-        } while (seriesTableCursor.moveToNext()
-                && uuid.equals(getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME)));
-        // In case we hit another record, move the cursor back to read next record in outer
-        // RecordHelper#getInternalRecords loop.
-        seriesTableCursor.moveToPrevious();
-        record.setSamples(cyclingPedalingCadenceRecordSampleSet);
+    final String getSampleValueColumnName() {
+        return REVOLUTIONS_PER_MINUTE_COLUMN_NAME;
+    }
+
+    @Override
+    final String getSampleTimeColumnName() {
+        return EPOCH_MILLIS_COLUMN_NAME;
     }
 
     @Override
     void populateSampleTo(
-            ContentValues contentValues,
-            CyclingPedalingCadenceRecordInternal.CyclingPedalingCadenceRecordSample
-                    cyclingPedalingCadenceRecord) {
-        contentValues.put(
-                REVOLUTIONS_PER_MINUTE_COLUMN_NAME,
-                cyclingPedalingCadenceRecord.getRevolutionsPerMinute());
-        contentValues.put(EPOCH_MILLIS_COLUMN_NAME, cyclingPedalingCadenceRecord.getEpochMillis());
+            @NonNull ContentValues contentValues, long epochMillis, double value) {
+        contentValues.put(REVOLUTIONS_PER_MINUTE_COLUMN_NAME, value);
+        contentValues.put(EPOCH_MILLIS_COLUMN_NAME, epochMillis);
     }
 }
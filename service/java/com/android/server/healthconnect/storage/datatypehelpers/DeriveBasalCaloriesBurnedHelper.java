@@ -39,12 +39,17 @@ import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
 /**
  * Helper class to Derive BasalCaloriesTotal aggregate
  *
+ * <p>The basal metabolic rate, lean body mass, height and weight histories are loaded once for the
+ * whole time range of a request, and turned into a step function of calories burned per day. Each
+ * interval is then integrated over that function.
+ *
  * @hide
  */
 public final class DeriveBasalCaloriesBurnedHelper {
@@ -55,11 +60,17 @@ public final class DeriveBasalCaloriesBurnedHelper {
     private static final double DEFAULT_WEIGHT_IN_GMS = 73000;
     private static final double DEFAULT_HEIGHT_IN_METERS = 1.7;
     private static final int DEFAULT_GENDER_CONSTANT = -78;
+    private static final double MILLIS_PER_DAY = Duration.ofDays(1).toMillis();
     private static final String TAG = "DeriveBasalCalories";
     private final Cursor mCursor;
     private final String mColumnName;
-    private double mRateOfEnergyBurntInWatts = 0;
-    private String mTimeColumnName;
+    private final String mTimeColumnName;
+    private long mRangeStartTime = Long.MAX_VALUE;
+    private long mRangeEndTime = Long.MIN_VALUE;
+    private StepFunction mBmrFromCursor;
+    private StepFunction mCaloriesPerDay;
+    // Position of the last integrated step, intervals are usually requested in increasing order.
+    private int mStepIndex;
 
     @SuppressWarnings("GoodTime") // constant age represented by primitive
     private static final int DEFAULT_AGE = 30;
@@ -74,6 +85,22 @@ public final class DeriveBasalCaloriesBurnedHelper {
         mTimeColumnName = timeColumnName;
     }
 
+    /**
+     * Same as {@link #DeriveBasalCaloriesBurnedHelper(Cursor, String, String)}, for callers which
+     * know the time range all intervals passed to {@link #getBasalCaloriesBurned(long, long)} fall
+     * in, so that the histories are only loaded once for all of them.
+     */
+    public DeriveBasalCaloriesBurnedHelper(
+            @NonNull Cursor cursor,
+            @NonNull String columnName,
+            @NonNull String timeColumnName,
+            long rangeStartTime,
+            long rangeEndTime) {
+        this(cursor, columnName, timeColumnName);
+        mRangeStartTime = rangeStartTime;
+        mRangeEndTime = rangeEndTime;
+    }
+
     /**
      * Calculates and returns aggregate of total basal calories burned from table {@link
      * BasalMetabolicRateRecord} for the interval.
@@ -84,226 +111,218 @@ public final class DeriveBasalCaloriesBurnedHelper {
             return 0;
         }
 
-        double currentGroupTotal = 0;
-        // calculate aggregate for current interval between start and end time by iterating
-        // cursor until current time is inside current group interval
-        if (mCursor.getCount() == 0) {
-            return derivedBasalCaloriesViaReadBack(intervalStartTime, intervalEndTime);
+        ensureCaloriesPerDayLoaded(intervalStartTime, intervalEndTime);
+        return integrate(intervalStartTime, intervalEndTime);
+    }
+
+    /**
+     * Calculates and returns an array of aggregate of total basal calories burned from table {@link
+     * BasalMetabolicRateRecord} for group of intervals.
+     */
+    public double[] getBasalCaloriesBurned(@NonNull List<Pair<Long, Long>> groupIntervalList) {
+        double[] basalCaloriesBurned = new double[groupIntervalList.size()];
+        if (groupIntervalList.isEmpty()) {
+            return basalCaloriesBurned;
         }
 
-        long lastItemTime = -1;
-        while (mCursor.moveToNext()) {
-            long time = StorageUtils.getCursorLong(mCursor, mTimeColumnName);
-
-            if (lastItemTime == -1) {
-                if (time > intervalStartTime && mRateOfEnergyBurntInWatts == 0) {
-                    if (time > intervalEndTime) {
-                        mCursor.moveToPrevious();
-                        return derivedBasalCaloriesViaReadBack(intervalStartTime, intervalEndTime);
-                    }
-
-                    currentGroupTotal += derivedBasalCaloriesViaReadBack(intervalStartTime, time);
-                    lastItemTime = time;
-                } else {
-                    lastItemTime = intervalStartTime;
-                }
+        long rangeStartTime = Long.MAX_VALUE;
+        long rangeEndTime = Long.MIN_VALUE;
+        for (Pair<Long, Long> groupInterval : groupIntervalList) {
+            rangeStartTime = Math.min(rangeStartTime, groupInterval.first);
+            rangeEndTime = Math.max(rangeEndTime, groupInterval.second);
+        }
+        ensureCaloriesPerDayLoaded(rangeStartTime, rangeEndTime);
 
-                mRateOfEnergyBurntInWatts = StorageUtils.getCursorDouble(mCursor, mColumnName);
-                continue;
+        for (int group = 0; group < groupIntervalList.size(); group++) {
+            long groupStartTime = groupIntervalList.get(group).first;
+            long groupEndTime = groupIntervalList.get(group).second;
+            if (groupStartTime < groupEndTime) {
+                basalCaloriesBurned[group] = integrate(groupStartTime, groupEndTime);
             }
+        }
+        return basalCaloriesBurned;
+    }
 
-            if (time >= intervalEndTime) {
-                mCursor.moveToPrevious();
-                break;
-            }
+    /** Integrates calories burned per day over the interval, in a single pass over the steps. */
+    private double integrate(long intervalStartTime, long intervalEndTime) {
+        StepFunction caloriesPerDay = mCaloriesPerDay;
+        if (mStepIndex >= caloriesPerDay.size()
+                || caloriesPerDay.getTime(mStepIndex) > intervalStartTime) {
+            mStepIndex = caloriesPerDay.indexOfStepAt(intervalStartTime);
+        }
+        while (mStepIndex + 1 < caloriesPerDay.size()
+                && caloriesPerDay.getTime(mStepIndex + 1) <= intervalStartTime) {
+            mStepIndex++;
+        }
 
-            currentGroupTotal +=
-                    getCurrentIntervalEnergy(mRateOfEnergyBurntInWatts, lastItemTime, time);
-            mRateOfEnergyBurntInWatts = StorageUtils.getCursorDouble(mCursor, mColumnName);
-            lastItemTime = time;
+        double total = 0;
+        long segmentStartTime = intervalStartTime;
+        int index = mStepIndex;
+        while (segmentStartTime < intervalEndTime) {
+            long segmentEndTime =
+                    index + 1 < caloriesPerDay.size()
+                            ? Math.min(caloriesPerDay.getTime(index + 1), intervalEndTime)
+                            : intervalEndTime;
+            total +=
+                    getCalories(caloriesPerDay.getValue(index), segmentStartTime, segmentEndTime);
+            segmentStartTime = segmentEndTime;
+            index++;
         }
+        mStepIndex = index - 1;
+        return total;
+    }
 
-        if (lastItemTime == -1) {
-            currentGroupTotal +=
-                    getCurrentIntervalEnergy(
-                            mRateOfEnergyBurntInWatts, intervalStartTime, intervalEndTime);
-        } else if (lastItemTime < intervalEndTime) {
-            currentGroupTotal +=
-                    getCurrentIntervalEnergy(
-                            mRateOfEnergyBurntInWatts, lastItemTime, intervalEndTime);
+    private void ensureCaloriesPerDayLoaded(long intervalStartTime, long intervalEndTime) {
+        if (mCaloriesPerDay != null
+                && intervalStartTime >= mRangeStartTime
+                && intervalEndTime <= mRangeEndTime) {
+            return;
+        }
+
+        mRangeStartTime = Math.min(mRangeStartTime, intervalStartTime);
+        mRangeEndTime = Math.max(mRangeEndTime, intervalEndTime);
+        mCaloriesPerDay = loadCaloriesPerDay(mRangeStartTime, mRangeEndTime);
+        mStepIndex = 0;
+    }
+
+    /**
+     * Builds the calories burned per day over the range, with the first step starting at {@code
+     * rangeStartTime}. The basal metabolic rate is used where known, before its first sample the
+     * lean body mass, and before that height and weight.
+     */
+    private StepFunction loadCaloriesPerDay(long rangeStartTime, long rangeEndTime) {
+        StepFunction bmr = getBmrHistory(rangeStartTime);
+        long bmrStartTime = bmr.size() == 0 ? rangeEndTime : bmr.getTime(0);
+
+        StepFunction caloriesPerDay = new StepFunction();
+        if (bmrStartTime > rangeStartTime) {
+            StepFunction leanBodyMass =
+                    readHistory(
+                            LEAN_BODY_MASS_RECORD_TABLE_NAME,
+                            MASS_COLUMN_NAME,
+                            rangeStartTime,
+                            bmrStartTime);
+            long leanBodyMassStartTime =
+                    leanBodyMass.size() == 0 ? bmrStartTime : leanBodyMass.getTime(0);
+            if (leanBodyMassStartTime > rangeStartTime) {
+                addCaloriesFromProfile(caloriesPerDay, rangeStartTime, leanBodyMassStartTime);
+            }
+            for (int i = 0; i < leanBodyMass.size(); i++) {
+                if (leanBodyMass.getTime(i) >= bmrStartTime) {
+                    break;
+                }
+                caloriesPerDay.add(
+                        Math.max(leanBodyMass.getTime(i), rangeStartTime),
+                        getBmrFromLbmInCaloriesPerDay(leanBodyMass.getValue(i)));
+            }
+        }
+        for (int i = 0; i < bmr.size(); i++) {
+            caloriesPerDay.add(
+                    Math.max(bmr.getTime(i), rangeStartTime), getCalPerDay(bmr.getValue(i)));
         }
 
-        return currentGroupTotal;
+        if (Constants.DEBUG) {
+            Slog.d(TAG, "Calories per day from " + rangeStartTime + ": " + caloriesPerDay);
+        }
+        return caloriesPerDay;
     }
 
-    private double derivedBasalCaloriesViaReadBack(long intervalStartTime, long intervalEndTime) {
-        if (mRateOfEnergyBurntInWatts != 0) {
-            return getCurrentIntervalEnergy(
-                    mRateOfEnergyBurntInWatts, intervalStartTime, intervalEndTime);
+    /**
+     * Returns the basal metabolic rate samples from the aggregation cursor, preceded by the latest
+     * sample before {@code rangeStartTime} if the cursor has none.
+     */
+    private StepFunction getBmrHistory(long rangeStartTime) {
+        if (mBmrFromCursor == null) {
+            mBmrFromCursor = new StepFunction();
+            mCursor.moveToPosition(-1);
+            while (mCursor.moveToNext()) {
+                mBmrFromCursor.add(
+                        StorageUtils.getCursorLong(mCursor, mTimeColumnName),
+                        StorageUtils.getCursorDouble(mCursor, mColumnName));
+            }
+        }
+
+        if (mBmrFromCursor.size() > 0 && mBmrFromCursor.getTime(0) <= rangeStartTime) {
+            return mBmrFromCursor;
         }
 
+        StepFunction bmr = new StepFunction();
         final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
         try (Cursor cursor =
                 transactionManager.read(
                         new ReadTableRequest(BASAL_METABOLIC_RATE_RECORD_TABLE_NAME)
-                                .setColumnNames(List.of(BASAL_METABOLIC_RATE_COLUMN_NAME))
+                                .setColumnNames(
+                                        List.of(BASAL_METABOLIC_RATE_COLUMN_NAME, mTimeColumnName))
                                 .setWhereClause(
                                         new WhereClauses()
                                                 .addWhereLessThanOrEqualClause(
-                                                        mTimeColumnName, intervalStartTime))
+                                                        mTimeColumnName, rangeStartTime))
                                 .setLimit(0)
                                 .setOrderBy(
                                         new OrderByClause()
                                                 .addOrderByClause(mTimeColumnName, false)))) {
-            if (cursor.getCount() == 0) {
-                // No data found, fallback to LBM
-                return derivedBasalCaloriesBurnedFromLeanBodyMass(
-                        intervalStartTime, intervalEndTime);
+            if (cursor.moveToNext()) {
+                bmr.add(
+                        StorageUtils.getCursorLong(cursor, mTimeColumnName),
+                        StorageUtils.getCursorDouble(cursor, BASAL_METABOLIC_RATE_COLUMN_NAME));
             }
-            cursor.moveToNext();
-            mRateOfEnergyBurntInWatts =
-                    StorageUtils.getCursorDouble(cursor, BASAL_METABOLIC_RATE_COLUMN_NAME);
-            return getCurrentIntervalEnergy(
-                    mRateOfEnergyBurntInWatts, intervalStartTime, intervalEndTime);
         }
+        for (int i = 0; i < mBmrFromCursor.size(); i++) {
+            bmr.add(mBmrFromCursor.getTime(i), mBmrFromCursor.getValue(i));
+        }
+        return bmr;
     }
 
-    private double derivedBasalCaloriesBurnedFromLeanBodyMass(
-            long intervalStartTime, long intervalEndTime) {
-        double totalCalories = 0;
-        try (Cursor lbmCursor = getLeanBodyMassCursor(intervalStartTime, intervalEndTime)) {
-            if (lbmCursor.getCount() == 0) {
-                // No data found, fallback to profile data
-                return derivedBasalCaloriesBurnedFromProfile(intervalStartTime, intervalEndTime);
+    /** Adds steps of calories burned per day derived from height and weight to {@code steps}. */
+    private void addCaloriesFromProfile(StepFunction steps, long startTime, long endTime) {
+        StepFunction height =
+                readHistory(HEIGHT_RECORD_TABLE_NAME, HEIGHT_COLUMN_NAME, startTime, endTime);
+        StepFunction weight =
+                readHistory(WEIGHT_RECORD_TABLE_NAME, WEIGHT_COLUMN_NAME, startTime, endTime);
+
+        double currentHeight = DEFAULT_HEIGHT_IN_METERS;
+        double currentWeight = DEFAULT_WEIGHT_IN_GMS;
+        int heightIndex = 0;
+        int weightIndex = 0;
+        long time = startTime;
+        while (time < endTime) {
+            while (heightIndex < height.size() && height.getTime(heightIndex) <= time) {
+                currentHeight = height.getValue(heightIndex++);
             }
-
-            long lastReadTime = -1;
-            double bmrFromLbmInCaloriesPerDay = 0;
-            while (lbmCursor.moveToNext()) {
-                double mass = StorageUtils.getCursorDouble(lbmCursor, MASS_COLUMN_NAME);
-                long time = StorageUtils.getCursorLong(lbmCursor, mTimeColumnName);
-                if (lastReadTime == -1) {
-                    // Derive calories from profile for start time to first entry time, if required
-                    if (time > intervalStartTime) {
-                        totalCalories +=
-                                derivedBasalCaloriesBurnedFromProfile(intervalStartTime, time);
-                        lastReadTime = time;
-                    } else {
-                        lastReadTime = intervalStartTime;
-                    }
-                    bmrFromLbmInCaloriesPerDay = getBmrFromLbmInCaloriesPerDay(mass);
-                    continue;
-                }
-
-                totalCalories += getCalories(bmrFromLbmInCaloriesPerDay, lastReadTime, time);
-
-                bmrFromLbmInCaloriesPerDay = getBmrFromLbmInCaloriesPerDay(mass);
-                lastReadTime = time;
+            while (weightIndex < weight.size() && weight.getTime(weightIndex) <= time) {
+                currentWeight = weight.getValue(weightIndex++);
             }
+            steps.add(time, getBmrFromProfileInCaloriesPerDay(currentHeight, currentWeight));
 
-            if (lastReadTime < intervalEndTime) {
-                totalCalories +=
-                        getCalories(bmrFromLbmInCaloriesPerDay, lastReadTime, intervalEndTime);
-            }
+            long nextHeightTime =
+                    heightIndex < height.size() ? height.getTime(heightIndex) : Long.MAX_VALUE;
+            long nextWeightTime =
+                    weightIndex < weight.size() ? weight.getTime(weightIndex) : Long.MAX_VALUE;
+            time = Math.min(nextHeightTime, nextWeightTime);
         }
-
-        return totalCalories;
-    }
-
-    private double getBmrFromLbmInCaloriesPerDay(double massInGms) {
-        return (370 + 21.6 * (massInGms / GMS_IN_KG)) * KCAL_TO_CAL;
     }
 
-    private double derivedBasalCaloriesBurnedFromProfile(
-            long intervalStartTime, long intervalEndTime) {
-        double caloriesFromProfile = 0;
-        try (Cursor heightCursor = getHeightCursor(intervalStartTime, intervalEndTime);
-                Cursor weightCursor = getWeightCursor(intervalStartTime, intervalEndTime)) {
-            if (heightCursor.getCount() == 0 && weightCursor.getCount() == 0) {
-                return getCaloriesFromHeightAndWeight(
-                        DEFAULT_HEIGHT_IN_METERS,
-                        DEFAULT_WEIGHT_IN_GMS,
-                        intervalStartTime,
-                        intervalEndTime);
-            }
-
-            boolean hasHeight = heightCursor.moveToNext();
-            boolean hasWeight = weightCursor.moveToNext();
-            long lastTimeUsed = -1;
-            double height = DEFAULT_HEIGHT_IN_METERS;
-            double weight = DEFAULT_WEIGHT_IN_GMS;
-
-            long heightTime = Integer.MAX_VALUE;
-            long weightTime = Integer.MAX_VALUE;
-            while (hasHeight || hasWeight) {
-                if (hasHeight) {
-                    heightTime = StorageUtils.getCursorLong(heightCursor, mTimeColumnName);
-                }
-
-                if (hasWeight) {
-                    weightTime = StorageUtils.getCursorLong(weightCursor, mTimeColumnName);
-                }
-
-                if (lastTimeUsed < intervalStartTime) {
-                    lastTimeUsed = Math.min(heightTime, weightTime);
-                    if (lastTimeUsed > intervalStartTime) {
-                        caloriesFromProfile +=
-                                getCaloriesFromHeightAndWeight(
-                                        height, weight, intervalStartTime, lastTimeUsed);
-                    }
-                } else {
-                    long time = Math.min(heightTime, weightTime);
-                    caloriesFromProfile +=
-                            getCaloriesFromHeightAndWeight(height, weight, lastTimeUsed, time);
-                    lastTimeUsed = time;
-                }
-
-                // Move the cursor one by one to calculate BMR as accurately as possible.
-                if ((heightTime < weightTime) && hasHeight) {
-                    height = StorageUtils.getCursorDouble(heightCursor, HEIGHT_COLUMN_NAME);
-                    hasHeight = heightCursor.moveToNext();
-                } else if ((weightTime < heightTime) && hasWeight) {
-                    weight = StorageUtils.getCursorDouble(weightCursor, WEIGHT_COLUMN_NAME);
-                    hasWeight = weightCursor.moveToNext();
-                } else {
-                    if (hasWeight) {
-                        weight = StorageUtils.getCursorDouble(weightCursor, WEIGHT_COLUMN_NAME);
-                        hasWeight = weightCursor.moveToNext();
-                    }
-
-                    if (hasHeight) {
-                        height = StorageUtils.getCursorDouble(heightCursor, HEIGHT_COLUMN_NAME);
-                        hasHeight = heightCursor.moveToNext();
-                    }
-                }
-            }
-
-            if (lastTimeUsed < intervalEndTime) {
-                caloriesFromProfile +=
-                        getCaloriesFromHeightAndWeight(
-                                height, weight, lastTimeUsed, intervalEndTime);
+    /**
+     * Reads the samples of {@code colName} between the given times, preceded by the latest sample
+     * at or before {@code intervalStartTime}.
+     */
+    private StepFunction readHistory(
+            String tableName, String colName, long intervalStartTime, long intervalEndTime) {
+        StepFunction history = new StepFunction();
+        try (Cursor cursor =
+                getReadCursorForDerivingBMR(
+                        intervalStartTime, intervalEndTime, tableName, colName)) {
+            while (cursor.moveToNext()) {
+                history.add(
+                        StorageUtils.getCursorLong(cursor, mTimeColumnName),
+                        StorageUtils.getCursorDouble(cursor, colName));
             }
         }
-
-        return caloriesFromProfile;
-    }
-
-    private Cursor getLeanBodyMassCursor(long intervalStartTime, long intervalEndTime) {
-        return getReadCursorForDerivingBMR(
-                intervalStartTime,
-                intervalEndTime,
-                LEAN_BODY_MASS_RECORD_TABLE_NAME,
-                MASS_COLUMN_NAME);
-    }
-
-    private Cursor getHeightCursor(long intervalStartTime, long intervalEndTime) {
-        return getReadCursorForDerivingBMR(
-                intervalStartTime, intervalEndTime, HEIGHT_RECORD_TABLE_NAME, HEIGHT_COLUMN_NAME);
+        return history;
     }
 
-    private Cursor getWeightCursor(long intervalStartTime, long intervalEndTime) {
-        return getReadCursorForDerivingBMR(
-                intervalStartTime, intervalEndTime, WEIGHT_RECORD_TABLE_NAME, WEIGHT_COLUMN_NAME);
+    private double getBmrFromLbmInCaloriesPerDay(double massInGms) {
+        return (370 + 21.6 * (massInGms / GMS_IN_KG)) * KCAL_TO_CAL;
     }
 
     private Cursor getReadCursorForDerivingBMR(
@@ -335,44 +354,12 @@ public final class DeriveBasalCaloriesBurnedHelper {
                                                                         mTimeColumnName, false)))));
     }
 
-    /**
-     * Calculates and returns an array of aggregate of total basal calories burned from table {@link
-     * BasalMetabolicRateRecord} for group of intervals.
-     */
-    public double[] getBasalCaloriesBurned(@NonNull List<Pair<Long, Long>> groupIntervalList) {
-        double[] basalCaloriesBurned = new double[groupIntervalList.size()];
-        for (int group = 0; group < groupIntervalList.size(); group++) {
-            basalCaloriesBurned[group] =
-                    getBasalCaloriesBurned(
-                            groupIntervalList.get(group).first,
-                            groupIntervalList.get(group).second);
-        }
-        return basalCaloriesBurned;
-    }
-
-    private double getCaloriesFromHeightAndWeight(
-            double height, double weight, long startTime, long endTime) {
-        if (Constants.DEBUG) {
-            Slog.d(
-                    TAG,
-                    "Calculating calories from profile start time: "
-                            + startTime
-                            + " end time: "
-                            + endTime
-                            + " height: "
-                            + height
-                            + " weight: "
-                            + weight);
-        }
-
-        double bmrInCaloriesPerDay =
-                (10 * (weight / GMS_IN_KG)
-                                + 6.25 * height * 100
-                                - 5 * DEFAULT_AGE
-                                + DEFAULT_GENDER_CONSTANT)
-                        * KCAL_TO_CAL;
-        return bmrInCaloriesPerDay
-                * ((double) (endTime - startTime) / Duration.ofDays(1).toMillis());
+    private double getBmrFromProfileInCaloriesPerDay(double height, double weight) {
+        return (10 * (weight / GMS_IN_KG)
+                        + 6.25 * height * 100
+                        - 5 * DEFAULT_AGE
+                        + DEFAULT_GENDER_CONSTANT)
+                * KCAL_TO_CAL;
     }
 
     private double getCalories(double bmrInCaloriesPerDay, long startTime, long endTime) {
@@ -387,27 +374,75 @@ public final class DeriveBasalCaloriesBurnedHelper {
                             + bmrInCaloriesPerDay);
         }
 
-        return bmrInCaloriesPerDay
-                * ((double) (endTime - startTime) / Duration.ofDays(1).toMillis());
-    }
-
-    private double getCurrentIntervalEnergy(
-            double rateOfEnergyBurntInWatts, long startTime, long endTime) {
-        if (Constants.DEBUG) {
-            Slog.d(
-                    TAG,
-                    "Calculating calories from LBM start time: "
-                            + startTime
-                            + " end time: "
-                            + endTime
-                            + " bmrInCaloriesPerDay: "
-                            + rateOfEnergyBurntInWatts);
-        }
-        return getCalPerDay(rateOfEnergyBurntInWatts)
-                * ((double) (endTime - startTime) / Duration.ofDays(1).toMillis());
+        return bmrInCaloriesPerDay * ((double) (endTime - startTime) / MILLIS_PER_DAY);
     }
 
     private double getCalPerDay(double rateOfEnergyBurntInWatt) {
         return rateOfEnergyBurntInWatt * HOURS_PER_DAY * WATT_TO_CAL_PER_HR;
     }
+
+    /**
+     * A value which changes at given times, stored as parallel sorted arrays. Each value holds from
+     * its time until the time of the next one.
+     */
+    private static final class StepFunction {
+        private long[] mTimes = new long[8];
+        private double[] mValues = new double[8];
+        private int mSize;
+
+        int size() {
+            return mSize;
+        }
+
+        long getTime(int index) {
+            return mTimes[index];
+        }
+
+        double getValue(int index) {
+            return mValues[index];
+        }
+
+        /** Adds a step, a step at the same time as an existing one replaces it. */
+        void add(long time, double value) {
+            int index = mSize;
+            while (index > 0 && mTimes[index - 1] > time) {
+                index--;
+            }
+            if (index > 0 && mTimes[index - 1] == time) {
+                mValues[index - 1] = value;
+                return;
+            }
+
+            if (mSize == mTimes.length) {
+                mTimes = Arrays.copyOf(mTimes, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            System.arraycopy(mTimes, index, mTimes, index + 1, mSize - index);
+            System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+            mTimes[index] = time;
+            mValues[index] = value;
+            mSize++;
+        }
+
+        /** Returns the index of the step holding at {@code time}, or 0 if it is before all. */
+        int indexOfStepAt(long time) {
+            int index = Arrays.binarySearch(mTimes, 0, mSize, time);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return Math.max(index, 0);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("[");
+            for (int i = 0; i < mSize; i++) {
+                builder.append(i == 0 ? "" : ", ")
+                        .append(mTimes[i])
+                        .append('=')
+                        .append(mValues[i]);
+            }
+            return builder.append(']').toString();
+        }
+    }
 }
@@ -116,7 +116,9 @@ public final class DeriveTotalCaloriesBurnedHelper {
                 new DeriveBasalCaloriesBurnedHelper(
                         mBasalCaloriesBurnedCursor,
                         BASAL_METABOLIC_RATE_COLUMN_NAME,
-                        mInstantRecordTimeColumnName);
+                        mInstantRecordTimeColumnName,
+                        mStartTime,
+                        mEndTime);
     }
 
     /** Close the cursors created */
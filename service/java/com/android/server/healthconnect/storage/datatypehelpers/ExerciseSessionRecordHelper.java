@@ -32,7 +32,6 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGE
 import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_NULL;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorInt;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorString;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorUUID;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getIntegerAndConvertToBoolean;
 
 import android.annotation.NonNull;
@@ -47,7 +46,6 @@ import android.health.connect.internal.datatypes.ExerciseSegmentInternal;
 import android.health.connect.internal.datatypes.ExerciseSessionRecordInternal;
 import android.health.connect.internal.datatypes.RecordInternal;
 import android.util.ArrayMap;
-import android.util.ArraySet;
 import android.util.Pair;
 
 import androidx.annotation.Nullable;
@@ -59,7 +57,7 @@ import com.android.server.healthconnect.storage.request.AggregateParams;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
-import com.android.server.healthconnect.storage.utils.SqlJoin;
+import com.android.server.healthconnect.storage.utils.CursorProjection;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
@@ -107,32 +105,38 @@ public final class ExerciseSessionRecordHelper
     @Override
     void populateSpecificRecordValue(
             @NonNull Cursor cursor, @NonNull ExerciseSessionRecordInternal exerciseSessionRecord) {
-        UUID uuid = getCursorUUID(cursor, UUID_COLUMN_NAME);
         exerciseSessionRecord.setNotes(getCursorString(cursor, NOTES_COLUMN_NAME));
         exerciseSessionRecord.setExerciseType(getCursorInt(cursor, EXERCISE_TYPE_COLUMN_NAME));
         exerciseSessionRecord.setTitle(getCursorString(cursor, TITLE_COLUMN_NAME));
         exerciseSessionRecord.setHasRoute(
                 isExerciseRouteFeatureEnabled()
                         && getIntegerAndConvertToBoolean(cursor, HAS_ROUTE_COLUMN_NAME));
+    }
 
-        // The table might contain duplicates because of 2 left joins, use sets to remove them.
-        ArraySet<ExerciseLapInternal> lapsSet = new ArraySet<>();
-        ArraySet<ExerciseSegmentInternal> segmentsSet = new ArraySet<>();
-        do {
-            // Populate lap and segments from each row.
-            ExerciseLapRecordHelper.populateLapIfRecorded(cursor, lapsSet);
-            ExerciseSegmentRecordHelper.updateSetWithRecordedSegment(cursor, segmentsSet);
-        } while (cursor.moveToNext() && uuid.equals(getCursorUUID(cursor, UUID_COLUMN_NAME)));
-        // In case we hit another record, move the cursor back to read next record in outer
-        // RecordHelper#getInternalRecords loop.
-        cursor.moveToPrevious();
-
-        if (!lapsSet.isEmpty()) {
-            exerciseSessionRecord.setExerciseLaps(lapsSet.stream().toList());
-        }
+    @Override
+    List<ReadTableRequest> getChildTableReadRequestsForRowIds(@NonNull List<Long> rowIds) {
+        return List.of(
+                ExerciseLapRecordHelper.getLapsReadRequest(rowIds),
+                ExerciseSegmentRecordHelper.getSegmentsReadRequest(rowIds));
+    }
 
-        if (!segmentsSet.isEmpty()) {
-            exerciseSessionRecord.setExerciseSegments(segmentsSet.stream().toList());
+    @Override
+    void populateFromChildTableRows(
+            @NonNull Cursor cursor,
+            @NonNull ExerciseSessionRecordInternal exerciseSessionRecord,
+            @NonNull String tableName) {
+        if (EXERCISE_LAPS_RECORD_TABLE_NAME.equals(tableName)) {
+            List<ExerciseLapInternal> laps = new ArrayList<>();
+            do {
+                laps.add(ExerciseLapRecordHelper.getLap(cursor));
+            } while (moveToNextRowOfSameParent(cursor));
+            exerciseSessionRecord.setExerciseLaps(laps);
+        } else if (EXERCISE_SEGMENT_RECORD_TABLE_NAME.equals(tableName)) {
+            List<ExerciseSegmentInternal> segments = new ArrayList<>();
+            do {
+                segments.add(ExerciseSegmentRecordHelper.getSegment(cursor));
+            } while (moveToNextRowOfSameParent(cursor));
+            exerciseSessionRecord.setExerciseSegments(segments);
         }
     }
 
@@ -237,12 +241,6 @@ public final class ExerciseSessionRecordHelper
                 new Pair<>(HAS_ROUTE_COLUMN_NAME, INTEGER));
     }
 
-    @Override
-    SqlJoin getJoinForReadRequest() {
-        return ExerciseLapRecordHelper.getJoinReadRequest(getMainTableName())
-                .attachJoin(ExerciseSegmentRecordHelper.getJoinReadRequest(getMainTableName()));
-    }
-
     @Override
     List<ReadTableRequest> getExtraDataReadRequests(
             ReadRecordsRequestParcel request,
@@ -324,8 +322,7 @@ public final class ExerciseSessionRecordHelper
 
         WhereClauses sessionsWithAccessibleRouteClause =
                 new WhereClauses()
-                        .addWhereInClauseWithoutQuotes(
-                                UUID_COLUMN_NAME, StorageUtils.getListOfHexString(uuids))
+                        .addWhereInUuidsClause(UUID_COLUMN_NAME, uuids)
                         .addWhereLaterThanTimeClause(getStartTimeColumnName(), startDateAccess);
 
         if (routeAccessType == ROUTE_READ_ACCESS_TYPE_OWN) {
@@ -348,11 +345,12 @@ public final class ExerciseSessionRecordHelper
             mapping.put(internalRecords.get(i).getRowId(), i);
         }
 
-        while (cursorExtraData.moveToNext()) {
+        CursorProjection projection = CursorProjection.of(cursorExtraData);
+        int parentKeyIndex = projection.getColumnIndexOrThrow(PARENT_KEY_COLUMN_NAME);
+        while (projection.moveToNext()) {
             ExerciseSessionRecordInternal record =
-                    internalRecords.get(
-                            mapping.get(getCursorInt(cursorExtraData, PARENT_KEY_COLUMN_NAME)));
-            record.addRouteLocation(ExerciseRouteRecordHelper.populateLocation(cursorExtraData));
+                    internalRecords.get(mapping.get(projection.getInt(parentKeyIndex)));
+            record.addRouteLocation(ExerciseRouteRecordHelper.populateLocation(projection));
         }
     }
 
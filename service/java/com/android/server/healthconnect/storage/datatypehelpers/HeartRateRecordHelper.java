@@ -22,10 +22,8 @@ import static android.health.connect.datatypes.AggregationType.AggregationTypeId
 import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.HEART_RATE_RECORD_MEASUREMENTS_COUNT;
 
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorInt;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorUUID;
 
+import android.annotation.NonNull;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.health.connect.AggregateResult;
@@ -40,9 +38,7 @@ import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * Helper class for HeartRateRecord.
@@ -50,8 +46,7 @@ import java.util.UUID;
  * @hide
  */
 public class HeartRateRecordHelper
-        extends SeriesRecordHelper<
-                HeartRateRecordInternal, HeartRateRecordInternal.HeartRateSample> {
+        extends SeriesRecordHelper<HeartRateRecordInternal> {
 
     @VisibleForTesting public static final String TABLE_NAME = "heart_rate_record_table";
     public static final int NUM_LOCAL_COLUMNS = 2;
@@ -120,26 +115,19 @@ public class HeartRateRecordHelper
     }
 
     @Override
-    void populateSpecificValues(Cursor seriesTableCursor, HeartRateRecordInternal record) {
-        HashSet<HeartRateRecordInternal.HeartRateSample> heartRateSamplesSet = new HashSet<>();
-        UUID uuid = getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME);
-        do {
-            heartRateSamplesSet.add(
-                    new HeartRateRecordInternal.HeartRateSample(
-                            getCursorInt(seriesTableCursor, BEATS_PER_MINUTE_COLUMN_NAME),
-                            getCursorLong(seriesTableCursor, EPOCH_MILLIS_COLUMN_NAME)));
-        } while (seriesTableCursor.moveToNext()
-                && uuid.equals(getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME)));
-        // In case we hit another record, move the cursor back to read next record in outer
-        // RecordHelper#getInternalRecords loop.
-        seriesTableCursor.moveToPrevious();
-        record.setSamples(heartRateSamplesSet);
+    final String getSampleValueColumnName() {
+        return BEATS_PER_MINUTE_COLUMN_NAME;
+    }
+
+    @Override
+    final String getSampleTimeColumnName() {
+        return EPOCH_MILLIS_COLUMN_NAME;
     }
 
     @Override
     final void populateSampleTo(
-            ContentValues contentValues, HeartRateRecordInternal.HeartRateSample heartRateSample) {
-        contentValues.put(BEATS_PER_MINUTE_COLUMN_NAME, heartRateSample.getBeatsPerMinute());
-        contentValues.put(EPOCH_MILLIS_COLUMN_NAME, heartRateSample.getEpochMillis());
+            @NonNull ContentValues contentValues, long epochMillis, double value) {
+        contentValues.put(BEATS_PER_MINUTE_COLUMN_NAME, (int) value);
+        contentValues.put(EPOCH_MILLIS_COLUMN_NAME, epochMillis);
     }
 }
@@ -107,6 +107,14 @@ public abstract class InstantRecordHelper<T extends InstantRecordInternal<?>>
                         LOCAL_DATE_TIME_COLUMN_NAME, INTEGER, LOCAL_DATE_TIME_EXPRESSION));
     }
 
+    @Override
+    @NonNull
+    final List<List<String>> getColumnsToIndex() {
+        List<List<String>> columnsToIndex = super.getColumnsToIndex();
+        columnsToIndex.add(List.of(LOCAL_DATE_COLUMN_NAME));
+        return columnsToIndex;
+    }
+
     /**
      * This implementation should return the column names with which the table should be created.
      *
@@ -147,6 +147,14 @@ public abstract class IntervalRecordHelper<T extends IntervalRecordInternal<?>>
         return zoneOffset;
     }
 
+    @Override
+    @NonNull
+    final List<List<String>> getColumnsToIndex() {
+        List<List<String>> columnsToIndex = super.getColumnsToIndex();
+        columnsToIndex.add(List.of(LOCAL_DATE_COLUMN_NAME));
+        return columnsToIndex;
+    }
+
     /**
      * This implementation should return the column names with which the table should be created.
      *
@@ -22,9 +22,6 @@ import static android.health.connect.datatypes.AggregationType.AggregationTypeId
 
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.REAL;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorDouble;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorUUID;
 
 import android.annotation.NonNull;
 import android.content.ContentValues;
@@ -40,9 +37,7 @@ import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * Helper class for PowerRecord.
@@ -50,7 +45,7 @@ import java.util.UUID;
  * @hide
  */
 public class PowerRecordHelper
-        extends SeriesRecordHelper<PowerRecordInternal, PowerRecordInternal.PowerRecordSample> {
+        extends SeriesRecordHelper<PowerRecordInternal> {
     public static final int NUM_LOCAL_COLUMNS = 1;
     private static final String TABLE_NAME = "PowerRecordTable";
     private static final String SERIES_TABLE_NAME = "power_record_table";
@@ -113,28 +108,20 @@ public class PowerRecordHelper
     String getSeriesDataTableName() {
         return SERIES_TABLE_NAME;
     }
-    /** Populates the {@code record} with values specific to datatype */
     @Override
-    void populateSpecificValues(@NonNull Cursor seriesTableCursor, PowerRecordInternal record) {
-        HashSet<PowerRecordInternal.PowerRecordSample> powerRecordSampleSet = new HashSet<>();
-        UUID uuid = getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME);
-        do {
-            powerRecordSampleSet.add(
-                    new PowerRecordInternal.PowerRecordSample(
-                            getCursorDouble(seriesTableCursor, POWER_COLUMN_NAME),
-                            getCursorLong(seriesTableCursor, EPOCH_MILLIS_COLUMN_NAME)));
-        } while (seriesTableCursor.moveToNext()
-                && uuid.equals(getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME)));
-        // In case we hit another record, move the cursor back to read next record in outer
-        // RecordHelper#getInternalRecords loop.
-        seriesTableCursor.moveToPrevious();
-        record.setSamples(powerRecordSampleSet);
+    final String getSampleValueColumnName() {
+        return POWER_COLUMN_NAME;
+    }
+
+    @Override
+    final String getSampleTimeColumnName() {
+        return EPOCH_MILLIS_COLUMN_NAME;
     }
 
     @Override
     void populateSampleTo(
-            ContentValues contentValues, PowerRecordInternal.PowerRecordSample powerRecord) {
-        contentValues.put(POWER_COLUMN_NAME, powerRecord.getPower());
-        contentValues.put(EPOCH_MILLIS_COLUMN_NAME, powerRecord.getEpochMillis());
+            @NonNull ContentValues contentValues, long epochMillis, double value) {
+        contentValues.put(POWER_COLUMN_NAME, value);
+        contentValues.put(EPOCH_MILLIS_COLUMN_NAME, epochMillis);
     }
 }
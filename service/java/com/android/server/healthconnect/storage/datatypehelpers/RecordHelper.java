@@ -19,6 +19,7 @@ package com.android.server.healthconnect.storage.datatypehelpers;
 import static android.health.connect.Constants.DEFAULT_INT;
 import static android.health.connect.Constants.DEFAULT_LONG;
 import static android.health.connect.Constants.MAXIMUM_PAGE_SIZE;
+import static android.health.connect.Constants.PARENT_KEY;
 
 import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.END_TIME_COLUMN_NAME;
 import static com.android.server.healthconnect.storage.request.ReadTransactionRequest.TYPE_NOT_PRESENT_PACKAGE_NAME;
@@ -27,10 +28,6 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.BLOB_U
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.PRIMARY_AUTOINCREMENT;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_NULL;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorInt;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorString;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorUUID;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getDedupeByteBuffer;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.supportsPriority;
 
@@ -56,21 +53,24 @@ import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.CursorProjection;
 import com.android.server.healthconnect.storage.utils.OrderByClause;
-import com.android.server.healthconnect.storage.utils.SqlJoin;
+import com.android.server.healthconnect.storage.utils.PageTokenUtils;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
-import java.lang.reflect.InvocationTargetException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -101,7 +101,7 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
     }
 
     public DeleteTableRequest getDeleteRequestForAutoDelete(int recordAutoDeletePeriodInDays) {
-        return new DeleteTableRequest(getMainTableName())
+        return new DeleteTableRequest(getMainTableName(), getRecordIdentifier())
                 .setTimeFilter(
                         getStartTimeColumnName(),
                         Instant.EPOCH.toEpochMilli(),
@@ -193,17 +193,41 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
      */
     @NonNull
     public final CreateTableRequest getCreateTableRequest() {
-        return new CreateTableRequest(getMainTableName(), getColumnInfo())
-                .addForeignKey(
-                        DeviceInfoHelper.getInstance().getTableName(),
-                        Collections.singletonList(DEVICE_INFO_ID_COLUMN_NAME),
-                        Collections.singletonList(PRIMARY_COLUMN_NAME))
-                .addForeignKey(
-                        AppInfoHelper.TABLE_NAME,
-                        Collections.singletonList(APP_INFO_ID_COLUMN_NAME),
-                        Collections.singletonList(PRIMARY_COLUMN_NAME))
-                .setChildTableRequests(getChildTableCreateRequests())
-                .setGeneratedColumnInfo(getGeneratedColumnInfo());
+        CreateTableRequest request =
+                new CreateTableRequest(getMainTableName(), getColumnInfo())
+                        .addForeignKey(
+                                DeviceInfoHelper.getInstance().getTableName(),
+                                Collections.singletonList(DEVICE_INFO_ID_COLUMN_NAME),
+                                Collections.singletonList(PRIMARY_COLUMN_NAME))
+                        .addForeignKey(
+                                AppInfoHelper.TABLE_NAME,
+                                Collections.singletonList(APP_INFO_ID_COLUMN_NAME),
+                                Collections.singletonList(PRIMARY_COLUMN_NAME))
+                        .setChildTableRequests(getChildTableCreateRequests())
+                        .setGeneratedColumnInfo(getGeneratedColumnInfo());
+        getColumnsToIndex().forEach(request::createIndexOn);
+        return request;
+    }
+
+    /**
+     * Returns the indexes to create on the main table of this helper, one entry per index.
+     *
+     * <p>Reads, aggregations and auto delete all filter on the start time, usually restricted to a
+     * set of apps, so these are indexed by default. Child tables don't need an entry here as every
+     * foreign key (e.g. parent_key) is indexed by {@link CreateTableRequest}.
+     *
+     * <p>SQLite indexes end with the row id, so the start time index also serves reads ordered by
+     * (start time, row id), see {@link #getNextPageToken}.
+     *
+     * <p>NOTE: Indexes added here for existing tables are created in {@link
+     * com.android.server.healthconnect.storage.HealthConnectDatabase#onUpgrade}.
+     */
+    @NonNull
+    List<List<String>> getColumnsToIndex() {
+        List<List<String>> columnsToIndex = new ArrayList<>();
+        columnsToIndex.add(List.of(getStartTimeColumnName()));
+        columnsToIndex.add(List.of(APP_INFO_ID_COLUMN_NAME, getStartTimeColumnName()));
+        return columnsToIndex;
     }
 
     public UpsertTableRequest getUpsertTableRequest(RecordInternal<?> recordInternal) {
@@ -305,17 +329,63 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
             boolean enforceSelfRead,
             long startDateAccess,
             Map<String, Boolean> extraPermsState) {
-        return new ReadTableRequest(getMainTableName())
-                .setJoinClause(getJoinForReadRequest())
+        ReadTableRequest readTableRequest =
+                new ReadTableRequest(getMainTableName())
+                        .setOrderBy(getOrderByClause(request))
+                        .setLimit(getLimitSize(request))
+                        .setRecordHelper(this)
+                        .setExtraReadRequests(
+                                getExtraDataReadRequests(
+                                        request, packageName, startDateAccess, extraPermsState));
+        if (request.getRecordIdFiltersParcel() != null
+                || !PageTokenUtils.isRowIdToken(request.getPageToken())) {
+            return readTableRequest.setWhereClause(
+                    getReadTableWhereClause(
+                            request, packageName, enforceSelfRead, startDateAccess));
+        }
+
+        // The page starts at a record sharing its start time with the previous page. Records with
+        // that start time are read by their own request, which SQLite serves from the start time
+        // index starting at the row id of the token. They come first in the union, and the records
+        // with later (or earlier if descending) start times follow from the main request. If the
+        // token's record was deleted since, its start time is unknown. The first request then
+        // reads nothing and the main request reads from the start again, so records of earlier
+        // pages are read again but none are skipped.
+        long rowId = PageTokenUtils.getRowId(request.getPageToken());
+        boolean isAscending = PageTokenUtils.isAscending(request.getPageToken());
+        WhereClauses sameStartTimeClauses =
+                getReadTableFilterWhereClause(
+                                request, packageName, enforceSelfRead, startDateAccess)
+                        .addWhereCompareToRowClause(
+                                getStartTimeColumnName(),
+                                "=",
+                                getMainTableName(),
+                                PRIMARY_COLUMN_NAME,
+                                rowId,
+                                /* valueIfNoRow= */ null);
+        if (isAscending) {
+            sameStartTimeClauses.addWhereGreaterThanOrEqualClause(PRIMARY_COLUMN_NAME, rowId);
+        } else {
+            sameStartTimeClauses.addWhereLessThanOrEqualClause(PRIMARY_COLUMN_NAME, rowId);
+        }
+        ReadTableRequest sameStartTimeRequest =
+                new ReadTableRequest(getMainTableName())
+                        .setWhereClause(sameStartTimeClauses)
+                        .setOrderBy(getOrderByClause(request))
+                        .setLimit(getLimitSize(request));
+
+        return readTableRequest
                 .setWhereClause(
-                        getReadTableWhereClause(
-                                request, packageName, enforceSelfRead, startDateAccess))
-                .setOrderBy(getOrderByClause(request))
-                .setLimit(getLimitSize(request))
-                .setRecordHelper(this)
-                .setExtraReadRequests(
-                        getExtraDataReadRequests(
-                                request, packageName, startDateAccess, extraPermsState));
+                        getReadTableFilterWhereClause(
+                                        request, packageName, enforceSelfRead, startDateAccess)
+                                .addWhereCompareToRowClause(
+                                        getStartTimeColumnName(),
+                                        isAscending ? ">" : "<",
+                                        getMainTableName(),
+                                        PRIMARY_COLUMN_NAME,
+                                        rowId,
+                                        getFirstPageStartTimeBound(isAscending)))
+                .setUnionReadRequests(List.of(sameStartTimeRequest));
     }
 
     /**
@@ -347,11 +417,9 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
             long startDateAccess,
             Map<String, Boolean> extraPermsState) {
         return new ReadTableRequest(getMainTableName())
-                .setJoinClause(getJoinForReadRequest())
                 .setWhereClause(
                         new WhereClauses()
-                                .addWhereInClauseWithoutQuotes(
-                                        UUID_COLUMN_NAME, StorageUtils.getListOfHexString(uuids))
+                                .addWhereInUuidsClause(UUID_COLUMN_NAME, uuids)
                                 .addWhereLaterThanTimeClause(
                                         getStartTimeColumnName(), startDateAccess))
                 .setRecordHelper(this)
@@ -384,16 +452,6 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
         return Collections.emptyList();
     }
 
-    /**
-     * Returns ReadTableRequest for the record corresponding to this helper with a distinct clause
-     * on the input column names.
-     */
-    public ReadTableRequest getReadTableRequestWithDistinctAppInfoIds() {
-        return new ReadTableRequest(getMainTableName())
-                .setColumnNames(new ArrayList<>(List.of(APP_INFO_ID_COLUMN_NAME)))
-                .setDistinctClause(true);
-    }
-
     /** Returns List of Internal records from the cursor */
     @SuppressWarnings("unchecked")
     public List<RecordInternal<?>> getInternalRecords(Cursor cursor, int requestSize) {
@@ -406,101 +464,132 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
             Cursor cursor, int requestSize, Map<Long, String> packageNamesByAppIds) {
         Trace.traceBegin(TRACE_TAG_RECORD_HELPER, TAG_RECORD_HELPER.concat("GetInternalRecords"));
         List<RecordInternal<?>> recordInternalList = new ArrayList<>();
+        // Resolve column positions once for the whole page instead of once per row. The projection
+        // is also what record specific helpers read from in populateRecordValue.
+        CursorProjection projection = CursorProjection.of(cursor);
+        int uuidIndex = projection.getColumnIndexOrThrow(UUID_COLUMN_NAME);
+        int lastModifiedTimeIndex =
+                projection.getColumnIndexOrThrow(LAST_MODIFIED_TIME_COLUMN_NAME);
+        int clientRecordIdIndex = projection.getColumnIndexOrThrow(CLIENT_RECORD_ID_COLUMN_NAME);
+        int clientRecordVersionIndex =
+                projection.getColumnIndexOrThrow(CLIENT_RECORD_VERSION_COLUMN_NAME);
+        int recordingMethodIndex = projection.getColumnIndexOrThrow(RECORDING_METHOD_COLUMN_NAME);
+        int rowIdIndex = projection.getColumnIndexOrThrow(PRIMARY_COLUMN_NAME);
+        int deviceInfoIdIndex = projection.getColumnIndexOrThrow(DEVICE_INFO_ID_COLUMN_NAME);
+        int appInfoIdIndex = projection.getColumnIndexOrThrow(APP_INFO_ID_COLUMN_NAME);
+
+        Supplier<? extends RecordInternal<?>> recordSupplier =
+                RecordMapper.getInstance()
+                        .getRecordIdToInternalRecordSupplierMap()
+                        .get(getRecordIdentifier());
+        if (recordSupplier == null) {
+            throw new IllegalArgumentException("Unknown record type: " + getRecordIdentifier());
+        }
+
+        // Reads at most requestSize records, leaving the cursor on the last one so that the token
+        // of the next page can be read from there, see getNextPageToken.
+        while (recordInternalList.size() < requestSize && cursor.moveToNext()) {
+            T record = (T) recordSupplier.get();
+            record.setUuid(StorageUtils.convertBytesToUUID(projection.getBlob(uuidIndex)));
+            record.setLastModifiedTime(projection.getLong(lastModifiedTimeIndex));
+            record.setClientRecordId(projection.getString(clientRecordIdIndex));
+            record.setClientRecordVersion(projection.getLong(clientRecordVersionIndex));
+            record.setRecordingMethod(projection.getInt(recordingMethodIndex));
+            record.setRowId(projection.getInt(rowIdIndex));
+            long deviceInfoId = projection.getLong(deviceInfoIdIndex);
+            DeviceInfoHelper.getInstance().populateRecordWithValue(deviceInfoId, record);
+            long appInfoId = projection.getLong(appInfoIdIndex);
+            AppInfoHelper.getInstance()
+                    .populateRecordWithValue(appInfoId, record, packageNamesByAppIds);
+            populateRecordValue(projection, record);
+            recordInternalList.add(record);
+        }
+        Trace.traceEnd(TRACE_TAG_RECORD_HELPER);
+        return recordInternalList;
+    }
 
-        int count = 0;
-        long prevStartTime = DEFAULT_LONG;
-        long currentStartTime = DEFAULT_LONG;
-        int tempCount = 0;
-        List<RecordInternal<?>> tempList = new ArrayList<>();
+    /**
+     * Returns the page token of the records following the ones read by {@link #getInternalRecords}
+     * from {@code cursor}, or {@link android.health.connect.Constants#DEFAULT_LONG} if there are
+     * none. See {@link PageTokenUtils} for the token formats.
+     */
+    public long getNextPageToken(@NonNull Cursor cursor, boolean isAscending) {
+        if (cursor.isBeforeFirst() || cursor.isAfterLast()) {
+            return DEFAULT_LONG;
+        }
+        long lastStartTime = StorageUtils.getCursorLong(cursor, getStartTimeColumnName());
+        if (!cursor.moveToNext()) {
+            return DEFAULT_LONG;
+        }
+        long nextStartTime = StorageUtils.getCursorLong(cursor, getStartTimeColumnName());
+        if (nextStartTime != lastStartTime && nextStartTime >= 0) {
+            return PageTokenUtils.ofStartTime(nextStartTime, isAscending);
+        }
+        // The page ends within records sharing a start time, or at a negative start time that a
+        // start time token can't hold, point to the exact next record.
+        return PageTokenUtils.ofRowId(
+                StorageUtils.getCursorLong(cursor, PRIMARY_COLUMN_NAME), isAscending);
+    }
+
+    /**
+     * Returns requests reading the child table rows of {@code records}. Their results are passed
+     * to {@link #populateRecordsWithChildTableData}.
+     *
+     * <p>Records are read from the main table alone, so that rows of a page don't repeat the main
+     * table columns for every child row. Child rows are then fetched with one query per child
+     * table and matched to their records by row id.
+     */
+    @NonNull
+    public List<ReadTableRequest> getChildTableReadRequests(
+            @NonNull List<RecordInternal<?>> records) {
+        if (records.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Long> rowIds = new ArrayList<>(records.size());
+        for (RecordInternal<?> record : records) {
+            rowIds.add((long) record.getRowId());
+        }
+        return getChildTableReadRequestsForRowIds(rowIds);
+    }
+
+    /**
+     * Populates {@code records} from {@code cursor}, the result of one of {@link
+     * #getChildTableReadRequests(List)} for the same records.
+     */
+    @SuppressWarnings("unchecked")
+    public void populateRecordsWithChildTableData(
+            @NonNull List<RecordInternal<?>> records,
+            @NonNull Cursor cursor,
+            @NonNull String tableName) {
+        Map<Long, T> recordsByRowId = new HashMap<>(records.size());
+        for (RecordInternal<?> record : records) {
+            recordsByRowId.put((long) record.getRowId(), (T) record);
+        }
+
+        int parentKeyIndex = cursor.getColumnIndexOrThrow(PARENT_KEY);
         while (cursor.moveToNext()) {
-            try {
-                T record =
-                        (T)
-                                RecordMapper.getInstance()
-                                        .getRecordIdToInternalRecordClassMap()
-                                        .get(getRecordIdentifier())
-                                        .getConstructor()
-                                        .newInstance();
-                record.setUuid(getCursorUUID(cursor, UUID_COLUMN_NAME));
-                record.setLastModifiedTime(getCursorLong(cursor, LAST_MODIFIED_TIME_COLUMN_NAME));
-                record.setClientRecordId(getCursorString(cursor, CLIENT_RECORD_ID_COLUMN_NAME));
-                record.setClientRecordVersion(
-                        getCursorLong(cursor, CLIENT_RECORD_VERSION_COLUMN_NAME));
-                record.setRecordingMethod(getCursorInt(cursor, RECORDING_METHOD_COLUMN_NAME));
-                record.setRowId(getCursorInt(cursor, PRIMARY_COLUMN_NAME));
-                long deviceInfoId = getCursorLong(cursor, DEVICE_INFO_ID_COLUMN_NAME);
-                DeviceInfoHelper.getInstance().populateRecordWithValue(deviceInfoId, record);
-                long appInfoId = getCursorLong(cursor, APP_INFO_ID_COLUMN_NAME);
-                AppInfoHelper.getInstance()
-                        .populateRecordWithValue(appInfoId, record, packageNamesByAppIds);
-                populateRecordValue(cursor, record);
-
-                prevStartTime = currentStartTime;
-                currentStartTime = getCursorLong(cursor, getStartTimeColumnName());
-                if (prevStartTime == DEFAULT_LONG || prevStartTime == currentStartTime) {
-                    // Fetch and add records with same startTime to tempList
-                    tempList.add(record);
-                    tempCount++;
-                } else {
-                    if (count == 0) {
-                        // items in tempList having startTime same as the first record from cursor
-                        // is added to final list.
-                        // This makes sure that we return at least 1 record if the count of
-                        // records with startTime same as second record exceeds requestSize.
-                        recordInternalList.addAll(tempList);
-                        count = tempCount;
-                        tempList.clear();
-                        tempCount = 0;
-                        if (count >= requestSize) {
-                            // startTime of current record should be fetched for pageToken
-                            cursor.moveToPrevious();
-                            break;
-                        }
-                        tempList.add(record);
-                        tempCount = 1;
-                    } else if (tempCount + count <= requestSize) {
-                        // Makes sure after adding records in tempList with same starTime
-                        // the count does not exceed requestSize
-                        recordInternalList.addAll(tempList);
-                        count += tempCount;
-                        tempList.clear();
-                        tempCount = 0;
-                        if (count >= requestSize) {
-                            // After adding records if count is equal to requestSize then startTime
-                            // of current fetched record should be the next page token.
-                            cursor.moveToPrevious();
-                            break;
-                        }
-                        tempList.add(record);
-                        tempCount = 1;
-                    } else {
-                        // If adding records in tempList makes count > requestSize, then ignore temp
-                        // list and startTime of records in temp list should be the next page token.
-                        tempList.clear();
-                        int lastposition = cursor.getPosition();
-                        cursor.moveToPosition(lastposition - 2);
-                        break;
-                    }
-                }
-            } catch (InstantiationException
-                    | IllegalAccessException
-                    | NoSuchMethodException
-                    | InvocationTargetException exception) {
-                throw new IllegalArgumentException(exception);
+            T record = recordsByRowId.get(cursor.getLong(parentKeyIndex));
+            if (record != null) {
+                populateFromChildTableRows(cursor, record, tableName);
             }
         }
-        if (!tempList.isEmpty()) {
-            if (tempCount + count <= requestSize) {
-                // If reached end of cursor while fetching records then add it to final list
-                recordInternalList.addAll(tempList);
-            } else {
-                // If reached end of cursor while fetching and adding it will exceed requestSize
-                // then ignore them,startTime of the last record will be pageToken for next read.
-                cursor.moveToPosition(cursor.getCount() - 2);
+    }
+
+    /**
+     * Populates {@code records} with their child table rows. Each of {@link
+     * #getChildTableReadRequests(List)} is run with {@code reader}, on the database the records
+     * were read from, and the returned cursors are closed once used.
+     */
+    public void readChildTableData(
+            @NonNull List<RecordInternal<?>> records,
+            @NonNull Function<ReadTableRequest, Cursor> reader) {
+        for (ReadTableRequest childTableRequest : getChildTableReadRequests(records)) {
+            try (Cursor cursor = reader.apply(childTableRequest)) {
+                populateRecordsWithChildTableData(
+                        records, cursor, childTableRequest.getTableName());
             }
         }
-        Trace.traceEnd(TRACE_TAG_RECORD_HELPER);
-        return recordInternalList;
     }
 
     /** Returns is the read of this record type is enabled */
@@ -602,8 +691,54 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
         return Collections.emptyList();
     }
 
-    SqlJoin getJoinForReadRequest() {
-        return null;
+    /**
+     * Child classes with child tables should implement this to return the requests reading the
+     * child table rows of the records with {@code rowIds}, see {@link #getChildTableReadRequest}.
+     */
+    List<ReadTableRequest> getChildTableReadRequestsForRowIds(@NonNull List<Long> rowIds) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Child classes implementation should populate {@code record} from the rows of child table
+     * {@code tableName} that belong to it. {@code cursor} points to the first of these rows and
+     * should be left on the last one, see {@link #moveToNextRowOfSameParent}.
+     */
+    void populateFromChildTableRows(
+            @NonNull Cursor cursor, @NonNull T record, @NonNull String tableName) {}
+
+    /**
+     * Returns a request reading the rows of child table {@code tableName} that belong to the
+     * records with {@code rowIds}, grouped by record and ordered by {@code orderByColumnName}
+     * within each group.
+     */
+    static ReadTableRequest getChildTableReadRequest(
+            @NonNull String tableName,
+            @NonNull String orderByColumnName,
+            @NonNull List<Long> rowIds) {
+        return new ReadTableRequest(tableName)
+                .setWhereClause(new WhereClauses().addWhereInLongsClause(PARENT_KEY, rowIds))
+                .setOrderBy(
+                        new OrderByClause()
+                                .addOrderByClause(PARENT_KEY, /* isAscending= */ true)
+                                .addOrderByClause(orderByColumnName, /* isAscending= */ true));
+    }
+
+    /**
+     * Moves {@code cursor}, reading a child table request, to the next row if that row belongs to
+     * the same record as the current one. Returns false and leaves the cursor in place otherwise.
+     */
+    static boolean moveToNextRowOfSameParent(@NonNull Cursor cursor) {
+        int parentKeyIndex = cursor.getColumnIndexOrThrow(PARENT_KEY);
+        long parentKey = cursor.getLong(parentKeyIndex);
+        if (!cursor.moveToNext()) {
+            return false;
+        }
+        if (cursor.getLong(parentKeyIndex) != parentKey) {
+            cursor.moveToPrevious();
+            return false;
+        }
+        return true;
     }
 
     private int getLimitSize(ReadRecordsRequestParcel request) {
@@ -620,45 +755,12 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
             boolean enforceSelfRead,
             long startDateAccess) {
         if (request.getRecordIdFiltersParcel() == null) {
-            List<Long> appIds =
-                    AppInfoHelper.getInstance().getAppInfoIds(request.getPackageFilters()).stream()
-                            .distinct()
-                            .collect(Collectors.toList());
-            if (enforceSelfRead) {
-                appIds =
-                        AppInfoHelper.getInstance()
-                                .getAppInfoIds(Collections.singletonList(packageName));
-            }
-            if (appIds.size() == 1 && appIds.get(0) == DEFAULT_INT) {
-                throw new TypeNotPresentException(TYPE_NOT_PRESENT_PACKAGE_NAME, new Throwable());
-            }
-
             WhereClauses clauses =
-                    new WhereClauses().addWhereInLongsClause(APP_INFO_ID_COLUMN_NAME, appIds);
-
+                    getReadTableFilterWhereClause(
+                            request, packageName, enforceSelfRead, startDateAccess);
             if (request.getPageToken() != DEFAULT_LONG) {
-                // Since pageToken passed contains detail of sort order. Actual token value for read
-                // is calculated back from the requested pageToken based on sort order.
-                if (request.isAscending()) {
-                    clauses.addWhereGreaterThanOrEqualClause(
-                            getStartTimeColumnName(), request.getPageToken() / 2);
-                } else {
-                    clauses.addWhereLessThanOrEqualClause(
-                            getStartTimeColumnName(), (request.getPageToken() - 1) / 2);
-                }
+                addPageTokenClause(clauses, request.getPageToken());
             }
-
-            if (request.usesLocalTimeFilter()) {
-                clauses.addWhereGreaterThanOrEqualClause(getStartTimeColumnName(), startDateAccess);
-                clauses.addWhereBetweenClause(
-                        getLocalStartTimeColumnName(),
-                        request.getStartTime(),
-                        request.getEndTime());
-            } else {
-                clauses.addWhereBetweenTimeClause(
-                        getStartTimeColumnName(), startDateAccess, request.getEndTime());
-            }
-
             return clauses;
         }
 
@@ -671,8 +773,7 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
                         .collect(Collectors.toList());
         WhereClauses whereClauses =
                 new WhereClauses()
-                        .addWhereInClauseWithoutQuotes(
-                                UUID_COLUMN_NAME, StorageUtils.getListOfHexString(ids));
+                        .addWhereInUuidsClause(UUID_COLUMN_NAME, ids);
 
         if (enforceSelfRead) {
             long id = AppInfoHelper.getInstance().getAppInfoId(packageName);
@@ -689,12 +790,106 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
 
     abstract String getZoneOffsetColumnName();
 
+    /** Returns the clauses of a read with filters, without its page token. */
+    private WhereClauses getReadTableFilterWhereClause(
+            ReadRecordsRequestParcel request,
+            String packageName,
+            boolean enforceSelfRead,
+            long startDateAccess) {
+        List<Long> appIds =
+                AppInfoHelper.getInstance().getAppInfoIds(request.getPackageFilters()).stream()
+                        .distinct()
+                        .collect(Collectors.toList());
+        if (enforceSelfRead) {
+            appIds =
+                    AppInfoHelper.getInstance()
+                            .getAppInfoIds(Collections.singletonList(packageName));
+        }
+        if (appIds.size() == 1 && appIds.get(0) == DEFAULT_INT) {
+            throw new TypeNotPresentException(TYPE_NOT_PRESENT_PACKAGE_NAME, new Throwable());
+        }
+
+        WhereClauses clauses =
+                new WhereClauses().addWhereInLongsClause(APP_INFO_ID_COLUMN_NAME, appIds);
+
+        // With a page token, the token bounds the start time in the direction of the read. SQLite
+        // searches the start time index with a single bound per direction, so the bound of the
+        // time filter in that direction is kept out of the search with a unary "+". Otherwise the
+        // search could begin at the start of the time filter rather than at the page.
+        String lowerBoundColumnName = getStartTimeColumnName();
+        String upperBoundColumnName = getStartTimeColumnName();
+        if (request.getPageToken() != DEFAULT_LONG) {
+            if (PageTokenUtils.isAscending(request.getPageToken())) {
+                lowerBoundColumnName = "+" + lowerBoundColumnName;
+            } else {
+                upperBoundColumnName = "+" + upperBoundColumnName;
+            }
+        }
+
+        if (request.usesLocalTimeFilter()) {
+            clauses.addWhereGreaterThanOrEqualClause(lowerBoundColumnName, startDateAccess);
+            clauses.addWhereBetweenClause(
+                    getLocalStartTimeColumnName(), request.getStartTime(), request.getEndTime());
+        } else if (request.getPageToken() == DEFAULT_LONG) {
+            clauses.addWhereBetweenTimeClause(
+                    getStartTimeColumnName(), startDateAccess, request.getEndTime());
+        } else if (request.getEndTime() < 0 || request.getEndTime() < startDateAccess) {
+            // Same as addWhereBetweenTimeClause, with the bounds as separate clauses.
+            clauses.addWhereLaterThanTimeClause(lowerBoundColumnName, startDateAccess);
+        } else {
+            clauses.addWhereGreaterThanOrEqualClause(lowerBoundColumnName, startDateAccess);
+            clauses.addWhereLessThanOrEqualClause(upperBoundColumnName, request.getEndTime());
+        }
+
+        return clauses;
+    }
+
+    /**
+     * Adds the clause selecting the records from the page of {@code pageToken} onwards. For row id
+     * tokens, this includes all records sharing the start time of the token's record, or all
+     * records if the token's record was deleted.
+     */
+    void addPageTokenClause(@NonNull WhereClauses clauses, long pageToken) {
+        // The sort order of the read is part of the token, see PageTokenUtils.
+        boolean isAscending = PageTokenUtils.isAscending(pageToken);
+        if (PageTokenUtils.isRowIdToken(pageToken)) {
+            clauses.addWhereCompareToRowClause(
+                    getStartTimeColumnName(),
+                    isAscending ? ">=" : "<=",
+                    getMainTableName(),
+                    PRIMARY_COLUMN_NAME,
+                    PageTokenUtils.getRowId(pageToken),
+                    getFirstPageStartTimeBound(isAscending));
+        } else if (isAscending) {
+            clauses.addWhereGreaterThanOrEqualClause(
+                    getStartTimeColumnName(), PageTokenUtils.getStartTime(pageToken));
+        } else {
+            clauses.addWhereLessThanOrEqualClause(
+                    getStartTimeColumnName(), PageTokenUtils.getStartTime(pageToken));
+        }
+    }
+
+    /**
+     * Returns the start time compared to instead of the start time of a row id token's record if
+     * the record was deleted, so that the read starts from its first page again.
+     */
+    private static long getFirstPageStartTimeBound(boolean isAscending) {
+        return isAscending ? Long.MIN_VALUE : Long.MAX_VALUE;
+    }
+
+    /** Returns the order of records read with page tokens, see {@link #getNextPageToken}. */
+    @NonNull
+    OrderByClause getPageOrderByClause(boolean isAscending) {
+        return new OrderByClause()
+                .addOrderByClause(getStartTimeColumnName(), isAscending)
+                .addOrderByClause(PRIMARY_COLUMN_NAME, isAscending);
+    }
+
     private OrderByClause getOrderByClause(ReadRecordsRequestParcel request) {
-        OrderByClause orderByClause = new OrderByClause();
         if (request.getRecordIdFiltersParcel() == null) {
-            orderByClause.addOrderByClause(getStartTimeColumnName(), request.isAscending());
+            return getPageOrderByClause(request.isAscending());
         }
-        return orderByClause;
+        return new OrderByClause();
     }
 
     @NonNull
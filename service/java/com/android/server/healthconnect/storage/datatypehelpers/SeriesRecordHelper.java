@@ -25,19 +25,19 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.SeriesRecordInternal;
+import android.health.connect.internal.datatypes.SeriesSamples;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
-import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 /** @hide */
-abstract class SeriesRecordHelper<
-                T extends SeriesRecordInternal<?, ?>, U extends SeriesRecordInternal.Sample>
+abstract class SeriesRecordHelper<T extends SeriesRecordInternal<?, ?>>
         extends IntervalRecordHelper<T> {
     protected static final String PARENT_KEY_COLUMN_NAME = PARENT_KEY;
 
@@ -56,30 +56,37 @@ abstract class SeriesRecordHelper<
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     final List<UpsertTableRequest> getChildTableUpsertRequests(@NonNull T record) {
-        List<? extends SeriesRecordInternal.Sample> samples = record.getSamples().stream().toList();
+        SeriesSamples samples = record.getSamples();
         List<UpsertTableRequest> requests = new ArrayList<>(samples.size());
-        samples.forEach(
-                (sample -> {
-                    ContentValues contentValues = new ContentValues();
-                    populateSampleTo(contentValues, (U) sample);
-                    requests.add(
-                            new UpsertTableRequest(getSeriesDataTableName(), contentValues)
-                                    .setParentColumnForChildTables(PARENT_KEY_COLUMN_NAME));
-                }));
+        for (int i = 0; i < samples.size(); i++) {
+            ContentValues contentValues = new ContentValues();
+            populateSampleTo(contentValues, samples.getEpochMillis(i), samples.getValue(i));
+            requests.add(
+                    new UpsertTableRequest(getSeriesDataTableName(), contentValues)
+                            .setParentColumnForChildTables(PARENT_KEY_COLUMN_NAME));
+        }
 
         return requests;
     }
 
-    /** Returns the INNER JOIN clause for querying from the table for series datatype */
     @Override
-    final SqlJoin getJoinForReadRequest() {
-        return new SqlJoin(
-                getMainTableName(),
-                getSeriesDataTableName(),
-                PRIMARY_COLUMN_NAME,
-                PARENT_KEY_COLUMN_NAME);
+    final List<ReadTableRequest> getChildTableReadRequestsForRowIds(@NonNull List<Long> rowIds) {
+        return Collections.singletonList(
+                getChildTableReadRequest(
+                        getSeriesDataTableName(), getSampleTimeColumnName(), rowIds));
+    }
+
+    @Override
+    final void populateFromChildTableRows(
+            @NonNull Cursor cursor, @NonNull T record, @NonNull String tableName) {
+        SeriesSamples.Builder samples = new SeriesSamples.Builder();
+        int valueIndex = cursor.getColumnIndexOrThrow(getSampleValueColumnName());
+        int timeIndex = cursor.getColumnIndexOrThrow(getSampleTimeColumnName());
+        do {
+            samples.addSample(cursor.getLong(timeIndex), cursor.getDouble(valueIndex));
+        } while (moveToNextRowOfSameParent(cursor));
+        record.setSamples(samples.build());
     }
 
     @Override
@@ -88,10 +95,9 @@ abstract class SeriesRecordHelper<
         // Empty as we don't want to populate any additional in the main table
     }
 
-    /** Populates record with datatype specific details */
     @Override
     final void populateSpecificRecordValue(@NonNull Cursor cursor, @NonNull T record) {
-        populateSpecificValues(cursor, record);
+        // Samples are read from the series table, see populateFromChildTableRows.
     }
 
     /**
@@ -115,11 +121,17 @@ abstract class SeriesRecordHelper<
     @NonNull
     abstract String getSeriesDataTableName();
 
-    /** Populates the {@code record} with values specific to dataytpe */
-    abstract void populateSpecificValues(@NonNull Cursor cursor, T record);
+    /** Returns the column of the series table storing the value of a sample */
+    @NonNull
+    abstract String getSampleValueColumnName();
+
+    /** Returns the column of the series table storing the time of a sample */
+    @NonNull
+    abstract String getSampleTimeColumnName();
 
-    /** Puts the {@code sample} to the {@code contentValues} */
-    abstract void populateSampleTo(@NonNull ContentValues contentValues, @NonNull U sample);
+    /** Puts the sample with the given time and value to the {@code contentValues} */
+    abstract void populateSampleTo(
+            @NonNull ContentValues contentValues, long epochMillis, double value);
 
     @NonNull
     private List<Pair<String, String>> getSeriesTableColumnInfo() {
@@ -20,7 +20,6 @@ import static android.health.connect.datatypes.AggregationType.AggregationTypeId
 
 import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_NULL;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorString;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorUUID;
 
 import android.annotation.NonNull;
 import android.content.ContentValues;
@@ -35,14 +34,13 @@ import android.util.Pair;
 import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
 import com.android.server.healthconnect.storage.request.AggregateParams;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
-import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * Record helper for Sleep session.
@@ -91,18 +89,23 @@ public final class SleepSessionRecordHelper
     @Override
     void populateSpecificRecordValue(
             @NonNull Cursor cursor, @NonNull SleepSessionRecordInternal sleepSessionRecord) {
-        UUID uuid = getCursorUUID(cursor, UUID_COLUMN_NAME);
         sleepSessionRecord.setNotes(getCursorString(cursor, NOTES_COLUMN_NAME));
         sleepSessionRecord.setTitle(getCursorString(cursor, TITLE_COLUMN_NAME));
+    }
+
+    @Override
+    List<ReadTableRequest> getChildTableReadRequestsForRowIds(@NonNull List<Long> rowIds) {
+        return Collections.singletonList(SleepStageRecordHelper.getStagesReadRequest(rowIds));
+    }
 
+    @Override
+    void populateFromChildTableRows(
+            @NonNull Cursor cursor,
+            @NonNull SleepSessionRecordInternal sleepSessionRecord,
+            @NonNull String tableName) {
         do {
-            // Populate stages from each row.
-            sleepSessionRecord.addSleepStage(
-                    SleepStageRecordHelper.populateStageIfRecorded(cursor));
-        } while (cursor.moveToNext() && uuid.equals(getCursorUUID(cursor, UUID_COLUMN_NAME)));
-        // In case we hit another record, move the cursor back to read next record in outer
-        // RecordHelper#getInternalRecords loop.
-        cursor.moveToPrevious();
+            sleepSessionRecord.addSleepStage(SleepStageRecordHelper.getStage(cursor));
+        } while (moveToNextRowOfSameParent(cursor));
     }
 
     @Override
@@ -142,11 +145,6 @@ public final class SleepSessionRecordHelper
                 new Pair<>(NOTES_COLUMN_NAME, TEXT_NULL), new Pair<>(TITLE_COLUMN_NAME, TEXT_NULL));
     }
 
-    @Override
-    SqlJoin getJoinForReadRequest() {
-        return SleepStageRecordHelper.getJoinReadRequest(getMainTableName());
-    }
-
     @Override
     public void checkRecordOperationsAreEnabled(RecordInternal<?> recordInternal) {
         super.checkRecordOperationsAreEnabled(recordInternal);
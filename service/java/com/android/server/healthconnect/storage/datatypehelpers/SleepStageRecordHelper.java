@@ -23,7 +23,6 @@ import static com.android.server.healthconnect.storage.datatypehelpers.SeriesRec
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER_NOT_NULL;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorInt;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.isNullValue;
 
 import android.annotation.NonNull;
 import android.content.ContentValues;
@@ -31,9 +30,8 @@ import android.database.Cursor;
 import android.health.connect.internal.datatypes.SleepStageInternal;
 import android.util.Pair;
 
-import androidx.annotation.Nullable;
-
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
@@ -91,12 +89,13 @@ public final class SleepStageRecordHelper {
         return requests;
     }
 
-    @Nullable
-    static SleepStageInternal populateStageIfRecorded(@NonNull Cursor cursor) {
-        if (isNullValue(cursor, SLEEP_STAGE_START_TIME)) {
-            return null;
-        }
+    /** Returns request reading the stages of the sessions with {@code sessionRowIds}. */
+    static ReadTableRequest getStagesReadRequest(List<Long> sessionRowIds) {
+        return RecordHelper.getChildTableReadRequest(
+                SLEEP_STAGES_RECORD_TABLE_NAME, SLEEP_STAGE_START_TIME, sessionRowIds);
+    }
 
+    static SleepStageInternal getStage(@NonNull Cursor cursor) {
         return new SleepStageInternal()
                 .setStartTime(getCursorLong(cursor, SLEEP_STAGE_START_TIME))
                 .setEndTime(getCursorLong(cursor, SLEEP_STAGE_END_TIME))
@@ -18,13 +18,9 @@ package com.android.server.healthconnect.storage.datatypehelpers;
 
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.REAL;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorDouble;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorUUID;
 
 import android.annotation.NonNull;
 import android.content.ContentValues;
-import android.database.Cursor;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.SpeedRecordInternal;
 import android.util.Pair;
@@ -32,9 +28,7 @@ import android.util.Pair;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * Helper class for SpeedRecord.
@@ -42,7 +36,7 @@ import java.util.UUID;
  * @hide
  */
 public class SpeedRecordHelper
-        extends SeriesRecordHelper<SpeedRecordInternal, SpeedRecordInternal.SpeedRecordSample> {
+        extends SeriesRecordHelper<SpeedRecordInternal> {
 
     @VisibleForTesting public static final String TABLE_NAME = "SpeedRecordTable";
     public static final int NUM_LOCAL_COLUMNS = 1;
@@ -72,28 +66,20 @@ public class SpeedRecordHelper
         return SERIES_TABLE_NAME;
     }
 
-    /** Populates the {@code record} with values specific to datatype */
     @Override
-    void populateSpecificValues(@NonNull Cursor seriesTableCursor, SpeedRecordInternal record) {
-        HashSet<SpeedRecordInternal.SpeedRecordSample> speedRecordSampleSet = new HashSet<>();
-        UUID uuid = getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME);
-        do {
-            speedRecordSampleSet.add(
-                    new SpeedRecordInternal.SpeedRecordSample(
-                            getCursorDouble(seriesTableCursor, SPEED_COLUMN_NAME),
-                            getCursorLong(seriesTableCursor, EPOCH_MILLIS_COLUMN_NAME)));
-        } while (seriesTableCursor.moveToNext()
-                && uuid.equals(getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME)));
-        // In case we hit another record, move the cursor back to read next record in outer
-        // RecordHelper#getInternalRecords loop.
-        seriesTableCursor.moveToPrevious();
-        record.setSamples(speedRecordSampleSet);
+    final String getSampleValueColumnName() {
+        return SPEED_COLUMN_NAME;
+    }
+
+    @Override
+    final String getSampleTimeColumnName() {
+        return EPOCH_MILLIS_COLUMN_NAME;
     }
 
     @Override
     void populateSampleTo(
-            ContentValues contentValues, SpeedRecordInternal.SpeedRecordSample speedRecord) {
-        contentValues.put(SPEED_COLUMN_NAME, speedRecord.getSpeed());
-        contentValues.put(EPOCH_MILLIS_COLUMN_NAME, speedRecord.getEpochMillis());
+            @NonNull ContentValues contentValues, long epochMillis, double value) {
+        contentValues.put(SPEED_COLUMN_NAME, value);
+        contentValues.put(EPOCH_MILLIS_COLUMN_NAME, epochMillis);
     }
 }
@@ -18,21 +18,15 @@ package com.android.server.healthconnect.storage.datatypehelpers;
 
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.REAL;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorDouble;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
-import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorUUID;
 
 import android.annotation.NonNull;
 import android.content.ContentValues;
-import android.database.Cursor;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.StepsCadenceRecordInternal;
 import android.util.Pair;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * Helper class for StepsCadenceRecord.
@@ -40,8 +34,7 @@ import java.util.UUID;
  * @hide
  */
 public class StepsCadenceRecordHelper
-        extends SeriesRecordHelper<
-                StepsCadenceRecordInternal, StepsCadenceRecordInternal.StepsCadenceRecordSample> {
+        extends SeriesRecordHelper<StepsCadenceRecordInternal> {
     public static final int NUM_LOCAL_COLUMNS = 2;
     private static final String TABLE_NAME = "StepsCadenceRecordTable";
     private static final String SERIES_TABLE_NAME = "steps_cadence_record_table";
@@ -69,31 +62,20 @@ public class StepsCadenceRecordHelper
     String getSeriesDataTableName() {
         return SERIES_TABLE_NAME;
     }
-    /** Populates the {@code record} with values specific to datatype */
     @Override
-    void populateSpecificValues(
-            @NonNull Cursor seriesTableCursor, StepsCadenceRecordInternal record) {
-        HashSet<StepsCadenceRecordInternal.StepsCadenceRecordSample> stepsCadenceRecordSampleSet =
-                new HashSet<>();
-        UUID uuid = getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME);
-        do {
-            stepsCadenceRecordSampleSet.add(
-                    new StepsCadenceRecordInternal.StepsCadenceRecordSample(
-                            getCursorDouble(seriesTableCursor, RATE_COLUMN_NAME),
-                            getCursorLong(seriesTableCursor, EPOCH_MILLIS_COLUMN_NAME)));
-        } while (seriesTableCursor.moveToNext()
-                && uuid.equals(getCursorUUID(seriesTableCursor, UUID_COLUMN_NAME)));
-        // In case we hit another record, move the cursor back to read next record in outer
-        // RecordHelper#getInternalRecords loop.
-        seriesTableCursor.moveToPrevious();
-        record.setSamples(stepsCadenceRecordSampleSet);
+    final String getSampleValueColumnName() {
+        return RATE_COLUMN_NAME;
+    }
+
+    @Override
+    final String getSampleTimeColumnName() {
+        return EPOCH_MILLIS_COLUMN_NAME;
     }
 
     @Override
     void populateSampleTo(
-            ContentValues contentValues,
-            StepsCadenceRecordInternal.StepsCadenceRecordSample stepsCadenceRecord) {
-        contentValues.put(RATE_COLUMN_NAME, stepsCadenceRecord.getRate());
-        contentValues.put(EPOCH_MILLIS_COLUMN_NAME, stepsCadenceRecord.getEpochMillis());
+            @NonNull ContentValues contentValues, long epochMillis, double value) {
+        contentValues.put(RATE_COLUMN_NAME, value);
+        contentValues.put(EPOCH_MILLIS_COLUMN_NAME, epochMillis);
     }
 }
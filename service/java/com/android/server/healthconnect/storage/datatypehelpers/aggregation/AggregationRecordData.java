@@ -91,16 +91,6 @@ public abstract class AggregationRecordData implements Comparable<AggregationRec
         populateSpecificAggregationData(cursor, useLocalTime);
     }
 
-    AggregationTimestamp getStartTimestamp() {
-        return new AggregationTimestamp(AggregationTimestamp.INTERVAL_START, getStartTime())
-                .setParentData(this);
-    }
-
-    AggregationTimestamp getEndTimestamp() {
-        return new AggregationTimestamp(AggregationTimestamp.INTERVAL_END, getEndTime())
-                .setParentData(this);
-    }
-
     @VisibleForTesting
     AggregationRecordData setData(
             long startTime, long endTime, int priority, long lastModifiedTime) {
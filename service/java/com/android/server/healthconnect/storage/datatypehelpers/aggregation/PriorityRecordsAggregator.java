@@ -33,32 +33,44 @@ import android.util.Slog;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.utils.CursorProjection;
 
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
 
 /**
  * Aggregates records with priorities.
  *
+ * <p>Runs a sweep line over group borders, record starts and record ends. Events are visited in
+ * time order, with borders before starts before ends at the same time and records in their natural
+ * order, and every segment between two consecutive events is attributed to the highest priority
+ * record open on it.
+ *
  * @hide
  */
 public class PriorityRecordsAggregator {
     static final String TAG = "HealthPriorityRecordsAggregator";
 
-    private final List<Long> mGroupSplits;
+    // Event id of a group border, record ids and their complements are never this value.
+    private static final int GROUP_BORDER_EVENT = Integer.MIN_VALUE;
+
+    private static final Comparator<AggregationRecordData> START_ORDER =
+            Comparator.comparingLong(AggregationRecordData::getStartTime)
+                    .thenComparing(Comparator.naturalOrder());
+
+    private final long[] mGroupSplits;
     private final Map<Long, Integer> mAppIdToPriority;
-    private final Map<Integer, Double> mGroupToAggregationResult;
-    private final Map<Integer, ZoneOffset> mGroupToFirstZoneOffset;
+    private final double[] mGroupToAggregationResult;
+    private final boolean[] mGroupHasResult;
+    private final ZoneOffset[] mGroupToFirstZoneOffset;
     private final int mNumberOfGroups;
     private int mCurrentGroup = -1;
-    private long mLatestPopulatedStart = -1;
     @AggregationType.AggregationTypeIdentifier private final int mAggregationType;
 
-    private final TreeSet<AggregationTimestamp> mTimestampsBuffer;
-    private final TreeSet<AggregationRecordData> mOpenIntervals;
-
     private final AggregateParams.PriorityAggregationExtraParams mExtraParams;
 
     private final boolean mUseLocalTime;
@@ -69,7 +81,10 @@ public class PriorityRecordsAggregator {
             @AggregationType.AggregationTypeIdentifier int aggregationType,
             AggregateParams.PriorityAggregationExtraParams extraParams,
             boolean useLocalTime) {
-        mGroupSplits = groupSplits;
+        mGroupSplits = new long[groupSplits.size()];
+        for (int i = 0; i < mGroupSplits.length; i++) {
+            mGroupSplits[i] = groupSplits.get(i);
+        }
         mAggregationType = aggregationType;
         mExtraParams = extraParams;
         mAppIdToPriority = new ArrayMap<>();
@@ -78,104 +93,167 @@ public class PriorityRecordsAggregator {
             mAppIdToPriority.put(appIdPriorityList.get(i), appIdPriorityList.size() - i);
         }
         mUseLocalTime = useLocalTime;
-        mTimestampsBuffer = new TreeSet<>();
-        mNumberOfGroups = mGroupSplits.size() - 1;
-        mGroupToFirstZoneOffset = new ArrayMap<>(mNumberOfGroups);
-        mOpenIntervals = new TreeSet<>();
-        mGroupToAggregationResult = new ArrayMap<>(mGroupSplits.size());
+        mNumberOfGroups = Math.max(mGroupSplits.length - 1, 0);
+        mGroupToAggregationResult = new double[mNumberOfGroups];
+        mGroupHasResult = new boolean[mNumberOfGroups];
+        mGroupToFirstZoneOffset = new ZoneOffset[mNumberOfGroups];
 
         if (Constants.DEBUG) {
             Slog.d(
                     TAG,
                     "Aggregation request for splits: "
-                            + mGroupSplits
+                            + groupSplits
                             + " with priorities: "
                             + appIdPriorityList);
         }
     }
 
     /** Calculates aggregation result for each group. */
-    public void calculateAggregation(Cursor cursor) {
-        initialiseTimestampsBuffer(cursor);
-        populateTimestampBuffer(cursor);
-        AggregationTimestamp scanPoint, nextPoint;
-        while (mTimestampsBuffer.size() > 1) {
-            scanPoint = mTimestampsBuffer.pollFirst();
-            nextPoint = mTimestampsBuffer.first();
-            if (scanPoint.getType() == AggregationTimestamp.GROUP_BORDER) {
+    public void calculateAggregation(Cursor aggregationCursor) {
+        // Every record reads the same handful of columns, resolve their positions only once.
+        Cursor cursor = CursorProjection.of(aggregationCursor);
+        AggregationRecordData[] records = readRecords(cursor);
+        long[] eventTimes = new long[mGroupSplits.length + records.length * 2];
+        int[] eventRecordIds = new int[eventTimes.length];
+        int numberOfEvents = populateEvents(records, eventTimes, eventRecordIds);
+
+        OpenIntervals openIntervals = new OpenIntervals(records);
+        for (int i = 0; i < numberOfEvents - 1; i++) {
+            int recordId = eventRecordIds[i];
+            if (recordId == GROUP_BORDER_EVENT) {
                 mCurrentGroup += 1;
-            } else if (scanPoint.getType() == AggregationTimestamp.INTERVAL_START) {
-                mOpenIntervals.add(scanPoint.getParentData());
-            } else if (scanPoint.getType() == AggregationTimestamp.INTERVAL_END) {
-                mOpenIntervals.remove(scanPoint.getParentData());
+            } else if (recordId >= 0) {
+                openIntervals.add(recordId);
             } else {
-                throw new UnsupportedOperationException(
-                        "Unknown aggregation timestamp type: " + scanPoint.getType());
+                openIntervals.remove(~recordId);
             }
-            updateAggregationResult(scanPoint, nextPoint);
-            populateTimestampBuffer(cursor);
+            updateAggregationResult(openIntervals, eventTimes[i], eventTimes[i + 1]);
         }
 
         if (Constants.DEBUG) {
-            Slog.d(TAG, "Aggregation result: " + mGroupToAggregationResult.toString());
+            Slog.d(TAG, "Aggregation result: " + Arrays.toString(mGroupToAggregationResult));
         }
     }
 
-    private void populateTimestampBuffer(Cursor cursor) {
-        // Buffer populating strategy guarantees that at the moment we start to process the earliest
-        // record, we added to the buffer later overlapping records and the first non-overlapping
-        // record. It guarantees that the aggregation score can be calculated correctly for any
-        // timestamp within the earliest record interval.
-        if (mTimestampsBuffer.first().getType() != AggregationTimestamp.INTERVAL_START) {
-            return;
+    /**
+     * Merges group borders, record starts and record ends into one sequence, in the order described
+     * on this class. A start is stored as the record id, an end as its bitwise complement and a
+     * border as {@link #GROUP_BORDER_EVENT}.
+     *
+     * <p>Nothing is attributed to any group after the last border, so the sequence ends there.
+     *
+     * @return the number of populated events.
+     */
+    private int populateEvents(
+            AggregationRecordData[] records, long[] eventTimes, int[] eventRecordIds) {
+        int numberOfRecords = records.length;
+        int[] endOrder = sortByEnd(records);
+
+        int border = 0;
+        int start = 0;
+        int end = 0;
+        int numberOfEvents = 0;
+        while (border < mGroupSplits.length) {
+            long borderTime = mGroupSplits[border];
+            if (start < numberOfRecords && records[start].getStartTime() < borderTime) {
+                long startTime = records[start].getStartTime();
+                if (end < numberOfRecords && records[endOrder[end]].getEndTime() < startTime) {
+                    eventTimes[numberOfEvents] = records[endOrder[end]].getEndTime();
+                    eventRecordIds[numberOfEvents++] = ~endOrder[end++];
+                } else {
+                    eventTimes[numberOfEvents] = startTime;
+                    eventRecordIds[numberOfEvents++] = start++;
+                }
+            } else if (end < numberOfRecords && records[endOrder[end]].getEndTime() < borderTime) {
+                eventTimes[numberOfEvents] = records[endOrder[end]].getEndTime();
+                eventRecordIds[numberOfEvents++] = ~endOrder[end++];
+            } else {
+                eventTimes[numberOfEvents] = borderTime;
+                eventRecordIds[numberOfEvents++] = GROUP_BORDER_EVENT;
+                border++;
+            }
         }
+        return numberOfEvents;
+    }
 
-        // Add record timestamps to buffer until latest buffer record do not overlap with earliest
-        // buffer record.
-        long expansionBorder = mTimestampsBuffer.first().getParentData().getEndTime();
-        if (Constants.DEBUG) {
-            Slog.d(
-                    TAG,
-                    "Try to update buffer exp border: "
-                            + expansionBorder
-                            + " latest start: "
-                            + mLatestPopulatedStart);
+    /**
+     * Returns the record ids in the order their end events are visited: by end time, then in the
+     * natural order of the records.
+     *
+     * <p>Records are ordered by start time already and most of them end in that order too, so a
+     * merge sort of the ids skips the merge of every pair of runs which is ordered already.
+     */
+    private static int[] sortByEnd(AggregationRecordData[] records) {
+        int[] order = new int[records.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
         }
-
-        while (mLatestPopulatedStart <= expansionBorder && cursor.moveToNext()) {
-            AggregationRecordData data = readNewDataAndAddToBuffer(cursor);
-            mLatestPopulatedStart = data.getStartTime();
-
-            if (Constants.DEBUG) {
-                Slog.d(TAG, "Updated buffer with : " + data);
+        int[] buffer = new int[order.length];
+        for (int width = 1; width < order.length; width *= 2) {
+            for (int low = 0; low + width < order.length; low += width * 2) {
+                int middle = low + width;
+                int high = Math.min(middle + width, order.length);
+                if (compareEnds(records[order[middle - 1]], records[order[middle]]) > 0) {
+                    merge(records, order, buffer, low, middle, high);
+                }
             }
         }
+        return order;
+    }
 
-        if (Constants.DEBUG) {
-            Slog.d(TAG, "Timestamps buffer: " + mTimestampsBuffer);
+    /** Merges the sorted ranges [low, middle) and [middle, high) of {@code order}. */
+    private static void merge(
+            AggregationRecordData[] records,
+            int[] order,
+            int[] buffer,
+            int low,
+            int middle,
+            int high) {
+        System.arraycopy(order, low, buffer, low, high - low);
+        int left = low;
+        int right = middle;
+        for (int i = low; i < high; i++) {
+            if (right >= high
+                    || (left < middle
+                            && compareEnds(records[buffer[left]], records[buffer[right]]) <= 0)) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
         }
     }
 
-    private void initialiseTimestampsBuffer(Cursor cursor) {
-        for (Long groupSplit : mGroupSplits) {
-            mTimestampsBuffer.add(
-                    new AggregationTimestamp(AggregationTimestamp.GROUP_BORDER, groupSplit));
+    private static int compareEnds(AggregationRecordData first, AggregationRecordData second) {
+        if (first.getEndTime() != second.getEndTime()) {
+            return Long.compare(first.getEndTime(), second.getEndTime());
         }
+        return first.compareTo(second);
+    }
 
-        if (cursor.moveToNext()) {
-            readNewDataAndAddToBuffer(cursor);
+    /**
+     * Reads all records from the cursor, ordered by start time and priority. Records which are
+     * indistinguishable for the aggregation are only kept once.
+     */
+    private AggregationRecordData[] readRecords(Cursor cursor) {
+        List<AggregationRecordData> records = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            records.add(readNewData(cursor));
+        }
+        // The cursor is ordered by start time already, so this is mostly a linear pass.
+        records.sort(START_ORDER);
+
+        List<AggregationRecordData> distinctRecords = new ArrayList<>(records.size());
+        for (AggregationRecordData data : records) {
+            if (distinctRecords.isEmpty()
+                    || distinctRecords.get(distinctRecords.size() - 1).compareTo(data) != 0) {
+                distinctRecords.add(data);
+            }
         }
 
         if (Constants.DEBUG) {
-            Slog.d(TAG, "Initialised aggregation buffer: " + mTimestampsBuffer);
+            Slog.d(TAG, "Read records: " + distinctRecords);
         }
-    }
-
-    private AggregationRecordData readNewDataAndAddToBuffer(Cursor cursor) {
-        AggregationRecordData data = readNewData(cursor);
-        mTimestampsBuffer.add(data.getStartTimestamp());
-        mTimestampsBuffer.add(data.getEndTimestamp());
-        return data;
+        return distinctRecords.toArray(new AggregationRecordData[0]);
     }
 
     @VisibleForTesting
@@ -187,12 +265,18 @@ public class PriorityRecordsAggregator {
 
     /** Returns result for the given group */
     public Double getResultForGroup(Integer groupNumber) {
-        return mGroupToAggregationResult.get(groupNumber);
+        if (groupNumber < 0 || groupNumber >= mNumberOfGroups || !mGroupHasResult[groupNumber]) {
+            return null;
+        }
+        return mGroupToAggregationResult[groupNumber];
     }
 
     /** Returns start time zone offset for the given group */
     public ZoneOffset getZoneOffsetForGroup(Integer groupNumber) {
-        return mGroupToFirstZoneOffset.get(groupNumber);
+        if (groupNumber < 0 || groupNumber >= mNumberOfGroups) {
+            return null;
+        }
+        return mGroupToFirstZoneOffset[groupNumber];
     }
 
     private AggregationRecordData createAggregationRecordData() {
@@ -215,55 +299,135 @@ public class PriorityRecordsAggregator {
     }
 
     private void updateAggregationResult(
-            AggregationTimestamp startPoint, AggregationTimestamp endPoint) {
+            OpenIntervals openIntervals, long startTime, long endTime) {
         if (Constants.DEBUG) {
             Slog.d(
                     TAG,
                     "Updating result for group "
                             + mCurrentGroup
                             + " for interval: ("
-                            + startPoint.getTime()
+                            + startTime
                             + ", "
-                            + endPoint.getTime()
+                            + endTime
                             + ")");
         }
 
-        if (mOpenIntervals.isEmpty() || mCurrentGroup < 0 || mCurrentGroup >= mNumberOfGroups) {
+        if (openIntervals.isEmpty() || mCurrentGroup < 0 || mCurrentGroup >= mNumberOfGroups) {
             if (Constants.DEBUG) {
                 Slog.d(TAG, "No open intervals or current group: " + mCurrentGroup);
             }
             return;
         }
 
-        if (!mGroupToAggregationResult.containsKey(mCurrentGroup)) {
-            mGroupToAggregationResult.put(mCurrentGroup, 0.0d);
-        }
-
+        AggregationRecordData highest = openIntervals.getHighest();
         if (Constants.DEBUG) {
-            Slog.d(TAG, "Update result with: " + mOpenIntervals.last());
+            Slog.d(TAG, "Update result with: " + highest);
         }
 
-        mGroupToAggregationResult.put(
-                mCurrentGroup,
-                mGroupToAggregationResult.get(mCurrentGroup)
-                        + mOpenIntervals
-                                .last()
-                                .getResultOnInterval(startPoint.getTime(), endPoint.getTime()));
-
-        if (mCurrentGroup >= 0
-                && !mGroupToFirstZoneOffset.containsKey(mCurrentGroup)
-                && !mOpenIntervals.isEmpty()) {
-            mGroupToFirstZoneOffset.put(mCurrentGroup, getZoneOffsetOfEarliestOpenInterval());
+        if (!mGroupHasResult[mCurrentGroup]) {
+            mGroupHasResult[mCurrentGroup] = true;
+            mGroupToFirstZoneOffset[mCurrentGroup] =
+                    openIntervals.getEarliest().getStartTimeZoneOffset();
         }
+        mGroupToAggregationResult[mCurrentGroup] +=
+                highest.getResultOnInterval(startTime, endTime);
     }
 
-    private ZoneOffset getZoneOffsetOfEarliestOpenInterval() {
-        AggregationRecordData earliestInterval = mOpenIntervals.first();
-        for (AggregationRecordData data : mOpenIntervals) {
-            if (data.getStartTime() < earliestInterval.getStartTime()) {
-                earliestInterval = data;
+    /**
+     * Max-heap of the records open at the current sweep position, indexed by record id so that
+     * a record can be removed when its end is visited.
+     */
+    private static final class OpenIntervals {
+        private final AggregationRecordData[] mRecords;
+        private final int[] mHeap;
+        private final int[] mHeapPosition;
+        private int mSize;
+
+        OpenIntervals(AggregationRecordData[] records) {
+            mRecords = records;
+            mHeap = new int[records.length];
+            mHeapPosition = new int[records.length];
+            Arrays.fill(mHeapPosition, -1);
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        AggregationRecordData getHighest() {
+            return mRecords[mHeap[0]];
+        }
+
+        /** Returns the open record with the earliest start, the lowest priority one on ties. */
+        AggregationRecordData getEarliest() {
+            AggregationRecordData earliest = mRecords[mHeap[0]];
+            for (int i = 1; i < mSize; i++) {
+                AggregationRecordData data = mRecords[mHeap[i]];
+                if (START_ORDER.compare(data, earliest) < 0) {
+                    earliest = data;
+                }
+            }
+            return earliest;
+        }
+
+        void add(int id) {
+            mHeap[mSize] = id;
+            mHeapPosition[id] = mSize;
+            siftUp(mSize++);
+        }
+
+        void remove(int id) {
+            int position = mHeapPosition[id];
+            if (position < 0) {
+                return;
+            }
+            mHeapPosition[id] = -1;
+            int last = mHeap[--mSize];
+            if (position == mSize) {
+                return;
+            }
+            mHeap[position] = last;
+            mHeapPosition[last] = position;
+            siftUp(position);
+            siftDown(mHeapPosition[last]);
+        }
+
+        private void siftUp(int position) {
+            int id = mHeap[position];
+            while (position > 0) {
+                int parent = (position - 1) / 2;
+                if (mRecords[mHeap[parent]].compareTo(mRecords[id]) >= 0) {
+                    break;
+                }
+                move(mHeap[parent], position);
+                position = parent;
+            }
+            move(id, position);
+        }
+
+        private void siftDown(int position) {
+            int id = mHeap[position];
+            while (true) {
+                int child = position * 2 + 1;
+                if (child >= mSize) {
+                    break;
+                }
+                if (child + 1 < mSize
+                        && mRecords[mHeap[child + 1]].compareTo(mRecords[mHeap[child]]) > 0) {
+                    child++;
+                }
+                if (mRecords[mHeap[child]].compareTo(mRecords[id]) <= 0) {
+                    break;
+                }
+                move(mHeap[child], position);
+                position = child;
             }
+            move(id, position);
+        }
+
+        private void move(int id, int position) {
+            mHeap[position] = id;
+            mHeapPosition[id] = position;
         }
-        return earliestInterval.getStartTimeZoneOffset();
     }
 }
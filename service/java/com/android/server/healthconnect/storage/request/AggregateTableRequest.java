@@ -40,6 +40,7 @@ import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.aggregation.PriorityRecordsAggregator;
+import com.android.server.healthconnect.storage.utils.CursorProjection;
 import com.android.server.healthconnect.storage.utils.OrderByClause;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
@@ -60,6 +61,7 @@ import java.util.Map;
 public class AggregateTableRequest {
     private static final String TAG = "HealthConnectAggregate";
     private static final String GROUP_BY_COLUMN_NAME = "category";
+    private static final String FUSED_APP_INFO_IDS_COLUMN_NAME = "fused_app_info_ids";
 
     private final long DEFAULT_TIME = -1;
     private final String mTableName;
@@ -82,6 +84,8 @@ public class AggregateTableRequest {
     private final AggregateParams.PriorityAggregationExtraParams mPriorityParams;
     private final boolean mUseLocalTime;
     private List<Long> mTimeSplits;
+    // Width of every group but possibly the last one, if all groups have the same width.
+    private long mGroupWidthMillis = DEFAULT_TIME;
 
     public AggregateTableRequest(
             AggregateParams params,
@@ -133,11 +137,14 @@ public class AggregateTableRequest {
         return aggregateResults;
     }
 
-    /** Returns SQL statement to get data origins for the aggregation operation */
-    public String getCommandToFetchAggregateMetadata() {
+    /**
+     * Returns SQL statement to get data origins for the aggregation operation. Values of the
+     * statement are appended to {@code bindArgs}.
+     */
+    public String getCommandToFetchAggregateMetadata(@NonNull List<Object> bindArgs) {
         final StringBuilder builder = new StringBuilder("SELECT DISTINCT ");
         builder.append(APP_INFO_ID_COLUMN_NAME).append(", ");
-        return appendAggregateCommand(builder, /* isMetadata= */ true);
+        return appendAggregateCommand(builder, /* isMetadata= */ true, bindArgs);
     }
 
     /** Returns name of the main time column (start time for Interval, time for Instant records) */
@@ -150,41 +157,141 @@ public class AggregateTableRequest {
         return mUseLocalTime;
     }
 
-    /** Returns SQL statement to perform aggregation operation */
+    /**
+     * Returns SQL statement to perform aggregation operation. Values of the statement are appended
+     * to {@code bindArgs}.
+     */
     @NonNull
-    public String getAggregationCommand() {
+    public String getAggregationCommand(@NonNull List<Object> bindArgs) {
         final StringBuilder builder = new StringBuilder("SELECT ");
-        String aggCommand;
-        boolean usingPriority =
-                StorageUtils.supportsPriority(
-                                mRecordHelper.getRecordIdentifier(),
-                                mAggregationType.getAggregateOperationType())
-                        || StorageUtils.isDerivedType(mRecordHelper.getRecordIdentifier());
+        boolean usingPriority = !isSqlAggregation();
         if (usingPriority) {
             for (String columnName : mColumnNamesToAggregate) {
                 builder.append(columnName).append(", ");
             }
         } else {
-            aggCommand = getSqlCommandFor(mAggregationType.getAggregateOperationType());
+            appendSqlAggregateColumns(builder, /* aliasSuffix= */ "");
+        }
 
-            for (String columnName : mColumnNamesToAggregate) {
-                builder.append(aggCommand)
-                        .append("(")
-                        .append(columnName)
-                        .append(")")
-                        .append(" as ")
-                        .append(columnName)
-                        .append(", ");
+        appendAdditionalColumns(builder);
+        return appendAggregateCommand(builder, usingPriority, bindArgs);
+    }
+
+    /**
+     * Returns whether the aggregation is computed by SQLite, as opposed to priority and derived
+     * aggregations which are computed from the rows read.
+     */
+    public boolean isSqlAggregation() {
+        return !StorageUtils.supportsPriority(
+                        mRecordHelper.getRecordIdentifier(),
+                        mAggregationType.getAggregateOperationType())
+                && !StorageUtils.isDerivedType(mRecordHelper.getRecordIdentifier());
+    }
+
+    /**
+     * Returns whether the aggregation can be fused with others by {@link
+     * #getFusedAggregationCommand}. That is SQL aggregations other than min and max: SQLite only
+     * reads the zone offset of a min or max result from its row if it is the only min or max
+     * aggregate of the query.
+     */
+    public boolean canBeFused() {
+        int operationType = mAggregationType.getAggregateOperationType();
+        return isSqlAggregation() && operationType != MIN && operationType != MAX;
+    }
+
+    /**
+     * Returns a key which is the same for requests that aggregate the same rows, of the same
+     * tables, in the same groups. The aggregations of such requests can be fused into one query.
+     */
+    @NonNull
+    public String getFusionKey() {
+        List<Object> bindArgs = new ArrayList<>();
+        StringBuilder builder = new StringBuilder();
+        appendAdditionalColumns(builder);
+        return appendAggregateCommand(builder, /* isMetadata= */ false, bindArgs) + bindArgs;
+    }
+
+    /**
+     * Returns a single SQL statement computing the aggregations of all {@code requests}, which
+     * must have the same {@link #getFusionKey()} and {@link #canBeFused()}, and the ids of the apps
+     * contributing to them.
+     *
+     * <p>Columns of the request at index {@code i} are aliased with {@link #getFusedAliasSuffix}
+     * of {@code i}. Values of the statement are appended to {@code bindArgs}.
+     */
+    @NonNull
+    public static String getFusedAggregationCommand(
+            @NonNull List<AggregateTableRequest> requests, @NonNull List<Object> bindArgs) {
+        final StringBuilder builder = new StringBuilder("SELECT ");
+        for (int i = 0; i < requests.size(); i++) {
+            requests.get(i).appendSqlAggregateColumns(builder, getFusedAliasSuffix(i));
+        }
+        builder.append("GROUP_CONCAT(DISTINCT ")
+                .append(APP_INFO_ID_COLUMN_NAME)
+                .append(") as ")
+                .append(FUSED_APP_INFO_IDS_COLUMN_NAME)
+                .append(", ");
+
+        AggregateTableRequest request = requests.get(0);
+        request.appendAdditionalColumns(builder);
+        return request.appendAggregateCommand(builder, /* isMetadata= */ false, bindArgs);
+    }
+
+    /**
+     * Populates the results of all {@code requests} from {@code cursor}, the result of {@link
+     * #getFusedAggregationCommand}.
+     */
+    public static void onFusedResultsFetched(
+            @NonNull List<AggregateTableRequest> requests, @NonNull Cursor cursor) {
+        List<Long> appInfoIds = new ArrayList<>();
+        int appInfoIdsIndex = cursor.getColumnIndexOrThrow(FUSED_APP_INFO_IDS_COLUMN_NAME);
+        while (cursor.moveToNext()) {
+            if (cursor.isNull(appInfoIdsIndex)) {
+                continue;
             }
+            for (String appInfoId : cursor.getString(appInfoIdsIndex).split(",")) {
+                Long id = Long.valueOf(appInfoId);
+                if (!appInfoIds.contains(id)) {
+                    appInfoIds.add(id);
+                }
+            }
+        }
+        List<String> packageNames = AppInfoHelper.getInstance().getPackageNames(appInfoIds);
+
+        for (int i = 0; i < requests.size(); i++) {
+            cursor.moveToPosition(-1);
+            AggregateTableRequest request = requests.get(i);
+            request.processNoPrioritiesRequest(
+                    CursorProjection.withAliasSuffix(cursor, getFusedAliasSuffix(i)));
+            request.setDataOrigins(packageNames);
+        }
+    }
+
+    private static String getFusedAliasSuffix(int requestIndex) {
+        return "__agg" + requestIndex;
+    }
+
+    private void appendSqlAggregateColumns(StringBuilder builder, String aliasSuffix) {
+        String aggCommand = getSqlCommandFor(mAggregationType.getAggregateOperationType());
+
+        for (String columnName : mColumnNamesToAggregate) {
+            builder.append(aggCommand)
+                    .append("(")
+                    .append(columnName)
+                    .append(")")
+                    .append(" as ")
+                    .append(columnName)
+                    .append(aliasSuffix)
+                    .append(", ");
         }
+    }
 
+    private void appendAdditionalColumns(StringBuilder builder) {
         if (mAdditionalColumnsToFetch != null) {
             for (String additionalColumnToFetch : mAdditionalColumnsToFetch) {
                 builder.append(additionalColumnToFetch).append(", ");
             }
         }
-
-        return appendAggregateCommand(builder, usingPriority);
     }
 
     public AggregateTableRequest setPackageFilter(
@@ -214,8 +321,13 @@ public class AggregateTableRequest {
         mGroupByColumnName = columnName;
         if (period != null) {
             mTimeSplits = getGroupSplitsForPeriod(timeRangeFilter, period);
+            // Local times don't observe DST, so periods of whole days have a fixed width.
+            if (period.toTotalMonths() == 0 && period.getDays() > 0) {
+                mGroupWidthMillis = Duration.ofDays(period.getDays()).toMillis();
+            }
         } else if (duration != null) {
             mTimeSplits = getGroupSplitsForDuration(timeRangeFilter, duration);
+            mGroupWidthMillis = duration.toMillis();
         } else {
             throw new IllegalArgumentException(
                     "Either aggregation period or duration should be not null");
@@ -299,34 +411,22 @@ public class AggregateTableRequest {
         };
     }
 
-    private String appendAggregateCommand(StringBuilder builder, boolean isMetadata) {
+    private String appendAggregateCommand(
+            StringBuilder builder, boolean isMetadata, List<Object> bindArgs) {
         boolean useGroupBy = mGroupByColumnName != null && !isMetadata;
         if (useGroupBy) {
-            builder.append(" CASE ");
-            int groupByIndex = 0;
-            for (int i = 0; i < mTimeSplits.size() - 1; i++) {
-                builder.append(" WHEN ")
-                        .append(mTimeColumnName)
-                        .append(" >= ")
-                        .append(mTimeSplits.get(i))
-                        .append(" AND ")
-                        .append(mTimeColumnName)
-                        .append(" < ")
-                        .append(mTimeSplits.get(i + 1))
-                        .append(" THEN ")
-                        .append(groupByIndex++);
-            }
-            builder.append(" END " + GROUP_BY_COLUMN_NAME + " ");
+            appendGroupByExpression(builder, bindArgs);
+            builder.append(" " + GROUP_BY_COLUMN_NAME + " ");
         } else {
             builder.setLength(builder.length() - 2); // Remove the last 2 char i.e. ", "
         }
 
         builder.append(" FROM ").append(mTableName);
         if (mSqlJoin != null) {
-            builder.append(mSqlJoin.getJoinCommand());
+            builder.append(mSqlJoin.getJoinCommand(bindArgs));
         }
 
-        builder.append(buildAggregationWhereCondition());
+        builder.append(buildAggregationWhereCondition(bindArgs));
 
         if (useGroupBy) {
             builder.append(" GROUP BY " + GROUP_BY_COLUMN_NAME);
@@ -343,7 +443,54 @@ public class AggregateTableRequest {
         return builder.toString();
     }
 
-    private String buildAggregationWhereCondition() {
+    /**
+     * Appends an expression evaluating to the index of the group the time column falls in, or
+     * NULL if it's outside of all groups.
+     *
+     * <p>Groups of the same width are computed arithmetically. Otherwise the group is found by a
+     * binary search over {@link #mTimeSplits}, so the cost per row grows with the log of the number
+     * of groups.
+     */
+    private void appendGroupByExpression(StringBuilder builder, List<Object> bindArgs) {
+        builder.append(" CASE WHEN ")
+                .append(mTimeColumnName)
+                .append(" >= ? AND ")
+                .append(mTimeColumnName)
+                .append(" < ? THEN ");
+        bindArgs.add(mTimeSplits.get(0));
+        bindArgs.add(mTimeSplits.get(mTimeSplits.size() - 1));
+
+        if (mGroupWidthMillis > 0) {
+            // The last group may be cut short by the end of the window, which doesn't change
+            // the index of the rows in it.
+            builder.append("(").append(mTimeColumnName).append(" - ?) / ?");
+            bindArgs.add(mTimeSplits.get(0));
+            bindArgs.add(mGroupWidthMillis);
+        } else {
+            appendGroupSearch(builder, bindArgs, 0, mGroupBySize);
+        }
+
+        builder.append(" END");
+    }
+
+    /** Appends a search for the group in [fromGroup, toGroup) the time column falls in. */
+    private void appendGroupSearch(
+            StringBuilder builder, List<Object> bindArgs, int fromGroup, int toGroup) {
+        if (toGroup - fromGroup <= 1) {
+            builder.append(fromGroup);
+            return;
+        }
+
+        int midGroup = (fromGroup + toGroup) >>> 1;
+        builder.append("CASE WHEN ").append(mTimeColumnName).append(" < ? THEN ");
+        bindArgs.add(mTimeSplits.get(midGroup));
+        appendGroupSearch(builder, bindArgs, fromGroup, midGroup);
+        builder.append(" ELSE ");
+        appendGroupSearch(builder, bindArgs, midGroup, toGroup);
+        builder.append(" END");
+    }
+
+    private String buildAggregationWhereCondition(List<Object> bindArgs) {
         WhereClauses whereClauses = new WhereClauses();
         whereClauses.addWhereInLongsClause(mPackageColumnName, mPackageFilters);
 
@@ -356,7 +503,7 @@ public class AggregateTableRequest {
         }
         whereClauses.addWhereLessThanClause(mTimeColumnName, mEndTime);
 
-        return whereClauses.get(/* withWhereKeyword= */ true);
+        return whereClauses.get(/* withWhereKeyword= */ true, bindArgs);
     }
 
     private void updateResultWithDataOriginPackageNames(Cursor metaDataCursor) {
@@ -364,8 +511,10 @@ public class AggregateTableRequest {
         while (metaDataCursor.moveToNext()) {
             packageIds.add(StorageUtils.getCursorLong(metaDataCursor, APP_INFO_ID_COLUMN_NAME));
         }
-        List<String> packageNames = AppInfoHelper.getInstance().getPackageNames(packageIds);
+        setDataOrigins(AppInfoHelper.getInstance().getPackageNames(packageIds));
+    }
 
+    private void setDataOrigins(List<String> packageNames) {
         mAggregateResults.replaceAll(
                 (n, v) -> mAggregateResults.get(n).setDataOrigins(packageNames));
     }
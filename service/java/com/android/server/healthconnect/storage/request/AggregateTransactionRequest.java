@@ -99,11 +99,26 @@ public final class AggregateTransactionRequest {
      * @return Compute and return aggregations
      */
     public AggregateDataResponseParcel getAggregateDataResponseParcel() {
+        // Compute aggregations, with a single query for all SQL aggregations of the same rows
+        // (e.g. avg and count of heart rate) except min and max.
+        Map<String, List<AggregateTableRequest>> fusionKeyToRequests = new ArrayMap<>();
+        for (AggregateTableRequest aggregateTableRequest : mAggregateTableRequests) {
+            if (aggregateTableRequest.canBeFused()) {
+                fusionKeyToRequests
+                        .computeIfAbsent(
+                                aggregateTableRequest.getFusionKey(), key -> new ArrayList<>())
+                        .add(aggregateTableRequest);
+            } else {
+                TransactionManager.getInitialisedInstance()
+                        .populateWithAggregation(aggregateTableRequest);
+            }
+        }
+        for (List<AggregateTableRequest> fusedRequests : fusionKeyToRequests.values()) {
+            TransactionManager.getInitialisedInstance().populateWithAggregation(fusedRequests);
+        }
+
         Map<AggregationType<?>, List<AggregateResult<?>>> results = new ArrayMap<>();
         for (AggregateTableRequest aggregateTableRequest : mAggregateTableRequests) {
-            // Compute aggregations
-            TransactionManager.getInitialisedInstance()
-                    .populateWithAggregation(aggregateTableRequest);
             results.put(
                     aggregateTableRequest.getAggregationType(),
                     aggregateTableRequest.getAggregateResults());
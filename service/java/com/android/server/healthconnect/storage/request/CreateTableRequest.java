@@ -39,12 +39,13 @@ import java.util.Objects;
 public final class CreateTableRequest {
     public static final String TAG = "HealthConnectCreate";
     public static final String FOREIGN_KEY_COMMAND = " FOREIGN KEY (";
-    private static final String CREATE_INDEX_COMMAND = "CREATE INDEX  idx_";
+    private static final String CREATE_INDEX_COMMAND = "CREATE INDEX IF NOT EXISTS idx_";
     private static final String CREATE_TABLE_COMMAND = "CREATE TABLE IF NOT EXISTS ";
     private static final String UNIQUE_COMMAND = "UNIQUE ( ";
     private final String mTableName;
     private final List<Pair<String, String>> mColumnInfo;
     private final List<String> mColumnsToIndex = new ArrayList<>();
+    private final List<List<String>> mCompositeColumnsToIndex = new ArrayList<>();
     private final List<List<String>> mUniqueColumns = new ArrayList<>();
     private List<ForeignKey> mForeignKeys = new ArrayList<>();
     private List<CreateTableRequest> mChildTableRequests = Collections.emptyList();
@@ -76,6 +77,22 @@ public final class CreateTableRequest {
         return this;
     }
 
+    /**
+     * Creates a single index spanning all of {@code columnNames}, in the given order. Useful for
+     * queries that filter on the leading columns and range scan or sort on the last one.
+     */
+    @NonNull
+    public CreateTableRequest createIndexOn(@NonNull List<String> columnNames) {
+        Objects.requireNonNull(columnNames);
+
+        if (columnNames.size() == 1) {
+            return createIndexOn(columnNames.get(0));
+        }
+
+        mCompositeColumnsToIndex.add(columnNames);
+        return this;
+    }
+
     @NonNull
     public List<CreateTableRequest> getChildTableRequests() {
         return mChildTableRequests;
@@ -159,6 +176,12 @@ public final class CreateTableRequest {
             }
         }
 
+        for (List<String> columnsToIndex : mCompositeColumnsToIndex) {
+            result.add(
+                    getCreateIndexCommand(
+                            mTableName + "_" + String.join("_", columnsToIndex), columnsToIndex));
+        }
+
         return result;
     }
 
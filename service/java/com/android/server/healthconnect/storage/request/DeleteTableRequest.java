@@ -40,7 +40,8 @@ import java.util.Objects;
  * @hide
  */
 public class DeleteTableRequest {
-
+    public static final String COUNT_COLUMN_NAME = "count";
+    public static final String LAST_ROW_ID_COLUMN_NAME = "last_row_id";
     private static final String TAG = "HealthConnectDelete";
     private final String mTableName;
     @RecordTypeIdentifier.RecordType private final int mRecordType;
@@ -57,6 +58,9 @@ public class DeleteTableRequest {
     private int mNumberOfUuidsToDelete;
     private WhereClauses mCustomWhereClauses;
     private long mLessThanOrEqualValue;
+    private String mRowIdColumnName;
+    private long mAfterRowId = DEFAULT_LONG;
+    private long mLastRowId = DEFAULT_LONG;
 
     public DeleteTableRequest(
             @NonNull String tableName, @RecordTypeIdentifier.RecordType int recordType) {
@@ -134,6 +138,14 @@ public class DeleteTableRequest {
         return mTableName;
     }
 
+    @NonNull
+    public DeleteTableRequest setWhereClauses(@NonNull WhereClauses whereClauses) {
+        Objects.requireNonNull(whereClauses);
+
+        mCustomWhereClauses = whereClauses;
+        return this;
+    }
+
     @NonNull
     public DeleteTableRequest setPackageFilter(
             String packageColumnName, List<Long> packageFilters) {
@@ -148,22 +160,130 @@ public class DeleteTableRequest {
         return "DELETE FROM " + mTableName + getWhereCommand();
     }
 
+    /**
+     * Same as {@link #getDeleteCommand()}, but with {@code ?} placeholders instead of values. The
+     * values are appended to {@code bindArgs}.
+     */
+    @NonNull
+    public String getDeleteCommand(@NonNull List<Object> bindArgs) {
+        Objects.requireNonNull(bindArgs);
+
+        return "DELETE FROM " + mTableName + getWhereCommand(bindArgs);
+    }
+
     public String getReadCommand() {
+        return getReadCommand(/* bindArgs= */ null);
+    }
+
+    /**
+     * Same as {@link #getReadCommand()}, but if {@code bindArgs} is not null values are replaced
+     * by {@code ?} placeholders and appended to {@code bindArgs}.
+     */
+    public String getReadCommand(@Nullable List<Object> bindArgs) {
         return "SELECT "
                 + mIdColumnName
                 + ", "
                 + mPackageColumnName
                 + " FROM "
                 + mTableName
-                + getWhereCommand();
+                + getWhereCommand(bindArgs);
+    }
+
+    /**
+     * Returns a query counting the rows this request deletes per distinct value of {@code
+     * groupByColumnNames}, with the counts in a column named {@link #COUNT_COLUMN_NAME}. Values are
+     * replaced by {@code ?} placeholders and appended to {@code bindArgs}.
+     */
+    @NonNull
+    public String getCountCommand(
+            @NonNull List<String> groupByColumnNames, @NonNull List<Object> bindArgs) {
+        Objects.requireNonNull(bindArgs);
+        String groupByColumns = String.join(", ", groupByColumnNames);
+
+        return "SELECT "
+                + groupByColumns
+                + ", COUNT(*) AS "
+                + COUNT_COLUMN_NAME
+                + " FROM "
+                + mTableName
+                + getWhereCommand(bindArgs)
+                + " GROUP BY "
+                + groupByColumns;
+    }
+
+    /**
+     * Restricts the request to the rows whose {@code rowIdColumnName} is greater than {@code
+     * afterRowId}, so that it can be run in chunks in row id order. The end of the chunk is set
+     * with {@link #setLastRowId} once known.
+     */
+    @NonNull
+    public DeleteTableRequest setRowIdChunk(@NonNull String rowIdColumnName, long afterRowId) {
+        Objects.requireNonNull(rowIdColumnName);
+
+        mRowIdColumnName = rowIdColumnName;
+        mAfterRowId = afterRowId;
+        mLastRowId = DEFAULT_LONG;
+        return this;
+    }
+
+    /** Restricts the chunk set with {@link #setRowIdChunk} to rows up to {@code lastRowId}. */
+    @NonNull
+    public DeleteTableRequest setLastRowId(long lastRowId) {
+        mLastRowId = lastRowId;
+        return this;
+    }
+
+    /** Returns the row id the chunk of this request ends at, or {@code DEFAULT_LONG} if unset. */
+    public long getLastRowId() {
+        return mLastRowId;
+    }
+
+    /**
+     * Returns a query for the end of the chunk of at most {@code chunkSize} rows this request
+     * deletes, in row id order. The single result row holds the last row id of the chunk in
+     * {@link #LAST_ROW_ID_COLUMN_NAME}, null if there are no rows to delete, and the number of
+     * rows in the chunk in {@link #COUNT_COLUMN_NAME}. Values are replaced by {@code ?}
+     * placeholders and appended to {@code bindArgs}.
+     */
+    @NonNull
+    public String getChunkEndCommand(int chunkSize, @NonNull List<Object> bindArgs) {
+        Objects.requireNonNull(mRowIdColumnName);
+        Objects.requireNonNull(bindArgs);
+
+        return "SELECT MAX("
+                + mRowIdColumnName
+                + ") AS "
+                + LAST_ROW_ID_COLUMN_NAME
+                + ", COUNT(*) AS "
+                + COUNT_COLUMN_NAME
+                + " FROM (SELECT "
+                + mRowIdColumnName
+                + " FROM "
+                + mTableName
+                + getWhereCommand(bindArgs)
+                + " ORDER BY "
+                + mRowIdColumnName
+                + " LIMIT "
+                + chunkSize
+                + ")";
     }
 
     public String getWhereCommand() {
+        return getWhereCommand(/* bindArgs= */ null);
+    }
+
+    private String getWhereCommand(@Nullable List<Object> bindArgs) {
         WhereClauses whereClauses =
                 Objects.isNull(mCustomWhereClauses) ? new WhereClauses() : mCustomWhereClauses;
         whereClauses.addWhereInLongsClause(mPackageColumnName, mPackageFilters);
         whereClauses.addWhereBetweenTimeClause(mTimeColumnName, mStartTime, mEndTime);
         whereClauses.addWhereInClauseWithoutQuotes(mIdColumnName, mIds);
+        if (mRowIdColumnName != null) {
+            whereClauses.addWhereGreaterThanClause(mRowIdColumnName, mAfterRowId);
+            if (mLastRowId != DEFAULT_LONG) {
+                whereClauses.addWhereLessThanOrEqualClause(mRowIdColumnName, mLastRowId);
+            }
+        }
 
         if (Constants.DEBUG) {
             Slog.d(
@@ -174,7 +294,7 @@ public class DeleteTableRequest {
                             + whereClauses.get(true));
         }
 
-        return whereClauses.get(true);
+        return whereClauses.get(true, bindArgs);
     }
 
     @NonNull
@@ -106,6 +106,26 @@ public class ReadTableRequest {
     /** Returns SQL statement to perform read operation. */
     @NonNull
     public String getReadCommand() {
+        return buildReadCommand(/* bindArgs= */ null);
+    }
+
+    /**
+     * Returns SQL statement to perform read operation, with {@code ?} placeholders instead of
+     * values. The values are appended to {@code bindArgs}, in the order they need to be bound.
+     *
+     * <p>Requests of the same shape return the same statement, which lets SQLite reuse it.
+     */
+    @NonNull
+    public String getReadCommand(@NonNull List<Object> bindArgs) {
+        Objects.requireNonNull(bindArgs);
+
+        return buildReadCommand(bindArgs);
+    }
+
+    @NonNull
+    private String buildReadCommand(@Nullable List<Object> bindArgs) {
+        // Union requests come first in the command, so their arguments are collected separately.
+        List<Object> readBindArgs = bindArgs == null ? null : new ArrayList<>();
         StringBuilder builder = new StringBuilder("SELECT ");
         if (mDistinct) {
             builder.append("DISTINCT ");
@@ -116,13 +136,13 @@ public class ReadTableRequest {
         builder.append(" FROM ");
         builder.append(mTableName);
 
-        builder.append(mWhereClauses.get(/* withWhereKeyword */ true));
+        builder.append(mWhereClauses.get(/* withWhereKeyword */ true, readBindArgs));
         builder.append(mOrderByClause.getOrderBy());
         builder.append(mLimitClause);
 
         String readQuery = builder.toString();
         if (mJoinClause != null) {
-            readQuery = mJoinClause.getJoinWithQueryCommand(readQuery);
+            readQuery = mJoinClause.getJoinWithQueryCommand(readQuery, readBindArgs);
         }
 
         if (Constants.DEBUG) {
@@ -133,16 +153,18 @@ public class ReadTableRequest {
             builder = new StringBuilder();
             for (ReadTableRequest unionReadRequest : mUnionReadRequests) {
                 builder.append("SELECT * FROM (");
-                builder.append(unionReadRequest.getReadCommand());
+                builder.append(unionReadRequest.buildReadCommand(bindArgs));
                 builder.append(")");
                 builder.append(UNION_ALL);
             }
 
             builder.append(readQuery);
-
-            return builder.toString();
+            readQuery = builder.toString();
         }
 
+        if (bindArgs != null) {
+            bindArgs.addAll(readBindArgs);
+        }
         return readQuery;
     }
 
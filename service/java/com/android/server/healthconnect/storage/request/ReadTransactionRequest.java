@@ -19,6 +19,7 @@ package com.android.server.healthconnect.storage.request;
 import android.annotation.NonNull;
 import android.health.connect.aidl.ReadRecordsRequestParcel;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 
@@ -38,7 +39,15 @@ import java.util.UUID;
  */
 public class ReadTransactionRequest {
     public static final String TYPE_NOT_PRESENT_PACKAGE_NAME = "package_name";
+
+    /**
+     * Maximum number of UUIDs read by a single {@link ReadTableRequest}, which bounds the number of
+     * bind arguments of the read and keeps its results within a single page.
+     */
+    @VisibleForTesting static final int MAX_UUIDS_PER_READ = 500;
+
     private final List<ReadTableRequest> mReadTableRequests;
+    private final boolean mIsAscending;
 
     public ReadTransactionRequest(
             String packageName,
@@ -48,6 +57,7 @@ public class ReadTransactionRequest {
             Map<String, Boolean> extraPermsState) {
         RecordHelper<?> recordHelper =
                 RecordHelperProvider.getInstance().getRecordHelper(request.getRecordType());
+        mIsAscending = request.isAscending();
         mReadTableRequests =
                 Collections.singletonList(
                         recordHelper.getReadTableRequest(
@@ -64,20 +74,32 @@ public class ReadTransactionRequest {
             long startDateAccess,
             Map<String, Boolean> extraPermsState) {
         mReadTableRequests = new ArrayList<>();
+        mIsAscending = true;
         recordTypeToUuids.forEach(
-                (recordType, uuids) ->
+                (recordType, uuids) -> {
+                    RecordHelper<?> recordHelper =
+                            RecordHelperProvider.getInstance().getRecordHelper(recordType);
+                    for (int start = 0; start < uuids.size(); start += MAX_UUIDS_PER_READ) {
+                        List<UUID> uuidsToRead =
+                                uuids.subList(
+                                        start, Math.min(uuids.size(), start + MAX_UUIDS_PER_READ));
                         mReadTableRequests.add(
-                                RecordHelperProvider.getInstance()
-                                        .getRecordHelper(recordType)
-                                        .getReadTableRequest(
-                                                packageName,
-                                                uuids,
-                                                startDateAccess,
-                                                extraPermsState)));
+                                recordHelper.getReadTableRequest(
+                                        packageName,
+                                        uuidsToRead,
+                                        startDateAccess,
+                                        extraPermsState));
+                    }
+                });
     }
 
     @NonNull
     public List<ReadTableRequest> getReadRequests() {
         return mReadTableRequests;
     }
+
+    /** Returns whether records are read in ascending order of their start time. */
+    public boolean isAscending() {
+        return mIsAscending;
+    }
 }
@@ -200,6 +200,12 @@ public class UpsertTableRequest {
         return this;
     }
 
+    /** Returns the helper of the record table this request writes to, if any. */
+    @Nullable
+    public RecordHelper<?> getRecordHelper() {
+        return mRecordHelper;
+    }
+
     @NonNull
     public List<String> getAllChildTablesToDelete() {
         return mRecordHelper == null
@@ -27,6 +27,7 @@ import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Slog;
 
+import com.android.server.healthconnect.storage.TransactionManager.TransactionHook;
 import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper;
@@ -60,6 +61,7 @@ public class UpsertTransactionRequest {
     @NonNull private final List<UpsertTableRequest> mUpsertRequests = new ArrayList<>();
     @NonNull private final String mPackageName;
     private final List<UpsertTableRequest> mAccessLogs = new ArrayList<>();
+    private final List<TransactionHook> mTransactionHooks = new ArrayList<>();
     private final boolean mSkipPackageNameAndLogs;
     @RecordTypeIdentifier.RecordType Set<Integer> mRecordTypes = new ArraySet<>();
 
@@ -137,6 +139,9 @@ public class UpsertTransactionRequest {
                         AccessLogsHelper.getInstance()
                                 .getUpsertTableRequest(
                                         packageName, new ArrayList<>(mRecordTypes), UPSERT));
+                addTransactionHook(
+                        AppInfoHelper.getInstance()
+                                .getRecordTypesUsedOnInsertHook(packageName, mRecordTypes));
             }
 
             Slog.d(
@@ -152,6 +157,21 @@ public class UpsertTransactionRequest {
         return mAccessLogs;
     }
 
+    /**
+     * Adds {@code hook} to run in the transaction inserting the records of this request. Does
+     * nothing if {@code hook} is null.
+     */
+    public void addTransactionHook(@Nullable TransactionHook hook) {
+        if (hook != null) {
+            mTransactionHooks.add(hook);
+        }
+    }
+
+    @NonNull
+    public List<TransactionHook> getTransactionHooks() {
+        return mTransactionHooks;
+    }
+
     @NonNull
     public List<UpsertTableRequest> getInsertRequestsForChangeLogs() {
         if (mSkipPackageNameAndLogs) {
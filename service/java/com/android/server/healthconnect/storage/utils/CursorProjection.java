@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.utils;
+
+import android.annotation.NonNull;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A {@link Cursor} that resolves the positions of all of its columns once, when it is created.
+ *
+ * <p>Record readers look up columns by name for every field of every row. Wrapping the cursor
+ * returned by a query in a projection means {@link #getColumnIndex} is a lookup in a table built
+ * once per cursor, and hot loops can call {@link #getColumnIndexOrThrow} before iterating and then
+ * read by position only.
+ *
+ * <p>The position of the wrapped cursor is shared with the projection, so callers can keep using
+ * the original cursor (e.g. to compute page tokens) after reading through the projection.
+ *
+ * @hide
+ */
+public final class CursorProjection extends CursorWrapper {
+    private final Map<String, Integer> mColumnIndexes;
+
+    private CursorProjection(@NonNull Cursor cursor) {
+        super(cursor);
+        String[] columnNames = cursor.getColumnNames();
+        mColumnIndexes = new HashMap<>(columnNames.length * 2);
+        for (int i = 0; i < columnNames.length; i++) {
+            // Same as SQLiteCursor, if a join returns the same column name twice the last one
+            // wins.
+            mColumnIndexes.put(columnNames[i], i);
+        }
+    }
+
+    private CursorProjection(@NonNull Cursor cursor, @NonNull String aliasSuffix) {
+        this(cursor);
+        String[] columnNames = cursor.getColumnNames();
+        for (int i = 0; i < columnNames.length; i++) {
+            String columnName = columnNames[i];
+            if (columnName.length() > aliasSuffix.length() && columnName.endsWith(aliasSuffix)) {
+                mColumnIndexes.put(
+                        columnName.substring(0, columnName.length() - aliasSuffix.length()), i);
+            }
+        }
+    }
+
+    /** Returns {@code cursor} as a projection, wrapping it only if it isn't one already. */
+    @NonNull
+    public static CursorProjection of(@NonNull Cursor cursor) {
+        Objects.requireNonNull(cursor);
+
+        if (cursor instanceof CursorProjection) {
+            return (CursorProjection) cursor;
+        }
+
+        return new CursorProjection(cursor);
+    }
+
+    /**
+     * Returns a projection of {@code cursor} in which columns named {@code <name><aliasSuffix>}
+     * can also be looked up as {@code <name>}, taking precedence over any column with that name.
+     *
+     * <p>This lets a single query return several copies of the same column, e.g. different
+     * aggregates of it, each read by code that only knows the column's own name.
+     */
+    @NonNull
+    public static CursorProjection withAliasSuffix(
+            @NonNull Cursor cursor, @NonNull String aliasSuffix) {
+        Objects.requireNonNull(cursor);
+        Objects.requireNonNull(aliasSuffix);
+
+        return new CursorProjection(cursor, aliasSuffix);
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        Integer index = mColumnIndexes.get(columnName);
+        return index == null ? -1 : index;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+
+        return index;
+    }
+}
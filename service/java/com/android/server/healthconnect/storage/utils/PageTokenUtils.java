@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.utils;
+
+import static android.health.connect.Constants.DEFAULT_LONG;
+
+/**
+ * Encodes and decodes the page tokens of read records requests.
+ *
+ * <p>Records are read ordered by (start time, row id), and a token points to the first record of
+ * the next page. There are two formats, both keeping the sort order in the parity of the token: an
+ * even token means ascending and an odd one descending, which is what {@link
+ * android.health.connect.ReadRecordsRequestUsingFilters} relies on.
+ *
+ * <ul>
+ *   <li>Start time tokens, {@code startTime * 2 (+ 1)}, which are non-negative. They are used when
+ *       the next record doesn't share its start time with the last record of the page, so the next
+ *       page can start at that start time. Negative start times would make row id tokens, so pages
+ *       starting at a negative start time use a row id token instead. This is also the format of
+ *       tokens issued before row id tokens existed.
+ *   <li>Row id tokens, {@code -(rowId * 2 (+ 1)) - 2}, which are less than {@link
+ *       android.health.connect.Constants#DEFAULT_LONG}. They are used when the page ends within
+ *       records sharing a start time, and point to the exact record the next page starts at. If
+ *       that record is deleted before the next page is read, the read starts from its first page
+ *       again, so records of earlier pages are returned again but none are skipped.
+ * </ul>
+ *
+ * @hide
+ */
+public final class PageTokenUtils {
+    private PageTokenUtils() {}
+
+    /**
+     * Returns a token for the page starting at the records with {@code startTime}.
+     *
+     * @throws IllegalArgumentException if {@code startTime} is negative, use {@link #ofRowId} then.
+     */
+    public static long ofStartTime(long startTime, boolean isAscending) {
+        if (startTime < 0) {
+            throw new IllegalArgumentException("Negative start time for page token: " + startTime);
+        }
+        return startTime * 2 + (isAscending ? 0 : 1);
+    }
+
+    /** Returns a token for the page starting at the record with {@code rowId}. */
+    public static long ofRowId(long rowId, boolean isAscending) {
+        return -(rowId * 2 + (isAscending ? 0 : 1)) - 2;
+    }
+
+    /** Returns whether {@code pageToken} was created by {@link #ofRowId}. */
+    public static boolean isRowIdToken(long pageToken) {
+        return pageToken < DEFAULT_LONG;
+    }
+
+    /** Returns whether the records of {@code pageToken} are sorted in ascending order. */
+    public static boolean isAscending(long pageToken) {
+        return pageToken % 2 == 0;
+    }
+
+    /** Returns the start time of a token created by {@link #ofStartTime}. */
+    public static long getStartTime(long pageToken) {
+        return pageToken / 2;
+    }
+
+    /** Returns the row id of a token created by {@link #ofRowId}. */
+    public static long getRowId(long pageToken) {
+        return (-pageToken - 2) / 2;
+    }
+}
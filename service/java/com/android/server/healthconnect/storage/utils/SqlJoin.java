@@ -19,6 +19,7 @@ package com.android.server.healthconnect.storage.utils;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.SELECT_ALL;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.annotation.StringDef;
 
 import java.lang.annotation.Retention;
@@ -83,6 +84,14 @@ public final class SqlJoin {
      * @return Final query with JOIN condition
      */
     public String getJoinWithQueryCommand(String innerQuery) {
+        return getJoinWithQueryCommand(innerQuery, /* bindArgs= */ null);
+    }
+
+    /**
+     * Same as {@link #getJoinWithQueryCommand(String)}, but if {@code bindArgs} is not null values
+     * of the join filter are replaced by placeholders and appended to {@code bindArgs}.
+     */
+    public String getJoinWithQueryCommand(String innerQuery, @Nullable List<Object> bindArgs) {
         if (innerQuery == null) {
             throw new IllegalArgumentException("Inner query cannot be null");
         }
@@ -90,12 +99,20 @@ public final class SqlJoin {
                 + "( "
                 + innerQuery
                 + " ) "
-                + getJoinCommand(/* withSelfTableNamePrefix= */ false);
+                + getJoinCommand(/* withSelfTableNamePrefix= */ false, bindArgs);
     }
 
     /** Returns join command. */
     public String getJoinCommand() {
-        return getJoinCommand(/* withSelfTableNamePrefix= */ true);
+        return getJoinCommand(/* bindArgs= */ null);
+    }
+
+    /**
+     * Same as {@link #getJoinCommand()}, but if {@code bindArgs} is not null values of the join
+     * filter are replaced by placeholders and appended to {@code bindArgs}.
+     */
+    public String getJoinCommand(@Nullable List<Object> bindArgs) {
+        return getJoinCommand(/* withSelfTableNamePrefix= */ true, bindArgs);
     }
 
     /** Attaches another join to this join. Returns this class with another join attached. */
@@ -118,12 +135,15 @@ public final class SqlJoin {
         mTableToJoinWhereClause = whereClause;
     }
 
-    private String getJoinCommand(boolean withSelfTableNamePrefix) {
+    private String getJoinCommand(
+            boolean withSelfTableNamePrefix, @Nullable List<Object> bindArgs) {
         String selfColumnPrefix = withSelfTableNamePrefix ? mSelfTableName + "." : "";
         return " "
                 + mJoinType
                 + " JOIN "
-                + (mTableToJoinWhereClause == null ? "" : "( " + buildFilterQuery() + ") ")
+                + (mTableToJoinWhereClause == null
+                        ? ""
+                        : "( " + buildFilterQuery(bindArgs) + ") ")
                 + mTableNameToJoinOn
                 + " ON "
                 + selfColumnPrefix
@@ -132,21 +152,22 @@ public final class SqlJoin {
                 + mTableNameToJoinOn
                 + "."
                 + mJoiningColumnNameToMatch
-                + buildAttachedJoinsCommand(withSelfTableNamePrefix);
+                + buildAttachedJoinsCommand(withSelfTableNamePrefix, bindArgs);
     }
 
-    private String buildFilterQuery() {
-        return SELECT_ALL + mTableNameToJoinOn + mTableToJoinWhereClause.get(true);
+    private String buildFilterQuery(@Nullable List<Object> bindArgs) {
+        return SELECT_ALL + mTableNameToJoinOn + mTableToJoinWhereClause.get(true, bindArgs);
     }
 
-    private String buildAttachedJoinsCommand(boolean withSelfTableNamePrefix) {
+    private String buildAttachedJoinsCommand(
+            boolean withSelfTableNamePrefix, @Nullable List<Object> bindArgs) {
         if (mAttachedJoins == null) {
             return "";
         }
 
         StringBuilder command = new StringBuilder();
         for (SqlJoin join : mAttachedJoins) {
-            command.append(" ").append(join.getJoinCommand(withSelfTableNamePrefix));
+            command.append(" ").append(join.getJoinCommand(withSelfTableNamePrefix, bindArgs));
         }
 
         return command.toString();
@@ -36,6 +36,10 @@ import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.health.connect.HealthDataCategory;
 import android.health.connect.RecordIdFilter;
 import android.health.connect.internal.datatypes.InstantRecordInternal;
@@ -43,6 +47,7 @@ import android.health.connect.internal.datatypes.IntervalRecordInternal;
 import android.health.connect.internal.datatypes.RecordInternal;
 import android.health.connect.internal.datatypes.utils.RecordMapper;
 import android.health.connect.internal.datatypes.utils.RecordTypeRecordCategoryMapper;
+import android.util.Pair;
 import android.util.Slog;
 
 import com.android.server.healthconnect.storage.datatypehelpers.HealthDataCategoryPriorityHelper;
@@ -56,6 +61,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -87,6 +93,7 @@ public final class StorageUtils {
     public static final int BOOLEAN_TRUE_VALUE = 1;
     public static final int UUID_BYTE_SIZE = 16;
     private static final String TAG = "HealthConnectUtils";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     // Returns null if fetching any of the fields resulted in an error
     @Nullable
@@ -384,13 +391,131 @@ public final class StorageUtils {
             return "";
         }
 
-        final StringBuilder builder = new StringBuilder("x'");
+        final char[] hex = new char[value.length * 2 + 3];
+        hex[0] = 'x';
+        hex[1] = '\'';
+        int index = 2;
         for (byte b : value) {
-            builder.append(String.format("%02x", b));
+            hex[index++] = HEX_DIGITS[(b >> 4) & 0xF];
+            hex[index++] = HEX_DIGITS[b & 0xF];
         }
-        builder.append("'");
+        hex[index] = '\'';
 
-        return builder.toString();
+        return new String(hex);
+    }
+
+    /**
+     * Returns the value of a SQL {@code literal} as an argument that can be bound to a statement,
+     * or null if the literal is not a hex blob, a quoted string or an integer.
+     */
+    @Nullable
+    public static Object getBindArgForLiteral(@NonNull String literal) {
+        int length = literal.length();
+        if (length >= 3 && literal.startsWith("x'") && literal.endsWith("'")) {
+            return getBytesFromHexString(literal.substring(2, length - 1));
+        }
+        if (length >= 2 && literal.startsWith("'") && literal.endsWith("'")) {
+            return literal.substring(1, length - 1).replace("''", "'");
+        }
+        try {
+            return Long.parseLong(literal);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static byte[] getBytesFromHexString(String hex) {
+        if (hex.length() % 2 != 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Runs the query {@code sql} on {@code db}, binding {@code bindArgs} with their own types.
+     *
+     * <p>Unlike {@link SQLiteDatabase#rawQuery}, which binds every argument as a string, this
+     * supports blobs (e.g. UUIDs) and numbers.
+     */
+    @NonNull
+    public static Cursor rawQuery(
+            @NonNull SQLiteDatabase db, @NonNull String sql, @NonNull List<Object> bindArgs) {
+        if (bindArgs.isEmpty()) {
+            return db.rawQuery(sql, null);
+        }
+
+        return db.rawQueryWithFactory(
+                (database, driver, editTable, query) -> {
+                    for (int i = 0; i < bindArgs.size(); i++) {
+                        // Bind indexes are 1-based.
+                        DatabaseUtils.bindObjectToProgram(query, i + 1, bindArgs.get(i));
+                    }
+                    return new SQLiteCursor(driver, editTable, query);
+                },
+                sql,
+                /* selectionArgs= */ null,
+                /* editTable= */ null);
+    }
+
+    /**
+     * Adds each count in {@code countChanges} to {@code countColumnName} of the row of {@code
+     * tableName} with the key ({@code firstKeyColumnName}, {@code secondKeyColumnName}), inserting
+     * the row if there is none yet.
+     *
+     * <p>The key columns must have a unique constraint on them.
+     */
+    public static void addToCounts(
+            @NonNull SQLiteDatabase db,
+            @NonNull String tableName,
+            @NonNull String firstKeyColumnName,
+            @NonNull String secondKeyColumnName,
+            @NonNull String countColumnName,
+            @NonNull Map<Pair<Integer, Long>, Long> countChanges) {
+        if (countChanges.isEmpty()) {
+            return;
+        }
+
+        String command =
+                "INSERT INTO "
+                        + tableName
+                        + " ("
+                        + firstKeyColumnName
+                        + ", "
+                        + secondKeyColumnName
+                        + ", "
+                        + countColumnName
+                        + ") VALUES (?, ?, ?) ON CONFLICT ("
+                        + firstKeyColumnName
+                        + ", "
+                        + secondKeyColumnName
+                        + ") DO UPDATE SET "
+                        + countColumnName
+                        + " = "
+                        + countColumnName
+                        + " + excluded."
+                        + countColumnName;
+        try (SQLiteStatement statement = db.compileStatement(command)) {
+            for (Map.Entry<Pair<Integer, Long>, Long> countChange : countChanges.entrySet()) {
+                if (countChange.getValue() == 0) {
+                    continue;
+                }
+                statement.bindLong(1, countChange.getKey().first);
+                statement.bindLong(2, countChange.getKey().second);
+                statement.bindLong(3, countChange.getValue());
+                statement.executeInsert();
+            }
+        }
     }
 
     public static String getHexString(UUID uuid) {
@@ -16,19 +16,37 @@
 
 package com.android.server.healthconnect.storage.utils;
 
+import android.annotation.Nullable;
+import android.database.DatabaseUtils;
+
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.UUID;
 
-/** @hide */
+/**
+ * Builds the WHERE part of a SQL command.
+ *
+ * <p>Clauses keep their values apart from the SQL text, so that {@link #get(boolean, List)} can
+ * return a command with {@code ?} placeholders that is the same for every request of the same
+ * shape. {@link #get(boolean)} returns the clauses with the values inlined, for callers that
+ * can't pass bind arguments.
+ *
+ * @hide
+ */
 public final class WhereClauses {
-    private final List<String> mClauses = new ArrayList<>();
+    /**
+     * IN lists up to this size are padded, by repeating their last value, to the next power of
+     * two. This keeps the number of distinct statements SQLite has to compile small.
+     */
+    private static final int MAX_PADDED_IN_CLAUSE_SIZE = 512;
+
+    private final List<Clause> mClauses = new ArrayList<>();
     private boolean mUseOr = false;
 
     public WhereClauses addWhereBetweenClause(String columnName, long start, long end) {
-        mClauses.add(columnName + " BETWEEN " + start + " AND " + end);
+        mClauses.add(new Clause(columnName + " BETWEEN ? AND ?", start, end));
 
         return this;
     }
@@ -41,7 +59,7 @@ public final class WhereClauses {
             return addWhereLaterThanTimeClause(columnName, startTime);
         }
 
-        mClauses.add(columnName + " BETWEEN " + startTime + " AND " + endTime);
+        mClauses.add(new Clause(columnName + " BETWEEN ? AND ?", startTime, endTime));
 
         return this;
     }
@@ -51,7 +69,7 @@ public final class WhereClauses {
             return this;
         }
 
-        mClauses.add(columnName + " > " + startTime);
+        mClauses.add(new Clause(columnName + " > ?", startTime));
 
         return this;
     }
@@ -59,15 +77,48 @@ public final class WhereClauses {
     public WhereClauses addWhereInClause(String columnName, List<String> values) {
         if (values == null || values.isEmpty()) return this;
 
-        mClauses.add(columnName + " IN " + "('" + String.join("', '", values) + "')");
+        addInClause(columnName, new ArrayList<>(values));
 
         return this;
     }
 
+    /**
+     * Adds where in condition for the column, where {@code values} are SQL literals, e.g. hex
+     * blobs or quoted strings.
+     */
     public WhereClauses addWhereInClauseWithoutQuotes(String columnName, List<String> values) {
         if (values == null || values.isEmpty()) return this;
 
-        mClauses.add(columnName + " IN " + "(" + String.join(", ", values) + ")");
+        List<Object> args = new ArrayList<>(values.size());
+        for (String value : values) {
+            Object arg = StorageUtils.getBindArgForLiteral(value);
+            if (arg == null) {
+                // Not a literal we know how to bind, keep the values in the SQL text.
+                mClauses.add(
+                        new Clause(columnName + " IN " + "(" + String.join(", ", values) + ")"));
+                return this;
+            }
+            args.add(arg);
+        }
+        addInClause(columnName, args);
+
+        return this;
+    }
+
+    /**
+     * Adds where in condition for a UUID column.
+     *
+     * @param columnName Column name on which where condition to be applied
+     * @param uuids to check in the where condition
+     */
+    public WhereClauses addWhereInUuidsClause(String columnName, List<UUID> uuids) {
+        if (uuids == null || uuids.isEmpty()) return this;
+
+        List<Object> args = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            args.add(StorageUtils.convertUUIDToBytes(uuid));
+        }
+        addInClause(columnName, args);
 
         return this;
     }
@@ -77,38 +128,74 @@ public final class WhereClauses {
             return this;
         }
 
-        mClauses.add(columnName + " = " + StorageUtils.getNormalisedString(value));
+        String literal = StorageUtils.getNormalisedString(value);
+        Object arg = StorageUtils.getBindArgForLiteral(literal);
+        if (arg == null) {
+            mClauses.add(new Clause(columnName + " = " + literal));
+        } else {
+            mClauses.add(new Clause(columnName + " = ?", arg));
+        }
         return this;
     }
 
     public WhereClauses addWhereGreaterThanClause(String columnName, String value) {
-        mClauses.add(columnName + " > '" + value + "'");
+        mClauses.add(new Clause(columnName + " > ?", value));
 
         return this;
     }
 
     /** Add clause columnName > value */
     public WhereClauses addWhereGreaterThanClause(String columnName, long value) {
-        mClauses.add(columnName + " > " + value);
+        mClauses.add(new Clause(columnName + " > ?", value));
 
         return this;
     }
 
     public WhereClauses addWhereGreaterThanOrEqualClause(String columnName, long value) {
-        mClauses.add(columnName + " >= " + value);
+        mClauses.add(new Clause(columnName + " >= ?", value));
 
         return this;
     }
 
     public WhereClauses addWhereLessThanOrEqualClause(String columnName, long value) {
-        mClauses.add(columnName + " <= " + value);
+        mClauses.add(new Clause(columnName + " <= ?", value));
 
         return this;
     }
 
     /** Add clause columnName < value */
     public WhereClauses addWhereLessThanClause(String columnName, long value) {
-        mClauses.add(columnName + " < " + value);
+        mClauses.add(new Clause(columnName + " < ?", value));
+
+        return this;
+    }
+
+    /**
+     * Adds clause {@code columnName operator} the value of {@code columnName} in the row of {@code
+     * tableName} where {@code idColumnName} is {@code id}, e.g. {@code start_time > (SELECT
+     * start_time FROM table WHERE row_id = ?)}.
+     *
+     * <p>If there is no such row, {@code valueIfNoRow} is compared to instead, or no rows match if
+     * it is null.
+     */
+    public WhereClauses addWhereCompareToRowClause(
+            String columnName,
+            String operator,
+            String tableName,
+            String idColumnName,
+            long id,
+            @Nullable Long valueIfNoRow) {
+        String select =
+                "(SELECT " + columnName + " FROM " + tableName + " WHERE " + idColumnName + " = ?)";
+        if (valueIfNoRow == null) {
+            mClauses.add(new Clause(columnName + " " + operator + " " + select, id));
+        } else {
+            mClauses.add(
+                    new Clause(
+                            columnName + " " + operator + " COALESCE(" + select + ", ?)",
+                            id,
+                            valueIfNoRow));
+        }
 
         return this;
     }
@@ -116,11 +203,7 @@ public final class WhereClauses {
     public WhereClauses addWhereInIntsClause(String columnName, List<Integer> values) {
         if (values == null || values.isEmpty()) return this;
 
-        mClauses.add(
-                columnName
-                        + " IN ("
-                        + values.stream().map(String::valueOf).collect(Collectors.joining(", "))
-                        + ")");
+        addInClause(columnName, new ArrayList<>(values));
 
         return this;
     }
@@ -134,11 +217,7 @@ public final class WhereClauses {
     public WhereClauses addWhereInLongsClause(String columnName, List<Long> values) {
         if (values == null || values.isEmpty()) return this;
 
-        mClauses.add(
-                columnName
-                        + " IN ("
-                        + values.stream().map(String::valueOf).collect(Collectors.joining(", "))
-                        + ")");
+        addInClause(columnName, new ArrayList<>(values));
 
         return this;
     }
@@ -148,7 +227,7 @@ public final class WhereClauses {
      * set.
      */
     public WhereClauses addWhereInSQLRequestClause(String columnName, ReadTableRequest inRequest) {
-        mClauses.add(columnName + " IN (" + inRequest.getReadCommand() + ") ");
+        mClauses.add(new Clause(columnName, inRequest));
 
         return this;
     }
@@ -158,11 +237,27 @@ public final class WhereClauses {
      * then the clauses are preceded by 'WHERE'.
      */
     public String get(boolean withWhereKeyword) {
+        return get(withWhereKeyword, /* bindArgs= */ null);
+    }
+
+    /**
+     * Same as {@link #get(boolean)}, but if {@code bindArgs} is not null values are replaced by
+     * {@code ?} placeholders, and appended to {@code bindArgs} in the order they appear in.
+     */
+    public String get(boolean withWhereKeyword, @Nullable List<Object> bindArgs) {
         if (mClauses.isEmpty()) {
             return "";
         }
 
-        return (withWhereKeyword ? " WHERE " : "") + String.join(getJoinClause(), mClauses);
+        StringBuilder builder = new StringBuilder(withWhereKeyword ? " WHERE " : "");
+        String joinClause = getJoinClause();
+        for (int i = 0; i < mClauses.size(); i++) {
+            if (i > 0) {
+                builder.append(joinClause);
+            }
+            mClauses.get(i).appendTo(builder, bindArgs);
+        }
+        return builder.toString();
     }
 
     private String getJoinClause() {
@@ -174,4 +269,83 @@ public final class WhereClauses {
 
         return this;
     }
+
+    private void addInClause(String columnName, List<Object> args) {
+        if (args.size() <= MAX_PADDED_IN_CLAUSE_SIZE) {
+            int paddedSize = Integer.highestOneBit(args.size());
+            if (paddedSize < args.size()) {
+                paddedSize <<= 1;
+            }
+            Object last = args.get(args.size() - 1);
+            while (args.size() < paddedSize) {
+                args.add(last);
+            }
+        }
+
+        StringBuilder builder = new StringBuilder(columnName).append(" IN (");
+        for (int i = 0; i < args.size(); i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+        builder.append(")");
+        mClauses.add(new Clause(builder.toString(), args.toArray()));
+    }
+
+    private static final class Clause {
+        private final String mTemplate;
+        private final Object[] mArgs;
+        private final ReadTableRequest mInRequest;
+
+        Clause(String template, Object... args) {
+            mTemplate = template;
+            mArgs = args;
+            mInRequest = null;
+        }
+
+        Clause(String columnName, ReadTableRequest inRequest) {
+            mTemplate = columnName;
+            mArgs = new Object[0];
+            mInRequest = inRequest;
+        }
+
+        void appendTo(StringBuilder builder, @Nullable List<Object> bindArgs) {
+            if (mInRequest != null) {
+                builder.append(mTemplate)
+                        .append(" IN (")
+                        .append(
+                                bindArgs == null
+                                        ? mInRequest.getReadCommand()
+                                        : mInRequest.getReadCommand(bindArgs))
+                        .append(") ");
+                return;
+            }
+
+            if (bindArgs != null) {
+                builder.append(mTemplate);
+                for (Object arg : mArgs) {
+                    bindArgs.add(arg);
+                }
+                return;
+            }
+
+            int argIndex = 0;
+            for (int i = 0; i < mTemplate.length(); i++) {
+                char c = mTemplate.charAt(i);
+                if (c == '?' && argIndex < mArgs.length) {
+                    builder.append(toLiteral(mArgs[argIndex++]));
+                } else {
+                    builder.append(c);
+                }
+            }
+        }
+
+        private static String toLiteral(Object arg) {
+            if (arg instanceof byte[]) {
+                return StorageUtils.getHexString((byte[]) arg);
+            }
+            if (arg instanceof String) {
+                return DatabaseUtils.sqlEscapeString((String) arg);
+            }
+            return String.valueOf(arg);
+        }
+    }
 }
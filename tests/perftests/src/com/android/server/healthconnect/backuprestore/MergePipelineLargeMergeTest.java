@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.backuprestore;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges a staged database file of a million records into another database file through a {@link
+ * MergePipeline}, checking that every record is merged once while the queue keeps filling up. The
+ * pipeline metrics are logged under {@link #TAG}.
+ *
+ * <p>Records are a few columns read and written with plain SQL, not through the record helpers
+ * and {@link com.android.server.healthconnect.storage.TransactionManager#insertAll} like {@link
+ * BackupRestore} does, so the metrics say nothing about how long a real merge takes.
+ */
+@LargeTest
+public class MergePipelineLargeMergeTest {
+    private static final String TAG = "HealthConnectLargeMerge";
+    private static final String TABLE_NAME = "steps_record_table";
+    private static final int RECORD_COUNT = 1_000_000;
+    private static final int PAGE_SIZE = 2000;
+    private static final int MAX_QUEUED_PAGES = 4;
+    private static final int BATCH_SIZE = 10000;
+
+    private File mStagedFile;
+    private File mMergedFile;
+    private SQLiteDatabase mStagedDb;
+    private SQLiteDatabase mMergedDb;
+
+    @Before
+    public void setUp() {
+        File directory =
+                InstrumentationRegistry.getInstrumentation().getContext().getDatabasePath("merge");
+        directory.getParentFile().mkdirs();
+        mStagedFile = new File(directory.getParentFile(), "merge_staged");
+        mMergedFile = new File(directory.getParentFile(), "merge_merged");
+        SQLiteDatabase.deleteDatabase(mStagedFile);
+        SQLiteDatabase.deleteDatabase(mMergedFile);
+        mStagedDb = openDatabase(mStagedFile);
+        mMergedDb = openDatabase(mMergedFile);
+
+        mStagedDb.beginTransaction();
+        try (SQLiteStatement statement =
+                mStagedDb.compileStatement(
+                        "INSERT INTO " + TABLE_NAME + " (start_time, count) VALUES (?, ?)")) {
+            for (int i = 0; i < RECORD_COUNT; i++) {
+                statement.bindLong(1, i / 10);
+                statement.bindLong(2, i % 1000);
+                statement.executeInsert();
+            }
+            mStagedDb.setTransactionSuccessful();
+        } finally {
+            mStagedDb.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mStagedDb.close();
+        mMergedDb.close();
+        SQLiteDatabase.deleteDatabase(mStagedFile);
+        SQLiteDatabase.deleteDatabase(mMergedFile);
+    }
+
+    @Test
+    public void testMerge_millionRecords_mergesEveryRecordOnce() {
+        MergePipeline<List<long[]>> pipeline =
+                new MergePipeline<>(MAX_QUEUED_PAGES, BATCH_SIZE, List::size, this::write);
+        try (pipeline) {
+            long lastRowId = 0;
+            List<long[]> page;
+            while (!(page = readPage(lastRowId)).isEmpty()) {
+                pipeline.put(page);
+                lastRowId = page.get(page.size() - 1)[0];
+            }
+        }
+
+        assertMergedOnce();
+        Log.i(TAG, "Merge: " + pipeline.getMetrics());
+    }
+
+    /** Returns the row id, start time and count of the records after {@code lastRowId}. */
+    private List<long[]> readPage(long lastRowId) {
+        List<long[]> page = new ArrayList<>(PAGE_SIZE);
+        try (Cursor cursor =
+                mStagedDb.rawQuery(
+                        "SELECT row_id, start_time, count FROM "
+                                + TABLE_NAME
+                                + " WHERE row_id > ? ORDER BY row_id LIMIT "
+                                + PAGE_SIZE,
+                        new String[] {String.valueOf(lastRowId)})) {
+            while (cursor.moveToNext()) {
+                page.add(new long[] {cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)});
+            }
+        }
+        return page;
+    }
+
+    private void write(List<List<long[]>> pages) {
+        mMergedDb.beginTransaction();
+        try (SQLiteStatement statement =
+                mMergedDb.compileStatement(
+                        "INSERT OR IGNORE INTO "
+                                + TABLE_NAME
+                                + " (row_id, start_time, count) VALUES (?, ?, ?)")) {
+            for (List<long[]> page : pages) {
+                for (long[] record : page) {
+                    statement.bindLong(1, record[0]);
+                    statement.bindLong(2, record[1]);
+                    statement.bindLong(3, record[2]);
+                    statement.executeInsert();
+                }
+            }
+            mMergedDb.setTransactionSuccessful();
+        } finally {
+            mMergedDb.endTransaction();
+        }
+    }
+
+    private void assertMergedOnce() {
+        try (Cursor cursor =
+                mMergedDb.rawQuery(
+                        "SELECT count(*), count(DISTINCT row_id), min(row_id), max(row_id) FROM "
+                                + TABLE_NAME,
+                        null)) {
+            cursor.moveToFirst();
+            assertThat(cursor.getLong(0)).isEqualTo(RECORD_COUNT);
+            assertThat(cursor.getLong(1)).isEqualTo(RECORD_COUNT);
+            assertThat(cursor.getLong(2)).isEqualTo(1);
+            assertThat(cursor.getLong(3)).isEqualTo(RECORD_COUNT);
+        }
+    }
+
+    private static SQLiteDatabase openDatabase(File file) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, /* factory= */ null);
+        db.execSQL(
+                "CREATE TABLE "
+                        + TABLE_NAME
+                        + " (row_id INTEGER PRIMARY KEY AUTOINCREMENT, start_time INTEGER,"
+                        + " count INTEGER)");
+        db.execSQL("CREATE INDEX idx_start_time ON " + TABLE_NAME + " (start_time)");
+        return db;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs concurrent reads and writes against a database file, with and without write-ahead logging.
+ * Throughput is logged under {@link #TAG} rather than asserted, as it depends on the device.
+ */
+@LargeTest
+public class WriteAheadLoggingThroughputTest {
+    private static final String TAG = "HealthConnectWalThroughput";
+    private static final String TABLE_NAME = "preference_table";
+    private static final long DURATION_MILLIS = 2000;
+    private static final int READER_COUNT = 4;
+    private static final int ROWS_PER_WRITE = 50;
+
+    @Mock Context mContext;
+    private File mDatabaseFile;
+    private HealthConnectDatabase mHealthConnectDatabase;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mDatabaseFile =
+                InstrumentationRegistry.getInstrumentation()
+                        .getContext()
+                        .getDatabasePath("wal_throughput");
+        SQLiteDatabase.deleteDatabase(mDatabaseFile);
+        when(mContext.getDatabasePath(anyString())).thenReturn(mDatabaseFile);
+        mHealthConnectDatabase = new HealthConnectDatabase(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mHealthConnectDatabase.close();
+        SQLiteDatabase.deleteDatabase(mDatabaseFile);
+    }
+
+    @Test
+    public void testRead_writeTransactionOpen_doesNotWait() throws Exception {
+        mHealthConnectDatabase.setWriteAheadLoggingConfig(
+                /* enabled= */ true, /* autoCheckpointPages= */ 1000);
+        SQLiteDatabase db = mHealthConnectDatabase.getWritableDatabase();
+        assertThat(db.isWriteAheadLoggingEnabled()).isTrue();
+        insert(db, "committed");
+
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread writer =
+                new Thread(
+                        () -> {
+                            db.beginTransaction();
+                            try {
+                                insert(db, "pending");
+                                written.countDown();
+                                done.await(DURATION_MILLIS, TimeUnit.MILLISECONDS);
+                                db.setTransactionSuccessful();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            } finally {
+                                db.endTransaction();
+                            }
+                        });
+        writer.start();
+        assertThat(written.await(DURATION_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+
+        long startTimeMillis = SystemClock.uptimeMillis();
+        long count = count(db);
+        long readTimeMillis = SystemClock.uptimeMillis() - startTimeMillis;
+        done.countDown();
+        writer.join();
+
+        // The read sees the last commit, without waiting for the open transaction.
+        assertThat(count).isEqualTo(1);
+        assertThat(readTimeMillis).isLessThan(DURATION_MILLIS);
+        assertThat(count(db)).isEqualTo(2);
+    }
+
+    @Test
+    public void testThroughput_concurrentReadsAndWrites() throws Exception {
+        String withoutWal = runReadsAndWrites(/* writeAheadLoggingEnabled= */ false);
+        mHealthConnectDatabase.close();
+        String withWal = runReadsAndWrites(/* writeAheadLoggingEnabled= */ true);
+
+        Log.i(TAG, "Without write-ahead logging: " + withoutWal);
+        Log.i(TAG, "With write-ahead logging: " + withWal);
+    }
+
+    /** Returns the throughput of {@link #READER_COUNT} readers next to a single writer. */
+    private String runReadsAndWrites(boolean writeAheadLoggingEnabled) throws Exception {
+        mHealthConnectDatabase.setWriteAheadLoggingConfig(
+                writeAheadLoggingEnabled, TransactionManager.DEFAULT_WAL_AUTO_CHECKPOINT_PAGES);
+        SQLiteDatabase db = mHealthConnectDatabase.getWritableDatabase();
+        assertThat(db.isWriteAheadLoggingEnabled()).isEqualTo(writeAheadLoggingEnabled);
+        ReadConnectionPool pool =
+                new ReadConnectionPool(TransactionManager.DEFAULT_READ_CONNECTION_POOL_SIZE);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(
+                new Thread(
+                        () -> {
+                            while (running.get()) {
+                                db.beginTransaction();
+                                try {
+                                    for (int i = 0; i < ROWS_PER_WRITE; i++) {
+                                        insert(db, "value");
+                                    }
+                                    db.setTransactionSuccessful();
+                                } finally {
+                                    db.endTransaction();
+                                }
+                                writes.incrementAndGet();
+                            }
+                        }));
+        for (int i = 0; i < READER_COUNT; i++) {
+            threads.add(
+                    new Thread(
+                            () -> {
+                                while (running.get()) {
+                                    pool.acquire();
+                                    try {
+                                        count(db);
+                                    } finally {
+                                        pool.release();
+                                    }
+                                    reads.incrementAndGet();
+                                }
+                            }));
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(DURATION_MILLIS);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(reads.get()).isGreaterThan(0);
+        assertThat(writes.get()).isGreaterThan(0);
+        StringWriter metrics = new StringWriter();
+        pool.dump(new PrintWriter(metrics));
+        return "reads/s="
+                + reads.get() * 1000 / DURATION_MILLIS
+                + " writes/s="
+                + writes.get() * 1000 / DURATION_MILLIS
+                + "\n"
+                + metrics;
+    }
+
+    private static void insert(SQLiteDatabase db, String value) {
+        db.execSQL(
+                "INSERT INTO " + TABLE_NAME + " (key, value) VALUES (?, ?)",
+                new Object[] {value + "_" + System.nanoTime(), value});
+    }
+
+    private static long count(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery("SELECT count(*) FROM " + TABLE_NAME, null)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.healthconnect;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.health.connect.internal.ParcelUtils;
+import android.os.Parcel;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class ParcelUtilsTest {
+    @Test
+    public void testPutToRequiredMemory_smallPayload_serializesOnceAndRoundTrips() {
+        assertSerializedOnceAndRoundTrips(/* numValues= */ 10, ParcelUtils.USING_PARCEL);
+    }
+
+    @Test
+    public void testPutToRequiredMemory_largePayload_serializesOnceAndRoundTrips() {
+        int numValues = ParcelUtils.IPC_PARCEL_LIMIT / Long.BYTES + 1;
+        assertSerializedOnceAndRoundTrips(numValues, ParcelUtils.USING_SHARED_MEMORY);
+    }
+
+    private static void assertSerializedOnceAndRoundTrips(int numValues, int expectedParcelType) {
+        AtomicInteger writeCount = new AtomicInteger();
+        Parcel dest = Parcel.obtain();
+        ParcelUtils.putToRequiredMemory(
+                dest,
+                0,
+                parcel -> {
+                    writeCount.incrementAndGet();
+                    parcel.writeInt(numValues);
+                    for (long i = 0; i < numValues; i++) {
+                        parcel.writeLong(i);
+                    }
+                });
+        assertThat(writeCount.get()).isEqualTo(1);
+
+        dest.setDataPosition(0);
+        assertThat(dest.readInt()).isEqualTo(expectedParcelType);
+        dest.setDataPosition(0);
+        Parcel in = ParcelUtils.getParcelForSharedMemoryIfRequired(dest);
+        assertThat(in.readInt()).isEqualTo(numValues);
+        for (long i = 0; i < numValues; i++) {
+            assertThat(in.readLong()).isEqualTo(i);
+        }
+
+        ParcelUtils.recycleIfCopied(dest, in);
+        dest.recycle();
+    }
+}
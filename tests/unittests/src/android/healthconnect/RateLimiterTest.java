@@ -19,6 +19,8 @@ package android.healthconnect;
 import static android.health.connect.ratelimiter.RateLimiter.CHUNK_SIZE_LIMIT_IN_BYTES;
 import static android.health.connect.ratelimiter.RateLimiter.RECORD_SIZE_LIMIT_IN_BYTES;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.hamcrest.CoreMatchers.containsString;
 
 import android.health.connect.HealthConnectException;
@@ -34,8 +36,15 @@ import org.junit.rules.ExpectedException;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RateLimiterTest {
     private static final int UID = 1;
@@ -165,6 +174,48 @@ public class RateLimiterTest {
         tryAcquireCallQuotaNTimes(quotaCategoryWrite, IS_IN_FOREGROUND_FALSE, ceilQuotaAcquired);
     }
 
+    @Test
+    public void testTryAcquireApiCallQuota_concurrentCalls_grantQuotaOnce() throws Exception {
+        RateLimiter.clearCache();
+        int threadCount = 8;
+        int callsPerThread = MAX_FOREGROUND_CALL_15M;
+        AtomicInteger grantedCalls = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+        Instant startTime = Instant.now();
+        for (int i = 0; i < threadCount; i++) {
+            futures.add(
+                    executor.submit(
+                            () -> {
+                                start.await();
+                                for (int j = 0; j < callsPerThread; j++) {
+                                    try {
+                                        RateLimiter.tryAcquireApiCallQuota(
+                                                UID,
+                                                QuotaCategory.QUOTA_CATEGORY_READ,
+                                                IS_IN_FOREGROUND_TRUE);
+                                        grantedCalls.incrementAndGet();
+                                    } catch (HealthConnectException e) {
+                                        // Quota exceeded.
+                                    }
+                                }
+                                return null;
+                            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Instant endTime = Instant.now();
+
+        int refilledQuota =
+                getCeilQuotaAcquired(startTime, endTime, WINDOW_15M, MAX_FOREGROUND_CALL_15M);
+        assertThat(grantedCalls.get()).isAtLeast(MAX_FOREGROUND_CALL_15M);
+        assertThat(grantedCalls.get()).isAtMost(MAX_FOREGROUND_CALL_15M + refilledQuota);
+    }
+
     @Test
     public void checkMaxChunkMemoryUsage_LimitExceeded() {
         long valueExceeding = 5000001;
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.healthconnect.internal.datatypes;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.health.connect.datatypes.HeartRateRecord;
+import android.health.connect.internal.datatypes.HeartRateRecordInternal;
+import android.health.connect.internal.datatypes.SeriesSamples;
+import android.os.Parcel;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.UUID;
+
+public class SeriesSamplesTest {
+
+    @Test
+    public void testBuild_unsortedSamples_sortedByTime() {
+        SeriesSamples samples =
+                new SeriesSamples.Builder()
+                        .addSample(30, 3.0)
+                        .addSample(10, 1.0)
+                        .addSample(20, 2.0)
+                        .build();
+
+        assertThat(samples.size()).isEqualTo(3);
+        for (int i = 0; i < samples.size(); i++) {
+            assertThat(samples.getEpochMillis(i)).isEqualTo((i + 1) * 10L);
+            assertThat(samples.getValue(i)).isEqualTo(i + 1.0);
+        }
+    }
+
+    @Test
+    public void testBuild_duplicateTimes_allSamplesKeptInAddedOrder() {
+        SeriesSamples samples =
+                new SeriesSamples.Builder()
+                        .addSample(20, 1.0)
+                        .addSample(10, 2.0)
+                        .addSample(20, 3.0)
+                        .addSample(10, 4.0)
+                        .build();
+
+        assertThat(samples.size()).isEqualTo(4);
+        assertThat(samples.getEpochMillis(0)).isEqualTo(10);
+        assertThat(samples.getValue(0)).isEqualTo(2.0);
+        assertThat(samples.getValue(1)).isEqualTo(4.0);
+        assertThat(samples.getEpochMillis(2)).isEqualTo(20);
+        assertThat(samples.getValue(2)).isEqualTo(1.0);
+        assertThat(samples.getValue(3)).isEqualTo(3.0);
+    }
+
+    @Test
+    public void testBuild_sortedDuplicateTimes_allSamplesKept() {
+        SeriesSamples samples =
+                new SeriesSamples.Builder().addSample(10, 1.0).addSample(10, 2.0).build();
+
+        assertThat(samples.size()).isEqualTo(2);
+        assertThat(samples.getValue(0)).isEqualTo(1.0);
+        assertThat(samples.getValue(1)).isEqualTo(2.0);
+    }
+
+    @Test
+    public void testBuild_manySamples_growsAndSorts() {
+        SeriesSamples.Builder builder = new SeriesSamples.Builder(/* expectedSize= */ 1);
+        for (int i = 999; i >= 0; i--) {
+            builder.addSample(i, i);
+        }
+        SeriesSamples samples = builder.build();
+
+        assertThat(samples.size()).isEqualTo(1000);
+        for (int i = 0; i < samples.size(); i++) {
+            assertThat(samples.getEpochMillis(i)).isEqualTo(i);
+            assertThat(samples.getValue(i)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void testWriteToParcel_writeReadFromParcel_isIdentical() {
+        SeriesSamples samples =
+                new SeriesSamples.Builder().addSample(10, 1.5).addSample(20, 2.5).build();
+        Parcel parcel = Parcel.obtain();
+        samples.writeToParcel(parcel, /* intValues= */ false);
+        parcel.setDataPosition(0);
+
+        assertThat(SeriesSamples.readFromParcel(parcel, /* intValues= */ false))
+                .isEqualTo(samples);
+        parcel.recycle();
+    }
+
+    @Test
+    public void testHeartRateRecord_writeReadFromParcel_isIdentical() {
+        HeartRateRecordInternal record = buildHeartRateRecordInternal();
+        Parcel parcel = Parcel.obtain();
+        record.writeToParcel(parcel);
+        parcel.setDataPosition(0);
+
+        HeartRateRecordInternal restored = new HeartRateRecordInternal();
+        restored.populateUsing(parcel);
+
+        assertThat(restored.getSamples()).isEqualTo(record.getSamples());
+        parcel.recycle();
+    }
+
+    @Test
+    public void testHeartRateRecord_toExternalRecord_samplesOrderedByTime() {
+        HeartRateRecordInternal record = buildHeartRateRecordInternal();
+
+        HeartRateRecord external = record.toExternalRecord();
+
+        assertThat(external.getSamples()).hasSize(2);
+        assertThat(external.getSamples().get(0).getTime()).isEqualTo(Instant.ofEpochMilli(10));
+        assertThat(external.getSamples().get(0).getBeatsPerMinute()).isEqualTo(65);
+        assertThat(external.getSamples().get(1).getBeatsPerMinute()).isEqualTo(72);
+    }
+
+    private static HeartRateRecordInternal buildHeartRateRecordInternal() {
+        HeartRateRecordInternal record =
+                (HeartRateRecordInternal)
+                        new HeartRateRecordInternal()
+                                .setStartTime(0)
+                                .setEndTime(100)
+                                .setUuid(UUID.randomUUID())
+                                .setPackageName("android.healthconnect.unittests");
+        record.setSamples(
+                new SeriesSamples.Builder().addSample(50, 72).addSample(10, 65).build());
+        return record;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.healthconnect.internal.datatypes.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.health.connect.internal.datatypes.RecordInternal;
+import android.health.connect.internal.datatypes.utils.RecordMapper;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+public class RecordMapperTest {
+    @Test
+    public void testSupplierMap_coversEveryInternalRecordClass() {
+        RecordMapper recordMapper = RecordMapper.getInstance();
+
+        assertThat(recordMapper.getRecordIdToInternalRecordSupplierMap().keySet())
+                .containsExactlyElementsIn(
+                        recordMapper.getRecordIdToInternalRecordClassMap().keySet());
+    }
+
+    @Test
+    public void testSupplierMap_createsInstanceOfMappedClass() {
+        RecordMapper recordMapper = RecordMapper.getInstance();
+        Map<Integer, Class<? extends RecordInternal<?>>> classMap =
+                recordMapper.getRecordIdToInternalRecordClassMap();
+
+        for (Map.Entry<Integer, Supplier<? extends RecordInternal<?>>> entry :
+                recordMapper.getRecordIdToInternalRecordSupplierMap().entrySet()) {
+            RecordInternal<?> first = entry.getValue().get();
+            RecordInternal<?> second = entry.getValue().get();
+
+            assertThat(first.getClass()).isEqualTo(classMap.get(entry.getKey()));
+            assertThat(first).isNotSameInstanceAs(second);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+public class HealthConnectRoundRobinSchedulerTest {
+    private static final int UID_1 = 10001;
+    private static final int UID_2 = 10002;
+
+    private final HealthConnectRoundRobinScheduler mScheduler =
+            new HealthConnectRoundRobinScheduler();
+    private final List<String> mRunTasks = new ArrayList<>();
+
+    @Test
+    public void testGetNextTask_equalCosts_alternatesUids() {
+        addTasks(UID_1, "a", 2, HealthConnectRoundRobinScheduler.QUANTUM);
+        addTasks(UID_2, "b", 2, HealthConnectRoundRobinScheduler.QUANTUM);
+
+        runAllTasks();
+
+        assertThat(mRunTasks).containsExactly("a0", "b0", "a1", "b1").inOrder();
+    }
+
+    @Test
+    public void testGetNextTask_expensiveTasks_cheapTasksRunFirst() {
+        long cost = HealthConnectRoundRobinScheduler.QUANTUM;
+        addTasks(UID_1, "expensive", 2, 3 * cost);
+        addTasks(UID_2, "cheap", 6, cost);
+
+        runAllTasks();
+
+        assertThat(mRunTasks)
+                .containsExactly(
+                        "cheap0",
+                        "cheap1",
+                        "expensive0",
+                        "cheap2",
+                        "cheap3",
+                        "cheap4",
+                        "expensive1",
+                        "cheap5")
+                .inOrder();
+    }
+
+    @Test
+    public void testGetNextTask_noTasks_returnsNull() {
+        assertThat(mScheduler.getNextTask()).isNull();
+
+        addTasks(UID_1, "a", 1, 1);
+        runAllTasks();
+
+        assertThat(mScheduler.getNextTask()).isNull();
+    }
+
+    @Test
+    public void testGetNextTask_recordsLatencyPerUid() {
+        addTasks(UID_1, "a", 3, 1);
+
+        runAllTasks();
+
+        HealthConnectRoundRobinScheduler.LatencyHistogram histogram =
+                mScheduler.getLatencyHistogram(UID_1);
+        long count = 0;
+        for (int i = 0; i < 18; i++) {
+            count += histogram.getCount(i);
+        }
+        assertThat(count).isEqualTo(3);
+        assertThat(mScheduler.getLatencyHistogram(UID_2)).isNull();
+    }
+
+    @Test
+    public void testAddTask_maxPendingTasksReached_throws() {
+        mScheduler.setMaxPendingTasks(2);
+        addTasks(UID_1, "a", 2, 1);
+
+        assertThrows(RejectedExecutionException.class, () -> addTasks(UID_2, "b", 1, 1));
+
+        mScheduler.getNextTask().run();
+        addTasks(UID_2, "b", 1, 1);
+    }
+
+    @Test
+    public void testKillTasksAndPauseScheduler_dropsTasks() {
+        addTasks(UID_1, "a", 2, 1);
+
+        mScheduler.killTasksAndPauseScheduler();
+        addTasks(UID_1, "b", 1, 1);
+
+        assertThat(mScheduler.getNextTask()).isNull();
+        mScheduler.resume();
+        addTasks(UID_1, "c", 1, 1);
+        runAllTasks();
+        assertThat(mRunTasks).containsExactly("c0");
+    }
+
+    private void addTasks(int uid, String name, int count, long cost) {
+        for (int i = 0; i < count; i++) {
+            String taskName = name + i;
+            mScheduler.addTask(uid, () -> mRunTasks.add(taskName), cost);
+        }
+    }
+
+    private void runAllTasks() {
+        Runnable task;
+        while ((task = mScheduler.getNextTask()) != null) {
+            task.run();
+        }
+    }
+}
@@ -36,7 +36,9 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RunWith(AndroidJUnit4.class)
 public class HealthConnectThreadSchedulerTest {
@@ -86,7 +88,16 @@ public class HealthConnectThreadSchedulerTest {
                         throw new RuntimeException();
                     }
                 });
-        HealthConnectThreadScheduler.schedule(mContext, () -> {}, Process.myUid(), false);
+        HealthConnectThreadScheduler.schedule(
+                mContext,
+                () -> {},
+                Process.myUid(),
+                false,
+                /* isReadTask= */ false,
+                TaskCostEstimator.DEFAULT_COST,
+                e -> {
+                    throw e;
+                });
         TestUtils.waitForTaskToFinishSuccessfully(
                 () -> {
                     if (mBackgroundTaskScheduler.getCompletedTaskCount()
@@ -103,7 +114,16 @@ public class HealthConnectThreadSchedulerTest {
                 ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
         when(mActivityManager.getRunningAppProcesses()).thenReturn(List.of(runningAppProcessInfo));
 
-        HealthConnectThreadScheduler.schedule(mMockContext, () -> {}, Process.myUid(), false);
+        HealthConnectThreadScheduler.schedule(
+                mMockContext,
+                () -> {},
+                Process.myUid(),
+                false,
+                /* isReadTask= */ false,
+                TaskCostEstimator.DEFAULT_COST,
+                e -> {
+                    throw e;
+                });
         TestUtils.waitForTaskToFinishSuccessfully(
                 () -> {
                     if (mForegroundTaskScheduler.getCompletedTaskCount()
@@ -113,6 +133,108 @@ public class HealthConnectThreadSchedulerTest {
                 });
     }
 
+    @Test
+    public void testHealthConnectScheduler_foregroundReadTask_runsOnReadExecutor()
+            throws Exception {
+        ThreadPoolExecutor foregroundReadTaskScheduler =
+                HealthConnectThreadScheduler.sForegroundReadExecutor;
+        long foregroundReadTaskSchedulerCompletedJobs =
+                foregroundReadTaskScheduler.getCompletedTaskCount();
+        mockUidInForeground();
+
+        HealthConnectThreadScheduler.schedule(
+                mMockContext,
+                () -> {},
+                Process.myUid(),
+                false,
+                /* isReadTask= */ true,
+                TaskCostEstimator.DEFAULT_COST,
+                e -> {
+                    throw e;
+                });
+
+        TestUtils.waitForTaskToFinishSuccessfully(
+                () -> {
+                    if (foregroundReadTaskScheduler.getCompletedTaskCount()
+                            != foregroundReadTaskSchedulerCompletedJobs + 1) {
+                        throw new RuntimeException();
+                    }
+                });
+        Truth.assertThat(mForegroundTaskScheduler.getCompletedTaskCount())
+                .isEqualTo(mForegroundTaskSchedulerCompletedJobs);
+    }
+
+    @Test
+    public void testHealthConnectScheduler_queueFull_taskRejected() throws Exception {
+        mockUidInForeground();
+        CountDownLatch blockingTaskStarted = new CountDownLatch(1);
+        CountDownLatch releaseBlockingTask = new CountDownLatch(1);
+        AtomicInteger rejectedTasks = new AtomicInteger();
+        HealthConnectThreadScheduler.updateThreadPoolValues(
+                1, 1, 1, 1, /* maxClientQueueSize= */ 1);
+        try {
+            HealthConnectThreadScheduler.schedule(
+                    mMockContext,
+                    () -> {
+                        blockingTaskStarted.countDown();
+                        try {
+                            releaseBlockingTask.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    },
+                    Process.myUid(),
+                    false,
+                    /* isReadTask= */ false,
+                    TaskCostEstimator.DEFAULT_COST,
+                    e -> rejectedTasks.incrementAndGet());
+            blockingTaskStarted.await();
+            for (int i = 0; i < 2; i++) {
+                HealthConnectThreadScheduler.schedule(
+                        mMockContext,
+                        () -> {},
+                        Process.myUid(),
+                        false,
+                        /* isReadTask= */ false,
+                        TaskCostEstimator.DEFAULT_COST,
+                        e -> rejectedTasks.incrementAndGet());
+            }
+
+            Truth.assertThat(rejectedTasks.get()).isEqualTo(1);
+        } finally {
+            releaseBlockingTask.countDown();
+            HealthConnectThreadScheduler.updateThreadPoolValues(
+                    HealthConnectThreadScheduler.DEFAULT_INTERNAL_BACKGROUND_POOL_SIZE,
+                    HealthConnectThreadScheduler.DEFAULT_CONTROLLER_POOL_SIZE,
+                    HealthConnectThreadScheduler.DEFAULT_READ_POOL_SIZE,
+                    HealthConnectThreadScheduler.DEFAULT_READ_POOL_SIZE,
+                    HealthConnectThreadScheduler.DEFAULT_MAX_CLIENT_QUEUE_SIZE);
+        }
+    }
+
+    @Test
+    public void testUpdateThreadPoolValues_resizesReadPools() {
+        HealthConnectThreadScheduler.updateThreadPoolValues(1, 1, 4, 3, 10);
+        try {
+            Truth.assertThat(
+                            HealthConnectThreadScheduler.sForegroundReadExecutor
+                                    .getMaximumPoolSize())
+                    .isEqualTo(4);
+            Truth.assertThat(
+                            HealthConnectThreadScheduler.sBackgroundReadExecutor
+                                    .getMaximumPoolSize())
+                    .isEqualTo(3);
+            Truth.assertThat(mForegroundTaskScheduler.getMaximumPoolSize()).isEqualTo(1);
+        } finally {
+            HealthConnectThreadScheduler.updateThreadPoolValues(
+                    HealthConnectThreadScheduler.DEFAULT_INTERNAL_BACKGROUND_POOL_SIZE,
+                    HealthConnectThreadScheduler.DEFAULT_CONTROLLER_POOL_SIZE,
+                    HealthConnectThreadScheduler.DEFAULT_READ_POOL_SIZE,
+                    HealthConnectThreadScheduler.DEFAULT_READ_POOL_SIZE,
+                    HealthConnectThreadScheduler.DEFAULT_MAX_CLIENT_QUEUE_SIZE);
+        }
+    }
+
     @Test
     public void testHealthConnectScheduler_runningAppProcessNull() throws Exception {
         when(mMockContext.getSystemService(ActivityManager.class)).thenReturn(mActivityManager);
@@ -128,6 +250,16 @@ public class HealthConnectThreadSchedulerTest {
                 });
     }
 
+    private void mockUidInForeground() {
+        when(mMockContext.getSystemService(ActivityManager.class)).thenReturn(mActivityManager);
+        ActivityManager.RunningAppProcessInfo runningAppProcessInfo =
+                new ActivityManager.RunningAppProcessInfo();
+        runningAppProcessInfo.uid = Process.myUid();
+        runningAppProcessInfo.importance =
+                ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+        when(mActivityManager.getRunningAppProcesses()).thenReturn(List.of(runningAppProcessInfo));
+    }
+
     @Test
     public void testHealthConnectSchedulerClear() {
         HealthConnectThreadScheduler.resetThreadPools();
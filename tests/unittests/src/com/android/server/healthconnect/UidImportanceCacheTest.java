@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_CACHED;
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_GONE;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.ActivityManager;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class UidImportanceCacheTest {
+    private static final int UID = 10123;
+
+    @Mock private ActivityManager mActivityManager;
+    private UidImportanceCache mUidImportanceCache;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mUidImportanceCache = new UidImportanceCache(mActivityManager);
+    }
+
+    @Test
+    public void testRegister_listensForForegroundChanges() {
+        mUidImportanceCache.register();
+
+        verify(mActivityManager)
+                .addOnUidImportanceListener(mUidImportanceCache, IMPORTANCE_FOREGROUND);
+    }
+
+    @Test
+    public void testIsUidInForeground_notReported_scansRunningProcessesOnce() {
+        when(mActivityManager.getRunningAppProcesses())
+                .thenReturn(List.of(createProcessInfo(IMPORTANCE_FOREGROUND)));
+
+        assertThat(mUidImportanceCache.isUidInForeground(UID)).isTrue();
+        assertThat(mUidImportanceCache.isUidInForeground(UID)).isTrue();
+        verify(mActivityManager, times(1)).getRunningAppProcesses();
+    }
+
+    @Test
+    public void testIsUidInForeground_importanceChanged_returnsReportedState() {
+        when(mActivityManager.getRunningAppProcesses())
+                .thenReturn(List.of(createProcessInfo(IMPORTANCE_FOREGROUND)));
+        assertThat(mUidImportanceCache.isUidInForeground(UID)).isTrue();
+
+        mUidImportanceCache.onUidImportance(UID, IMPORTANCE_CACHED);
+        assertThat(mUidImportanceCache.isUidInForeground(UID)).isFalse();
+
+        mUidImportanceCache.onUidImportance(UID, IMPORTANCE_FOREGROUND);
+        assertThat(mUidImportanceCache.isUidInForeground(UID)).isTrue();
+
+        mUidImportanceCache.onUidImportance(UID, IMPORTANCE_GONE);
+        assertThat(mUidImportanceCache.isUidInForeground(UID)).isFalse();
+        verify(mActivityManager, times(1)).getRunningAppProcesses();
+    }
+
+    @Test
+    public void testIsUidInForeground_reportedBeforeLookup_doesNotScan() {
+        mUidImportanceCache.onUidImportance(UID, IMPORTANCE_FOREGROUND);
+
+        assertThat(mUidImportanceCache.isUidInForeground(UID)).isTrue();
+        verify(mActivityManager, never()).getRunningAppProcesses();
+    }
+
+    @Test
+    public void testIsUidInForeground_runningAppProcessesNull_returnsFalse() {
+        when(mActivityManager.getRunningAppProcesses()).thenReturn(null);
+
+        assertThat(mUidImportanceCache.isUidInForeground(UID)).isFalse();
+    }
+
+    private static ActivityManager.RunningAppProcessInfo createProcessInfo(int importance) {
+        ActivityManager.RunningAppProcessInfo info = new ActivityManager.RunningAppProcessInfo();
+        info.uid = UID;
+        info.importance = importance;
+        return info;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.backuprestore;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MergePipelineTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void testClose_writesAllPagesInOrder() {
+        List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+        MergePipeline<Integer> pipeline =
+                new MergePipeline<>(
+                        /* maxQueuedPages= */ 2,
+                        /* batchSize= */ 3,
+                        page -> 1,
+                        pages -> batches.add(new ArrayList<>(pages)));
+
+        for (int i = 0; i < 100; i++) {
+            pipeline.put(i);
+        }
+        pipeline.close();
+
+        List<Integer> written = new ArrayList<>();
+        for (List<Integer> batch : batches) {
+            assertThat(batch.size()).isAtMost(3);
+            written.addAll(batch);
+        }
+        assertThat(written).hasSize(100);
+        assertThat(written).isInOrder();
+        assertThat(pipeline.getMetrics()).contains("records=100");
+    }
+
+    @Test
+    public void testPut_queueFull_waitsForWriter() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch canWrite = new CountDownLatch(1);
+        MergePipeline<Integer> pipeline =
+                new MergePipeline<>(
+                        /* maxQueuedPages= */ 1,
+                        /* batchSize= */ 1,
+                        page -> 1,
+                        pages -> {
+                            writing.countDown();
+                            await(canWrite);
+                        });
+        pipeline.put(0);
+        assertThat(writing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        // Fills the queue while the writer is busy with the first page.
+        pipeline.put(1);
+
+        CountDownLatch put = new CountDownLatch(1);
+        Thread thread =
+                new Thread(
+                        () -> {
+                            pipeline.put(2);
+                            put.countDown();
+                        });
+        thread.start();
+        assertThat(put.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        canWrite.countDown();
+
+        assertThat(put.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        thread.join();
+        pipeline.close();
+        assertThat(pipeline.getMetrics()).contains("records=3");
+    }
+
+    @Test
+    public void testRunAfterWrites_runsAfterEarlierPagesAreWritten() {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        MergePipeline<Integer> pipeline =
+                new MergePipeline<>(
+                        /* maxQueuedPages= */ 4,
+                        /* batchSize= */ 100,
+                        page -> 1,
+                        pages -> pages.forEach(page -> events.add("page " + page)));
+
+        pipeline.put(0);
+        pipeline.put(1);
+        pipeline.runAfterWrites(() -> events.add("task"));
+        pipeline.put(2);
+        pipeline.close();
+
+        assertThat(events).containsExactly("page 0", "page 1", "task", "page 2").inOrder();
+    }
+
+    @Test
+    public void testClose_writerFailed_throwsFailure() {
+        IllegalStateException failure = new IllegalStateException("write failed");
+        MergePipeline<Integer> pipeline =
+                new MergePipeline<>(
+                        /* maxQueuedPages= */ 1,
+                        /* batchSize= */ 1,
+                        page -> 1,
+                        pages -> {
+                            throw failure;
+                        });
+
+        pipeline.put(0);
+
+        assertThat(assertThrows(IllegalStateException.class, pipeline::close))
+                .isSameInstanceAs(failure);
+    }
+
+    @Test
+    public void testPut_writerFailed_throwsFailureOnlyFromPut() {
+        IllegalStateException failure = new IllegalStateException("write failed");
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        MergePipeline<Integer> pipeline =
+                new MergePipeline<>(
+                        /* maxQueuedPages= */ 1,
+                        /* batchSize= */ 1,
+                        page -> 1,
+                        pages -> {
+                            if (pages.contains(1)) {
+                                throw failure;
+                            }
+                            written.addAll(pages);
+                        });
+
+        // Puts never block forever, even though the writer stopped writing.
+        assertThat(
+                        assertThrows(
+                                IllegalStateException.class,
+                                () -> {
+                                    for (int i = 0; i < 1000; i++) {
+                                        pipeline.put(i);
+                                    }
+                                }))
+                .isSameInstanceAs(failure);
+
+        pipeline.close();
+        assertThat(written).containsExactly(0);
+    }
+
+    @Test
+    public void testTryWithResources_writerFailed_throwsFailureOnce() {
+        IllegalStateException failure = new IllegalStateException("write failed");
+
+        IllegalStateException thrown =
+                assertThrows(
+                        IllegalStateException.class,
+                        () -> {
+                            try (MergePipeline<Integer> pipeline =
+                                    new MergePipeline<>(
+                                            /* maxQueuedPages= */ 1,
+                                            /* batchSize= */ 1,
+                                            page -> 1,
+                                            pages -> {
+                                                throw failure;
+                                            })) {
+                                for (int i = 0; i < 1000; i++) {
+                                    pipeline.put(i);
+                                }
+                            }
+                        });
+
+        assertThat(thrown).isSameInstanceAs(failure);
+        assertThat(thrown.getSuppressed()).isEmpty();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
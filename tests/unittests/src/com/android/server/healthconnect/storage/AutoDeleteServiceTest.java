@@ -16,6 +16,11 @@
 
 package healthconnect.storage;
 
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -26,12 +31,14 @@ import android.util.ArrayMap;
 import androidx.test.runner.AndroidJUnit4;
 
 import com.android.dx.mockito.inline.extended.ExtendedMockito;
+import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
 import com.android.server.healthconnect.storage.AutoDeleteService;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ActiveCaloriesBurnedRecordHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ActivityDateHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.AppRecordTypeHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.BasalBodyTemperatureRecordHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.BasalMetabolicRateRecordHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.BloodGlucoseRecordHelper;
@@ -102,6 +109,8 @@ public class AutoDeleteServiceTest {
 
     @Mock private AppInfoHelper mAppInfoHelper;
     @Mock private ActivityDateHelper mActivityDateHelper;
+    @Mock private AppRecordTypeHelper mAppRecordTypeHelper;
+    @Mock private HealthConnectDeviceConfigManager mDeviceConfigManager;
     private MockitoSession mStaticMockSession;
 
     @Before
@@ -113,6 +122,8 @@ public class AutoDeleteServiceTest {
                         .mockStatic(RecordHelperProvider.class)
                         .mockStatic(AppInfoHelper.class)
                         .mockStatic(ActivityDateHelper.class)
+                        .mockStatic(AppRecordTypeHelper.class)
+                        .mockStatic(HealthConnectDeviceConfigManager.class)
                         .startMocking();
 
         MockitoAnnotations.initMocks(this);
@@ -140,6 +151,7 @@ public class AutoDeleteServiceTest {
         when(TransactionManager.getInitialisedInstance()).thenReturn(mTransactionManager);
         when(AppInfoHelper.getInstance()).thenReturn(mAppInfoHelper);
         when(ActivityDateHelper.getInstance()).thenReturn(mActivityDateHelper);
+        when(AppRecordTypeHelper.getInstance()).thenReturn(mAppRecordTypeHelper);
         when(mPreferenceHelper.getPreference(AUTO_DELETE_DURATION_RECORDS_KEY)).thenReturn(null);
 
         AutoDeleteService.startAutoDelete();
@@ -152,7 +164,8 @@ public class AutoDeleteServiceTest {
                                         checkTableNames_getPreferenceReturnNull(
                                                 deleteTableRequestsList)));
         verify(mAppInfoHelper).syncAppInfoRecordTypesUsed();
-        verify(mActivityDateHelper).reSyncForAllRecords();
+        verify(mActivityDateHelper).deleteDatesWithoutRecords();
+        verify(mAppRecordTypeHelper).deleteAppsWithoutRecords();
     }
 
     @Test
@@ -162,40 +175,87 @@ public class AutoDeleteServiceTest {
         when(RecordHelperProvider.getInstance()).thenReturn(mRecordHelperProvider);
         when(AppInfoHelper.getInstance()).thenReturn(mAppInfoHelper);
         when(ActivityDateHelper.getInstance()).thenReturn(mActivityDateHelper);
+        when(AppRecordTypeHelper.getInstance()).thenReturn(mAppRecordTypeHelper);
+        when(HealthConnectDeviceConfigManager.getInitialisedInstance())
+                .thenReturn(mDeviceConfigManager);
 
         when(mPreferenceHelper.getPreference(AUTO_DELETE_DURATION_RECORDS_KEY))
                 .thenReturn(String.valueOf(30));
         when(mRecordHelperProvider.getRecordHelpers()).thenReturn(getRecordHelpers());
+        when(mDeviceConfigManager.getAutoDeleteChunkSize()).thenReturn(1000);
 
         AutoDeleteService.startAutoDelete();
 
-        verify(mTransactionManager, Mockito.times(3))
+        verify(mTransactionManager, Mockito.times(2))
                 .deleteWithoutChangeLogs(
                         Mockito.argThat(
                                 (List<DeleteTableRequest> deleteTableRequestsList) ->
-                                        checkTableNames_getPreferenceReturnNonNull(
+                                        checkTableNames_getPreferenceReturnNull(
                                                 deleteTableRequestsList)));
+        verify(mTransactionManager, Mockito.times(getRecordHelpers().size()))
+                .deleteChunkWithoutChangeLogs(
+                        Mockito.argThat(
+                                (DeleteTableRequest request) ->
+                                        getTableNamesForDeletingStaleRecordEntries()
+                                                .contains(request.getTableName())),
+                        Mockito.eq(1000));
+        verify(mPreferenceHelper, never()).removeKey(any());
         verify(mAppInfoHelper).syncAppInfoRecordTypesUsed();
-        verify(mActivityDateHelper).reSyncForAllRecords();
+        verify(mActivityDateHelper).deleteDatesWithoutRecords();
+        verify(mAppRecordTypeHelper).deleteAppsWithoutRecords();
     }
 
-    private boolean checkTableNames_getPreferenceReturnNull(List<DeleteTableRequest> list) {
-        Set<String> tableNames = new HashSet<>();
-        for (DeleteTableRequest request : list) {
-            tableNames.add(request.getTableName());
-        }
-        return (tableNames.equals(getTableNamesForDeletingStaleChangeLogEntries())
-                || tableNames.equals(getTableNamesForDeletingStaleAccessLogsEntries()));
+    @Test
+    public void testStartAutoDelete_recordsDeletedInChunksFromCheckpoint() {
+        StepsRecordHelper stepsRecordHelper = new StepsRecordHelper();
+        String checkpointKey =
+                "auto_delete_last_row_id_"
+                        + stepsRecordHelper.getDeleteRequestForAutoDelete(30).getTableName();
+        when(PreferenceHelper.getInstance()).thenReturn(mPreferenceHelper);
+        when(TransactionManager.getInitialisedInstance()).thenReturn(mTransactionManager);
+        when(RecordHelperProvider.getInstance()).thenReturn(mRecordHelperProvider);
+        when(AppInfoHelper.getInstance()).thenReturn(mAppInfoHelper);
+        when(ActivityDateHelper.getInstance()).thenReturn(mActivityDateHelper);
+        when(AppRecordTypeHelper.getInstance()).thenReturn(mAppRecordTypeHelper);
+        when(HealthConnectDeviceConfigManager.getInitialisedInstance())
+                .thenReturn(mDeviceConfigManager);
+
+        when(mPreferenceHelper.getPreference(AUTO_DELETE_DURATION_RECORDS_KEY))
+                .thenReturn(String.valueOf(30));
+        when(mPreferenceHelper.getPreference(checkpointKey)).thenReturn("10");
+        when(mRecordHelperProvider.getRecordHelpers())
+                .thenReturn(Map.of(RecordTypeIdentifier.RECORD_TYPE_STEPS, stepsRecordHelper));
+        when(mDeviceConfigManager.getAutoDeleteChunkSize()).thenReturn(2);
+        List<Object> chunkStartRowIds = new ArrayList<>();
+        long[] chunkEndRowIds = {20, 25};
+        doAnswer(
+                        invocation -> {
+                            DeleteTableRequest request = invocation.getArgument(0);
+                            List<Object> bindArgs = new ArrayList<>();
+                            request.getChunkEndCommand(/* chunkSize= */ 2, bindArgs);
+                            chunkStartRowIds.add(bindArgs.get(bindArgs.size() - 1));
+                            int chunk = chunkStartRowIds.size() - 1;
+                            request.setLastRowId(chunkEndRowIds[chunk]);
+                            return chunk == 0 ? 2 : 1;
+                        })
+                .when(mTransactionManager)
+                .deleteChunkWithoutChangeLogs(any(), anyInt());
+
+        AutoDeleteService.startAutoDelete();
+
+        assertThat(chunkStartRowIds).containsExactly(10L, 20L).inOrder();
+        verify(mPreferenceHelper).insertOrReplacePreference(checkpointKey, "20");
+        verify(mPreferenceHelper).insertOrReplacePreference(checkpointKey, "25");
+        verify(mPreferenceHelper).removeKey(checkpointKey);
     }
 
-    private boolean checkTableNames_getPreferenceReturnNonNull(List<DeleteTableRequest> list) {
+    private boolean checkTableNames_getPreferenceReturnNull(List<DeleteTableRequest> list) {
         Set<String> tableNames = new HashSet<>();
         for (DeleteTableRequest request : list) {
             tableNames.add(request.getTableName());
         }
         return (tableNames.equals(getTableNamesForDeletingStaleChangeLogEntries())
-                || tableNames.equals(getTableNamesForDeletingStaleAccessLogsEntries())
-                || tableNames.equals(getTableNamesForDeletingStaleRecordEntries()));
+                || tableNames.equals(getTableNamesForDeletingStaleAccessLogsEntries()));
     }
 
     private Map<Integer, RecordHelper<?>> getRecordHelpers() {
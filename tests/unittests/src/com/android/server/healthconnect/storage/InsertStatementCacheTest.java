@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class InsertStatementCacheTest {
+    private static final String PARENT_TABLE = "parent_table";
+    private static final String CHILD_TABLE = "child_table";
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL(
+                "CREATE TABLE "
+                        + PARENT_TABLE
+                        + " (row_id INTEGER PRIMARY KEY AUTOINCREMENT, uuid TEXT UNIQUE)");
+        mDb.execSQL(
+                "CREATE TABLE "
+                        + CHILD_TABLE
+                        + " (parent_key INTEGER, epoch_millis INTEGER, value REAL)");
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void testInsert_returnsRowIdAndReusesLayout() {
+        try (InsertStatementCache statements = new InsertStatementCache(mDb)) {
+            long first =
+                    statements.insert(
+                            PARENT_TABLE, parentValues("a"), SQLiteDatabase.CONFLICT_NONE);
+            long second =
+                    statements.insert(
+                            PARENT_TABLE, parentValues("b"), SQLiteDatabase.CONFLICT_NONE);
+
+            assertThat(first).isEqualTo(1);
+            assertThat(second).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testInsert_conflictFail_throws() {
+        try (InsertStatementCache statements = new InsertStatementCache(mDb)) {
+            statements.insert(PARENT_TABLE, parentValues("a"), SQLiteDatabase.CONFLICT_FAIL);
+
+            assertThrows(
+                    SQLiteConstraintException.class,
+                    () ->
+                            statements.insert(
+                                    PARENT_TABLE,
+                                    parentValues("a"),
+                                    SQLiteDatabase.CONFLICT_FAIL));
+        }
+    }
+
+    @Test
+    public void testInsert_conflictIgnore_returnsInvalidRowId() {
+        try (InsertStatementCache statements = new InsertStatementCache(mDb)) {
+            statements.insert(PARENT_TABLE, parentValues("a"), SQLiteDatabase.CONFLICT_IGNORE);
+
+            assertThat(
+                            statements.insert(
+                                    PARENT_TABLE,
+                                    parentValues("a"),
+                                    SQLiteDatabase.CONFLICT_IGNORE))
+                    .isEqualTo(-1);
+        }
+    }
+
+    @Test
+    public void testInsertChildren_moreRowsThanOneStatement_insertsAll() {
+        int numberOfChildren = InsertStatementCache.MAX_ROWS_PER_STATEMENT * 2 + 7;
+        List<UpsertTableRequest> children = new ArrayList<>();
+        for (int i = 0; i < numberOfChildren; i++) {
+            ContentValues values = new ContentValues();
+            values.put("epoch_millis", (long) i);
+            values.put("value", i * 1.5);
+            children.add(
+                    new UpsertTableRequest(CHILD_TABLE, values)
+                            .setParentColumnForChildTables("parent_key"));
+        }
+
+        try (InsertStatementCache statements = new InsertStatementCache(mDb)) {
+            statements.insertChildren(children, /* parentRowId= */ 42);
+        }
+
+        try (Cursor cursor =
+                mDb.rawQuery(
+                        "SELECT parent_key, epoch_millis, value FROM "
+                                + CHILD_TABLE
+                                + " ORDER BY epoch_millis",
+                        null)) {
+            assertThat(cursor.getCount()).isEqualTo(numberOfChildren);
+            int i = 0;
+            while (cursor.moveToNext()) {
+                assertThat(cursor.getLong(0)).isEqualTo(42);
+                assertThat(cursor.getLong(1)).isEqualTo(i);
+                assertThat(cursor.getDouble(2)).isEqualTo(i * 1.5);
+                i++;
+            }
+        }
+    }
+
+    @Test
+    public void testInsertChildren_differentLayouts_insertsAll() {
+        ContentValues withValue = new ContentValues();
+        withValue.put("epoch_millis", 1L);
+        withValue.put("value", 2.0);
+        ContentValues withoutValue = new ContentValues();
+        withoutValue.put("epoch_millis", 3L);
+
+        try (InsertStatementCache statements = new InsertStatementCache(mDb)) {
+            statements.insertChildren(
+                    List.of(
+                            new UpsertTableRequest(CHILD_TABLE, withValue)
+                                    .setParentColumnForChildTables("parent_key"),
+                            new UpsertTableRequest(CHILD_TABLE, withoutValue)
+                                    .setParentColumnForChildTables("parent_key")),
+                    /* parentRowId= */ 1);
+        }
+
+        try (Cursor cursor =
+                mDb.rawQuery(
+                        "SELECT value FROM " + CHILD_TABLE + " ORDER BY epoch_millis", null)) {
+            assertThat(cursor.getCount()).isEqualTo(2);
+            cursor.moveToFirst();
+            assertThat(cursor.getDouble(0)).isEqualTo(2.0);
+            cursor.moveToNext();
+            assertThat(cursor.isNull(0)).isTrue();
+        }
+    }
+
+    private static ContentValues parentValues(String uuid) {
+        ContentValues values = new ContentValues();
+        values.put("uuid", uuid);
+        return values;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ReadConnectionPoolTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void testAcquire_nestedOnSameThread_usesOneConnection() throws Exception {
+        ReadConnectionPool pool = new ReadConnectionPool(/* size= */ 1);
+
+        pool.acquire();
+        pool.acquire();
+        pool.release();
+        // The outer acquire still holds the only connection.
+        assertThat(acquireOnOtherThread(pool).await(200, TimeUnit.MILLISECONDS)).isFalse();
+        pool.release();
+
+        assertThat(dump(pool)).contains("in use=0/1");
+    }
+
+    @Test
+    public void testAcquire_poolFull_waitsForRelease() throws Exception {
+        ReadConnectionPool pool = new ReadConnectionPool(/* size= */ 1);
+        pool.acquire();
+
+        CountDownLatch acquired = acquireOnOtherThread(pool);
+        assertThat(acquired.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        pool.release();
+
+        assertThat(acquired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        assertThat(dump(pool)).contains("acquired=2 waited=1");
+    }
+
+    @Test
+    public void testSetSize_larger_wakesWaitingReads() throws Exception {
+        ReadConnectionPool pool = new ReadConnectionPool(/* size= */ 1);
+        pool.acquire();
+
+        CountDownLatch acquired = acquireOnOtherThread(pool);
+        assertThat(acquired.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        pool.setSize(2);
+
+        assertThat(acquired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        pool.release();
+    }
+
+    @Test
+    public void testSetSize_belowOne_ignored() {
+        ReadConnectionPool pool = new ReadConnectionPool(/* size= */ 3);
+
+        pool.setSize(0);
+
+        assertThat(dump(pool)).contains("in use=0/3");
+    }
+
+    @Test
+    public void testRelease_withoutAcquire_throws() {
+        ReadConnectionPool pool = new ReadConnectionPool(/* size= */ 1);
+
+        assertThrows(IllegalStateException.class, pool::release);
+    }
+
+    /** Acquires a connection on a new thread, and keeps it. */
+    private static CountDownLatch acquireOnOtherThread(ReadConnectionPool pool) {
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread =
+                new Thread(
+                        () -> {
+                            pool.acquire();
+                            acquired.countDown();
+                        });
+        thread.setDaemon(true);
+        thread.start();
+        return acquired;
+    }
+
+    private static String dump(ReadConnectionPool pool) {
+        StringWriter writer = new StringWriter();
+        pool.dump(new PrintWriter(writer));
+        return writer.toString();
+    }
+}
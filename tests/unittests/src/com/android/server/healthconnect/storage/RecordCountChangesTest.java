@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEART_RATE;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.server.healthconnect.storage.datatypehelpers.ActivityDateHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.AppRecordTypeHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.HeartRateRecordHelper;
+import com.android.server.healthconnect.storage.request.DeleteTableRequest;
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RecordCountChangesTest {
+    private static final String RECORD_TABLE_NAME = "heart_rate_record_table";
+
+    private final HeartRateRecordHelper mHelper = new HeartRateRecordHelper();
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        HealthConnectDatabase.createTable(
+                mDb, ActivityDateHelper.getInstance().getCreateTableRequest());
+        HealthConnectDatabase.createTable(
+                mDb, AppRecordTypeHelper.getInstance().getCreateTableRequest());
+        mDb.execSQL(
+                "CREATE TABLE "
+                        + RECORD_TABLE_NAME
+                        + " (local_date INTEGER, app_info_id INTEGER, start_time INTEGER)");
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void testWriteTo_insertedRecords_countedPerDateAndApp() {
+        RecordCountChanges countChanges = new RecordCountChanges();
+        countChanges.onRecordInserted(createRequest(/* localDate= */ 1, /* appInfoId= */ 10));
+        countChanges.onRecordInserted(createRequest(/* localDate= */ 1, /* appInfoId= */ 11));
+        countChanges.onRecordInserted(createRequest(/* localDate= */ 2, /* appInfoId= */ 10));
+        countChanges.writeTo(mDb);
+        countChanges.onRecordInserted(createRequest(/* localDate= */ 2, /* appInfoId= */ 10));
+        countChanges.writeTo(mDb);
+
+        assertThat(readCounts("activity_date_table", "epoch_days")).containsExactly(1L, 2L, 2L, 2L);
+        assertThat(readCounts("app_record_type_table", "app_info_id"))
+                .containsExactly(10L, 3L, 11L, 1L);
+    }
+
+    @Test
+    public void testWriteTo_replacedRecord_countMovedToNewDate() {
+        RecordCountChanges countChanges = new RecordCountChanges();
+        countChanges.onRecordInserted(createRequest(/* localDate= */ 1, /* appInfoId= */ 10));
+        countChanges.writeTo(mDb);
+
+        mDb.execSQL("INSERT INTO " + RECORD_TABLE_NAME + " VALUES (1, 10, 0)");
+        try (Cursor cursor = mDb.rawQuery("SELECT * FROM " + RECORD_TABLE_NAME, null)) {
+            cursor.moveToFirst();
+            countChanges.onRecordReplaced(
+                    createRequest(/* localDate= */ 3, /* appInfoId= */ 10), cursor);
+        }
+        countChanges.writeTo(mDb);
+
+        assertThat(readCounts("activity_date_table", "epoch_days")).containsExactly(1L, 0L, 3L, 1L);
+        assertThat(readCounts("app_record_type_table", "app_info_id")).containsExactly(10L, 1L);
+    }
+
+    @Test
+    public void testWriteTo_deletedRecords_uncountedUsingDeleteFilter() {
+        RecordCountChanges countChanges = new RecordCountChanges();
+        long[][] records = {{1, 10, 100}, {1, 10, 200}, {2, 10, 300}, {2, 11, 400}};
+        for (long[] record : records) {
+            mDb.execSQL(
+                    "INSERT INTO " + RECORD_TABLE_NAME + " VALUES (?, ?, ?)",
+                    new Object[] {record[0], record[1], record[2]});
+            countChanges.onRecordInserted(createRequest(record[0], record[1]));
+        }
+        countChanges.writeTo(mDb);
+
+        DeleteTableRequest deleteRequest =
+                new DeleteTableRequest(RECORD_TABLE_NAME, RECORD_TYPE_HEART_RATE)
+                        .setTimeFilter("start_time", 150, 350);
+        List<Object> bindArgs = new ArrayList<>();
+        String countCommand =
+                deleteRequest.getCountCommand(
+                        RecordCountChanges.getGroupByColumnNames(mHelper), bindArgs);
+        try (Cursor cursor = StorageUtils.rawQuery(mDb, countCommand, bindArgs)) {
+            countChanges.onRecordsDeleted(mHelper, cursor);
+        }
+        countChanges.writeTo(mDb);
+
+        assertThat(readCounts("activity_date_table", "epoch_days")).containsExactly(1L, 1L, 2L, 1L);
+        assertThat(readCounts("app_record_type_table", "app_info_id"))
+                .containsExactly(10L, 1L, 11L, 1L);
+    }
+
+    @Test
+    public void testOnRecordInserted_notARecordTable_ignored() {
+        ContentValues values = new ContentValues();
+        values.put("local_date", 1L);
+        values.put("app_info_id", 10L);
+        RecordCountChanges countChanges = new RecordCountChanges();
+
+        countChanges.onRecordInserted(new UpsertTableRequest("other_table", values));
+        countChanges.writeTo(mDb);
+
+        assertThat(readCounts("activity_date_table", "epoch_days")).isEmpty();
+    }
+
+    private UpsertTableRequest createRequest(long localDate, long appInfoId) {
+        ContentValues values = new ContentValues();
+        values.put("local_date", localDate);
+        values.put("app_info_id", appInfoId);
+        return new UpsertTableRequest(RECORD_TABLE_NAME, values).setHelper(mHelper);
+    }
+
+    private Map<Long, Long> readCounts(String tableName, String keyColumnName) {
+        Map<Long, Long> counts = new HashMap<>();
+        try (Cursor cursor =
+                mDb.rawQuery(
+                        "SELECT "
+                                + keyColumnName
+                                + ", record_count FROM "
+                                + tableName
+                                + " WHERE record_type_id = "
+                                + RECORD_TYPE_HEART_RATE,
+                        null)) {
+            while (cursor.moveToNext()) {
+                counts.put(cursor.getLong(0), cursor.getLong(1));
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.Constants.READ;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEART_RATE;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.database.MatrixCursor;
+import android.os.UserHandle;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.dx.mockito.inline.extended.ExtendedMockito;
+import com.android.server.healthconnect.HealthConnectThreadScheduler;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.MockitoSession;
+import org.mockito.quality.Strictness;
+
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class AccessLogsHelperTest {
+    private static final String PACKAGE_NAME = "android.healthconnect.mocked.app";
+    private static final String OTHER_PACKAGE_NAME = "android.healthconnect.mocked.app2";
+    private static final UserHandle USER = UserHandle.of(0);
+    private static final UserHandle OTHER_USER = UserHandle.of(10);
+
+    @Mock private TransactionManager mTransactionManager;
+    @Mock private AppInfoHelper mAppInfoHelper;
+    private MockitoSession mStaticMockSession;
+    private final AccessLogsHelper mAccessLogsHelper = AccessLogsHelper.getInstance();
+
+    @Before
+    public void setUp() {
+        mStaticMockSession =
+                ExtendedMockito.mockitoSession()
+                        .mockStatic(TransactionManager.class)
+                        .mockStatic(AppInfoHelper.class)
+                        .mockStatic(HealthConnectThreadScheduler.class)
+                        .strictness(Strictness.LENIENT)
+                        .startMocking();
+        MockitoAnnotations.initMocks(this);
+        when(TransactionManager.getInitialisedInstance()).thenReturn(mTransactionManager);
+        when(mTransactionManager.getCurrentUserHandle()).thenReturn(USER);
+        when(AppInfoHelper.getInstance()).thenReturn(mAppInfoHelper);
+        when(mAppInfoHelper.getAppInfoId(anyString())).thenReturn(1L);
+        when(mTransactionManager.read(any(ReadTableRequest.class)))
+                .thenAnswer(invocation -> new MatrixCursor(new String[] {"row_id"}));
+        // Drops entries left by other tests.
+        mAccessLogsHelper.flushAccessLogs();
+        ExtendedMockito.clearInvocations(mTransactionManager);
+    }
+
+    @After
+    public void tearDown() {
+        mStaticMockSession.finishMocking();
+    }
+
+    @Test
+    public void testAddAccessLog_notWrittenUntilFlushed() {
+        mAccessLogsHelper.addAccessLog(PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), READ);
+        mAccessLogsHelper.addAccessLog(PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), READ);
+
+        verify(mTransactionManager, never()).insert(any());
+        verify(mTransactionManager, never()).insertAll(anyList());
+        ExtendedMockito.verify(
+                () -> HealthConnectThreadScheduler.scheduleInternalTask(any()), times(1));
+    }
+
+    @Test
+    public void testFlushAccessLogs_identicalEntriesMerged() {
+        mAccessLogsHelper.addAccessLog(PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), READ);
+        mAccessLogsHelper.addAccessLog(PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), READ);
+        mAccessLogsHelper.addAccessLog(PACKAGE_NAME, List.of(RECORD_TYPE_HEART_RATE), READ);
+        mAccessLogsHelper.addAccessLog(OTHER_PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), READ);
+
+        mAccessLogsHelper.flushAccessLogs();
+
+        ArgumentCaptor<List<UpsertTableRequest>> requests = ArgumentCaptor.forClass(List.class);
+        verify(mTransactionManager, times(1)).insertAll(requests.capture());
+        assertThat(requests.getValue()).hasSize(3);
+    }
+
+    @Test
+    public void testQueryAccessLogs_pendingEntriesWrittenFirst() {
+        mAccessLogsHelper.addAccessLog(PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), READ);
+
+        mAccessLogsHelper.queryAccessLogs();
+
+        verify(mTransactionManager, times(1)).insertAll(anyList());
+    }
+
+    @Test
+    public void testFlushAccessLogs_writesAppIdOfWhenAdded() {
+        mAccessLogsHelper.addAccessLog(PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), READ);
+        // E.g. the app info cache was cleared and the package got a new id since.
+        when(mAppInfoHelper.getAppInfoId(anyString())).thenReturn(2L);
+
+        mAccessLogsHelper.flushAccessLogs();
+
+        ArgumentCaptor<List<UpsertTableRequest>> requests = ArgumentCaptor.forClass(List.class);
+        verify(mTransactionManager, times(1)).insertAll(requests.capture());
+        assertThat(requests.getValue().get(0).getContentValues().getAsLong("app_id"))
+                .isEqualTo(1L);
+    }
+
+    @Test
+    public void testFlushAccessLogs_afterUserSwitch_dropsEntriesOfPreviousUser() {
+        mAccessLogsHelper.addAccessLog(PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), READ);
+        when(mTransactionManager.getCurrentUserHandle()).thenReturn(OTHER_USER);
+        mAccessLogsHelper.addAccessLog(OTHER_PACKAGE_NAME, List.of(RECORD_TYPE_STEPS), READ);
+
+        mAccessLogsHelper.flushAccessLogs();
+        when(mTransactionManager.getCurrentUserHandle()).thenReturn(USER);
+        mAccessLogsHelper.flushAccessLogs();
+
+        ArgumentCaptor<List<UpsertTableRequest>> requests = ArgumentCaptor.forClass(List.class);
+        verify(mTransactionManager, times(1)).insertAll(requests.capture());
+        assertThat(requests.getValue()).hasSize(1);
+    }
+
+    @Test
+    public void testFlushAccessLogs_nothingPending_noWrite() {
+        mAccessLogsHelper.flushAccessLogs();
+
+        verify(mTransactionManager, never()).insertAll(anyList());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.dx.mockito.inline.extended.ExtendedMockito;
+import com.android.server.healthconnect.storage.HealthConnectDatabase;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.MockitoSession;
+import org.mockito.quality.Strictness;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@RunWith(AndroidJUnit4.class)
+public class AppInfoHelperTest {
+    private static final String PACKAGE_NAME = "android.healthconnect.mocked.app";
+
+    @Mock private TransactionManager mTransactionManager;
+    private MockitoSession mStaticMockSession;
+    private SQLiteDatabase mDb;
+    private final AppInfoHelper mAppInfoHelper = AppInfoHelper.getInstance();
+
+    @Before
+    public void setUp() {
+        mStaticMockSession =
+                ExtendedMockito.mockitoSession()
+                        .mockStatic(TransactionManager.class)
+                        .strictness(Strictness.LENIENT)
+                        .startMocking();
+        MockitoAnnotations.initMocks(this);
+        mDb = SQLiteDatabase.create(null);
+        HealthConnectDatabase.createTable(mDb, mAppInfoHelper.getCreateTableRequest());
+        mDb.execSQL(
+                "INSERT INTO application_info_table (package_name, record_types_used)"
+                        + " VALUES (?, '1')",
+                new Object[] {PACKAGE_NAME});
+        when(TransactionManager.getInitialisedInstance()).thenReturn(mTransactionManager);
+        when(mTransactionManager.read(any(ReadTableRequest.class)))
+                .thenAnswer(
+                        invocation -> mDb.rawQuery("SELECT * FROM application_info_table", null));
+        mAppInfoHelper.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        mAppInfoHelper.clearCache();
+        mDb.close();
+        mStaticMockSession.finishMocking();
+    }
+
+    @Test
+    public void testGetRecordTypesUsedOnInsertHook_typesAlreadyUsed_returnsNull() {
+        assertThat(mAppInfoHelper.getRecordTypesUsedOnInsertHook(PACKAGE_NAME, Set.of(1)))
+                .isNull();
+    }
+
+    @Test
+    public void testGetRecordTypesUsedOnInsertHook_unknownPackage_returnsNull() {
+        assertThat(mAppInfoHelper.getRecordTypesUsedOnInsertHook("other.package", Set.of(1)))
+                .isNull();
+    }
+
+    @Test
+    public void testGetRecordTypesUsedOnInsertHook_newType_writtenInTransaction() {
+        TransactionManager.TransactionHook hook =
+                mAppInfoHelper.getRecordTypesUsedOnInsertHook(PACKAGE_NAME, Set.of(1, 2));
+        assertThat(hook).isNotNull();
+
+        mDb.beginTransaction();
+        try {
+            hook.onWrite(mDb);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        assertThat(readRecordTypesUsed()).containsExactly(1, 2);
+        // The cache only knows about the new type once the transaction is committed.
+        assertThat(mAppInfoHelper.getRecordTypesUsedOnInsertHook(PACKAGE_NAME, Set.of(2)))
+                .isNotNull();
+        hook.onCommitted();
+        assertThat(mAppInfoHelper.getRecordTypesUsedOnInsertHook(PACKAGE_NAME, Set.of(2)))
+                .isNull();
+    }
+
+    @Test
+    public void testGetRecordTypesUsedOnInsertHook_concurrentInserts_typesMerged() {
+        TransactionManager.TransactionHook firstHook =
+                mAppInfoHelper.getRecordTypesUsedOnInsertHook(PACKAGE_NAME, Set.of(2));
+        TransactionManager.TransactionHook secondHook =
+                mAppInfoHelper.getRecordTypesUsedOnInsertHook(PACKAGE_NAME, Set.of(3));
+
+        firstHook.onWrite(mDb);
+        secondHook.onWrite(mDb);
+
+        assertThat(readRecordTypesUsed()).containsExactly(1, 2, 3);
+    }
+
+    private Set<Integer> readRecordTypesUsed() {
+        try (Cursor cursor =
+                mDb.rawQuery("SELECT record_types_used FROM application_info_table", null)) {
+            cursor.moveToFirst();
+            return Arrays.stream(cursor.getString(0).split(","))
+                    .map(Integer::parseInt)
+                    .collect(Collectors.toSet());
+        }
+    }
+}
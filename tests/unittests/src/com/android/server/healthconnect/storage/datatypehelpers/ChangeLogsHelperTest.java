@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.Constants.UPSERT;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEART_RATE;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.health.connect.changelog.ChangeLogsRequest;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.dx.mockito.inline.extended.ExtendedMockito;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.MockitoSession;
+import org.mockito.quality.Strictness;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+@RunWith(AndroidJUnit4.class)
+public class ChangeLogsHelperTest {
+    private static final String PACKAGE_NAME = "android.healthconnect.mocked.app";
+    private static final UUID UUID_1 = UUID.randomUUID();
+    private static final UUID UUID_2 = UUID.randomUUID();
+    private static final UUID UUID_3 = UUID.randomUUID();
+
+    @Mock private TransactionManager mTransactionManager;
+    @Mock private PreferenceHelper mPreferenceHelper;
+    private MockitoSession mStaticMockSession;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mStaticMockSession =
+                ExtendedMockito.mockitoSession()
+                        .mockStatic(TransactionManager.class)
+                        .mockStatic(PreferenceHelper.class)
+                        .strictness(Strictness.LENIENT)
+                        .startMocking();
+        MockitoAnnotations.initMocks(this);
+        when(TransactionManager.getInitialisedInstance()).thenReturn(mTransactionManager);
+        when(PreferenceHelper.getInstance()).thenReturn(mPreferenceHelper);
+        // Key the change log tokens are signed with.
+        when(mPreferenceHelper.getPreference(any()))
+                .thenReturn(Base64.getEncoder().encodeToString(new byte[32]));
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL(ChangeLogsHelper.getInstance().getCreateTableRequest().getCreateCommand());
+        when(mTransactionManager.read(any(ReadTableRequest.class)))
+                .thenAnswer(
+                        invocation -> {
+                            List<Object> bindArgs = new ArrayList<>();
+                            String query =
+                                    ((ReadTableRequest) invocation.getArgument(0))
+                                            .getReadCommand(bindArgs);
+                            return StorageUtils.rawQuery(mDb, query, bindArgs);
+                        });
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+        mStaticMockSession.finishMocking();
+    }
+
+    @Test
+    public void testGetChangeLogs_pageOfRepeatedUpserts_hasMorePages() {
+        // Rows 1 to 5 upsert the same record, row 6 another one.
+        for (int i = 0; i < 5; i++) {
+            insertUpsertChangeLog(UUID_1);
+        }
+        insertUpsertChangeLog(UUID_2);
+        ChangeLogsRequest request = new ChangeLogsRequest.Builder("token").setPageSize(2).build();
+
+        ChangeLogsHelper.ChangeLogsResponse firstPage =
+                ChangeLogsHelper.getInstance().getChangeLogs(createTokenRequest(0), request);
+        ChangeLogsHelper.ChangeLogsResponse secondPage =
+                ChangeLogsHelper.getInstance().getChangeLogs(createTokenRequest(3), request);
+
+        // The 3 rows read for the first page only hold 1 UUID, the rows after are still read.
+        assertThat(firstPage.getChangeLogsMap().get(UPSERT).getUUIds()).containsExactly(UUID_1);
+        assertThat(firstPage.hasMorePages()).isTrue();
+        assertThat(secondPage.getChangeLogsMap().get(UPSERT).getUUIds())
+                .containsExactly(UUID_1, UUID_2);
+        assertThat(secondPage.hasMorePages()).isFalse();
+    }
+
+    @Test
+    public void testAddUUIDs_repeatedUUIDs_addedOnce() {
+        ChangeLogsHelper.ChangeLogs changeLogs =
+                new ChangeLogsHelper.ChangeLogs(UPSERT, /* timeStamp= */ 0)
+                        .addUUIDs(RECORD_TYPE_STEPS, /* appId= */ 1, List.of(UUID_1, UUID_2))
+                        .addUUIDs(RECORD_TYPE_STEPS, /* appId= */ 1, List.of(UUID_2, UUID_1));
+
+        assertThat(changeLogs.getNumberOfUUIds()).isEqualTo(2);
+        assertThat(changeLogs.getRecordTypeToUUIDMap().get(RECORD_TYPE_STEPS))
+                .containsExactly(UUID_1, UUID_2)
+                .inOrder();
+    }
+
+    @Test
+    public void testRemoveUUIDs_removedForRecordTypeOnly() {
+        ChangeLogsHelper.ChangeLogs changeLogs =
+                new ChangeLogsHelper.ChangeLogs(UPSERT, /* timeStamp= */ 0)
+                        .addUUIDs(RECORD_TYPE_STEPS, /* appId= */ 1, List.of(UUID_1))
+                        .addUUIDs(RECORD_TYPE_STEPS, /* appId= */ 2, List.of(UUID_2))
+                        .addUUIDs(RECORD_TYPE_HEART_RATE, /* appId= */ 1, List.of(UUID_3));
+
+        changeLogs.removeUUIDs(RECORD_TYPE_STEPS, List.of(UUID_2, UUID_3));
+
+        assertThat(changeLogs.getUUIds()).containsExactly(UUID_1, UUID_3);
+    }
+
+    private void insertUpsertChangeLog(UUID uuid) {
+        for (UpsertTableRequest request :
+                new ChangeLogsHelper.ChangeLogs(UPSERT, PACKAGE_NAME, /* timeStamp= */ 0)
+                        .addUUIDs(RECORD_TYPE_STEPS, /* appId= */ 1, List.of(uuid))
+                        .getUpsertTableRequests()) {
+            mDb.insert(request.getTable(), null, request.getContentValues());
+        }
+    }
+
+    private static ChangeLogsRequestHelper.TokenRequest createTokenRequest(long rowIdChangeLogs) {
+        return new ChangeLogsRequestHelper.TokenRequest(
+                /* requestRowId= */ 1,
+                List.of(),
+                List.of(RECORD_TYPE_STEPS),
+                PACKAGE_NAME,
+                rowIdChangeLogs);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsRequestHelper.DEFAULT_CHANGE_LOG_TIME_PERIOD_IN_DAYS;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.health.connect.changelog.ChangeLogTokenRequest;
+import android.health.connect.datatypes.StepsRecord;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.dx.mockito.inline.extended.ExtendedMockito;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.MockitoSession;
+import org.mockito.quality.Strictness;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class ChangeLogsRequestHelperTest {
+    private static final String TOKEN_KEY_PREFERENCE_KEY = "change_log_token_key";
+    private static final String PACKAGE_NAME = "android.healthconnect.mocked.app";
+    private static final String OTHER_PACKAGE_NAME = "android.healthconnect.mocked.app2";
+    private static final long REQUEST_ROW_ID = 7;
+    private static final long ROW_ID_CHANGE_LOGS = 42;
+
+    @Mock private TransactionManager mTransactionManager;
+    @Mock private PreferenceHelper mPreferenceHelper;
+    private MockitoSession mStaticMockSession;
+
+    @Before
+    public void setUp() {
+        mStaticMockSession =
+                ExtendedMockito.mockitoSession()
+                        .mockStatic(TransactionManager.class)
+                        .mockStatic(PreferenceHelper.class)
+                        .strictness(Strictness.LENIENT)
+                        .startMocking();
+        MockitoAnnotations.initMocks(this);
+        when(TransactionManager.getInitialisedInstance()).thenReturn(mTransactionManager);
+        when(PreferenceHelper.getInstance()).thenReturn(mPreferenceHelper);
+        when(mPreferenceHelper.getPreference(TOKEN_KEY_PREFERENCE_KEY))
+                .thenReturn(Base64.getEncoder().encodeToString(new byte[32]));
+        when(mTransactionManager.read(any(ReadTableRequest.class)))
+                .thenAnswer(invocation -> createRequestCursor());
+    }
+
+    @After
+    public void tearDown() {
+        mStaticMockSession.finishMocking();
+    }
+
+    @Test
+    public void testGetRequest_nextPageToken_returnsRequestAfterNextRowId() {
+        String token = ChangeLogsRequestHelper.getNextPageToken(createTokenRequest(), 100);
+
+        ChangeLogsRequestHelper.TokenRequest request =
+                ChangeLogsRequestHelper.getRequest(PACKAGE_NAME, token);
+
+        assertThat(request.getRequestRowId()).isEqualTo(REQUEST_ROW_ID);
+        assertThat(request.getRowIdChangeLogs()).isEqualTo(100);
+        assertThat(request.getRecordTypes()).containsExactly(1, 2);
+        assertThat(request.getRequestingPackageName()).isEqualTo(PACKAGE_NAME);
+    }
+
+    @Test
+    public void testGetRequest_legacyToken_returnsStoredRowId() {
+        ChangeLogsRequestHelper.TokenRequest request =
+                ChangeLogsRequestHelper.getRequest(PACKAGE_NAME, String.valueOf(REQUEST_ROW_ID));
+
+        assertThat(request.getRequestRowId()).isEqualTo(REQUEST_ROW_ID);
+        assertThat(request.getRowIdChangeLogs()).isEqualTo(ROW_ID_CHANGE_LOGS);
+    }
+
+    @Test
+    public void testGetRequest_tokenOfOtherPackage_throws() {
+        String token = ChangeLogsRequestHelper.getNextPageToken(createTokenRequest(), 100);
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> ChangeLogsRequestHelper.getRequest(OTHER_PACKAGE_NAME, token));
+    }
+
+    @Test
+    public void testGetRequest_modifiedToken_throws() {
+        byte[] token =
+                Base64.getUrlDecoder()
+                        .decode(
+                                ChangeLogsRequestHelper.getNextPageToken(
+                                        createTokenRequest(), 100));
+        // Last byte of the change logs row id.
+        token[16] = 0;
+        String modifiedToken = Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> ChangeLogsRequestHelper.getRequest(PACKAGE_NAME, modifiedToken));
+    }
+
+    @Test
+    public void testGetRequest_pagedAfterAutoDeletePeriod_requestIsKept() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        ChangeLogsRequestHelper helper = ChangeLogsRequestHelper.getInstance();
+        db.execSQL(helper.getCreateTableRequest().getCreateCommand());
+        when(mTransactionManager.insert(any(UpsertTableRequest.class)))
+                .thenAnswer(
+                        invocation -> {
+                            UpsertTableRequest request = invocation.getArgument(0);
+                            return db.insert(
+                                    request.getTable(), null, request.getContentValues());
+                        });
+        when(mTransactionManager.read(any(ReadTableRequest.class)))
+                .thenAnswer(
+                        invocation -> {
+                            List<Object> bindArgs = new ArrayList<>();
+                            String query =
+                                    ((ReadTableRequest) invocation.getArgument(0))
+                                            .getReadCommand(bindArgs);
+                            return StorageUtils.rawQuery(db, query, bindArgs);
+                        });
+        doAnswer(
+                        invocation -> {
+                            UpsertTableRequest request = invocation.getArgument(0);
+                            return db.update(
+                                    request.getTable(),
+                                    request.getContentValues(),
+                                    request.getUpdateWhereClauses().get(false),
+                                    null);
+                        })
+                .when(mTransactionManager)
+                .updateTable(any(UpsertTableRequest.class));
+
+        ChangeLogTokenRequest tokenRequest =
+                new ChangeLogTokenRequest.Builder().addRecordType(StepsRecord.class).build();
+        String token = helper.getToken(PACKAGE_NAME, tokenRequest);
+        // The first page is read 20 days after the token was created.
+        moveRequestTimesBack(db, Duration.ofDays(20));
+        String nextPageToken =
+                ChangeLogsRequestHelper.getNextPageToken(
+                        ChangeLogsRequestHelper.getRequest(PACKAGE_NAME, token), 100);
+        // The next page is read 20 days later, 40 days after the token was created.
+        moveRequestTimesBack(db, Duration.ofDays(20));
+        db.execSQL(helper.getDeleteRequestForAutoDelete().getDeleteCommand());
+
+        ChangeLogsRequestHelper.TokenRequest request =
+                ChangeLogsRequestHelper.getRequest(PACKAGE_NAME, nextPageToken);
+        assertThat(request.getRowIdChangeLogs()).isEqualTo(100);
+
+        // Unused for longer than the auto delete period.
+        moveRequestTimesBack(db, Duration.ofDays(DEFAULT_CHANGE_LOG_TIME_PERIOD_IN_DAYS + 1));
+        db.execSQL(helper.getDeleteRequestForAutoDelete().getDeleteCommand());
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> ChangeLogsRequestHelper.getRequest(PACKAGE_NAME, nextPageToken));
+        db.close();
+    }
+
+    @Test
+    public void testGetRequest_usedRecently_doesNotWrite() {
+        when(mTransactionManager.read(any(ReadTableRequest.class)))
+                .thenAnswer(invocation -> createRequestCursor(Instant.now().toEpochMilli()));
+
+        ChangeLogsRequestHelper.getRequest(PACKAGE_NAME, String.valueOf(REQUEST_ROW_ID));
+
+        verify(mTransactionManager, never()).updateTable(any(UpsertTableRequest.class));
+    }
+
+    @Test
+    public void testGetRequest_malformedToken_throws() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> ChangeLogsRequestHelper.getRequest(PACKAGE_NAME, "not a token"));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> ChangeLogsRequestHelper.getRequest(PACKAGE_NAME, ""));
+    }
+
+    private static ChangeLogsRequestHelper.TokenRequest createTokenRequest() {
+        return new ChangeLogsRequestHelper.TokenRequest(
+                REQUEST_ROW_ID, List.of(), List.of(1, 2), PACKAGE_NAME, ROW_ID_CHANGE_LOGS);
+    }
+
+    /** Moves the time of the stored requests back, as if {@code duration} had passed. */
+    private static void moveRequestTimesBack(SQLiteDatabase db, Duration duration) {
+        db.execSQL("UPDATE change_log_request_table SET time = time - " + duration.toMillis());
+    }
+
+    private static Cursor createRequestCursor() {
+        return createRequestCursor(0);
+    }
+
+    private static MatrixCursor createRequestCursor(long time) {
+        MatrixCursor cursor =
+                new MatrixCursor(
+                        new String[] {
+                            "row_id",
+                            "packages_to_filter",
+                            "package_name",
+                            "record_types",
+                            "row_id_change_logs_table",
+                            "time"
+                        });
+        cursor.addRow(
+                new Object[] {REQUEST_ROW_ID, "", PACKAGE_NAME, "1,2", ROW_ID_CHANGE_LOGS, time});
+        return cursor;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.BasalMetabolicRateRecordHelper.BASAL_METABOLIC_RATE_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.BasalMetabolicRateRecordHelper.BASAL_METABOLIC_RATE_RECORD_TABLE_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.HeightRecordHelper.HEIGHT_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.HeightRecordHelper.HEIGHT_RECORD_TABLE_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.InstantRecordHelper.TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.LeanBodyMassRecordHelper.LEAN_BODY_MASS_RECORD_TABLE_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.LeanBodyMassRecordHelper.MASS_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.WeightRecordHelper.WEIGHT_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.WeightRecordHelper.WEIGHT_RECORD_TABLE_NAME;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Pair;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.dx.mockito.inline.extended.ExtendedMockito;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.MockitoSession;
+import org.mockito.quality.Strictness;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class DeriveBasalCaloriesBurnedHelperTest {
+    private static final long DAY = Duration.ofDays(1).toMillis();
+    private static final long START_TIME = 10 * DAY;
+    private static final double TOLERANCE = 0.001;
+
+    // Calories per day for a 30 years old, from height in meters and weight in grams.
+    private static final double DEFAULT_PROFILE_CALORIES = 1564500;
+    private static final double TALL_PROFILE_CALORIES = 1627000;
+    private static final double TALL_AND_HEAVY_PROFILE_CALORIES = 1697000;
+    // Calories per day for a lean body mass of 50 kg.
+    private static final double LEAN_BODY_MASS_CALORIES = 1450000;
+    // Calories per day for basal metabolic rates of 80 and 90 watts.
+    private static final double BMR_80_CALORIES = 1651200;
+    private static final double BMR_90_CALORIES = 1857600;
+
+    @Mock private TransactionManager mTransactionManager;
+    private MockitoSession mStaticMockSession;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mStaticMockSession =
+                ExtendedMockito.mockitoSession()
+                        .mockStatic(TransactionManager.class)
+                        .strictness(Strictness.LENIENT)
+                        .startMocking();
+        MockitoAnnotations.initMocks(this);
+        mDb = SQLiteDatabase.create(null);
+        createTable(BASAL_METABOLIC_RATE_RECORD_TABLE_NAME, BASAL_METABOLIC_RATE_COLUMN_NAME);
+        createTable(LEAN_BODY_MASS_RECORD_TABLE_NAME, MASS_COLUMN_NAME);
+        createTable(HEIGHT_RECORD_TABLE_NAME, HEIGHT_COLUMN_NAME);
+        createTable(WEIGHT_RECORD_TABLE_NAME, WEIGHT_COLUMN_NAME);
+        when(TransactionManager.getInitialisedInstance()).thenReturn(mTransactionManager);
+        when(mTransactionManager.read(any(ReadTableRequest.class)))
+                .thenAnswer(
+                        invocation -> {
+                            ReadTableRequest request = invocation.getArgument(0);
+                            List<Object> bindArgs = new ArrayList<>();
+                            return StorageUtils.rawQuery(
+                                    mDb, request.getReadCommand(bindArgs), bindArgs);
+                        });
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+        mStaticMockSession.finishMocking();
+    }
+
+    @Test
+    public void testGetBasalCaloriesBurned_noData_usesDefaultProfile() {
+        assertThat(newHelper().getBasalCaloriesBurned(START_TIME, START_TIME + DAY))
+                .isWithin(TOLERANCE)
+                .of(DEFAULT_PROFILE_CALORIES);
+    }
+
+    @Test
+    public void testGetBasalCaloriesBurned_profileChangesInInterval_usesEachProfile() {
+        insert(HEIGHT_RECORD_TABLE_NAME, HEIGHT_COLUMN_NAME, START_TIME - DAY, 1.8);
+        insert(WEIGHT_RECORD_TABLE_NAME, WEIGHT_COLUMN_NAME, START_TIME + DAY / 2, 80000);
+
+        assertThat(newHelper().getBasalCaloriesBurned(START_TIME, START_TIME + DAY))
+                .isWithin(TOLERANCE)
+                .of((TALL_PROFILE_CALORIES + TALL_AND_HEAVY_PROFILE_CALORIES) / 2);
+    }
+
+    @Test
+    public void testGetBasalCaloriesBurned_leanBodyMassThenBmr_ignoresProfile() {
+        insert(HEIGHT_RECORD_TABLE_NAME, HEIGHT_COLUMN_NAME, START_TIME - DAY, 1.8);
+        insert(LEAN_BODY_MASS_RECORD_TABLE_NAME, MASS_COLUMN_NAME, START_TIME - DAY, 50000);
+        insertBmr(START_TIME + DAY / 2, 80);
+
+        assertThat(
+                        newHelper(START_TIME + DAY / 2, 80)
+                                .getBasalCaloriesBurned(START_TIME, START_TIME + DAY))
+                .isWithin(TOLERANCE)
+                .of((LEAN_BODY_MASS_CALORIES + BMR_80_CALORIES) / 2);
+    }
+
+    @Test
+    public void testGetBasalCaloriesBurned_bmrBeforeRange_readFromTable() {
+        insert(LEAN_BODY_MASS_RECORD_TABLE_NAME, MASS_COLUMN_NAME, START_TIME - DAY, 50000);
+        insertBmr(START_TIME - DAY / 2, 90);
+
+        assertThat(newHelper().getBasalCaloriesBurned(START_TIME, START_TIME + DAY))
+                .isWithin(TOLERANCE)
+                .of(BMR_90_CALORIES);
+    }
+
+    @Test
+    public void testGetBasalCaloriesBurned_intervalsOutOfOrder_sameAsInOrder() {
+        insertBmr(START_TIME - DAY, 80);
+        insertBmr(START_TIME + DAY, 90);
+        List<Pair<Long, Long>> intervals =
+                List.of(
+                        Pair.create(START_TIME + DAY, START_TIME + 2 * DAY),
+                        Pair.create(START_TIME, START_TIME + DAY),
+                        Pair.create(START_TIME + DAY / 2, START_TIME + 3 * DAY / 2));
+
+        double[] calories = newHelper(START_TIME + DAY, 90).getBasalCaloriesBurned(intervals);
+
+        assertThat(calories[0]).isWithin(TOLERANCE).of(BMR_90_CALORIES);
+        assertThat(calories[1]).isWithin(TOLERANCE).of(BMR_80_CALORIES);
+        assertThat(calories[2]).isWithin(TOLERANCE).of((BMR_80_CALORIES + BMR_90_CALORIES) / 2);
+
+        DeriveBasalCaloriesBurnedHelper helper =
+                new DeriveBasalCaloriesBurnedHelper(
+                        newBmrCursor(START_TIME + DAY, 90),
+                        BASAL_METABOLIC_RATE_COLUMN_NAME,
+                        TIME_COLUMN_NAME,
+                        START_TIME,
+                        START_TIME + 2 * DAY);
+        for (int i = 0; i < intervals.size(); i++) {
+            assertThat(
+                            helper.getBasalCaloriesBurned(
+                                    intervals.get(i).first, intervals.get(i).second))
+                    .isWithin(TOLERANCE)
+                    .of(calories[i]);
+        }
+    }
+
+    @Test
+    public void testGetBasalCaloriesBurned_intervalEndsOnBmrChange_usesOneRatePerSide() {
+        insertBmr(START_TIME, 80);
+        insertBmr(START_TIME + DAY, 90);
+
+        double[] calories =
+                newHelper(START_TIME, 80, START_TIME + DAY, 90)
+                        .getBasalCaloriesBurned(
+                                List.of(
+                                        Pair.create(START_TIME, START_TIME + DAY),
+                                        Pair.create(START_TIME + DAY, START_TIME + 2 * DAY)));
+
+        assertThat(calories[0]).isWithin(TOLERANCE).of(BMR_80_CALORIES);
+        assertThat(calories[1]).isWithin(TOLERANCE).of(BMR_90_CALORIES);
+    }
+
+    @Test
+    public void testGetBasalCaloriesBurned_intervalEndsOnLeanBodyMassStart_usesOneSourcePerSide() {
+        insert(LEAN_BODY_MASS_RECORD_TABLE_NAME, MASS_COLUMN_NAME, START_TIME + DAY, 50000);
+
+        double[] calories =
+                newHelper()
+                        .getBasalCaloriesBurned(
+                                List.of(
+                                        Pair.create(START_TIME, START_TIME + DAY),
+                                        Pair.create(START_TIME + DAY, START_TIME + 2 * DAY)));
+
+        assertThat(calories[0]).isWithin(TOLERANCE).of(DEFAULT_PROFILE_CALORIES);
+        assertThat(calories[1]).isWithin(TOLERANCE).of(LEAN_BODY_MASS_CALORIES);
+    }
+
+    @Test
+    public void testGetBasalCaloriesBurned_emptyInterval_returnsZero() {
+        insertBmr(START_TIME, 80);
+
+        assertThat(newHelper(START_TIME, 80).getBasalCaloriesBurned(START_TIME, START_TIME))
+                .isEqualTo(0.0);
+    }
+
+    /** Returns a helper whose aggregation cursor holds the given (time, watts) samples. */
+    private static DeriveBasalCaloriesBurnedHelper newHelper(Object... bmrSamples) {
+        return new DeriveBasalCaloriesBurnedHelper(
+                newBmrCursor(bmrSamples), BASAL_METABOLIC_RATE_COLUMN_NAME, TIME_COLUMN_NAME);
+    }
+
+    private static MatrixCursor newBmrCursor(Object... bmrSamples) {
+        MatrixCursor cursor =
+                new MatrixCursor(
+                        new String[] {TIME_COLUMN_NAME, BASAL_METABOLIC_RATE_COLUMN_NAME});
+        for (int i = 0; i < bmrSamples.length; i += 2) {
+            cursor.addRow(new Object[] {bmrSamples[i], bmrSamples[i + 1]});
+        }
+        return cursor;
+    }
+
+    private void createTable(String tableName, String columnName) {
+        mDb.execSQL(
+                "CREATE TABLE "
+                        + tableName
+                        + " ("
+                        + TIME_COLUMN_NAME
+                        + " INTEGER, "
+                        + columnName
+                        + " REAL)");
+    }
+
+    private void insertBmr(long time, double watts) {
+        insert(
+                BASAL_METABOLIC_RATE_RECORD_TABLE_NAME,
+                BASAL_METABOLIC_RATE_COLUMN_NAME,
+                time,
+                watts);
+    }
+
+    private void insert(String tableName, String columnName, long time, double value) {
+        mDb.execSQL(
+                "INSERT INTO "
+                        + tableName
+                        + " ("
+                        + TIME_COLUMN_NAME
+                        + ", "
+                        + columnName
+                        + ") VALUES (?, ?)",
+                new Object[] {time, value});
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.Constants.DEFAULT_LONG;
+import static android.health.connect.Constants.MAXIMUM_PAGE_SIZE;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.health.connect.ReadRecordsRequestUsingFilters;
+import android.health.connect.TimeInstantRangeFilter;
+import android.health.connect.datatypes.HeartRateRecord;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.dx.mockito.inline.extended.ExtendedMockito;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.utils.PageTokenUtils;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.MockitoSession;
+import org.mockito.quality.Strictness;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(AndroidJUnit4.class)
+public class RecordHelperPageTokenTest {
+    private static final String PACKAGE_NAME = "android.healthconnect.mocked.app";
+    private static final long APP_INFO_ID = 1;
+    private static final long END_TIME = 1000;
+
+    @Mock private AppInfoHelper mAppInfoHelper;
+    private final HeartRateRecordHelper mHelper = new HeartRateRecordHelper();
+    private MockitoSession mStaticMockSession;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mStaticMockSession =
+                ExtendedMockito.mockitoSession()
+                        .mockStatic(AppInfoHelper.class)
+                        .strictness(Strictness.LENIENT)
+                        .startMocking();
+        MockitoAnnotations.initMocks(this);
+        when(AppInfoHelper.getInstance()).thenReturn(mAppInfoHelper);
+        when(mAppInfoHelper.getAppInfoIds(any())).thenReturn(List.of(APP_INFO_ID));
+        mDb = SQLiteDatabase.create(null);
+        // Only the columns and indexes used by reads with filters.
+        mDb.execSQL(
+                "CREATE TABLE "
+                        + HeartRateRecordHelper.TABLE_NAME
+                        + " (row_id INTEGER PRIMARY KEY AUTOINCREMENT, app_info_id INTEGER,"
+                        + " start_time INTEGER)");
+        mDb.execSQL(
+                "CREATE INDEX idx_start_time ON "
+                        + HeartRateRecordHelper.TABLE_NAME
+                        + " (start_time)");
+        mDb.execSQL(
+                "CREATE INDEX idx_app_info_id_start_time ON "
+                        + HeartRateRecordHelper.TABLE_NAME
+                        + " (app_info_id, start_time)");
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+        mStaticMockSession.finishMocking();
+    }
+
+    @Test
+    public void testRead_equalStartTimes_readsEveryRecordOnce() {
+        int count = 100_000;
+        insertRecords(count, /* startTime= */ 500);
+
+        assertThat(readAllRowIds(/* isAscending= */ true, MAXIMUM_PAGE_SIZE))
+                .isEqualTo(getRowIds(count, /* isAscending= */ true));
+        assertThat(readAllRowIds(/* isAscending= */ false, MAXIMUM_PAGE_SIZE))
+                .isEqualTo(getRowIds(count, /* isAscending= */ false));
+    }
+
+    @Test
+    public void testRead_pagesEndingWithinStartTimes_readsEveryRecordOnce() {
+        // Start times 0, 0, 0, 1, 1, 2, 2, 2, ...
+        for (int i = 0; i < 30; i++) {
+            insertRecords(i % 3 == 1 ? 2 : 3, /* startTime= */ i);
+        }
+        int count = 80;
+
+        for (int pageSize : new int[] {1, 2, 3, 4, 7}) {
+            assertThat(readAllRowIds(/* isAscending= */ true, pageSize))
+                    .isEqualTo(getRowIds(count, /* isAscending= */ true));
+            assertThat(readAllRowIds(/* isAscending= */ false, pageSize))
+                    .isEqualTo(getRowIds(count, /* isAscending= */ false));
+        }
+    }
+
+    @Test
+    public void testRead_tokenRecordDeleted_readsAgainFromFirstPage() {
+        // Row ids 1 to 5 start at 10, 6 to 10 at 20.
+        insertRecords(5, /* startTime= */ 10);
+        insertRecords(5, /* startTime= */ 20);
+
+        List<Long> rowIds = new ArrayList<>();
+        long pageToken =
+                readPage(DEFAULT_LONG, /* isAscending= */ true, /* pageSize= */ 4, rowIds);
+        assertThat(pageToken).isEqualTo(PageTokenUtils.ofRowId(5, /* isAscending= */ true));
+        deleteRecord(5);
+        while (pageToken != DEFAULT_LONG) {
+            pageToken = readPage(pageToken, /* isAscending= */ true, /* pageSize= */ 4, rowIds);
+        }
+
+        assertThat(rowIds)
+                .containsExactly(1L, 2L, 3L, 4L, 1L, 2L, 3L, 4L, 6L, 7L, 8L, 9L, 10L)
+                .inOrder();
+    }
+
+    @Test
+    public void testRead_tokenRecordDeleted_descending_readsAgainFromFirstPage() {
+        // Row ids 1 to 5 start at 10, 6 to 10 at 20.
+        insertRecords(5, /* startTime= */ 10);
+        insertRecords(5, /* startTime= */ 20);
+
+        List<Long> rowIds = new ArrayList<>();
+        long pageToken =
+                readPage(DEFAULT_LONG, /* isAscending= */ false, /* pageSize= */ 3, rowIds);
+        assertThat(pageToken).isEqualTo(PageTokenUtils.ofRowId(7, /* isAscending= */ false));
+        deleteRecord(7);
+        while (pageToken != DEFAULT_LONG) {
+            pageToken = readPage(pageToken, /* isAscending= */ false, /* pageSize= */ 3, rowIds);
+        }
+
+        assertThat(rowIds)
+                .containsExactly(10L, 9L, 8L, 10L, 9L, 8L, 6L, 5L, 4L, 3L, 2L, 1L)
+                .inOrder();
+    }
+
+    @Test
+    public void testRead_tokenRecordDeleted_nextRowIdStartsLater_skipsNoRecords() {
+        // Row ids 1 to 3 start at 10, 4 at 30, 5 and 6 at 20.
+        insertRecords(3, /* startTime= */ 10);
+        insertRecords(1, /* startTime= */ 30);
+        insertRecords(2, /* startTime= */ 20);
+
+        List<Long> rowIds = new ArrayList<>();
+        long pageToken =
+                readPage(DEFAULT_LONG, /* isAscending= */ true, /* pageSize= */ 2, rowIds);
+        assertThat(pageToken).isEqualTo(PageTokenUtils.ofRowId(3, /* isAscending= */ true));
+        // Row id 4 is the nearest, but starting from its start time would skip 3, 5 and 6.
+        deleteRecord(3);
+        while (pageToken != DEFAULT_LONG) {
+            pageToken = readPage(pageToken, /* isAscending= */ true, /* pageSize= */ 2, rowIds);
+        }
+
+        assertThat(rowIds).containsExactly(1L, 2L, 1L, 2L, 5L, 6L, 4L).inOrder();
+    }
+
+    @Test
+    public void testRead_negativeStartTimes_readsAllRecords() {
+        insertRecords(2, /* startTime= */ -20);
+        insertRecords(2, /* startTime= */ -10);
+        insertRecords(2, /* startTime= */ 10);
+
+        for (boolean isAscending : new boolean[] {true, false}) {
+            List<Long> rowIds = new ArrayList<>();
+            long pageToken = readPage(DEFAULT_LONG, isAscending, /* pageSize= */ 2, rowIds);
+            while (pageToken != DEFAULT_LONG) {
+                pageToken = readPage(pageToken, isAscending, /* pageSize= */ 2, rowIds);
+            }
+
+            assertThat(rowIds).containsExactlyElementsIn(getRowIds(6, isAscending)).inOrder();
+        }
+    }
+
+    @Test
+    public void testRead_legacyToken_readsFromStartTime() {
+        insertRecords(2, /* startTime= */ 10);
+        insertRecords(2, /* startTime= */ 20);
+
+        List<Long> rowIds = new ArrayList<>();
+        // Tokens issued before row id tokens are the start time times 2, plus 1 if descending.
+        long nextPageToken =
+                readPage(
+                        /* pageToken= */ 20 * 2,
+                        /* isAscending= */ true,
+                        /* pageSize= */ 10,
+                        rowIds);
+
+        assertThat(rowIds).containsExactly(3L, 4L).inOrder();
+        assertThat(nextPageToken).isEqualTo(DEFAULT_LONG);
+    }
+
+    @Test
+    public void testRead_rowIdToken_searchesIndexes() {
+        insertRecords(100, /* startTime= */ 500);
+
+        for (boolean isAscending : new boolean[] {true, false}) {
+            long pageToken = PageTokenUtils.ofRowId(/* rowId= */ 50, isAscending);
+            ReadTableRequest request =
+                    getReadTableRequest(pageToken, isAscending, /* pageSize= */ 10);
+            List<Object> bindArgs = new ArrayList<>();
+            String command = "EXPLAIN QUERY PLAN " + request.getReadCommand(bindArgs);
+
+            List<String> tableSteps = new ArrayList<>();
+            try (Cursor cursor = StorageUtils.rawQuery(mDb, command, bindArgs)) {
+                while (cursor.moveToNext()) {
+                    String detail = StorageUtils.getCursorString(cursor, "detail");
+                    if (detail.contains(HeartRateRecordHelper.TABLE_NAME)) {
+                        tableSteps.add(detail);
+                    }
+                }
+            }
+            // Scans read the records before the page too, searches start at the page.
+            assertThat(tableSteps).isNotEmpty();
+            for (String step : tableSteps) {
+                assertThat(step).startsWith("SEARCH");
+            }
+        }
+    }
+
+    private List<Long> readAllRowIds(boolean isAscending, int pageSize) {
+        List<Long> rowIds = new ArrayList<>();
+        long pageToken = DEFAULT_LONG;
+        do {
+            pageToken = readPage(pageToken, isAscending, pageSize, rowIds);
+        } while (pageToken != DEFAULT_LONG);
+        return rowIds;
+    }
+
+    /** Adds the row ids of the page to {@code rowIds} and returns the next page token. */
+    private long readPage(long pageToken, boolean isAscending, int pageSize, List<Long> rowIds) {
+        ReadTableRequest request = getReadTableRequest(pageToken, isAscending, pageSize);
+        List<Object> bindArgs = new ArrayList<>();
+        try (Cursor cursor =
+                StorageUtils.rawQuery(mDb, request.getReadCommand(bindArgs), bindArgs)) {
+            for (int i = 0; i < pageSize && cursor.moveToNext(); i++) {
+                rowIds.add(StorageUtils.getCursorLong(cursor, PRIMARY_COLUMN_NAME));
+            }
+            return mHelper.getNextPageToken(cursor, isAscending);
+        }
+    }
+
+    private ReadTableRequest getReadTableRequest(
+            long pageToken, boolean isAscending, int pageSize) {
+        ReadRecordsRequestUsingFilters.Builder<HeartRateRecord> builder =
+                new ReadRecordsRequestUsingFilters.Builder<>(HeartRateRecord.class)
+                        .setTimeRangeFilter(
+                                new TimeInstantRangeFilter.Builder()
+                                        .setStartTime(Instant.EPOCH)
+                                        .setEndTime(Instant.ofEpochMilli(END_TIME))
+                                        .build())
+                        .setPageSize(pageSize);
+        if (pageToken == DEFAULT_LONG) {
+            builder.setAscending(isAscending);
+        } else {
+            builder.setPageToken(pageToken);
+        }
+        return mHelper.getReadTableRequest(
+                builder.build().toReadRecordsRequestParcel(),
+                PACKAGE_NAME,
+                /* enforceSelfRead= */ false,
+                /* startDateAccess= */ 0,
+                Map.of());
+    }
+
+    private void insertRecords(int count, long startTime) {
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                mDb.execSQL(
+                        "INSERT INTO "
+                                + HeartRateRecordHelper.TABLE_NAME
+                                + " (app_info_id, start_time) VALUES (?, ?)",
+                        new Object[] {APP_INFO_ID, startTime});
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private void deleteRecord(long rowId) {
+        mDb.execSQL(
+                "DELETE FROM " + HeartRateRecordHelper.TABLE_NAME + " WHERE row_id = ?",
+                new Object[] {rowId});
+    }
+
+    /** Row ids of the first {@code count} records, inserted in start time order. */
+    private static List<Long> getRowIds(int count, boolean isAscending) {
+        List<Long> rowIds = new ArrayList<>();
+        for (long rowId = 1; rowId <= count; rowId++) {
+            rowIds.add(isAscending ? rowId : count + 1 - rowId);
+        }
+        return rowIds;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.health.connect.internal.datatypes.HeartRateRecordInternal;
+import android.health.connect.internal.datatypes.RecordInternal;
+import android.health.connect.internal.datatypes.SeriesSamples;
+
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SeriesRecordHelperTest {
+    private static final String SERIES_TABLE_NAME = "heart_rate_record_series_table";
+
+    private final HeartRateRecordHelper mHelper = new HeartRateRecordHelper();
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL(
+                "CREATE TABLE "
+                        + SERIES_TABLE_NAME
+                        + " (parent_key INTEGER, beats_per_minute INTEGER, epoch_millis INTEGER)");
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void testChildTableRead_samplesStitchedToRecordsByRowId() {
+        insertSample(/* parentKey= */ 2, /* epochMillis= */ 30, /* beatsPerMinute= */ 70);
+        insertSample(/* parentKey= */ 1, /* epochMillis= */ 20, /* beatsPerMinute= */ 61);
+        insertSample(/* parentKey= */ 3, /* epochMillis= */ 10, /* beatsPerMinute= */ 99);
+        insertSample(/* parentKey= */ 1, /* epochMillis= */ 10, /* beatsPerMinute= */ 60);
+        insertSample(/* parentKey= */ 2, /* epochMillis= */ 20, /* beatsPerMinute= */ 69);
+        // Records come in start time order, not row id order.
+        HeartRateRecordInternal second = createRecord(/* rowId= */ 2);
+        HeartRateRecordInternal first = createRecord(/* rowId= */ 1);
+        HeartRateRecordInternal withoutSamples = createRecord(/* rowId= */ 4);
+        List<RecordInternal<?>> records = List.of(second, first, withoutSamples);
+
+        List<ReadTableRequest> requests = mHelper.getChildTableReadRequests(records);
+        assertThat(requests).hasSize(1);
+        List<Object> bindArgs = new ArrayList<>();
+        String command = requests.get(0).getReadCommand(bindArgs);
+        try (Cursor cursor = StorageUtils.rawQuery(mDb, command, bindArgs)) {
+            mHelper.populateRecordsWithChildTableData(
+                    records, cursor, requests.get(0).getTableName());
+        }
+
+        assertThat(first.getSamples())
+                .isEqualTo(
+                        new SeriesSamples.Builder().addSample(10, 60).addSample(20, 61).build());
+        assertThat(second.getSamples())
+                .isEqualTo(
+                        new SeriesSamples.Builder().addSample(20, 69).addSample(30, 70).build());
+        assertThat(withoutSamples.getSamples()).isEqualTo(SeriesSamples.EMPTY);
+    }
+
+    @Test
+    public void testChildTableRead_noRecords_noRequests() {
+        assertThat(mHelper.getChildTableReadRequests(List.of())).isEmpty();
+    }
+
+    private static HeartRateRecordInternal createRecord(int rowId) {
+        HeartRateRecordInternal record = new HeartRateRecordInternal();
+        record.setRowId(rowId);
+        return record;
+    }
+
+    private void insertSample(long parentKey, long epochMillis, int beatsPerMinute) {
+        mDb.execSQL(
+                "INSERT INTO " + SERIES_TABLE_NAME + " VALUES (?, ?, ?)",
+                new Object[] {parentKey, beatsPerMinute, epochMillis});
+    }
+}
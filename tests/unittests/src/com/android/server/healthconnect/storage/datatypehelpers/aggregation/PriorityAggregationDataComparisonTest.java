@@ -41,34 +41,4 @@ public class PriorityAggregationDataComparisonTest {
         assertThat(createStepsData(10, 20, 15, 1, 10).compareTo(createStepsData(10, 20, 20, 1, 1)))
                 .isGreaterThan(0);
     }
-
-    @Test
-    public void testCompareTimestamps_orderByTime() {
-        AggregationRecordData data1 = createStepsData(10, 15, 15, 1, 1);
-        AggregationRecordData data2 = createStepsData(12, 20, 20, 1, 10);
-
-        assertThat(data1.getStartTimestamp().compareTo(data2.getStartTimestamp())).isLessThan(0);
-        assertThat(data1.getStartTimestamp().compareTo(data2.getStartTimestamp())).isLessThan(0);
-        assertThat(data2.getStartTimestamp().compareTo(data1.getEndTimestamp())).isLessThan(0);
-        assertThat(data1.getEndTimestamp().compareTo(data2.getStartTimestamp())).isGreaterThan(0);
-        assertThat(data2.getStartTimestamp().compareTo(data1.getStartTimestamp())).isGreaterThan(0);
-
-        AggregationTimestamp border =
-                new AggregationTimestamp(AggregationTimestamp.GROUP_BORDER, 13L);
-        AggregationTimestamp border2 =
-                new AggregationTimestamp(AggregationTimestamp.GROUP_BORDER, 15L);
-
-        assertThat(data2.getStartTimestamp().compareTo(border)).isLessThan(0);
-        assertThat(data2.getEndTimestamp().compareTo(border)).isGreaterThan(0);
-        assertThat(border.compareTo(border2)).isLessThan(0);
-    }
-
-    @Test
-    public void testCompareTimestamps_timestampsWithDifferentParentDataAreNotEqual() {
-        AggregationRecordData data1 = createStepsData(10, 20, 15, 1, 1);
-        AggregationRecordData data2 = createStepsData(10, 20, 15, 1, 10);
-
-        assertThat(data1.getStartTimestamp().compareTo(data2.getStartTimestamp())).isNotEqualTo(0);
-        assertThat(data1.getEndTimestamp().compareTo(data2.getEndTimestamp())).isLessThan(0);
-    }
 }
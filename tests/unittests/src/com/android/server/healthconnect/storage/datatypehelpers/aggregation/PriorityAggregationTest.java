@@ -34,8 +34,11 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 
 public class PriorityAggregationTest {
     @Mock Cursor mCursor;
@@ -269,4 +272,61 @@ public class PriorityAggregationTest {
         assertThat(mMultiGroupAggregator.getResultForGroup(1)).isEqualTo(2.0 + 3.0 + 1.0);
         assertThat(mMultiGroupAggregator.getResultForGroup(2)).isEqualTo(5.0);
     }
+
+    @Test
+    public void testZeroLengthStepsRecord_accountedOnce() {
+        doReturn(createStepsData(15, 15, 30, 1, 1), createStepsData(10, 20, 10, 0, 1))
+                .when(mOneGroupAggregator)
+                .readNewData(mCursor);
+        when(mCursor.moveToNext()).thenReturn(true, true, false);
+        mOneGroupAggregator.calculateAggregation(mCursor);
+        assertThat(mOneGroupAggregator.getResultForGroup(0)).isEqualTo(30.0 + 10.0);
+    }
+
+    @Test
+    public void testManyOverlappingStepsRecordsFromSeveralApps_matchesPerMillisecondResult() {
+        List<Long> groupSplits = new ArrayList<>();
+        for (long split = 0; split <= 1000; split += 50) {
+            groupSplits.add(split);
+        }
+        PriorityRecordsAggregator aggregator =
+                Mockito.spy(
+                        new PriorityRecordsAggregator(
+                                groupSplits, Collections.emptyList(), 0, mParams, false));
+
+        Random random = new Random(/* seed= */ 42);
+        List<AggregationRecordData> records = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            long start = random.nextInt(1000);
+            long end = start + 1 + random.nextInt(100);
+            int priority = random.nextInt(5);
+            records.add(createStepsData(start, end, random.nextInt(1000), priority, i));
+        }
+        records.sort(Comparator.comparingLong(AggregationRecordData::getStartTime));
+        doReturn(records.get(0), records.subList(1, records.size()).toArray())
+                .when(aggregator)
+                .readNewData(mCursor);
+        int[] remainingRows = {records.size()};
+        when(mCursor.moveToNext()).thenAnswer(invocation -> remainingRows[0]-- > 0);
+
+        aggregator.calculateAggregation(mCursor);
+
+        for (int group = 0; group < groupSplits.size() - 1; group++) {
+            double expected = 0;
+            for (long time = groupSplits.get(group); time < groupSplits.get(group + 1); time++) {
+                AggregationRecordData highest = null;
+                for (AggregationRecordData data : records) {
+                    if (data.getStartTime() <= time
+                            && time < data.getEndTime()
+                            && (highest == null || data.compareTo(highest) > 0)) {
+                        highest = data;
+                    }
+                }
+                if (highest != null) {
+                    expected += highest.getResultOnInterval(time, time + 1);
+                }
+            }
+            assertThat(aggregator.getResultForGroup(group)).isWithin(1e-6).of(expected);
+        }
+    }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.request;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.health.connect.AggregateResult;
+import android.health.connect.LocalTimeRangeFilter;
+import android.health.connect.TimeInstantRangeFilter;
+import android.health.connect.TimeRangeFilterHelper;
+import android.health.connect.datatypes.AggregationType;
+import android.health.connect.datatypes.HeartRateRecord;
+import android.os.Parcel;
+
+import com.android.server.healthconnect.storage.datatypehelpers.HeartRateRecordHelper;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class AggregateTableRequestTest {
+    private static final String TABLE_NAME = "sample_table";
+    private static final String TIME_COLUMN_NAME = "time";
+    private static final String OFFSET_COLUMN_NAME = "zone_offset";
+    private static final String VALUE_COLUMN_NAME = "beats_per_minute";
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL(
+                "CREATE TABLE "
+                        + TABLE_NAME
+                        + " (time INTEGER, zone_offset INTEGER, beats_per_minute INTEGER,"
+                        + " app_info_id INTEGER)");
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void testGroupByDuration_groupsComputedArithmetically() {
+        insertValues(0, 9, 10, 25, 94, 95);
+        AggregateTableRequest request = createRequest();
+        request.setTimeFilter(0, 95);
+        request.setGroupBy(
+                TIME_COLUMN_NAME,
+                /* period= */ null,
+                Duration.ofMillis(10),
+                new TimeInstantRangeFilter.Builder()
+                        .setStartTime(Instant.ofEpochMilli(0))
+                        .setEndTime(Instant.ofEpochMilli(95))
+                        .build());
+
+        List<Object> bindArgs = new ArrayList<>();
+        String command = request.getAggregationCommand(bindArgs);
+
+        assertThat(command).doesNotContain("THEN 1");
+        assertThat(queryMaxPerGroup(command, bindArgs))
+                .containsExactly(0, 9L, 1, 10L, 2, 25L, 9, 94L);
+    }
+
+    @Test
+    public void testGroupByPeriod_groupsFoundByBinarySearch() {
+        LocalDateTime start = LocalDateTime.of(2023, 1, 1, 0, 0);
+        LocalDateTime end = start.plusMonths(5);
+        insertValues(
+                TimeRangeFilterHelper.getMillisOfLocalTime(start),
+                TimeRangeFilterHelper.getMillisOfLocalTime(start.plusMonths(1)),
+                TimeRangeFilterHelper.getMillisOfLocalTime(start.plusMonths(3).minusDays(1)),
+                TimeRangeFilterHelper.getMillisOfLocalTime(end.minusDays(1)));
+        AggregateTableRequest request = createRequest();
+        request.setTimeFilter(
+                TimeRangeFilterHelper.getMillisOfLocalTime(start),
+                TimeRangeFilterHelper.getMillisOfLocalTime(end));
+        request.setGroupBy(
+                TIME_COLUMN_NAME,
+                Period.ofMonths(1),
+                /* duration= */ null,
+                new LocalTimeRangeFilter.Builder().setStartTime(start).setEndTime(end).build());
+
+        List<Object> bindArgs = new ArrayList<>();
+        Map<Integer, Long> result =
+                queryMaxPerGroup(request.getAggregationCommand(bindArgs), bindArgs);
+
+        assertThat(result.keySet()).containsExactly(0, 1, 2, 4);
+        assertThat(result.get(2))
+                .isEqualTo(
+                        TimeRangeFilterHelper.getMillisOfLocalTime(
+                                start.plusMonths(3).minusDays(1)));
+    }
+
+    @Test
+    public void testFusedAggregation_fansOutResultsPerRequest() {
+        for (long[] timeAndValue : new long[][] {{5, 5}, {15, 14}, {16, 16}}) {
+            mDb.execSQL(
+                    "INSERT INTO " + TABLE_NAME + " VALUES (?, 0, ?, NULL)",
+                    new Object[] {timeAndValue[0], timeAndValue[1]});
+        }
+        AggregateTableRequest avgRequest = createRequest(HeartRateRecord.BPM_AVG);
+        AggregateTableRequest countRequest =
+                createRequest(HeartRateRecord.HEART_MEASUREMENTS_COUNT);
+        for (AggregateTableRequest request : List.of(avgRequest, countRequest)) {
+            setGroupByDuration(request, /* endTime= */ 20);
+        }
+        assertThat(avgRequest.canBeFused()).isTrue();
+        assertThat(countRequest.canBeFused()).isTrue();
+        assertThat(avgRequest.getFusionKey()).isEqualTo(countRequest.getFusionKey());
+
+        List<Object> bindArgs = new ArrayList<>();
+        String command =
+                AggregateTableRequest.getFusedAggregationCommand(
+                        List.of(avgRequest, countRequest), bindArgs);
+        try (Cursor cursor = StorageUtils.rawQuery(mDb, command, bindArgs)) {
+            AggregateTableRequest.onFusedResultsFetched(List.of(avgRequest, countRequest), cursor);
+        }
+
+        assertThat(getLongResult(avgRequest.getAggregateResults().get(1))).isEqualTo(15L);
+        assertThat(getLongResult(avgRequest.getAggregateResults().get(0))).isEqualTo(5L);
+        assertThat(getLongResult(countRequest.getAggregateResults().get(1))).isEqualTo(2L);
+    }
+
+    @Test
+    public void testMinMaxAggregation_notFused_zoneOffsetOfMinMaxRecord() {
+        mDb.execSQL(
+                "CREATE TABLE zone_offset_table (time INTEGER, start_zone_offset INTEGER,"
+                        + " beats_per_minute INTEGER, app_info_id INTEGER)");
+        // Time, zone offset in seconds and beats per minute.
+        for (long[] row : new long[][] {{1, 3600, 60}, {2, 7200, 80}, {3, 0, 70}}) {
+            mDb.execSQL(
+                    "INSERT INTO zone_offset_table VALUES (?, ?, ?, NULL)",
+                    new Object[] {row[0], row[1], row[2]});
+        }
+        AggregateTableRequest maxRequest =
+                createRequest("zone_offset_table", "start_zone_offset", HeartRateRecord.BPM_MAX);
+        AggregateTableRequest minRequest =
+                createRequest("zone_offset_table", "start_zone_offset", HeartRateRecord.BPM_MIN);
+        AggregateTableRequest avgRequest =
+                createRequest("zone_offset_table", "start_zone_offset", HeartRateRecord.BPM_AVG);
+        for (AggregateTableRequest request : List.of(maxRequest, minRequest, avgRequest)) {
+            setGroupByDuration(request, /* endTime= */ 10);
+        }
+
+        // Fused with other aggregations, the zone offset could come from any row.
+        assertThat(maxRequest.canBeFused()).isFalse();
+        assertThat(minRequest.canBeFused()).isFalse();
+        assertThat(avgRequest.canBeFused()).isTrue();
+        for (AggregateTableRequest request : List.of(maxRequest, minRequest)) {
+            List<Object> bindArgs = new ArrayList<>();
+            try (Cursor cursor =
+                            StorageUtils.rawQuery(
+                                    mDb, request.getAggregationCommand(bindArgs), bindArgs);
+                    Cursor metaDataCursor = new MatrixCursor(new String[] {"app_info_id"})) {
+                request.onResultsFetched(cursor, metaDataCursor);
+            }
+        }
+
+        AggregateResult<?> max = maxRequest.getAggregateResults().get(0);
+        assertThat(getLongResult(max)).isEqualTo(80L);
+        assertThat(max.getZoneOffset()).isEqualTo(ZoneOffset.ofHours(2));
+        AggregateResult<?> min = minRequest.getAggregateResults().get(0);
+        assertThat(getLongResult(min)).isEqualTo(60L);
+        assertThat(min.getZoneOffset()).isEqualTo(ZoneOffset.ofHours(1));
+    }
+
+    private static void setGroupByDuration(AggregateTableRequest request, long endTime) {
+        request.setTimeFilter(0, endTime);
+        request.setGroupBy(
+                TIME_COLUMN_NAME,
+                /* period= */ null,
+                Duration.ofMillis(10),
+                new TimeInstantRangeFilter.Builder()
+                        .setStartTime(Instant.ofEpochMilli(0))
+                        .setEndTime(Instant.ofEpochMilli(endTime))
+                        .build());
+    }
+
+    private static long getLongResult(AggregateResult<?> result) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            result.putToParcel(parcel);
+            parcel.setDataPosition(0);
+            return parcel.readLong();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private AggregateTableRequest createRequest() {
+        return createRequest(HeartRateRecord.BPM_MAX);
+    }
+
+    private AggregateTableRequest createRequest(AggregationType<?> aggregationType) {
+        return createRequest(TABLE_NAME, OFFSET_COLUMN_NAME, aggregationType);
+    }
+
+    private AggregateTableRequest createRequest(
+            String tableName, String offsetColumnName, AggregationType<?> aggregationType) {
+        AggregateParams params =
+                new AggregateParams(tableName, List.of(VALUE_COLUMN_NAME))
+                        .setTimeColumnName(TIME_COLUMN_NAME)
+                        .setOffsetColumnToFetch(offsetColumnName);
+        return new AggregateTableRequest(
+                params,
+                aggregationType,
+                new HeartRateRecordHelper(),
+                /* useLocalTime= */ false);
+    }
+
+    private void insertValues(long... times) {
+        for (long time : times) {
+            mDb.execSQL(
+                    "INSERT INTO " + TABLE_NAME + " VALUES (?, 0, ?, 1)",
+                    new Object[] {time, time});
+        }
+    }
+
+    private Map<Integer, Long> queryMaxPerGroup(String command, List<Object> bindArgs) {
+        Map<Integer, Long> result = new HashMap<>();
+        try (Cursor cursor = StorageUtils.rawQuery(mDb, command, bindArgs)) {
+            while (cursor.moveToNext()) {
+                result.put(
+                        StorageUtils.getCursorInt(cursor, "category"),
+                        StorageUtils.getCursorLong(cursor, VALUE_COLUMN_NAME));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.utils;
+
+import static android.health.connect.Constants.DEFAULT_LONG;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+public class PageTokenUtilsTest {
+    @Test
+    public void testStartTimeToken_roundTrip() {
+        long ascending = PageTokenUtils.ofStartTime(1234, /* isAscending= */ true);
+        long descending = PageTokenUtils.ofStartTime(1234, /* isAscending= */ false);
+
+        assertThat(PageTokenUtils.isRowIdToken(ascending)).isFalse();
+        assertThat(PageTokenUtils.isAscending(ascending)).isTrue();
+        assertThat(PageTokenUtils.getStartTime(ascending)).isEqualTo(1234);
+        assertThat(PageTokenUtils.isRowIdToken(descending)).isFalse();
+        assertThat(PageTokenUtils.isAscending(descending)).isFalse();
+        assertThat(PageTokenUtils.getStartTime(descending)).isEqualTo(1234);
+    }
+
+    @Test
+    public void testStartTimeToken_sameAsLegacyToken() {
+        // Tokens issued before row id tokens existed are startTime * 2, plus 1 if descending.
+        assertThat(PageTokenUtils.ofStartTime(1234, /* isAscending= */ true)).isEqualTo(2468);
+        assertThat(PageTokenUtils.ofStartTime(1234, /* isAscending= */ false)).isEqualTo(2469);
+        assertThat(PageTokenUtils.getStartTime(2469)).isEqualTo(1234);
+    }
+
+    @Test
+    public void testStartTimeToken_negativeStartTime_throws() {
+        // -1 * 2 would be read as a row id token.
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> PageTokenUtils.ofStartTime(-1, /* isAscending= */ true));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> PageTokenUtils.ofStartTime(-1, /* isAscending= */ false));
+    }
+
+    @Test
+    public void testRowIdToken_roundTrip() {
+        for (long rowId : new long[] {0, 1, 2, 1L << 40}) {
+            long ascending = PageTokenUtils.ofRowId(rowId, /* isAscending= */ true);
+            long descending = PageTokenUtils.ofRowId(rowId, /* isAscending= */ false);
+
+            assertThat(ascending).isNotEqualTo(DEFAULT_LONG);
+            assertThat(PageTokenUtils.isRowIdToken(ascending)).isTrue();
+            assertThat(PageTokenUtils.isAscending(ascending)).isTrue();
+            assertThat(PageTokenUtils.getRowId(ascending)).isEqualTo(rowId);
+            assertThat(descending).isNotEqualTo(DEFAULT_LONG);
+            assertThat(PageTokenUtils.isRowIdToken(descending)).isTrue();
+            assertThat(PageTokenUtils.isAscending(descending)).isFalse();
+            assertThat(PageTokenUtils.getRowId(descending)).isEqualTo(rowId);
+        }
+    }
+
+    @Test
+    public void testRowIdToken_parityMatchesRequestOrder() {
+        // ReadRecordsRequestUsingFilters reads the order of a request from pageToken % 2 == 0.
+        assertThat(PageTokenUtils.ofRowId(7, /* isAscending= */ true) % 2 == 0).isTrue();
+        assertThat(PageTokenUtils.ofRowId(7, /* isAscending= */ false) % 2 == 0).isFalse();
+    }
+
+    @Test
+    public void testDefaultToken_isNotRowIdToken() {
+        assertThat(PageTokenUtils.isRowIdToken(DEFAULT_LONG)).isFalse();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class WhereClausesTest {
+    @Test
+    public void testGet_withoutBindArgs_inlinesValues() {
+        WhereClauses whereClauses =
+                new WhereClauses()
+                        .addWhereBetweenClause("time", 10, 20)
+                        .addWhereInLongsClause("app_info_id", List.of(1L, 2L))
+                        .addWhereEqualsClause("client_id", "abc");
+
+        assertThat(whereClauses.get(/* withWhereKeyword= */ true))
+                .isEqualTo(
+                        " WHERE time BETWEEN 10 AND 20 AND app_info_id IN (1, 2) AND client_id ="
+                                + " 'abc'");
+    }
+
+    @Test
+    public void testGet_withBindArgs_usesPlaceholders() {
+        List<Object> bindArgs = new ArrayList<>();
+        WhereClauses whereClauses =
+                new WhereClauses()
+                        .addWhereBetweenClause("time", 10, 20)
+                        .addWhereEqualsClause("client_id", "abc");
+
+        assertThat(whereClauses.get(/* withWhereKeyword= */ false, bindArgs))
+                .isEqualTo("time BETWEEN ? AND ? AND client_id = ?");
+        assertThat(bindArgs).containsExactly(10L, 20L, "abc").inOrder();
+    }
+
+    @Test
+    public void testGet_inClauseWithBindArgs_padsToPowerOfTwo() {
+        List<Object> bindArgs = new ArrayList<>();
+        WhereClauses whereClauses =
+                new WhereClauses().addWhereInLongsClause("app_info_id", List.of(1L, 2L, 3L));
+
+        assertThat(whereClauses.get(/* withWhereKeyword= */ false, bindArgs))
+                .isEqualTo("app_info_id IN (?, ?, ?, ?)");
+        assertThat(bindArgs).containsExactly(1L, 2L, 3L, 3L).inOrder();
+    }
+
+    @Test
+    public void testGet_hexLiterals_boundAsBlobs() {
+        UUID uuid = UUID.randomUUID();
+        List<Object> bindArgs = new ArrayList<>();
+        WhereClauses whereClauses =
+                new WhereClauses()
+                        .addWhereInClauseWithoutQuotes(
+                                "uuid", List.of(StorageUtils.getHexString(uuid)));
+
+        assertThat(whereClauses.get(/* withWhereKeyword= */ false, bindArgs))
+                .isEqualTo("uuid IN (?)");
+        assertThat(bindArgs).hasSize(1);
+        assertThat((byte[]) bindArgs.get(0)).isEqualTo(StorageUtils.convertUUIDToBytes(uuid));
+    }
+
+    @Test
+    public void testGet_uuidsClause_inlinesHexLiterals() {
+        UUID uuid = UUID.randomUUID();
+        WhereClauses whereClauses =
+                new WhereClauses().addWhereInUuidsClause("uuid", List.of(uuid));
+
+        assertThat(whereClauses.get(/* withWhereKeyword= */ false))
+                .isEqualTo("uuid IN (" + StorageUtils.getHexString(uuid) + ")");
+    }
+
+    @Test
+    public void testGetHexString() {
+        assertThat(StorageUtils.getHexString(new byte[] {0, 15, (byte) 0xab, (byte) 0xff}))
+                .isEqualTo("x'000fabff'");
+    }
+}